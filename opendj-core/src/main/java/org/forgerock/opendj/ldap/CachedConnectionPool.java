@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap;
 
@@ -22,9 +22,13 @@ import static org.forgerock.util.promise.Promises.*;
 import static com.forgerock.opendj.ldap.CoreMessages.*;
 import static com.forgerock.opendj.util.StaticUtils.*;
 
+import java.lang.ref.WeakReference;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -32,6 +36,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -67,6 +72,13 @@ import com.forgerock.opendj.util.ReferenceCountedObject;
  * A connection pool implementation which maintains a cache of pooled
  * connections with a configurable core pool size, maximum size, and expiration
  * policy.
+ * <p>
+ * The pool does not use locks when acquiring or releasing connections: idle
+ * connections are kept in a lock-free stack so that the most recently used
+ * connections are reused first and the least recently used ones expire, and
+ * connection requests which cannot be satisfied immediately wait in a
+ * lock-free FIFO queue. Optionally, each thread reuses the last connection it
+ * released if it is still idle, in order to improve locality.
  */
 final class CachedConnectionPool implements ConnectionPool {
 
@@ -81,6 +93,7 @@ final class CachedConnectionPool implements ConnectionPool {
                     "Connection attempt succeeded:  availableConnections=%d, maxPoolSize=%d",
                      currentPoolSize(), maxPoolSize));
             pendingConnectionAttempts.decrementAndGet();
+            statistics.connectionCreated();
             publishConnection(connection);
         }
     }
@@ -111,14 +124,9 @@ final class CachedConnectionPool implements ConnectionPool {
              * attempts succeed, which is unlikely (if one fails, then they are
              * all likely to fail).
              */
-            final List<QueueElement> waitingPromises = new LinkedList<>();
-            synchronized (queue) {
-                while (hasWaitingPromises()) {
-                    waitingPromises.add(queue.removeFirst());
-                }
-            }
-            for (QueueElement waitingPromise : waitingPromises) {
-                waitingPromise.getWaitingPromise().handleException(exception);
+            for (WaitingRequest waitingRequest = pollWaitingRequest(); waitingRequest != null;
+                    waitingRequest = pollWaitingRequest()) {
+                waitingRequest.fail(exception);
             }
         }
     }
@@ -262,7 +270,10 @@ final class CachedConnectionPool implements ConnectionPool {
 
             // Don't put invalid connections back in the pool.
             if (connection.isValid()) {
-                publishConnection(connection);
+                final IdleConnection idleConnection = publishConnection(connection);
+                if (idleConnection != null && lastReleasedConnection != null) {
+                    lastReleasedConnection.set(new WeakReference<>(idleConnection));
+                }
             } else {
                 /*
                  * The connection may have been disconnected by the remote
@@ -272,9 +283,8 @@ final class CachedConnectionPool implements ConnectionPool {
                  * availableConnections.
                  */
                 connection.close();
-                pendingConnectionAttempts.incrementAndGet();
-                factory.getConnectionAsync().thenOnResult(connectionResultHandler)
-                                            .thenOnException(connectionFailureHandler);
+                statistics.connectionClosed();
+                createConnection();
 
                 logger.debug(LocalizableMessage.raw(
                         "Connection no longer valid: availableConnections=%d, maxPoolSize=%d",
@@ -570,23 +580,24 @@ final class CachedConnectionPool implements ConnectionPool {
     private final class PurgeIdleConnectionsTask implements Runnable {
         @Override
         public void run() {
-            final List<Connection> idleConnections;
-            synchronized (queue) {
-                if (isClosed) {
-                    return;
-                }
+            if (isClosed.get()) {
+                return;
+            }
 
-                /*
-                 * Obtain a list of expired connections but don't close them yet
-                 * since we don't want to hold the lock too long.
-                 */
-                idleConnections = new LinkedList<>();
-                final long timeoutMillis = timeService.now() - idleTimeoutMillis;
-                int nonCoreConnectionCount = currentPoolSize() - corePoolSize;
-                for (QueueElement holder = queue.peek(); nonCoreConnectionCount > 0
-                        && isTimedOutQueuedConnection(holder, timeoutMillis); holder = queue.peek()) {
-                    idleConnections.add(holder.getWaitingConnection());
-                    queue.poll();
+            /*
+             * Least recently used connections are at the bottom of the stack.
+             * Claim the expired ones but don't close them until the whole
+             * stack has been scanned.
+             */
+            final List<Connection> idleConnections = new LinkedList<>();
+            final long timeoutMillis = timeService.now() - idleTimeoutMillis;
+            int nonCoreConnectionCount = currentPoolSize() - corePoolSize;
+            for (Iterator<IdleConnection> i = idleStack.descendingIterator(); nonCoreConnectionCount > 0
+                    && i.hasNext();) {
+                final IdleConnection idleConnection = i.next();
+                if (idleConnection.hasTimedOut(timeoutMillis) && idleConnection.claim()) {
+                    i.remove();
+                    idleConnections.add(idleConnection.connection);
                     availableConnections.release();
                     nonCoreConnectionCount--;
                 }
@@ -599,13 +610,10 @@ final class CachedConnectionPool implements ConnectionPool {
                         idleConnections.size(), currentPoolSize(), maxPoolSize));
                 for (final Connection connection : idleConnections) {
                     connection.close();
+                    statistics.connectionClosed();
                 }
             }
         }
-
-        private boolean isTimedOutQueuedConnection(final QueueElement holder, final long timeoutMillis) {
-            return holder != null && !holder.isWaitingPromise() && holder.hasTimedOut(timeoutMillis);
-        }
     }
 
     private final class DebugEnabledPooledConnection extends PooledConnection {
@@ -626,55 +634,220 @@ final class CachedConnectionPool implements ConnectionPool {
     }
 
     /**
-     * A queue element is either a pending connection request promise awaiting an
-     * {@code Connection} or it is an unused {@code Connection} awaiting a
-     * connection request.
+     * An unused connection awaiting a connection request. An idle connection
+     * must be claimed before being used, because it may be reached both from
+     * the idle stack and from the thread which released it.
      */
-    private static final class QueueElement {
+    private final class IdleConnection {
+        private final Connection connection;
         private final long timestampMillis;
-        private final Object value;
-        private final StackTraceElement[] stack;
+        private final AtomicBoolean isClaimed = new AtomicBoolean();
 
-        QueueElement(final Connection connection, final long timestampMillis) {
-            this.value = connection;
+        private IdleConnection(final Connection connection, final long timestampMillis) {
+            this.connection = connection;
             this.timestampMillis = timestampMillis;
-            this.stack = null;
         }
 
-        QueueElement(final long timestampMillis, final StackTraceElement[] stack) {
-            this.value = PromiseImpl.create();
-            this.timestampMillis = timestampMillis;
+        @Override
+        public String toString() {
+            return String.valueOf(connection);
+        }
+
+        /** Returns {@code true} if the caller now owns the connection. */
+        private boolean claim() {
+            if (isClaimed.compareAndSet(false, true)) {
+                idleConnectionCount.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean hasTimedOut(final long timeLimitMillis) {
+            return timestampMillis < timeLimitMillis;
+        }
+    }
+
+    /** A pending connection request promise awaiting a {@code Connection}. */
+    private final class WaitingRequest implements Runnable {
+        private final PromiseImpl<Connection, LdapException> promise = PromiseImpl.create();
+        private final long startTimeNanos;
+        private final StackTraceElement[] stack;
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        private WaitingRequest(final long startTimeNanos, final StackTraceElement[] stack) {
+            this.startTimeNanos = startTimeNanos;
             this.stack = stack;
         }
 
         @Override
         public String toString() {
-            return String.valueOf(value);
+            return String.valueOf(promise);
+        }
+
+        /** Handles the expiry of the maximum wait time. */
+        @Override
+        public void run() {
+            final LdapException e = newLdapException(ResultCode.CLIENT_SIDE_TIMEOUT,
+                    ERR_CONNECTION_POOL_WAIT_TIMEOUT.get(CachedConnectionPool.this, maxWaitTimeMillis).toString());
+            if (promise.tryHandleException(e)) {
+                if (waitingRequests.remove(this)) {
+                    waitingRequestCount.decrementAndGet();
+                }
+                statistics.requestTimedOut(System.nanoTime() - startTimeNanos);
+                logger.debug(LocalizableMessage.raw(
+                        "Connection request timed out: availableConnections=%d, maxPoolSize=%d",
+                        currentPoolSize(), maxPoolSize, e));
+            }
         }
 
-        StackTraceElement[] getStackTrace() {
-            return stack;
+        /** Returns {@code false} if this request has already been completed, e.g. because it timed out. */
+        private boolean complete(final Connection connection) {
+            if (promise.isDone()) {
+                return false;
+            }
+            final PooledConnection pooledConnection = newPooledConnection(connection, stack);
+            if (!promise.tryHandleResult(pooledConnection)) {
+                // Do not let the discarded pooled connection be reported as leaked.
+                pooledConnection.isClosed.set(true);
+                return false;
+            }
+            cancelTimeout();
+            statistics.connectionAcquired(System.nanoTime() - startTimeNanos);
+            return true;
         }
 
-        Connection getWaitingConnection() {
-            if (value instanceof Connection) {
-                return (Connection) value;
-            } else {
-                throw new IllegalStateException();
+        private void fail(final LdapException e) {
+            if (promise.tryHandleException(e)) {
+                cancelTimeout();
             }
         }
 
-        @SuppressWarnings("unchecked")
-        PromiseImpl<Connection, LdapException> getWaitingPromise() {
-            return (PromiseImpl<Connection, LdapException>) value;
+        private void scheduleTimeout() {
+            timeoutFuture = scheduler.get().schedule(this, maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+            if (promise.isDone()) {
+                // The request was completed while the timeout was being scheduled.
+                cancelTimeout();
+            }
         }
 
-        boolean hasTimedOut(final long timeLimitMillis) {
-            return timestampMillis < timeLimitMillis;
+        private void cancelTimeout() {
+            final ScheduledFuture<?> future = timeoutFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /** Maintains the statistics of this pool and notifies the event listener. */
+    private final class Statistics implements ConnectionPoolStatistics {
+        private final AtomicLong acquiredConnections = new AtomicLong();
+        private final AtomicLong totalAcquireTimeNanos = new AtomicLong();
+        private final AtomicLong waitedRequests = new AtomicLong();
+        private final AtomicLong timedOutRequests = new AtomicLong();
+        private final AtomicLong createdConnections = new AtomicLong();
+        private final AtomicLong closedConnections = new AtomicLong();
+
+        @Override
+        public int getActiveConnections() {
+            return Math.max(0, currentPoolSize() - getIdleConnections() - getPendingConnections());
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return idleConnectionCount.get();
+        }
+
+        @Override
+        public int getPendingConnections() {
+            return pendingConnectionAttempts.get();
+        }
+
+        @Override
+        public int getWaitingRequests() {
+            return waitingRequestCount.get();
+        }
+
+        @Override
+        public long getAcquiredConnections() {
+            return acquiredConnections.get();
+        }
+
+        @Override
+        public long getWaitedRequests() {
+            return waitedRequests.get();
+        }
+
+        @Override
+        public long getTimedOutRequests() {
+            return timedOutRequests.get();
+        }
+
+        @Override
+        public long getCreatedConnections() {
+            return createdConnections.get();
+        }
+
+        @Override
+        public long getClosedConnections() {
+            return closedConnections.get();
+        }
+
+        @Override
+        public long getAverageAcquireTime(final TimeUnit unit) {
+            final long acquired = acquiredConnections.get();
+            return acquired > 0 ? unit.convert(totalAcquireTimeNanos.get() / acquired, TimeUnit.NANOSECONDS) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return CachedConnectionPool.this.toString();
+        }
+
+        private void connectionAcquired(final long acquireTimeNanos) {
+            acquiredConnections.incrementAndGet();
+            totalAcquireTimeNanos.addAndGet(acquireTimeNanos);
+            try {
+                listener.handleConnectionAcquired(this, acquireTimeNanos);
+            } catch (RuntimeException e) {
+                handleListenerException(e);
+            }
+        }
+
+        private void requestWaited() {
+            waitedRequests.incrementAndGet();
+        }
+
+        private void requestTimedOut(final long waitTimeNanos) {
+            timedOutRequests.incrementAndGet();
+            try {
+                listener.handleConnectionRequestTimedOut(this, waitTimeNanos);
+            } catch (RuntimeException e) {
+                handleListenerException(e);
+            }
         }
 
-        boolean isWaitingPromise() {
-            return value instanceof PromiseImpl;
+        private void connectionCreated() {
+            createdConnections.incrementAndGet();
+            try {
+                listener.handleConnectionCreated(this);
+            } catch (RuntimeException e) {
+                handleListenerException(e);
+            }
+        }
+
+        private void connectionClosed() {
+            closedConnections.incrementAndGet();
+            try {
+                listener.handleConnectionClosed(this);
+            } catch (RuntimeException e) {
+                handleListenerException(e);
+            }
+        }
+
+        private void handleListenerException(final RuntimeException e) {
+            // TODO: I18N
+            logger.error(LocalizableMessage.raw(
+                    "A run-time error occurred while processing a connection pool event", e));
         }
     }
 
@@ -691,12 +864,36 @@ final class CachedConnectionPool implements ConnectionPool {
     private final ExceptionHandler<LdapException> connectionFailureHandler = new ConnectionFailureHandler();
     private final int corePoolSize;
     private final ConnectionFactory factory;
-    private boolean isClosed;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
     private final ScheduledFuture<?> idleTimeoutFuture;
     private final long idleTimeoutMillis;
     private final int maxPoolSize;
-    private final LinkedList<QueueElement> queue = new LinkedList<>();
+    private final long maxWaitTimeMillis;
     private final ReferenceCountedObject<ScheduledExecutorService>.Reference scheduler;
+    private final ConnectionPoolEventListener listener;
+    private final Statistics statistics = new Statistics();
+
+    /** The idle connections, most recently released first. */
+    private final ConcurrentLinkedDeque<IdleConnection> idleStack = new ConcurrentLinkedDeque<>();
+
+    /**
+     * The number of idle connections which have not been claimed yet. Claimed
+     * connections may briefly remain in the idle stack.
+     */
+    private final AtomicInteger idleConnectionCount = new AtomicInteger();
+
+    /** The connection requests waiting for a connection, oldest first. */
+    private final ConcurrentLinkedQueue<WaitingRequest> waitingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waitingRequestCount = new AtomicInteger();
+
+    /**
+     * The last connection released by each thread, or {@code null} if thread
+     * affinity is disabled. The connection is only weakly referenced: the
+     * values of a thread local live as long as the thread, and an idle
+     * connection references this pool, which would otherwise remain reachable
+     * from every thread that used it long after it has been closed.
+     */
+    private final ThreadLocal<WeakReference<IdleConnection>> lastReleasedConnection;
 
     /**
      * The number of new connections which are in the process of being
@@ -707,28 +904,39 @@ final class CachedConnectionPool implements ConnectionPool {
     CachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
             final int maximumPoolSize, final long idleTimeout, final TimeUnit unit,
             final ScheduledExecutorService scheduler) {
-        Reject.ifNull(factory);
+        this(factory, corePoolSize, maximumPoolSize, idleTimeout, unit, scheduler, 0, false,
+                ConnectionPoolEventListener.NO_OP);
+    }
+
+    CachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
+            final int maximumPoolSize, final long idleTimeout, final TimeUnit unit,
+            final ScheduledExecutorService scheduler, final long maxWaitTimeMillis,
+            final boolean threadAffinity, final ConnectionPoolEventListener listener) {
+        Reject.ifNull(factory, listener);
         Reject.ifFalse(corePoolSize >= 0, "corePoolSize < 0");
         Reject.ifFalse(maximumPoolSize > 0, "maxPoolSize <= 0");
         Reject.ifFalse(corePoolSize <= maximumPoolSize, "corePoolSize > maxPoolSize");
         Reject.ifFalse(idleTimeout >= 0, "idleTimeout < 0");
         Reject.ifFalse(idleTimeout == 0 || unit != null, "time unit is null");
+        Reject.ifFalse(maxWaitTimeMillis >= 0, "maxWaitTime < 0");
 
         this.factory = factory;
         this.corePoolSize = corePoolSize;
         this.maxPoolSize = maximumPoolSize;
         this.availableConnections = new Semaphore(maximumPoolSize);
+        this.maxWaitTimeMillis = maxWaitTimeMillis;
+        this.lastReleasedConnection = threadAffinity ? new ThreadLocal<WeakReference<IdleConnection>>() : null;
+        this.listener = listener;
 
-        if (corePoolSize < maximumPoolSize && idleTimeout > 0) {
-            // Dynamic pool.
-            this.scheduler = DEFAULT_SCHEDULER.acquireIfNull(scheduler);
+        final boolean isDynamicPool = corePoolSize < maximumPoolSize && idleTimeout > 0;
+        this.scheduler = isDynamicPool || maxWaitTimeMillis > 0 ? DEFAULT_SCHEDULER.acquireIfNull(scheduler) : null;
+        if (isDynamicPool) {
             this.idleTimeoutMillis = unit.toMillis(idleTimeout);
             this.idleTimeoutFuture =
                     this.scheduler.get().scheduleWithFixedDelay(new PurgeIdleConnectionsTask(),
                             idleTimeout, idleTimeout, unit);
         } else {
             // Fixed pool.
-            this.scheduler = null;
             this.idleTimeoutMillis = 0;
             this.idleTimeoutFuture = null;
         }
@@ -736,23 +944,8 @@ final class CachedConnectionPool implements ConnectionPool {
 
     @Override
     public void close() {
-        final LinkedList<Connection> idleConnections;
-        synchronized (queue) {
-            if (isClosed) {
-                return;
-            }
-            isClosed = true;
-
-            /*
-             * Remove any connections which are waiting in the queue as these
-             * can be closed immediately.
-             */
-            idleConnections = new LinkedList<>();
-            while (hasWaitingConnections()) {
-                final QueueElement holder = queue.removeFirst();
-                idleConnections.add(holder.getWaitingConnection());
-                availableConnections.release();
-            }
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
         }
 
         logger.debug(LocalizableMessage.raw(
@@ -761,14 +954,19 @@ final class CachedConnectionPool implements ConnectionPool {
 
         if (idleTimeoutFuture != null) {
             idleTimeoutFuture.cancel(false);
+        }
+        if (scheduler != null) {
             scheduler.release();
         }
 
-        // Close all idle connections.
-        for (final Connection connection : idleConnections) {
-            connection.close();
+        if (lastReleasedConnection != null) {
+            // The entries of the other threads are only weak references.
+            lastReleasedConnection.remove();
         }
 
+        // Close all idle connections.
+        closeIdleConnections();
+
         // Close the underlying factory.
         factory.close();
     }
@@ -784,63 +982,55 @@ final class CachedConnectionPool implements ConnectionPool {
 
     @Override
     public Promise<Connection, LdapException> getConnectionAsync() {
-        // Loop while iterating through stale connections (see OPENDJ-590).
-        for (;;) {
-            final QueueElement holder;
-            synchronized (queue) {
-                if (isClosed) {
-                    throw new IllegalStateException("CachedConnectionPool is already closed");
-                } else if (hasWaitingConnections()) {
-                    holder = queue.removeFirst();
-                } else {
-                    holder = new QueueElement(timeService.now(), getStackTraceIfDebugEnabled());
-                    queue.add(holder);
-                }
-            }
-
-            if (holder.isWaitingPromise()) {
-                // Grow the pool if needed.
-                final Promise<Connection, LdapException> promise = holder.getWaitingPromise();
-                if (!promise.isDone() && availableConnections.tryAcquire()) {
-                    pendingConnectionAttempts.incrementAndGet();
-                    factory.getConnectionAsync().thenOnResult(connectionResultHandler)
-                                                .thenOnException(connectionFailureHandler);
-                }
-                return promise;
-            }
+        if (isClosed.get()) {
+            throw new IllegalStateException("CachedConnectionPool is already closed");
+        }
+        final long startTimeNanos = System.nanoTime();
 
-            // There was a completed connection attempt.
-            final Connection connection = holder.getWaitingConnection();
+        // Loop while iterating through stale connections (see OPENDJ-590).
+        for (IdleConnection idleConnection = pollIdleConnection(); idleConnection != null;
+                idleConnection = pollIdleConnection()) {
+            final Connection connection = idleConnection.connection;
             if (connection.isValid()) {
                 final Connection pooledConnection = newPooledConnection(connection, getStackTraceIfDebugEnabled());
+                statistics.connectionAcquired(System.nanoTime() - startTimeNanos);
                 return newResultPromise(pooledConnection);
-            } else {
-                // Close the stale connection and try again.
-                connection.close();
-                availableConnections.release();
-
-                logger.debug(LocalizableMessage.raw("Connection no longer valid: availableConnections=%d, poolSize=%d",
-                        currentPoolSize(), maxPoolSize));
             }
+            closeStaleConnection(connection);
         }
+
+        // No idle connections, so wait for one to be released or created.
+        final WaitingRequest waitingRequest = new WaitingRequest(startTimeNanos, getStackTraceIfDebugEnabled());
+        waitingRequests.add(waitingRequest);
+        waitingRequestCount.incrementAndGet();
+        statistics.requestWaited();
+
+        // Grow the pool if needed.
+        if (availableConnections.tryAcquire()) {
+            createConnection();
+        }
+
+        // A connection may have been released after the idle stack was found to be empty.
+        dispatchIdleConnections();
+
+        if (maxWaitTimeMillis > 0 && !waitingRequest.promise.isDone()) {
+            waitingRequest.scheduleTimeout();
+        }
+        return waitingRequest.promise;
+    }
+
+    /** Returns the statistics of this connection pool. */
+    ConnectionPoolStatistics getStatistics() {
+        return statistics;
     }
 
     @Override
     public String toString() {
         final int size = currentPoolSize();
         final int pending = pendingConnectionAttempts.get();
-        int in = 0;
-        int blocked = 0;
-        synchronized (queue) {
-            for (QueueElement qe : queue) {
-                if (qe.isWaitingPromise()) {
-                    blocked++;
-                } else {
-                    in++;
-                }
-            }
-        }
-        final int out = size - in - pending;
+        final int in = idleConnectionCount.get();
+        final int blocked = waitingRequestCount.get();
+        final int out = Math.max(0, size - in - pending);
         return String.format("CachedConnectionPool(size=%d[in:%d + out:%d + "
                 + "pending:%d], maxSize=%d, blocked=%d, factory=%s)", size, in, out, pending,
                 maxPoolSize, blocked, String.valueOf(factory));
@@ -861,56 +1051,157 @@ final class CachedConnectionPool implements ConnectionPool {
         return maxPoolSize - availableConnections.availablePermits();
     }
 
-    private boolean hasWaitingConnections() {
-        return !queue.isEmpty() && !queue.getFirst().isWaitingPromise();
+    /**
+     * Claims an idle connection, preferring the last connection released by
+     * the current thread when thread affinity is enabled.
+     *
+     * @return The claimed idle connection, or {@code null} if there are no
+     *         idle connections.
+     */
+    private IdleConnection pollIdleConnection() {
+        if (lastReleasedConnection != null) {
+            final WeakReference<IdleConnection> lastReleased = lastReleasedConnection.get();
+            if (lastReleased != null) {
+                lastReleasedConnection.remove();
+                final IdleConnection idleConnection = lastReleased.get();
+                if (idleConnection != null && idleConnection.claim()) {
+                    // Usually at the top of the stack, so this is cheap.
+                    idleStack.removeFirstOccurrence(idleConnection);
+                    return idleConnection;
+                }
+            }
+        }
+        for (IdleConnection idleConnection = idleStack.pollFirst(); idleConnection != null;
+                idleConnection = idleStack.pollFirst()) {
+            if (idleConnection.claim()) {
+                return idleConnection;
+            }
+            // Already claimed by the thread which released it.
+        }
+        return null;
+    }
+
+    private IdleConnection pushIdleConnection(final Connection connection, final long timestampMillis) {
+        final IdleConnection idleConnection = new IdleConnection(connection, timestampMillis);
+        idleConnectionCount.incrementAndGet();
+        idleStack.offerFirst(idleConnection);
+        return idleConnection;
     }
 
-    private boolean hasWaitingPromises() {
-        return !queue.isEmpty() && queue.getFirst().isWaitingPromise();
+    private WaitingRequest pollWaitingRequest() {
+        final WaitingRequest waitingRequest = waitingRequests.poll();
+        if (waitingRequest != null) {
+            waitingRequestCount.decrementAndGet();
+        }
+        return waitingRequest;
     }
 
-    private void publishConnection(final Connection connection) {
-        final QueueElement holder;
-        boolean connectionPoolIsClosing = false;
-
-        synchronized (queue) {
-            if (hasWaitingPromises()) {
-                connectionPoolIsClosing = isClosed;
-                holder = queue.removeFirst();
-            } else if (isClosed) {
-                connectionPoolIsClosing = true;
-                holder = null;
-            } else {
-                holder = new QueueElement(connection, timeService.now());
-                queue.add(holder);
+    /**
+     * Hands idle connections over to waiting requests. Both getConnectionAsync()
+     * and publishConnection() call this method after respectively queuing a
+     * request and pushing an idle connection, so a request never waits while a
+     * connection is idle.
+     */
+    private void dispatchIdleConnections() {
+        while (!waitingRequests.isEmpty()) {
+            final IdleConnection idleConnection = pollIdleConnection();
+            if (idleConnection == null) {
                 return;
             }
+            final Connection connection = idleConnection.connection;
+            if (!connection.isValid()) {
+                closeStaleConnection(connection);
+                if (!waitingRequests.isEmpty() && availableConnections.tryAcquire()) {
+                    createConnection();
+                }
+                continue;
+            }
+            WaitingRequest waitingRequest;
+            do {
+                waitingRequest = pollWaitingRequest();
+            } while (waitingRequest != null && !waitingRequest.complete(connection));
+            if (waitingRequest == null) {
+                // All the waiting requests had already completed.
+                pushIdleConnection(connection, idleConnection.timestampMillis);
+            }
+        }
+    }
+
+    private void createConnection() {
+        pendingConnectionAttempts.incrementAndGet();
+        factory.getConnectionAsync().thenOnResult(connectionResultHandler)
+                                    .thenOnException(connectionFailureHandler);
+    }
+
+    private void closeStaleConnection(final Connection connection) {
+        connection.close();
+        availableConnections.release();
+        statistics.connectionClosed();
+
+        logger.debug(LocalizableMessage.raw("Connection no longer valid: availableConnections=%d, poolSize=%d",
+                currentPoolSize(), maxPoolSize));
+    }
+
+    private void closeIdleConnections() {
+        for (IdleConnection idleConnection = pollIdleConnection(); idleConnection != null;
+                idleConnection = pollIdleConnection()) {
+            idleConnection.connection.close();
+            availableConnections.release();
+            statistics.connectionClosed();
         }
+    }
 
-        // There was waiting promise, so complete it.
-        if (connectionPoolIsClosing) {
+    /**
+     * Hands the provided connection over to the oldest waiting request or
+     * makes it idle.
+     *
+     * @return The idle connection, or {@code null} if the connection was
+     *         handed over to a waiting request or closed.
+     */
+    private IdleConnection publishConnection(final Connection connection) {
+        if (isClosed.get()) {
             // The connection will be closed, so decrease the pool size.
             availableConnections.release();
             connection.close();
+            statistics.connectionClosed();
 
             logger.debug(LocalizableMessage.raw(
                     "Closing connection because connection pool is closing: availableConnections=%d, maxPoolSize=%d",
                     currentPoolSize(), maxPoolSize));
 
-            if (holder != null) {
+            final WaitingRequest waitingRequest = pollWaitingRequest();
+            if (waitingRequest != null) {
                 final LdapException e =
                         newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED,
                                 ERR_CONNECTION_POOL_CLOSING.get(toString()).toString());
-                holder.getWaitingPromise().handleException(e);
+                waitingRequest.fail(e);
 
                 logger.debug(LocalizableMessage.raw(
                         "Connection attempt failed: availableConnections=%d, maxPoolSize=%d",
                         currentPoolSize(), maxPoolSize, e));
             }
-        } else {
-            holder.getWaitingPromise().handleResult(
-                    newPooledConnection(connection, holder.getStackTrace()));
+            return null;
+        }
+
+        // Favor fairness: the oldest waiting request gets the connection.
+        for (WaitingRequest waitingRequest = pollWaitingRequest(); waitingRequest != null;
+                waitingRequest = pollWaitingRequest()) {
+            if (waitingRequest.complete(connection)) {
+                return null;
+            }
+        }
+
+        final IdleConnection idleConnection = pushIdleConnection(connection, timeService.now());
+
+        // A request may have been queued after the waiting requests were polled.
+        dispatchIdleConnections();
+
+        // The pool may have been closed after isClosed was checked.
+        if (isClosed.get()) {
+            closeIdleConnections();
+            return null;
         }
+        return idleConnection;
     }
 
     private PooledConnection newPooledConnection(final Connection connection,
@@ -0,0 +1,626 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static com.forgerock.opendj.util.StaticUtils.toLowerCase;
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.responses.Responses.*;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.controls.EntryChangeNotificationResponseControl;
+import org.forgerock.opendj.ldap.controls.PersistentSearchChangeType;
+import org.forgerock.opendj.ldap.controls.PersistentSearchRequestControl;
+import org.forgerock.opendj.ldap.requests.AbandonRequest;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.UnbindRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.util.Function;
+import org.forgerock.util.Options;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A connection factory which caches the results of search requests, including read requests, so that repeated
+ * searches are answered without contacting the Directory Server.
+ * <p>
+ * Cached results are keyed by the normalized base DN, scope, filter and requested attributes of the search. They
+ * expire after a configurable time to live and the least recently used results are evicted once the approximate
+ * size of the cache exceeds its limit. Only successful searches without controls and without search result
+ * references are cached, and connections which have performed a bind bypass the cache since their results may
+ * depend on their authorization identity.
+ * <p>
+ * Updates sent through the connections of this factory invalidate the cached searches whose scope contains the
+ * updated entry. Updates performed by other clients are only detected if invalidation base DNs are configured, in
+ * which case the factory maintains a persistent search per base DN on a dedicated connection and invalidates the
+ * cached searches whose scope contains each changed entry. Results are not cached while the persistent searches are
+ * not established. Since the server does not acknowledge the registration of a persistent search, the changes
+ * performed by other clients just after a subscription is made may be missed, in which case the affected results
+ * remain stale until they expire.
+ */
+final class CachingConnectionFactory implements ConnectionFactory {
+    /** Approximate memory overhead of a cached search, entry, attribute or attribute value, in bytes. */
+    private static final int SEARCH_OVERHEAD = 256;
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int ATTRIBUTE_OVERHEAD = 48;
+    private static final int VALUE_OVERHEAD = 32;
+
+    /** The delay between successive attempts to establish the change subscription. */
+    private static final long SUBSCRIPTION_RETRY_DELAY_MILLIS = 5000;
+
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /** Identifies the searches which return the same results. */
+    private static final class CacheKey {
+        private final DN name;
+        private final SearchScope scope;
+        private final DereferenceAliasesPolicy dereferenceAliasesPolicy;
+        private final int sizeLimit;
+        private final boolean typesOnly;
+        private final String filter;
+        private final List<String> attributes;
+        private final int hashCode;
+
+        private CacheKey(final SearchRequest request) {
+            this.name = request.getName();
+            this.scope = request.getScope();
+            this.dereferenceAliasesPolicy = request.getDereferenceAliasesPolicy();
+            this.sizeLimit = request.getSizeLimit();
+            this.typesOnly = request.isTypesOnly();
+            this.filter = request.getFilter().toString();
+            final TreeSet<String> sortedAttributes = new TreeSet<>();
+            for (final String attribute : request.getAttributes()) {
+                sortedAttributes.add(toLowerCase(attribute));
+            }
+            this.attributes = new ArrayList<>(sortedAttributes);
+            this.hashCode = name.hashCode() * 31 + filter.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return hashCode == other.hashCode
+                    && name.equals(other.name)
+                    && scope.equals(other.scope)
+                    && dereferenceAliasesPolicy.equals(other.dereferenceAliasesPolicy)
+                    && sizeLimit == other.sizeLimit
+                    && typesOnly == other.typesOnly
+                    && filter.equals(other.filter)
+                    && attributes.equals(other.attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + name + ", " + scope + ", " + filter + ", " + attributes + ")";
+        }
+    }
+
+    /** The immutable results of a search. */
+    private static final class CachedSearch {
+        private final List<SearchResultEntry> entries;
+        private final Result result;
+        private final long size;
+        private final long expiresAtMillis;
+
+        private CachedSearch(final List<SearchResultEntry> entries, final Result result, final long size,
+                final long expiresAtMillis) {
+            this.entries = entries;
+            this.result = result;
+            this.size = size;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private LdapPromise<Result> replay(final SearchResultHandler handler) {
+            for (final SearchResultEntry entry : entries) {
+                // Copy the entries so that applications may modify them as they would modify fetched entries.
+                if (!handler.handleEntry(copyOfSearchResultEntry(entry))) {
+                    break;
+                }
+            }
+            return newSuccessfulLdapPromise(copyOfResult(result));
+        }
+    }
+
+    /** Forwards search results to the application while collecting them for the cache. */
+    private final class CachingSearchResultHandler implements SearchResultHandler {
+        private final CacheKey key;
+        private final SearchResultHandler handler;
+        private final long generation;
+        private final List<SearchResultEntry> entries = new ArrayList<>();
+        private long size = SEARCH_OVERHEAD;
+        private boolean isCacheable = true;
+
+        private CachingSearchResultHandler(final CacheKey key, final SearchResultHandler handler,
+                final long generation) {
+            this.key = key;
+            this.handler = handler;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            if (isCacheable) {
+                size += estimateSize(entry);
+                if (size > maxSize) {
+                    isCacheable = false;
+                    entries.clear();
+                } else {
+                    entries.add(unmodifiableSearchResultEntry(copyOfSearchResultEntry(entry)));
+                }
+            }
+            if (!handler.handleEntry(entry)) {
+                // The application has not seen the remaining entries.
+                isCacheable = false;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            isCacheable = false;
+            return handler.handleReference(reference);
+        }
+
+        private void handleResult(final Result result) {
+            if (isCacheable && result.isSuccess()) {
+                put(key, new CachedSearch(entries, unmodifiableResult(copyOfResult(result)), size,
+                        timeService.now() + timeToLiveMillis), generation);
+            }
+        }
+    }
+
+    /** A connection which answers searches from the cache when possible. */
+    private final class CachingConnection extends AbstractAsynchronousConnection {
+        private final Connection connection;
+        /** Set once a bind has been attempted, after which the results may depend on the authorization identity. */
+        private volatile boolean isAuthenticated;
+
+        private CachingConnection(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public LdapPromise<Void> abandonAsync(final AbandonRequest request) {
+            return connection.abandonAsync(request);
+        }
+
+        @Override
+        public LdapPromise<Result> addAsync(final AddRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            return invalidateOnCompletion(request.getName(), connection.addAsync(request, intermediateResponseHandler));
+        }
+
+        @Override
+        public void addConnectionEventListener(final ConnectionEventListener listener) {
+            connection.addConnectionEventListener(listener);
+        }
+
+        @Override
+        public LdapPromise<BindResult> bindAsync(final BindRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            isAuthenticated = true;
+            return connection.bindAsync(request, intermediateResponseHandler);
+        }
+
+        @Override
+        public void close(final UnbindRequest request, final String reason) {
+            connection.close(request, reason);
+        }
+
+        @Override
+        public LdapPromise<CompareResult> compareAsync(final CompareRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            return connection.compareAsync(request, intermediateResponseHandler);
+        }
+
+        @Override
+        public LdapPromise<Result> deleteAsync(final DeleteRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            return invalidateOnCompletion(request.getName(),
+                    connection.deleteAsync(request, intermediateResponseHandler));
+        }
+
+        @Override
+        public <R extends ExtendedResult> LdapPromise<R> extendedRequestAsync(final ExtendedRequest<R> request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            // Extended operations, such as password modify, may update arbitrary entries.
+            return invalidateOnCompletion(null, connection.extendedRequestAsync(request, intermediateResponseHandler));
+        }
+
+        @Override
+        public boolean isClosed() {
+            return connection.isClosed();
+        }
+
+        @Override
+        public boolean isValid() {
+            return connection.isValid();
+        }
+
+        @Override
+        public LdapPromise<Result> modifyAsync(final ModifyRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            return invalidateOnCompletion(request.getName(),
+                    connection.modifyAsync(request, intermediateResponseHandler));
+        }
+
+        @Override
+        public LdapPromise<Result> modifyDNAsync(final ModifyDNRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            // Renaming an entry also renames its subordinates, which are within the scope of any search below its
+            // previous or its new name.
+            final DN name = request.getName();
+            final DN newSuperior = request.getNewSuperior() != null ? request.getNewSuperior() : name.parent();
+            final DN newName = newSuperior != null ? newSuperior.child(request.getNewRDN()) : null;
+            return invalidateOnCompletion(name, connection.modifyDNAsync(request, intermediateResponseHandler))
+                    .thenOnResultOrException(new Runnable() {
+                        @Override
+                        public void run() {
+                            invalidate(newName);
+                        }
+                    });
+        }
+
+        @Override
+        public void removeConnectionEventListener(final ConnectionEventListener listener) {
+            connection.removeConnectionEventListener(listener);
+        }
+
+        @Override
+        public LdapPromise<Result> searchAsync(final SearchRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler) {
+            if (isAuthenticated || !request.getControls().isEmpty() || !isCacheUsable()) {
+                return connection.searchAsync(request, intermediateResponseHandler, entryHandler);
+            }
+            final CacheKey key = new CacheKey(request);
+            final CachedSearch cachedSearch = get(key);
+            if (cachedSearch != null) {
+                return cachedSearch.replay(entryHandler);
+            }
+            final CachingSearchResultHandler cachingHandler =
+                    new CachingSearchResultHandler(key, entryHandler, getGeneration());
+            return connection.searchAsync(request, intermediateResponseHandler, cachingHandler)
+                    .thenOnResult(new ResultHandler<Result>() {
+                        @Override
+                        public void handleResult(final Result result) {
+                            cachingHandler.handleResult(result);
+                        }
+                    });
+        }
+
+        @Override
+        public String toString() {
+            return "CachingConnection(" + connection + ")";
+        }
+    }
+
+    /** The persistent searches which notify this factory of the changes performed by other clients. */
+    private final class ChangeSubscription implements SearchResultHandler {
+        private final Connection connection;
+        /** Guarded by CachingConnectionFactory.this. */
+        private boolean isFailed;
+
+        private ChangeSubscription(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            EntryChangeNotificationResponseControl control = null;
+            try {
+                control = entry.getControl(EntryChangeNotificationResponseControl.DECODER, new DecodeOptions());
+            } catch (final DecodeException e) {
+                logger.traceException(e);
+            }
+            if (control == null) {
+                // The previous name of a renamed entry is unknown.
+                invalidate(null);
+                return true;
+            }
+            invalidate(entry.getName());
+            if (control.getPreviousName() != null) {
+                invalidate(control.getPreviousName());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+
+        /**
+         * Sends the persistent searches. The server only notifies the changes which are performed once it has
+         * registered a persistent search, which happens some time after the request is sent, and no response tells
+         * when. Therefore results cached right after the subscription is established may miss a change performed
+         * concurrently by another client, in which case they remain stale until they expire.
+         */
+        private void subscribe() {
+            for (final DN baseDN : invalidationBaseDNs) {
+                final SearchRequest request = Requests.newSearchRequest(baseDN, SearchScope.WHOLE_SUBTREE,
+                        Filter.objectClassPresent(), "1.1")
+                        .addControl(PersistentSearchRequestControl.newControl(
+                                true, true, true, EnumSet.allOf(PersistentSearchChangeType.class)));
+                connection.searchAsync(request, this).thenOnResultOrException(new ResultHandler<Result>() {
+                    @Override
+                    public void handleResult(final Result result) {
+                        subscriptionFailed(ChangeSubscription.this, result);
+                    }
+                }, new ExceptionHandler<LdapException>() {
+                    @Override
+                    public void handleException(final LdapException exception) {
+                        subscriptionFailed(ChangeSubscription.this, exception.getResult());
+                    }
+                });
+            }
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final long maxSize;
+    private final long timeToLiveMillis;
+    private final List<DN> invalidationBaseDNs;
+
+    /** The cached searches, in least recently used order. Guarded by this. */
+    private final Map<CacheKey, CachedSearch> cache = new LinkedHashMap<>(16, 0.75f, true);
+    /** The approximate size of the cached searches, in bytes. Guarded by this. */
+    private long size;
+    /** Incremented on each invalidation so that searches which were running concurrently are not cached. */
+    private long generation;
+    /** The established change subscription, or {@code null}. Guarded by this. */
+    private ChangeSubscription subscription;
+    /** Guarded by this. */
+    private boolean isSubscribing;
+    /** Guarded by this. */
+    private long nextSubscriptionAttemptMillis;
+    /** Guarded by this. */
+    private boolean isClosed;
+
+    // Package private for testing.
+    TimeService timeService = TimeService.SYSTEM;
+
+    CachingConnectionFactory(final ConnectionFactory factory, final Options options) {
+        this.factory = factory;
+        this.maxSize = options.get(SEARCH_RESULT_CACHE_MAX_SIZE);
+        this.timeToLiveMillis = options.get(SEARCH_RESULT_CACHE_TIME_TO_LIVE).to(TimeUnit.MILLISECONDS);
+        this.invalidationBaseDNs = new ArrayList<>(options.get(SEARCH_RESULT_CACHE_INVALIDATION_BASE_DNS));
+    }
+
+    @Override
+    public void close() {
+        final ChangeSubscription closedSubscription;
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            closedSubscription = subscription;
+            subscription = null;
+        }
+        if (closedSubscription != null) {
+            closedSubscription.connection.close();
+        }
+        invalidate(null);
+        factory.close();
+    }
+
+    @Override
+    public Connection getConnection() throws LdapException {
+        return new CachingConnection(factory.getConnection());
+    }
+
+    @Override
+    public Promise<Connection, LdapException> getConnectionAsync() {
+        return factory.getConnectionAsync().then(new Function<Connection, Connection, LdapException>() {
+            @Override
+            public Connection apply(final Connection connection) {
+                return new CachingConnection(connection);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "CachingConnectionFactory(" + factory + ")";
+    }
+
+    /**
+     * Returns the number of cached searches.
+     *
+     * @return The number of cached searches.
+     */
+    synchronized int getCachedSearchCount() {
+        return cache.size();
+    }
+
+    private synchronized CachedSearch get(final CacheKey key) {
+        final CachedSearch cachedSearch = cache.get(key);
+        if (cachedSearch != null && timeService.now() >= cachedSearch.expiresAtMillis) {
+            cache.remove(key);
+            size -= cachedSearch.size;
+            return null;
+        }
+        return cachedSearch;
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private synchronized void put(final CacheKey key, final CachedSearch cachedSearch, final long searchGeneration) {
+        if (searchGeneration != generation || isClosed) {
+            // The results may predate an update.
+            return;
+        }
+        final CachedSearch previous = cache.put(key, cachedSearch);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += cachedSearch.size;
+        final Iterator<CachedSearch> leastRecentlyUsed = cache.values().iterator();
+        while (size > maxSize && leastRecentlyUsed.hasNext()) {
+            size -= leastRecentlyUsed.next().size;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    /**
+     * Removes the cached searches whose results may have been changed by an update to the named entry.
+     *
+     * @param name
+     *            The name of the updated entry, or {@code null} if all the cached searches should be removed.
+     */
+    private synchronized void invalidate(final DN name) {
+        generation++;
+        if (name == null) {
+            cache.clear();
+            size = 0;
+            return;
+        }
+        for (final Iterator<Map.Entry<CacheKey, CachedSearch>> i = cache.entrySet().iterator(); i.hasNext();) {
+            final Map.Entry<CacheKey, CachedSearch> entry = i.next();
+            final CacheKey key = entry.getKey();
+            if (name.isInScopeOf(key.name, key.scope) || key.name.isSubordinateOrEqualTo(name)) {
+                size -= entry.getValue().size;
+                i.remove();
+            }
+        }
+    }
+
+    private <R> LdapPromise<R> invalidateOnCompletion(final DN name, final LdapPromise<R> promise) {
+        return promise.thenOnResultOrException(new Runnable() {
+            @Override
+            public void run() {
+                invalidate(name);
+            }
+        });
+    }
+
+    /**
+     * Returns {@code true} if searches may be cached, which is the case unless the change subscription is required
+     * but not established. In this case an attempt to establish it is made.
+     */
+    private boolean isCacheUsable() {
+        if (invalidationBaseDNs.isEmpty()) {
+            return true;
+        }
+        synchronized (this) {
+            if (subscription != null) {
+                return true;
+            } else if (isClosed || isSubscribing || timeService.now() < nextSubscriptionAttemptMillis) {
+                return false;
+            }
+            isSubscribing = true;
+        }
+        factory.getConnectionAsync().thenOnResultOrException(new ResultHandler<Connection>() {
+            @Override
+            public void handleResult(final Connection connection) {
+                subscribe(connection);
+            }
+        }, new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException exception) {
+                subscriptionFailed(null, exception.getResult());
+            }
+        });
+        return false;
+    }
+
+    private void subscribe(final Connection connection) {
+        final ChangeSubscription newSubscription = new ChangeSubscription(connection);
+        newSubscription.subscribe();
+        synchronized (this) {
+            isSubscribing = false;
+            if (!isClosed && !newSubscription.isFailed) {
+                subscription = newSubscription;
+                logger.debug(LocalizableMessage.raw("Subscribed to changes below %s in order to invalidate the "
+                        + "searches cached by %s", invalidationBaseDNs, this));
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    private void subscriptionFailed(final ChangeSubscription failedSubscription, final Result result) {
+        synchronized (this) {
+            if (failedSubscription != null) {
+                if (failedSubscription.isFailed) {
+                    return;
+                }
+                failedSubscription.isFailed = true;
+                if (subscription == failedSubscription) {
+                    subscription = null;
+                }
+            }
+            isSubscribing = false;
+            nextSubscriptionAttemptMillis = timeService.now() + SUBSCRIPTION_RETRY_DELAY_MILLIS;
+        }
+        logger.debug(LocalizableMessage.raw("Unable to subscribe to changes below %s, searches will not be cached "
+                + "by %s: %s", invalidationBaseDNs, this, result));
+        // Changes may be missed until the subscription is established again.
+        invalidate(null);
+        if (failedSubscription != null) {
+            failedSubscription.connection.close();
+        }
+    }
+
+    private static long estimateSize(final SearchResultEntry entry) {
+        long size = ENTRY_OVERHEAD + 2 * entry.getName().toString().length();
+        for (final Attribute attribute : entry.getAllAttributes()) {
+            size += ATTRIBUTE_OVERHEAD + 2 * attribute.getAttributeDescriptionAsString().length();
+            for (final ByteString value : attribute) {
+                size += VALUE_OVERHEAD + value.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.EventListener;
+
+/**
+ * An object that registers to be notified of the activity of a connection pool, typically in order to publish
+ * metrics about the pool.
+ * <p>
+ * <b>NOTE:</b> events are delivered by the threads which use the connection pool, sometimes concurrently, so event
+ * listener implementations must be thread safe and should return quickly.
+ *
+ * @see Connections#CONNECTION_POOL_EVENT_LISTENER
+ */
+public interface ConnectionPoolEventListener extends EventListener {
+    /** An event listener implementation which ignores all events. */
+    ConnectionPoolEventListener NO_OP = new ConnectionPoolEventListener() {
+        @Override
+        public void handleConnectionAcquired(final ConnectionPoolStatistics statistics, final long acquireTimeNanos) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionRequestTimedOut(final ConnectionPoolStatistics statistics,
+                final long waitTimeNanos) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionCreated(final ConnectionPoolStatistics statistics) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionClosed(final ConnectionPoolStatistics statistics) {
+            // Do nothing.
+        }
+    };
+
+    /**
+     * Invoked when a connection has been obtained from the connection pool.
+     *
+     * @param statistics
+     *            The statistics of the connection pool.
+     * @param acquireTimeNanos
+     *            The time taken to obtain the connection, in nanoseconds.
+     */
+    void handleConnectionAcquired(ConnectionPoolStatistics statistics, long acquireTimeNanos);
+
+    /**
+     * Invoked when a connection request has failed because no connection became available within the maximum wait
+     * time.
+     *
+     * @param statistics
+     *            The statistics of the connection pool.
+     * @param waitTimeNanos
+     *            The time spent waiting for a connection, in nanoseconds.
+     */
+    void handleConnectionRequestTimedOut(ConnectionPoolStatistics statistics, long waitTimeNanos);
+
+    /**
+     * Invoked when the connection pool has established a new connection.
+     *
+     * @param statistics
+     *            The statistics of the connection pool.
+     */
+    void handleConnectionCreated(ConnectionPoolStatistics statistics);
+
+    /**
+     * Invoked when the connection pool has closed one of its connections because it was stale, idle for too long, or
+     * because the pool was closed.
+     *
+     * @param statistics
+     *            The statistics of the connection pool.
+     */
+    void handleConnectionClosed(ConnectionPoolStatistics statistics);
+}
@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A live view of the state and activity of a connection pool. Gauges, such as the number of idle connections,
+ * reflect the current state of the pool, whereas counters, such as the number of created connections, are
+ * cumulative since the creation of the pool. Values are read without locking, so they may be slightly inconsistent
+ * with each other while the pool is in use.
+ *
+ * @see Connections#getConnectionPoolStatistics(ConnectionPool)
+ * @see ConnectionPoolEventListener
+ */
+public interface ConnectionPoolStatistics {
+    /**
+     * Returns the number of pooled connections which are currently being used by the application.
+     *
+     * @return The number of active connections.
+     */
+    int getActiveConnections();
+
+    /**
+     * Returns the number of pooled connections which are currently available for reuse.
+     *
+     * @return The number of idle connections.
+     */
+    int getIdleConnections();
+
+    /**
+     * Returns the number of connections which are currently being established.
+     *
+     * @return The number of pending connections.
+     */
+    int getPendingConnections();
+
+    /**
+     * Returns the number of connection requests which are currently waiting for a connection.
+     *
+     * @return The number of waiting connection requests.
+     */
+    int getWaitingRequests();
+
+    /**
+     * Returns the number of connections which have been obtained from the pool.
+     *
+     * @return The number of acquired connections.
+     */
+    long getAcquiredConnections();
+
+    /**
+     * Returns the number of connection requests which could not be satisfied immediately using an idle connection.
+     *
+     * @return The number of connection requests which had to wait.
+     */
+    long getWaitedRequests();
+
+    /**
+     * Returns the number of connection requests which have failed because no connection became available within the
+     * maximum wait time.
+     *
+     * @return The number of timed out connection requests.
+     */
+    long getTimedOutRequests();
+
+    /**
+     * Returns the number of connections which have been created by the pool.
+     *
+     * @return The number of created connections.
+     */
+    long getCreatedConnections();
+
+    /**
+     * Returns the number of connections which have been closed by the pool because they were stale, idle for too
+     * long, or because the pool was closed.
+     *
+     * @return The number of closed connections.
+     */
+    long getClosedConnections();
+
+    /**
+     * Returns the mean time taken to obtain a connection from the pool.
+     *
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The mean time taken to obtain a connection, or {@code 0} if no connection has been obtained yet.
+     */
+    long getAverageAcquireTime(TimeUnit unit);
+}
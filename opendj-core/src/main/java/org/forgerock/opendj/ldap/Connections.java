@@ -23,6 +23,8 @@ import static org.forgerock.util.time.Duration.duration;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -75,6 +77,108 @@ public final class Connections {
     public static final Option<ScheduledExecutorService> LOAD_BALANCER_SCHEDULER =
             Option.of(ScheduledExecutorService.class, null);
 
+    /**
+     * Specifies how many times slower than the fastest connection factory a connection factory of a least-requests
+     * load-balancer must be, on average, before it is temporarily ejected. The default ratio is 3. A ratio of 0
+     * disables the ejection of slow connection factories.
+     *
+     * @see #newLeastRequestsLoadBalancer(Collection, Options)
+     */
+    public static final Option<Double> LOAD_BALANCER_OUTLIER_RESPONSE_TIME_RATIO = Option.withDefault(3.0);
+
+    /**
+     * Specifies the number of consecutive requests which must fail because a connection factory of a least-requests
+     * load-balancer is unavailable or does not respond in time before it is temporarily ejected. The default is 5
+     * consecutive failures. A value of 0 disables the ejection of failing connection factories.
+     *
+     * @see #newLeastRequestsLoadBalancer(Collection, Options)
+     */
+    public static final Option<Integer> LOAD_BALANCER_OUTLIER_CONSECUTIVE_FAILURES = Option.withDefault(5);
+
+    /**
+     * Specifies how long an ejected connection factory of a least-requests load-balancer stops receiving requests,
+     * unless all the other connection factories are unavailable. The default duration is 30 seconds.
+     *
+     * @see #newLeastRequestsLoadBalancer(Collection, Options)
+     */
+    public static final Option<Duration> LOAD_BALANCER_OUTLIER_EJECTION_DURATION =
+            Option.withDefault(duration("30 seconds"));
+
+    /**
+     * Specifies the period after which unused non-core connections of a connection pool are closed. The default is to
+     * close connections which have not been used for sixty seconds. A duration of zero disables the expiration of
+     * idle connections.
+     *
+     * @see #newCachedConnectionPool(ConnectionFactory, int, int, Options)
+     */
+    public static final Option<Duration> CONNECTION_POOL_IDLE_TIMEOUT = Option.withDefault(duration("60 seconds"));
+
+    /**
+     * Specifies the maximum time that a connection request may wait for a connection when the connection pool is
+     * exhausted, after which the request fails with a {@link ResultCode#CLIENT_SIDE_TIMEOUT} error. Waiting requests
+     * are served in arrival order. The default is to wait indefinitely, which is configured using a duration of zero.
+     *
+     * @see #newCachedConnectionPool(ConnectionFactory, int, int, Options)
+     * @see #newFixedConnectionPool(ConnectionFactory, int, Options)
+     */
+    public static final Option<Duration> CONNECTION_POOL_MAX_WAIT_TIME = Option.withDefault(duration("0 seconds"));
+
+    /**
+     * Specifies whether a thread which obtains a connection from a connection pool should be given the last connection
+     * that it released, if that connection is still idle. Thread affinity improves locality when application threads
+     * repeatedly obtain and release connections. It is disabled by default.
+     *
+     * @see #newCachedConnectionPool(ConnectionFactory, int, int, Options)
+     * @see #newFixedConnectionPool(ConnectionFactory, int, Options)
+     */
+    public static final Option<Boolean> CONNECTION_POOL_THREAD_AFFINITY = Option.withDefault(false);
+
+    /**
+     * Specifies the event listener which should be notified of the activity of a connection pool, typically in order
+     * to publish metrics. By default events are ignored.
+     *
+     * @see #newCachedConnectionPool(ConnectionFactory, int, int, Options)
+     * @see #newFixedConnectionPool(ConnectionFactory, int, Options)
+     * @see #getConnectionPoolStatistics(ConnectionPool)
+     */
+    public static final Option<ConnectionPoolEventListener> CONNECTION_POOL_EVENT_LISTENER =
+            Option.of(ConnectionPoolEventListener.class, ConnectionPoolEventListener.NO_OP);
+
+    /**
+     * Specifies the scheduler which will be used for purging idle connections and expiring waiting connection
+     * requests. A system-wide scheduler will be used by default.
+     */
+    public static final Option<ScheduledExecutorService> CONNECTION_POOL_SCHEDULER =
+            Option.of(ScheduledExecutorService.class, null);
+
+    /**
+     * Specifies the approximate amount of memory, in bytes, which may be used for caching search results. The least
+     * recently used search results are evicted once this limit is exceeded. The default is sixteen megabytes.
+     *
+     * @see #newCachingConnectionFactory(ConnectionFactory, Options)
+     */
+    public static final Option<Long> SEARCH_RESULT_CACHE_MAX_SIZE = Option.withDefault(16L * 1024 * 1024);
+
+    /**
+     * Specifies the period after which cached search results expire, bounding the staleness of results which are
+     * affected by changes that the cache is not aware of. The default is sixty seconds.
+     *
+     * @see #newCachingConnectionFactory(ConnectionFactory, Options)
+     */
+    public static final Option<Duration> SEARCH_RESULT_CACHE_TIME_TO_LIVE = Option.withDefault(duration("60 seconds"));
+
+    /**
+     * Specifies the base DNs below which changes performed by other clients should invalidate cached search results.
+     * The caching connection factory subscribes to the changes below each base DN using a persistent search. By
+     * default no subscription is made and only the changes performed through the caching connection factory
+     * invalidate cached search results.
+     *
+     * @see #newCachingConnectionFactory(ConnectionFactory, Options)
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static final Option<List<DN>> SEARCH_RESULT_CACHE_INVALIDATION_BASE_DNS =
+            (Option) Option.of(List.class, Collections.<DN>emptyList());
+
     /**
      * Creates a new connection pool which creates new connections as needed
      * using the provided connection factory, but will reuse previously
@@ -211,6 +315,100 @@ public final class Connections {
                 scheduler);
     }
 
+    /**
+     * Creates a new connection pool which creates new connections as needed using the provided connection factory, but
+     * will reuse previously allocated connections when they are available.
+     * <p>
+     * Attempts to use more than {@code maximumPoolSize} connections at once will wait until a connection is released
+     * back to the pool, or until the {@link #CONNECTION_POOL_MAX_WAIT_TIME maximum wait time} has elapsed. Connections
+     * which have not been used for the {@link #CONNECTION_POOL_IDLE_TIMEOUT idle timeout} period are closed and removed
+     * from the pool, until there are only {@code corePoolSize} connections remaining.
+     * <p>
+     * Connections obtained from the connection pool are guaranteed to be valid immediately before being returned to the
+     * calling application. However, once a pooled connection has been obtained it is the responsibility of the calling
+     * application to handle subsequent connection failures, these being signaled via a {@link ConnectionException}.
+     *
+     * @param factory
+     *            The connection factory to use for creating new connections.
+     * @param corePoolSize
+     *            The minimum number of connections to keep in the pool, even if they are idle.
+     * @param maximumPoolSize
+     *            The maximum number of connections to allow in the pool.
+     * @param options
+     *            The configuration options for the connection pool.
+     * @return The new connection pool.
+     * @throws IllegalArgumentException
+     *             If {@code corePoolSize}, {@code maximumPoolSize} are less than or equal to zero, if
+     *             {@code corePoolSize} is greater than {@code maximumPoolSize}, or if a duration is negative.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code options} was {@code null}.
+     * @see #CONNECTION_POOL_IDLE_TIMEOUT
+     * @see #CONNECTION_POOL_MAX_WAIT_TIME
+     * @see #CONNECTION_POOL_THREAD_AFFINITY
+     * @see #CONNECTION_POOL_EVENT_LISTENER
+     * @see #CONNECTION_POOL_SCHEDULER
+     */
+    public static ConnectionPool newCachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
+            final int maximumPoolSize, final Options options) {
+        Reject.ifNull(options);
+        return newCachedConnectionPool(factory, corePoolSize, maximumPoolSize,
+                options.get(CONNECTION_POOL_IDLE_TIMEOUT).to(TimeUnit.MILLISECONDS), options);
+    }
+
+    /**
+     * Creates a new connection pool which will maintain {@code poolSize} connections created using the provided
+     * connection factory.
+     * <p>
+     * Attempts to use more than {@code poolSize} connections at once will wait until a connection is released back to
+     * the pool, or until the {@link #CONNECTION_POOL_MAX_WAIT_TIME maximum wait time} has elapsed.
+     *
+     * @param factory
+     *            The connection factory to use for creating new connections.
+     * @param poolSize
+     *            The maximum size of the connection pool.
+     * @param options
+     *            The configuration options for the connection pool. The idle timeout is ignored.
+     * @return The new connection pool.
+     * @throws IllegalArgumentException
+     *             If {@code poolSize} is negative.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code options} was {@code null}.
+     * @see #CONNECTION_POOL_MAX_WAIT_TIME
+     * @see #CONNECTION_POOL_THREAD_AFFINITY
+     * @see #CONNECTION_POOL_EVENT_LISTENER
+     * @see #CONNECTION_POOL_SCHEDULER
+     */
+    public static ConnectionPool newFixedConnectionPool(final ConnectionFactory factory, final int poolSize,
+            final Options options) {
+        Reject.ifNull(options);
+        return newCachedConnectionPool(factory, poolSize, poolSize, 0L, options);
+    }
+
+    private static ConnectionPool newCachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
+            final int maximumPoolSize, final long idleTimeoutMillis, final Options options) {
+        return new CachedConnectionPool(factory, corePoolSize, maximumPoolSize, idleTimeoutMillis,
+                TimeUnit.MILLISECONDS, options.get(CONNECTION_POOL_SCHEDULER),
+                options.get(CONNECTION_POOL_MAX_WAIT_TIME).to(TimeUnit.MILLISECONDS),
+                options.get(CONNECTION_POOL_THREAD_AFFINITY), options.get(CONNECTION_POOL_EVENT_LISTENER));
+    }
+
+    /**
+     * Returns the statistics of the provided connection pool. The returned statistics are updated as the pool is used.
+     *
+     * @param pool
+     *         A connection pool created using one of the {@code newCachedConnectionPool} or
+     *         {@code newFixedConnectionPool} methods.
+     * @return The statistics of the connection pool.
+     * @throws IllegalArgumentException
+     *         If {@code pool} does not maintain statistics.
+     */
+    public static ConnectionPoolStatistics getConnectionPoolStatistics(final ConnectionPool pool) {
+        if (pool instanceof CachedConnectionPool) {
+            return ((CachedConnectionPool) pool).getStatistics();
+        }
+        throw new IllegalArgumentException("The connection pool " + pool + " does not maintain statistics");
+    }
+
     /**
      * Creates a new connection pool which will maintain {@code poolSize}
      * connections created using the provided connection factory.
@@ -551,6 +749,75 @@ public final class Connections {
                                        newShardedRequestLoadBalancerFunction(factories));
     }
 
+    /**
+     * Creates a new "least requests" load-balancer which will load-balance individual requests across the provided set
+     * of connection factories, each typically representing a single replica. Each request is routed to the operational
+     * connection factory having the lowest load, where the load is the number of in-flight requests weighted by the
+     * exponentially weighted moving average of the response times. This load-balancer therefore quickly moves traffic
+     * away from replicas which slow down, for example during a garbage collection or a disk stall.
+     * <p/>
+     * Connection factories whose average response time becomes much higher than the fastest connection factory, or
+     * whose requests fail repeatedly because they are unavailable or time out, are ejected for a configurable duration.
+     * Ejected connection factories only receive requests when all the other connection factories are unavailable, and
+     * the last available connection factory is never ejected. The load of each connection factory can be monitored
+     * using {@link #getLoadBalancerStatistics(ConnectionFactory)}.
+     * <p/>
+     * <b>NOTE:</b> this connection factory returns fake connections, since real connections are obtained for each
+     * request. Therefore, the returned fake connections have certain limitations: abandon requests will be ignored
+     * since they cannot be routed; connection event listeners can be registered, but will only be notified when the
+     * fake connection is closed or when all of the connection factories are unavailable. Applications which need to
+     * send several requests over the same connection, such as a bind followed by other requests, should use a
+     * connection-level load-balancer instead.
+     * <p/>
+     * The implementation periodically attempts to connect to failed connection factories in order to determine if they
+     * have become available again.
+     *
+     * @param factories
+     *         The connection factories.
+     * @param options
+     *         This configuration options for the load-balancer.
+     * @return The new least requests load balancer.
+     * @see #newRoundRobinLoadBalancer(Collection, Options)
+     * @see #newShardedRequestLoadBalancer(Collection, Options)
+     * @see #getLoadBalancerStatistics(ConnectionFactory)
+     * @see #LOAD_BALANCER_EVENT_LISTENER
+     * @see #LOAD_BALANCER_MONITORING_INTERVAL
+     * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_OUTLIER_RESPONSE_TIME_RATIO
+     * @see #LOAD_BALANCER_OUTLIER_CONSECUTIVE_FAILURES
+     * @see #LOAD_BALANCER_OUTLIER_EJECTION_DURATION
+     */
+    public static ConnectionFactory newLeastRequestsLoadBalancer(
+            final Collection<? extends ConnectionFactory> factories, final Options options) {
+        return new RequestLoadBalancer("LeastRequestsLoadBalancer",
+                                       factories,
+                                       options,
+                                       new RequestLoadMonitor(factories, options));
+    }
+
+    /**
+     * Returns the load statistics of each connection factory of the provided load-balancer, in the order in which the
+     * connection factories were provided when the load-balancer was created. The returned statistics are updated as
+     * requests are processed.
+     *
+     * @param loadBalancer
+     *         A load-balancer created using {@link #newLeastRequestsLoadBalancer(Collection, Options)}.
+     * @return The load statistics of each connection factory.
+     * @throws IllegalArgumentException
+     *         If {@code loadBalancer} does not track the load of its connection factories.
+     */
+    public static List<LoadBalancerStatistics> getLoadBalancerStatistics(final ConnectionFactory loadBalancer) {
+        if (loadBalancer instanceof RequestLoadBalancer) {
+            final List<? extends LoadBalancerStatistics> statistics =
+                    ((RequestLoadBalancer) loadBalancer).getStatistics();
+            if (statistics != null) {
+                return Collections.<LoadBalancerStatistics> unmodifiableList(statistics);
+            }
+        }
+        throw new IllegalArgumentException("The connection factory " + loadBalancer
+                + " does not track the load of its connection factories");
+    }
+
     // Package private for testing.
     static Function<Request, Integer, NeverThrowsException> newShardedRequestLoadBalancerFunction(
             final Collection<? extends ConnectionFactory> factories) {
@@ -619,6 +886,41 @@ public final class Connections {
         };
     }
 
+    /**
+     * Creates a new connection factory which caches the results of the searches, including the reads, performed
+     * through its connections so that repeated searches are answered without contacting the Directory Server.
+     * <p/>
+     * Search results are cached by their normalized base DN, scope, filter and requested attributes. Only successful
+     * searches without request controls and without search result references are cached. Connections which perform a
+     * bind bypass the cache since their search results may depend on their authorization identity, so the provided
+     * connection factory should authenticate its connections itself if needed.
+     * <p/>
+     * Updates performed through the connections of the returned factory invalidate the cached searches whose scope
+     * contains the updated entry. Updates performed by other clients are detected by subscribing to the changes below
+     * the base DNs specified using {@link #SEARCH_RESULT_CACHE_INVALIDATION_BASE_DNS}, in which case a persistent
+     * search per base DN is maintained on a dedicated connection obtained from the provided connection factory, and no
+     * search results are cached while the subscription is not established. The server does not acknowledge the
+     * persistent searches, so a change performed by another client just after the subscription is made may be missed.
+     * Without invalidation base DNs, the staleness of the cached results is only bounded by
+     * {@link #SEARCH_RESULT_CACHE_TIME_TO_LIVE}.
+     *
+     * @param factory
+     *            The connection factory whose search results should be cached.
+     * @param options
+     *            The configuration options for the cache.
+     * @return The new caching connection factory.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code options} was {@code null}.
+     * @see #SEARCH_RESULT_CACHE_MAX_SIZE
+     * @see #SEARCH_RESULT_CACHE_TIME_TO_LIVE
+     * @see #SEARCH_RESULT_CACHE_INVALIDATION_BASE_DNS
+     */
+    public static ConnectionFactory newCachingConnectionFactory(final ConnectionFactory factory,
+            final Options options) {
+        Reject.ifNull(factory, options);
+        return new CachingConnectionFactory(factory, options);
+    }
+
     /**
      * Creates a new connection factory which forwards connection requests to
      * the provided factory, but whose {@code toString} method will always
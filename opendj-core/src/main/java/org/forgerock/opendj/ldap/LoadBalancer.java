@@ -294,4 +294,24 @@ abstract class LoadBalancer implements ConnectionFactory {
     final String getLoadBalancerName() {
         return loadBalancerName;
     }
+
+    /**
+     * Returns {@code true} if the connection factory having the provided index is believed to be operational.
+     *
+     * @param index The index of the connection factory.
+     * @return {@code true} if the connection factory is operational.
+     */
+    final boolean isOperational(final int index) {
+        return monitoredFactories.get(index).isOperational.get();
+    }
+
+    /**
+     * Returns the index of a connection factory returned by {@link #getMonitoredConnectionFactory(int)}.
+     *
+     * @param monitoredFactory A connection factory returned by {@link #getMonitoredConnectionFactory(int)}.
+     * @return The index of the connection factory.
+     */
+    final int getConnectionFactoryIndex(final ConnectionFactory monitoredFactory) {
+        return ((MonitoredConnectionFactory) monitoredFactory).index;
+    }
 }
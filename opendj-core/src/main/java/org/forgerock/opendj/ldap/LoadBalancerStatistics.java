@@ -0,0 +1,74 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A live view of the load observed by a load-balancer for one of its connection factories. Statistics are only
+ * maintained by load-balancers which track the requests they route, such as the load-balancers returned by
+ * {@link Connections#newLeastRequestsLoadBalancer(java.util.Collection, org.forgerock.util.Options)}.
+ *
+ * @see Connections#getLoadBalancerStatistics(ConnectionFactory)
+ */
+public interface LoadBalancerStatistics {
+    /**
+     * Returns the load-balanced connection factory to which these statistics apply.
+     *
+     * @return The load-balanced connection factory.
+     */
+    ConnectionFactory getConnectionFactory();
+
+    /**
+     * Returns the number of requests which have been sent to the connection factory and which have not yet completed.
+     *
+     * @return The number of in-flight requests.
+     */
+    int getActiveRequests();
+
+    /**
+     * Returns the number of requests which have been routed to the connection factory and which have completed,
+     * successfully or not.
+     *
+     * @return The number of completed requests.
+     */
+    long getCompletedRequests();
+
+    /**
+     * Returns the number of requests which have failed because the connection factory was unavailable or did not
+     * respond in time.
+     *
+     * @return The number of failed requests.
+     */
+    long getFailedRequests();
+
+    /**
+     * Returns the exponentially weighted moving average of the response times of the connection factory.
+     *
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The average response time, or {@code 0} if no request has completed yet.
+     */
+    long getAverageResponseTime(TimeUnit unit);
+
+    /**
+     * Returns {@code true} if the connection factory has been temporarily ejected from the load-balancer because it
+     * was significantly slower than the others or because too many consecutive requests have failed.
+     *
+     * @return {@code true} if the connection factory is currently ejected.
+     */
+    boolean isEjected();
+}
@@ -24,8 +24,24 @@ import static org.forgerock.opendj.ldap.responses.Responses.newResult;
 import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
 
 import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
@@ -51,7 +67,12 @@ import org.forgerock.opendj.ldap.responses.BindResult;
 import org.forgerock.opendj.ldap.responses.CompareResult;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.Indexer;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
 import org.forgerock.opendj.ldif.EntryReader;
 
 /**
@@ -63,6 +84,10 @@ import org.forgerock.opendj.ldif.EntryReader;
  * <li>assertion, pre-, and post- read controls, subtree delete control, and
  * permissive modify control
  * <li>thread safety - supports concurrent operations
+ * <li>snapshot isolation - a search only returns the entries as they were
+ * when it started, regardless of the concurrent updates
+ * <li>equality and ordering indexes on selected attributes, see
+ * {@link #addEqualityIndex(String)} and {@link #addOrderingIndex(String)}
  * </ul>
  * It does not support the following:
  * <ul>
@@ -70,7 +95,6 @@ import org.forgerock.opendj.ldif.EntryReader;
  * <li>secure password storage
  * <li>schema checking
  * <li>persistence
- * <li>indexing
  * </ul>
  * This class can be used in conjunction with the factories defined in
  * {@link Connections} to create simple servers as well as mock LDAP
@@ -91,10 +115,238 @@ import org.forgerock.opendj.ldif.EntryReader;
  * </pre>
  */
 public final class MemoryBackend implements RequestHandler<RequestContext> {
+    /**
+     * A version of an entry, linked to the previous versions which may still
+     * be seen by running searches. The entry is {@code null} once deleted.
+     */
+    private static final class EntryVersion {
+        private final long version;
+        private final Entry entry;
+        private volatile EntryVersion previous;
+
+        private EntryVersion(final long version, final Entry entry, final EntryVersion previous) {
+            this.version = version;
+            this.entry = entry;
+            this.previous = previous;
+        }
+    }
+
+    /** Work which must wait until no search can see the state preceding a version any more. */
+    private abstract static class Cleanup {
+        private final long version;
+
+        private Cleanup(final long version) {
+            this.version = version;
+        }
+
+        abstract void run(long oldestSnapshot);
+    }
+
+    /** The keys of an index, and the entries having them. */
+    private static final class IndexKeys {
+        private final Indexer indexer;
+        /** The index only contains the entries which were not deleted before this version. */
+        private final long firstVersion;
+        /**
+         * Maps each key to the names of the entries having it, themselves
+         * mapped to the version which removed the key from the entry, or
+         * {@code LIVE} if the entry still has it.
+         */
+        private final ConcurrentSkipListMap<ByteString, ConcurrentSkipListMap<DN, Long>> keys =
+                new ConcurrentSkipListMap<>();
+
+        private IndexKeys(final Indexer indexer, final long firstVersion) {
+            this.indexer = indexer;
+            this.firstVersion = firstVersion;
+        }
+    }
+
+    /** Creates the candidate entries of an index query, as of a snapshot. */
+    private static final class IndexQuery implements IndexQueryFactory<NavigableSet<DN>> {
+        private final Map<String, IndexKeys> indexes;
+        private final long snapshot;
+
+        private IndexQuery(final Map<String, IndexKeys> indexes, final long snapshot) {
+            this.indexes = indexes;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public NavigableSet<DN> createExactMatchQuery(final String indexID, final ByteSequence key) {
+            final NavigableMap<ByteString, ConcurrentSkipListMap<DN, Long>> keys = getKeys(indexID);
+            if (keys == null) {
+                return null;
+            }
+            final NavigableSet<DN> dns = new TreeSet<>();
+            addEntries(dns, keys.get(key.toByteString()));
+            return dns;
+        }
+
+        @Override
+        public NavigableSet<DN> createMatchAllQuery() {
+            return null;
+        }
+
+        @Override
+        public NavigableSet<DN> createRangeMatchQuery(final String indexID, final ByteSequence lowerBound,
+                final ByteSequence upperBound, final boolean includeLowerBound, final boolean includeUpperBound) {
+            NavigableMap<ByteString, ConcurrentSkipListMap<DN, Long>> keys = getKeys(indexID);
+            if (keys == null) {
+                return null;
+            }
+            // Empty bounds mean unbounded
+            if (lowerBound.length() > 0) {
+                keys = keys.tailMap(lowerBound.toByteString(), includeLowerBound);
+            }
+            if (upperBound.length() > 0) {
+                keys = keys.headMap(upperBound.toByteString(), includeUpperBound);
+            }
+            final NavigableSet<DN> dns = new TreeSet<>();
+            for (final ConcurrentSkipListMap<DN, Long> entries : keys.values()) {
+                addEntries(dns, entries);
+            }
+            return dns;
+        }
+
+        @Override
+        public NavigableSet<DN> createIntersectionQuery(final Collection<NavigableSet<DN>> subqueries) {
+            return intersect(subqueries);
+        }
+
+        @Override
+        public NavigableSet<DN> createUnionQuery(final Collection<NavigableSet<DN>> subqueries) {
+            return union(subqueries);
+        }
+
+        @Override
+        public IndexingOptions getIndexingOptions() {
+            return INDEXING_OPTIONS;
+        }
+
+        private NavigableMap<ByteString, ConcurrentSkipListMap<DN, Long>> getKeys(final String indexID) {
+            final IndexKeys index = indexes.get(indexID);
+            return index != null && index.firstVersion <= snapshot ? index.keys : null;
+        }
+
+        private void addEntries(final Set<DN> dns, final Map<DN, Long> entries) {
+            if (entries != null) {
+                for (final Map.Entry<DN, Long> entry : entries.entrySet()) {
+                    if (entry.getValue() > snapshot) {
+                        dns.add(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the candidate entries for a filter using the indexes, or
+     * {@code null} if the filter cannot be evaluated with the indexes. The
+     * candidates are a superset of the matching entries.
+     */
+    private final class IndexPlanner extends AbstractFilterVisitor<NavigableSet<DN>, Long> {
+        @Override
+        public NavigableSet<DN> visitAndFilter(final Long snapshot, final List<Filter> subFilters) {
+            final List<NavigableSet<DN>> candidates = new ArrayList<>(subFilters.size());
+            for (final Filter subFilter : subFilters) {
+                candidates.add(subFilter.accept(this, snapshot));
+            }
+            return intersect(candidates);
+        }
+
+        @Override
+        public NavigableSet<DN> visitOrFilter(final Long snapshot, final List<Filter> subFilters) {
+            final List<NavigableSet<DN>> candidates = new ArrayList<>(subFilters.size());
+            for (final Filter subFilter : subFilters) {
+                candidates.add(subFilter.accept(this, snapshot));
+            }
+            return union(candidates);
+        }
+
+        @Override
+        public NavigableSet<DN> visitEqualityMatchFilter(final Long snapshot, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeType type = getIndexedAttributeType(attributeDescription);
+            if (type == null || type.getEqualityMatchingRule() == null) {
+                return null;
+            }
+            try {
+                return query(type, type.getEqualityMatchingRule().getAssertion(assertionValue), snapshot);
+            } catch (final DecodeException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public NavigableSet<DN> visitGreaterOrEqualFilter(final Long snapshot, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeType type = getIndexedAttributeType(attributeDescription);
+            if (type == null || type.getOrderingMatchingRule() == null) {
+                return null;
+            }
+            try {
+                return query(type, type.getOrderingMatchingRule().getGreaterOrEqualAssertion(assertionValue),
+                        snapshot);
+            } catch (final DecodeException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public NavigableSet<DN> visitLessOrEqualFilter(final Long snapshot, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeType type = getIndexedAttributeType(attributeDescription);
+            if (type == null || type.getOrderingMatchingRule() == null) {
+                return null;
+            }
+            try {
+                return query(type, type.getOrderingMatchingRule().getLessOrEqualAssertion(assertionValue),
+                        snapshot);
+            } catch (final DecodeException e) {
+                return null;
+            }
+        }
+
+        private AttributeType getIndexedAttributeType(final String attributeDescription) {
+            try {
+                final AttributeType type =
+                        AttributeDescription.valueOf(attributeDescription, schema).getAttributeType();
+                return indexes.containsKey(type) ? type : null;
+            } catch (final LocalizedIllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private NavigableSet<DN> query(final AttributeType type, final Assertion assertion, final long snapshot) {
+            return assertion.createIndexQuery(new IndexQuery(indexes.get(type), snapshot));
+        }
+    }
+
+    /** The version of the index keys of entries which still have them. */
+    private static final Long LIVE = Long.MAX_VALUE;
+
+    private static final IndexingOptions INDEXING_OPTIONS = new IndexingOptions() {
+        @Override
+        public int substringKeySize() {
+            return 6;
+        }
+    };
+
     private final DecodeOptions decodeOptions;
-    private final ConcurrentSkipListMap<DN, Entry> entries = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<DN, EntryVersion> entries = new ConcurrentSkipListMap<>();
     private final Schema schema;
     private final Object writeLock = new Object();
+    /** The indexes of each indexed attribute type, by index ID. The inner maps are never modified. */
+    private final Map<AttributeType, Map<String, IndexKeys>> indexes = new ConcurrentHashMap<>();
+    private final IndexPlanner indexPlanner = new IndexPlanner();
+
+    /** The version of the last completed update, which is seen by new searches. */
+    private volatile long commitVersion;
+    /** The number of running searches for each snapshot version. */
+    private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+    /** Pending cleanups, in increasing version order. Guarded by the write lock. */
+    private final Queue<Cleanup> cleanups = new ArrayDeque<>();
+    private volatile int entryCount;
 
     /**
      * Creates a new empty memory backend which will use the default schema.
@@ -146,6 +398,69 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
         load(reader, false);
     }
 
+    /**
+     * Adds an equality index on the named attribute type, which is used by
+     * searches whose filter contains equality assertions on the attribute. The
+     * index is built from the current content of this memory backend.
+     *
+     * @param attributeType
+     *            The name or OID of the attribute type to index.
+     * @return This memory backend.
+     * @throws IllegalArgumentException
+     *             If the attribute type does not have an equality matching
+     *             rule.
+     */
+    public MemoryBackend addEqualityIndex(final String attributeType) {
+        final AttributeType type = schema.getAttributeType(attributeType);
+        return addIndex(type, type.getEqualityMatchingRule(), "equality");
+    }
+
+    /**
+     * Adds an ordering index on the named attribute type, which is used by
+     * searches whose filter contains greater or equal and less or equal
+     * assertions on the attribute. The index is built from the current content
+     * of this memory backend.
+     *
+     * @param attributeType
+     *            The name or OID of the attribute type to index.
+     * @return This memory backend.
+     * @throws IllegalArgumentException
+     *             If the attribute type does not have an ordering matching
+     *             rule.
+     */
+    public MemoryBackend addOrderingIndex(final String attributeType) {
+        final AttributeType type = schema.getAttributeType(attributeType);
+        return addIndex(type, type.getOrderingMatchingRule(), "ordering");
+    }
+
+    private MemoryBackend addIndex(final AttributeType type, final MatchingRule rule, final String indexType) {
+        if (rule == null) {
+            throw new IllegalArgumentException("The attribute type '" + type.getNameOrOID()
+                    + "' does not have an " + indexType + " matching rule");
+        }
+        synchronized (writeLock) {
+            final Map<String, IndexKeys> oldIndexes = indexes.get(type);
+            final Map<String, IndexKeys> newIndexes =
+                    oldIndexes != null ? new HashMap<>(oldIndexes) : new HashMap<String, IndexKeys>();
+            for (final Indexer indexer : rule.createIndexers(INDEXING_OPTIONS)) {
+                if (!newIndexes.containsKey(indexer.getIndexID())) {
+                    // Deleted entries are not indexed, so older snapshots cannot use the index
+                    final IndexKeys index = new IndexKeys(indexer, commitVersion);
+                    for (final EntryVersion entryVersion : entries.values()) {
+                        if (entryVersion.entry != null) {
+                            for (final ByteString key : createKeys(type, indexer, entryVersion.entry)) {
+                                addIndexKey(index, key, entryVersion.entry.getName());
+                            }
+                        }
+                    }
+                    newIndexes.put(indexer.getIndexID(), index);
+                }
+            }
+            indexes.put(type, Collections.unmodifiableMap(newIndexes));
+        }
+        return this;
+    }
+
     /**
      * Clears the contents of this memory backend so that it does not contain
      * any entries.
@@ -154,7 +469,13 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      */
     public MemoryBackend clear() {
         synchronized (writeLock) {
-            entries.clear();
+            final long version = commitVersion + 1;
+            for (final EntryVersion entryVersion : entries.values()) {
+                if (entryVersion.entry != null) {
+                    putEntry(entryVersion.entry.getName(), null, version);
+                }
+            }
+            commit(version);
         }
         return this;
     }
@@ -190,7 +511,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return The named entry.
      */
     public Entry get(final DN dn) {
-        return entries.get(dn);
+        return committedEntry(entries.get(dn));
     }
 
     /**
@@ -211,12 +532,92 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * changes to the collection are reflected in this memory backend and
      * vice-versa. The returned collection supports entry removal, iteration,
      * and is thread safe, but it does not support addition of new entries.
+     * Like the iterators of concurrent collections, its iterators are weakly
+     * consistent: each entry is returned as committed when it is reached.
      *
      * @return A collection containing all of the entries in this memory
      *         backend.
      */
     public Collection<Entry> getAll() {
-        return entries.values();
+        return new AbstractCollection<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return new EntryIterator(entries.values().iterator()) {
+                    @Override
+                    Entry entryOf(final EntryVersion head) {
+                        return committedEntry(head);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MemoryBackend.this.size();
+            }
+        };
+    }
+
+    /** Iterates over the entries of version chains, skipping the deleted entries. */
+    private abstract class EntryIterator implements Iterator<Entry> {
+        private final Iterator<EntryVersion> versions;
+        private Entry next;
+        private Entry last;
+
+        private EntryIterator(final Iterator<EntryVersion> versions) {
+            this.versions = versions;
+        }
+
+        /** Returns the version of the entry to be returned, or {@code null} if it does not exist. */
+        abstract Entry entryOf(EntryVersion head);
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && versions.hasNext()) {
+                next = entryOf(versions.next());
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            synchronized (writeLock) {
+                final DN dn = last.getName();
+                if (latest(dn) != null) {
+                    final long version = commitVersion + 1;
+                    putEntry(dn, null, version);
+                    commit(version);
+                }
+            }
+            last = null;
+        }
+    }
+
+    /** Iterates over the entries as of a snapshot held by the caller, skipping the deleted entries. */
+    private final class SnapshotIterator extends EntryIterator {
+        private final long snapshot;
+
+        private SnapshotIterator(final Iterator<EntryVersion> versions, final long snapshot) {
+            super(versions);
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        Entry entryOf(final EntryVersion head) {
+            return entryAt(head, snapshot);
+        }
     }
 
     @Override
@@ -227,12 +628,14 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             synchronized (writeLock) {
                 final DN dn = request.getName();
                 final DN parent = dn.parent();
-                if (entries.containsKey(dn)) {
+                if (latest(dn) != null) {
                     throw newLdapException(ResultCode.ENTRY_ALREADY_EXISTS, "The entry '" + dn + "' already exists");
-                } else if (parent != null && !entries.containsKey(parent)) {
+                } else if (parent != null && latest(parent) == null) {
                     throw noSuchObject(parent);
                 } else {
-                    entries.put(dn, request);
+                    final long version = commitVersion + 1;
+                    putEntry(dn, request, version);
+                    commit(version);
                 }
             }
             resultHandler.handleResult(getResult(request, null, request));
@@ -310,18 +713,21 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             synchronized (writeLock) {
                 final DN dn = request.getName();
                 entry = getRequiredEntry(request, dn);
+                final long version = commitVersion + 1;
                 if (request.getControl(SubtreeDeleteRequestControl.DECODER, decodeOptions) != null) {
                     // Subtree delete.
-                    entries.subMap(dn, dn.child(RDN.maxValue())).clear();
-                } else {
-                    // Must be leaf.
-                    final DN next = entries.higherKey(dn);
-                    if (next == null || !next.isChildOf(dn)) {
-                        entries.remove(dn);
-                    } else {
-                        throw newLdapException(ResultCode.NOT_ALLOWED_ON_NONLEAF);
+                    for (final EntryVersion entryVersion : entries.subMap(dn, dn.child(RDN.maxValue())).values()) {
+                        if (entryVersion.entry != null) {
+                            putEntry(entryVersion.entry.getName(), null, version);
+                        }
                     }
+                } else if (!hasChildren(dn)) {
+                    // Must be leaf.
+                    putEntry(dn, null, version);
+                } else {
+                    throw newLdapException(ResultCode.NOT_ALLOWED_ON_NONLEAF);
                 }
+                commit(version);
             }
             resultHandler.handleResult(getResult(request, entry, null));
         } catch (final DecodeException e) {
@@ -350,8 +756,10 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             synchronized (writeLock) {
                 final DN dn = request.getName();
                 entry = getRequiredEntry(request, dn);
-                newEntry = new LinkedHashMapEntry(entry);
-                entries.put(dn, modifyEntry(newEntry, request));
+                newEntry = modifyEntry(new LinkedHashMapEntry(entry), request);
+                final long version = commitVersion + 1;
+                putEntry(dn, newEntry, version);
+                commit(version);
             }
             resultHandler.handleResult(getResult(request, entry, newEntry));
         } catch (final LdapException e) {
@@ -390,9 +798,14 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             case SINGLE_LEVEL:
             case SUBORDINATES:
             case WHOLE_SUBTREE:
-                searchWithSubordinates(requestContext, entryHandler, resultHandler, dn, matcher, attributeFilter,
-                    request.getSizeLimit(), scope,
-                    request.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions()));
+                final long snapshot = acquireSnapshot();
+                try {
+                    searchWithSubordinates(requestContext, entryHandler, resultHandler, dn, filter, matcher,
+                        attributeFilter, request.getSizeLimit(), scope,
+                        request.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions()), snapshot);
+                } finally {
+                    releaseSnapshot(snapshot);
+                }
                 break;
 
             default:
@@ -412,7 +825,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return {@code true} if this memory backend does not contain any entries.
      */
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return entryCount == 0;
     }
 
     /**
@@ -434,17 +847,20 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
     public MemoryBackend load(final EntryReader reader, final boolean overwrite) throws IOException {
         synchronized (writeLock) {
             if (reader != null) {
+                // The entries read before an error remain, as they always did
+                final long version = commitVersion + 1;
                 try {
                     while (reader.hasNext()) {
                         final Entry entry = reader.readEntry();
                         final DN dn = entry.getName();
-                        if (!overwrite && entries.containsKey(dn)) {
+                        if (!overwrite && latest(dn) != null) {
                             throw newLdapException(ResultCode.ENTRY_ALREADY_EXISTS,
                                     "Attempted to add the entry '" + dn + "' multiple times");
                         }
-                        entries.put(dn, entry);
+                        putEntry(dn, entry, version);
                     }
                 } finally {
+                    commit(version);
                     reader.close();
                 }
             }
@@ -458,7 +874,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return The number of entries contained in this memory backend.
      */
     public int size() {
-        return entries.size();
+        return entryCount;
     }
 
     /**
@@ -468,11 +884,13 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @param requestContext context of this request
      * @param resultHandler handler which should be used to send back the search results to the client.
      * @param dn distinguished name of the base entry used for this request
+     * @param filter the filter of this request, used to find candidate entries with the indexes
      * @param matcher to filter entries that matches this request
      * @param attributeFilter to select attributes to return in search results
      * @param sizeLimit maximum number of entries to return. A value of zero indicates no restriction
      *          on number of entries.
      * @param pagedResults The simple paged results control, if present.
+     * @param snapshot the version of the entries returned by this search
      * @throws CancelledResultException
      *           If a cancellation request has been received and processing of
      *           the request should be aborted if possible.
@@ -480,20 +898,38 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      *           If the request is unsuccessful.
      */
     private void searchWithSubordinates(final RequestContext requestContext, final SearchResultHandler entryHandler,
-            final LdapResultHandler<Result> resultHandler, final DN dn, final Matcher matcher,
+            final LdapResultHandler<Result> resultHandler, final DN dn, final Filter filter, final Matcher matcher,
             final AttributeFilter attributeFilter, final int sizeLimit, SearchScope scope,
-            SimplePagedResultsControl pagedResults) throws CancelledResultException, LdapException {
-        final NavigableMap<DN, Entry> subtree = entries.subMap(dn, dn.child(RDN.maxValue()));
-        if (subtree.isEmpty() || !dn.equals(subtree.firstKey())) {
+            SimplePagedResultsControl pagedResults, final long snapshot)
+            throws CancelledResultException, LdapException {
+        final NavigableMap<DN, EntryVersion> subtree = entries.subMap(dn, dn.child(RDN.maxValue()));
+        if (entryAt(subtree.get(dn), snapshot) == null) {
             throw newLdapException(newResult(ResultCode.NO_SUCH_OBJECT));
         }
 
+        // Candidates are sorted by DN like the whole subtree, so paging works the same for both
+        final Iterator<Entry> candidates;
+        final NavigableSet<DN> indexedCandidates = indexes.isEmpty() ? null : filter.accept(indexPlanner, snapshot);
+        if (indexedCandidates != null) {
+            final List<EntryVersion> versions = new ArrayList<>();
+            for (final DN candidate : indexedCandidates.subSet(dn, true, dn.child(RDN.maxValue()), false)) {
+                final EntryVersion entryVersion = entries.get(candidate);
+                if (entryVersion != null) {
+                    versions.add(entryVersion);
+                }
+            }
+            candidates = new SnapshotIterator(versions.iterator(), snapshot);
+        } else {
+            candidates = new SnapshotIterator(subtree.values().iterator(), snapshot);
+        }
+
         final int pageSize = pagedResults != null ? pagedResults.getSize() : 0;
         final int offset = (pagedResults != null && !pagedResults.getCookie().isEmpty())
                 ? Integer.valueOf(pagedResults.getCookie().toString()) : 0;
         int numberOfResults = 0;
         int position = 0;
-        for (final Entry entry : subtree.values()) {
+        while (candidates.hasNext()) {
+            final Entry entry = candidates.next();
             requestContext.checkIfCancelled(false);
             if (scope.equals(SearchScope.WHOLE_SUBTREE) || entry.getName().isChildOf(dn)
                     || (scope.equals(SearchScope.SUBORDINATES) && !entry.getName().equals(dn))) {
@@ -538,6 +974,214 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
         resultHandler.handleResult(result);
     }
 
+    private static Entry entryAt(final EntryVersion head, final long snapshot) {
+        for (EntryVersion entryVersion = head; entryVersion != null; entryVersion = entryVersion.previous) {
+            if (entryVersion.version <= snapshot) {
+                return entryVersion.entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last committed version of an entry. A snapshot is held while
+     * reading, so that the older versions this snapshot may need are not
+     * removed by a concurrent commit.
+     */
+    private Entry committedEntry(final EntryVersion head) {
+        final long snapshot = acquireSnapshot();
+        try {
+            return entryAt(head, snapshot);
+        } finally {
+            releaseSnapshot(snapshot);
+        }
+    }
+
+    /** Returns the named entry including the uncommitted changes, which must be called with the write lock held. */
+    private Entry latest(final DN dn) {
+        final EntryVersion head = entries.get(dn);
+        return head != null ? head.entry : null;
+    }
+
+    private boolean hasChildren(final DN dn) {
+        for (final EntryVersion entryVersion : entries.subMap(dn, false, dn.child(RDN.maxValue()), false).values()) {
+            if (entryVersion.entry != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a new version of the named entry, or deletes it if the entry is
+     * {@code null}. The change is not visible to new searches until the
+     * version is committed. Must be called with the write lock held.
+     */
+    private void putEntry(final DN dn, final Entry entry, final long version) {
+        final EntryVersion head = entries.get(dn);
+        final Entry oldEntry = head != null ? head.entry : null;
+        entries.put(dn, new EntryVersion(version, entry, head));
+        if (oldEntry == null && entry != null) {
+            entryCount++;
+        } else if (oldEntry != null && entry == null) {
+            entryCount--;
+        }
+        updateIndexes(dn, oldEntry, entry, version);
+
+        if (head != null) {
+            cleanups.add(new Cleanup(version) {
+                @Override
+                void run(final long oldestSnapshot) {
+                    removeOldVersions(dn, oldestSnapshot);
+                }
+            });
+        }
+    }
+
+    private void removeOldVersions(final DN dn, final long oldestSnapshot) {
+        final EntryVersion head = entries.get(dn);
+        for (EntryVersion entryVersion = head; entryVersion != null; entryVersion = entryVersion.previous) {
+            if (entryVersion.version <= oldestSnapshot) {
+                entryVersion.previous = null;
+                if (entryVersion == head && head.entry == null) {
+                    entries.remove(dn, head);
+                }
+                return;
+            }
+        }
+    }
+
+    private void updateIndexes(final DN dn, final Entry oldEntry, final Entry newEntry, final long version) {
+        for (final Map.Entry<AttributeType, Map<String, IndexKeys>> mapEntry : indexes.entrySet()) {
+            final AttributeType type = mapEntry.getKey();
+            for (final IndexKeys index : mapEntry.getValue().values()) {
+                final Set<ByteString> oldKeys = createKeys(type, index.indexer, oldEntry);
+                final Set<ByteString> newKeys = createKeys(type, index.indexer, newEntry);
+                for (final ByteString key : newKeys) {
+                    if (!oldKeys.contains(key)) {
+                        addIndexKey(index, key, dn);
+                    }
+                }
+                for (final ByteString key : oldKeys) {
+                    if (!newKeys.contains(key)) {
+                        removeIndexKey(index, key, dn, version);
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<ByteString> createKeys(final AttributeType type, final Indexer indexer, final Entry entry) {
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+        final Set<ByteString> keys = new HashSet<>();
+        for (final Attribute attribute : entry.getAllAttributes(AttributeDescription.create(type))) {
+            for (final ByteString value : attribute) {
+                try {
+                    indexer.createKeys(schema, value, keys);
+                } catch (final DecodeException e) {
+                    // The value cannot match any assertion, it does not need to be indexed
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void addIndexKey(final IndexKeys index, final ByteString key, final DN dn) {
+        ConcurrentSkipListMap<DN, Long> dns = index.keys.get(key);
+        if (dns == null) {
+            dns = new ConcurrentSkipListMap<>();
+            index.keys.put(key, dns);
+        }
+        dns.put(dn, LIVE);
+    }
+
+    /**
+     * Records that the entry does not have the key any more. The entry remains
+     * in the index for the searches which may still see its previous version.
+     */
+    private void removeIndexKey(final IndexKeys index, final ByteString key, final DN dn, final long version) {
+        final ConcurrentSkipListMap<DN, Long> dns = index.keys.get(key);
+        if (dns == null) {
+            return;
+        }
+        final Long removedVersion = version;
+        dns.put(dn, removedVersion);
+        cleanups.add(new Cleanup(version) {
+            @Override
+            void run(final long oldestSnapshot) {
+                // The entry may have been given the key again since
+                if (dns.remove(dn, removedVersion) && dns.isEmpty()) {
+                    index.keys.remove(key, dns);
+                }
+            }
+        });
+    }
+
+    /** Makes a version visible to new searches. Must be called with the write lock held. */
+    private void commit(final long version) {
+        commitVersion = version;
+        final long oldestSnapshot = oldestSnapshot();
+        while (!cleanups.isEmpty() && cleanups.peek().version <= oldestSnapshot) {
+            cleanups.remove().run(oldestSnapshot);
+        }
+    }
+
+    private long acquireSnapshot() {
+        synchronized (activeSnapshots) {
+            final long snapshot = commitVersion;
+            final Integer count = activeSnapshots.get(snapshot);
+            activeSnapshots.put(snapshot, count != null ? count + 1 : 1);
+            return snapshot;
+        }
+    }
+
+    private void releaseSnapshot(final long snapshot) {
+        synchronized (activeSnapshots) {
+            final int count = activeSnapshots.get(snapshot);
+            if (count > 1) {
+                activeSnapshots.put(snapshot, count - 1);
+            } else {
+                activeSnapshots.remove(snapshot);
+            }
+        }
+    }
+
+    /** Returns the oldest version which may still be seen by a search. */
+    private long oldestSnapshot() {
+        synchronized (activeSnapshots) {
+            return activeSnapshots.isEmpty() ? commitVersion : activeSnapshots.firstKey();
+        }
+    }
+
+    /** Returns the intersection of the defined candidate sets, or {@code null} if none are defined. */
+    private static NavigableSet<DN> intersect(final Collection<NavigableSet<DN>> candidates) {
+        NavigableSet<DN> intersection = null;
+        for (final NavigableSet<DN> dns : candidates) {
+            if (dns != null) {
+                if (intersection == null) {
+                    intersection = new TreeSet<>(dns);
+                } else {
+                    intersection.retainAll(dns);
+                }
+            }
+        }
+        return intersection;
+    }
+
+    /** Returns the union of the candidate sets, or {@code null} if any of them is undefined. */
+    private static NavigableSet<DN> union(final Collection<NavigableSet<DN>> candidates) {
+        final NavigableSet<DN> union = new TreeSet<>();
+        for (final NavigableSet<DN> dns : candidates) {
+            if (dns == null) {
+                return null;
+            }
+            union.addAll(dns);
+        }
+        return union;
+    }
+
     private <R extends Result> R addResultControls(final Request request, final Entry before,
             final Entry after, final R result) throws LdapException {
         try {
@@ -583,7 +1227,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
     }
 
     private Entry getRequiredEntry(final Request request, final DN dn) throws LdapException {
-        final Entry entry = entries.get(dn);
+        final Entry entry = get(dn);
         if (entry == null) {
             throw noSuchObject(dn);
         }
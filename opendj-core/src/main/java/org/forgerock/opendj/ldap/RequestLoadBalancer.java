@@ -20,6 +20,7 @@ import static org.forgerock.util.Utils.closeSilently;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.requests.AbandonRequest;
@@ -62,12 +63,36 @@ final class RequestLoadBalancer extends LoadBalancer {
      */
     private final Function<Request, Integer, NeverThrowsException> nextFactoryFunction;
 
+    /**
+     * Tracks the load of each connection factory in order to route requests to the least loaded one, or {@code null}
+     * if requests are routed using {@link #nextFactoryFunction}.
+     */
+    private final RequestLoadMonitor loadMonitor;
+
     RequestLoadBalancer(final String loadBalancerName,
                         final Collection<? extends ConnectionFactory> factories,
                         final Options options,
                         final Function<Request, Integer, NeverThrowsException> nextFactoryFunction) {
         super(loadBalancerName, factories, options);
         this.nextFactoryFunction = nextFactoryFunction;
+        this.loadMonitor = null;
+    }
+
+    RequestLoadBalancer(final String loadBalancerName,
+                        final Collection<? extends ConnectionFactory> factories,
+                        final Options options,
+                        final RequestLoadMonitor loadMonitor) {
+        super(loadBalancerName, factories, options);
+        this.nextFactoryFunction = null;
+        this.loadMonitor = loadMonitor;
+    }
+
+    /**
+     * Returns the load statistics of each connection factory, or {@code null} if this load-balancer does not track
+     * the load of its connection factories.
+     */
+    List<? extends LoadBalancerStatistics> getStatistics() {
+        return loadMonitor != null ? loadMonitor.getStatistics() : null;
     }
 
     @Override
@@ -214,8 +239,25 @@ final class RequestLoadBalancer extends LoadBalancer {
             if (state.isClosed()) {
                 throw new IllegalStateException();
             }
+            final ConnectionFactory factory;
+            try {
+                factory = getMonitoredConnectionFactory(getInitialConnectionFactoryIndex(request));
+            } catch (final LdapException e) {
+                state.notifyConnectionError(false, e);
+                return newFailedLdapPromise(e);
+            }
+            if (loadMonitor == null) {
+                return getConnectionAndSendRequest(factory, sendRequest);
+            }
+            final int index = getConnectionFactoryIndex(factory);
+            final long startTime = loadMonitor.requestStarted(index);
+            return loadMonitor.requestSent(index, startTime, getConnectionAndSendRequest(factory, sendRequest));
+        }
+
+        private <R> LdapPromise<R> getConnectionAndSendRequest(
+                final ConnectionFactory factory, final AsyncFunction<Connection, R, LdapException> sendRequest) {
             final AtomicReference<Connection> connectionHolder = new AtomicReference<>();
-            return getConnectionAsync(request)
+            return getConnectionAsync(factory)
                     .thenOnResult(new ResultHandler<Connection>() {
                         @Override
                         public void handleResult(final Connection connection) {
@@ -231,21 +273,21 @@ final class RequestLoadBalancer extends LoadBalancer {
                     });
         }
 
-        private LdapPromise<Connection> getConnectionAsync(final Request request) {
-            try {
-                final int index = nextFactoryFunction.apply(request);
-                final ConnectionFactory factory = getMonitoredConnectionFactory(index);
-                return LdapPromises.asPromise(factory.getConnectionAsync()
-                                                     .thenOnException(new ExceptionHandler<LdapException>() {
-                                                         @Override
-                                                         public void handleException(final LdapException e) {
-                                                             state.notifyConnectionError(false, e);
-                                                         }
-                                                     }));
-            } catch (final LdapException e) {
-                state.notifyConnectionError(false, e);
-                return newFailedLdapPromise(e);
+        private int getInitialConnectionFactoryIndex(final Request request) {
+            if (loadMonitor != null) {
+                return loadMonitor.selectConnectionFactoryIndex(RequestLoadBalancer.this);
             }
+            return nextFactoryFunction.apply(request);
+        }
+
+        private LdapPromise<Connection> getConnectionAsync(final ConnectionFactory factory) {
+            return LdapPromises.asPromise(factory.getConnectionAsync()
+                                                 .thenOnException(new ExceptionHandler<LdapException>() {
+                                                     @Override
+                                                     public void handleException(final LdapException e) {
+                                                         state.notifyConnectionError(false, e);
+                                                     }
+                                                 }));
         }
     }
 }
@@ -0,0 +1,320 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.forgerock.opendj.ldap.Connections.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.util.Options;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * Tracks the in-flight requests and the response times of each connection factory of a {@link RequestLoadBalancer}
+ * in order to route each request to the least loaded connection factory.
+ * <p>
+ * The load of a connection factory is the number of its in-flight requests weighted by its exponentially weighted
+ * moving average response time. Connection factories which are much slower than the others, or whose requests keep
+ * failing, are ejected for a while so that they only receive requests when no other connection factory is available.
+ */
+final class RequestLoadMonitor {
+    /** The weight given to the most recent response time in the moving average. */
+    private static final double RESPONSE_TIME_ALPHA = 0.1;
+
+    /** The minimum number of response times to collect before comparing the average response times. */
+    private static final int MIN_SAMPLES_FOR_OUTLIER_DETECTION = 10;
+
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /** The load of a single connection factory. */
+    private final class ServerLoad implements LoadBalancerStatistics {
+        private final ConnectionFactory factory;
+        private final AtomicInteger activeRequests = new AtomicInteger();
+        private final AtomicLong completedRequests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+
+        /** Written while holding the lock on this object. */
+        private volatile double averageResponseTimeNanos;
+        /** Guarded by this. */
+        private int samples;
+        /** Guarded by this. */
+        private int consecutiveFailures;
+        /** The time at which an ejected connection factory may be used again, or {@code 0} if it is not ejected. */
+        private volatile long ejectedUntilMillis;
+
+        private ServerLoad(final ConnectionFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public ConnectionFactory getConnectionFactory() {
+            return factory;
+        }
+
+        @Override
+        public int getActiveRequests() {
+            return activeRequests.get();
+        }
+
+        @Override
+        public long getCompletedRequests() {
+            return completedRequests.get();
+        }
+
+        @Override
+        public long getFailedRequests() {
+            return failedRequests.get();
+        }
+
+        @Override
+        public long getAverageResponseTime(final TimeUnit unit) {
+            return unit.convert((long) averageResponseTimeNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean isEjected() {
+            final long ejectedUntil = ejectedUntilMillis;
+            return ejectedUntil != 0 && timeService.now() < ejectedUntil;
+        }
+
+        @Override
+        public String toString() {
+            return factory + "(active=" + getActiveRequests() + ", completed=" + getCompletedRequests()
+                    + ", failed=" + getFailedRequests() + ", averageResponseTimeMs="
+                    + getAverageResponseTime(TimeUnit.MILLISECONDS) + ", ejected=" + isEjected() + ")";
+        }
+
+        private synchronized void recordResponseTime(final long elapsedNanos) {
+            consecutiveFailures = 0;
+            if (samples++ == 0) {
+                averageResponseTimeNanos = elapsedNanos;
+            } else {
+                averageResponseTimeNanos += RESPONSE_TIME_ALPHA * (elapsedNanos - averageResponseTimeNanos);
+            }
+        }
+
+        private synchronized int recordFailure() {
+            return ++consecutiveFailures;
+        }
+
+        private synchronized int getSamples() {
+            return samples;
+        }
+
+        /** Gives the connection factory a fresh start once its ejection has expired. */
+        private void reinstateIfExpired() {
+            if (ejectedUntilMillis == 0) {
+                // Avoid locking when the connection factory is not ejected, which is the common case.
+                return;
+            }
+            synchronized (this) {
+                final long ejectedUntil = ejectedUntilMillis;
+                if (ejectedUntil != 0 && timeService.now() >= ejectedUntil) {
+                    ejectedUntilMillis = 0;
+                    averageResponseTimeNanos = 0;
+                    samples = 0;
+                    consecutiveFailures = 0;
+                    logger.debug(LocalizableMessage.raw("Reinstating connection factory '%s'", factory));
+                }
+            }
+        }
+    }
+
+    private final List<ServerLoad> servers;
+    private final double outlierResponseTimeRatio;
+    private final int outlierConsecutiveFailures;
+    private final long ejectionDurationMillis;
+    /** Ensures that the last available connection factory is never ejected. */
+    private final Object ejectionLock = new Object();
+
+    // Package private for testing.
+    TimeService timeService = TimeService.SYSTEM;
+
+    RequestLoadMonitor(final Collection<? extends ConnectionFactory> factories, final Options options) {
+        final List<ServerLoad> loads = new ArrayList<>(factories.size());
+        for (final ConnectionFactory factory : factories) {
+            loads.add(new ServerLoad(factory));
+        }
+        this.servers = Collections.unmodifiableList(loads);
+        this.outlierResponseTimeRatio = options.get(LOAD_BALANCER_OUTLIER_RESPONSE_TIME_RATIO);
+        this.outlierConsecutiveFailures = options.get(LOAD_BALANCER_OUTLIER_CONSECUTIVE_FAILURES);
+        this.ejectionDurationMillis = options.get(LOAD_BALANCER_OUTLIER_EJECTION_DURATION).to(TimeUnit.MILLISECONDS);
+    }
+
+    List<? extends LoadBalancerStatistics> getStatistics() {
+        return servers;
+    }
+
+    /**
+     * Returns the index of the operational connection factory having the lowest load. Ejected connection factories
+     * are only returned when all the operational connection factories are ejected. Ties are broken randomly.
+     * <p>
+     * The connection factories whose ejection has expired are reinstated with a fresh start.
+     *
+     * @param loadBalancer
+     *            The load-balancer which knows which connection factories are operational.
+     * @return The index of the connection factory which should be used for the next request.
+     */
+    int selectConnectionFactoryIndex(final LoadBalancer loadBalancer) {
+        final int size = servers.size();
+        final int offset = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+
+        // Connection factories without response times yet are assumed to be as fast as the others on average.
+        double totalResponseTime = 0;
+        int knownResponseTimes = 0;
+        for (final ServerLoad server : servers) {
+            server.reinstateIfExpired();
+            if (server.averageResponseTimeNanos > 0) {
+                totalResponseTime += server.averageResponseTimeNanos;
+                knownResponseTimes++;
+            }
+        }
+        final double defaultResponseTime = knownResponseTimes > 0 ? totalResponseTime / knownResponseTimes : 0;
+
+        int bestIndex = -1;
+        double bestLoad = Double.MAX_VALUE;
+        int firstOperationalIndex = -1;
+        for (int i = 0; i < size; i++) {
+            final int index = (offset + i) % size;
+            if (!loadBalancer.isOperational(index)) {
+                continue;
+            }
+            if (firstOperationalIndex < 0) {
+                firstOperationalIndex = index;
+            }
+            final ServerLoad server = servers.get(index);
+            if (server.isEjected()) {
+                continue;
+            }
+            final double responseTime = server.averageResponseTimeNanos;
+            final double load = (server.getActiveRequests() + 1)
+                    * ((responseTime > 0 ? responseTime : defaultResponseTime) + 1);
+            if (load < bestLoad) {
+                bestLoad = load;
+                bestIndex = index;
+            }
+        }
+        if (bestIndex >= 0) {
+            return bestIndex;
+        }
+        // Let the load-balancer fail over or report that no connection factories are available.
+        return firstOperationalIndex >= 0 ? firstOperationalIndex : offset;
+    }
+
+    /**
+     * Records that a request is about to be sent to a connection factory.
+     *
+     * @param index
+     *            The index of the connection factory.
+     * @return The time at which the request was started, which must be passed to
+     *         {@link #requestSent(int, long, LdapPromise)}.
+     */
+    long requestStarted(final int index) {
+        servers.get(index).activeRequests.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the outcome of a request once the returned promise completes.
+     *
+     * @param <R>
+     *            The type of the result.
+     * @param index
+     *            The index of the connection factory which processes the request.
+     * @param startTime
+     *            The time returned by {@link #requestStarted(int)}.
+     * @param promise
+     *            The promise of the request result.
+     * @return The provided promise.
+     */
+    <R> LdapPromise<R> requestSent(final int index, final long startTime, final LdapPromise<R> promise) {
+        return promise.thenOnResultOrException(new ResultHandler<R>() {
+            @Override
+            public void handleResult(final R result) {
+                requestCompleted(index, System.nanoTime() - startTime, false);
+            }
+        }, new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException e) {
+                // Other errors, such as noSuchObject, are regular responses from a healthy server.
+                final boolean serverFailure = e instanceof ConnectionException || e instanceof TimeoutResultException;
+                requestCompleted(index, System.nanoTime() - startTime, serverFailure);
+            }
+        });
+    }
+
+    // Package private for testing.
+    void requestCompleted(final int index, final long elapsedNanos, final boolean serverFailure) {
+        final ServerLoad server = servers.get(index);
+        server.activeRequests.decrementAndGet();
+        server.completedRequests.incrementAndGet();
+        if (serverFailure) {
+            server.failedRequests.incrementAndGet();
+            if (server.recordFailure() >= outlierConsecutiveFailures) {
+                eject(server, "too many consecutive failures");
+            }
+        } else {
+            server.recordResponseTime(elapsedNanos);
+            if (isResponseTimeOutlier(server)) {
+                eject(server, "slow responses");
+            }
+        }
+    }
+
+    private boolean isResponseTimeOutlier(final ServerLoad server) {
+        if (outlierResponseTimeRatio <= 0 || server.getSamples() < MIN_SAMPLES_FOR_OUTLIER_DETECTION) {
+            return false;
+        }
+        double fastestResponseTime = Double.MAX_VALUE;
+        for (final ServerLoad other : servers) {
+            if (other != server && !other.isEjected() && other.getSamples() >= MIN_SAMPLES_FOR_OUTLIER_DETECTION) {
+                fastestResponseTime = Math.min(fastestResponseTime, other.averageResponseTimeNanos);
+            }
+        }
+        return fastestResponseTime != Double.MAX_VALUE
+                && server.averageResponseTimeNanos > outlierResponseTimeRatio * fastestResponseTime;
+    }
+
+    private void eject(final ServerLoad server, final String reason) {
+        synchronized (ejectionLock) {
+            if (server.isEjected()) {
+                return;
+            }
+            int available = 0;
+            for (final ServerLoad other : servers) {
+                if (!other.isEjected()) {
+                    available++;
+                }
+            }
+            if (available > 1) {
+                server.ejectedUntilMillis = timeService.now() + ejectionDurationMillis;
+                logger.debug(LocalizableMessage.raw("Ejecting connection factory '%s' for %d ms because of %s",
+                        server.factory, ejectionDurationMillis, reason));
+            }
+        }
+    }
+}
@@ -0,0 +1,639 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionException;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A {@code BulkChangeRecordWriter} writes large numbers of change records by sending update requests (Add, Delete,
+ * Modify, or ModifyDN) asynchronously over several connections obtained from a connection factory, rather than
+ * waiting for each update result like a {@link ConnectionChangeRecordWriter}.
+ * <p>
+ * Up to a configurable number of update requests may be outstanding on each connection. Once all the connections
+ * are busy, writing a change record blocks until an update request completes. Change records are sent in the order
+ * in which they are written, except that a change record targeting an entry is not sent until the outstanding
+ * changes to the same entry, to its parent entry, or, for Delete and ModifyDN requests, to its child entries have
+ * completed. Therefore changes to the same entry are applied in order, and entries may be added or deleted in the
+ * usual top-down and bottom-up orders.
+ * <p>
+ * Update requests which fail because a connection was lost or because the server is busy or unavailable are retried
+ * a configurable number of times. Other failures, and failures which persist after the retries, are reported to
+ * the {@link FailedChangeRecordListener} if one was provided. Otherwise the first failure is propagated to the
+ * caller using an {@code LdapException} the next time a change record is written or this writer is flushed or
+ * closed.
+ * <p>
+ * <b>Note:</b> comments are not supported by bulk change record writers. Attempts to write comments will be ignored.
+ * This class is thread safe.
+ */
+public final class BulkChangeRecordWriter implements ChangeRecordWriter {
+    /**
+     * An interface for handling change records which could not be written by a {@code BulkChangeRecordWriter}.
+     * Implementations are invoked by the threads which process update results, so they must be thread safe and
+     * should return quickly.
+     */
+    public interface FailedChangeRecordListener {
+        /**
+         * Invoked when a change record could not be written.
+         *
+         * @param change
+         *            The change record which could not be written.
+         * @param error
+         *            The last error which was returned for the change record.
+         */
+        void handleFailedChangeRecord(ChangeRecord change, LdapException error);
+    }
+
+    /** A connection and the number of update requests which are outstanding on it. */
+    private final class Lane {
+        /** The connection, or {@code null} if it needs to be established. Guarded by lock. */
+        private Promise<Connection, LdapException> connection;
+        /** Guarded by lock. */
+        private int outstandingRequests;
+
+        private Promise<Connection, LdapException> getConnection() {
+            if (connection == null) {
+                connection = factory.getConnectionAsync();
+            }
+            return connection;
+        }
+
+        private void discardConnection(final Promise<Connection, LdapException> brokenConnection) {
+            if (connection == brokenConnection) {
+                connection = null;
+                closeConnection(brokenConnection);
+            }
+        }
+    }
+
+    /** A change record which has been sent and has not completed yet. */
+    private final class PendingChange implements ResultHandler<Result>, ExceptionHandler<LdapException> {
+        private final ChangeRecord change;
+        private final List<DN> names;
+        private final List<DN> parentNames;
+        private final boolean removesEntry;
+        private Lane lane;
+        private Promise<Connection, LdapException> connection;
+        private int retries;
+
+        private PendingChange(final ChangeRecord change) {
+            this.change = change;
+            this.names = new ArrayList<>(2);
+            this.parentNames = new ArrayList<>(2);
+            addName(change.getName());
+            if (change instanceof ModifyDNRequest) {
+                final ModifyDNRequest modifyDNRequest = (ModifyDNRequest) change;
+                final DN newSuperior = modifyDNRequest.getNewSuperior() != null
+                        ? modifyDNRequest.getNewSuperior() : change.getName().parent();
+                if (newSuperior != null) {
+                    addName(newSuperior.child(modifyDNRequest.getNewRDN()));
+                }
+            }
+            this.removesEntry = change instanceof DeleteRequest || change instanceof ModifyDNRequest;
+        }
+
+        private void addName(final DN name) {
+            names.add(name);
+            final DN parentName = name.parent();
+            if (parentName != null) {
+                parentNames.add(parentName);
+            }
+        }
+
+        /** Returns {@code true} if this change must wait for outstanding changes. Called while holding the lock. */
+        private boolean dependsOnOutstandingChanges() {
+            for (final DN name : names) {
+                if (outstandingChanges.containsKey(name)
+                        || (removesEntry && outstandingChildChanges.containsKey(name))) {
+                    return true;
+                }
+            }
+            for (final DN parentName : parentNames) {
+                if (outstandingChanges.containsKey(parentName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void send() {
+            lock.lock();
+            try {
+                connection = lane.getConnection();
+            } finally {
+                lock.unlock();
+            }
+            connection.thenAsync(new AsyncFunction<Connection, Result, LdapException>() {
+                @Override
+                public Promise<Result, LdapException> apply(final Connection value) {
+                    return value.applyChangeAsync(change);
+                }
+            }).thenOnResultOrException(this, this);
+        }
+
+        @Override
+        public void handleResult(final Result result) {
+            changeCompleted(this, null);
+        }
+
+        @Override
+        public void handleException(final LdapException error) {
+            final ResultCode resultCode = error.getResult().getResultCode();
+            final boolean isConnectionFailure = error instanceof ConnectionException;
+            if (isConnectionFailure || resultCode == ResultCode.BUSY || resultCode == ResultCode.UNAVAILABLE) {
+                final boolean retry;
+                lock.lock();
+                try {
+                    if (isConnectionFailure) {
+                        lane.discardConnection(connection);
+                    }
+                    retry = retries < maxRetries;
+                    if (retry) {
+                        retries++;
+                        retriedChanges++;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (retry) {
+                    send();
+                    return;
+                }
+            }
+            changeCompleted(this, error);
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final Lane[] lanes;
+    private final int maxOutstandingRequestsPerConnection;
+    private volatile int maxRetries = 3;
+    private volatile FailedChangeRecordListener listener;
+
+    /** Guards the state of the outstanding changes and the statistics. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled whenever a change completes. */
+    private final Condition changeCompleted = lock.newCondition();
+    /** The number of outstanding changes per target entry. Guarded by lock. */
+    private final Map<DN, Integer> outstandingChanges = new HashMap<>();
+    /** The number of outstanding changes per parent entry of their target entry. Guarded by lock. */
+    private final Map<DN, Integer> outstandingChildChanges = new HashMap<>();
+    /** Guarded by lock. */
+    private int outstandingRequests;
+    /** The first failure which has not been propagated yet. Guarded by lock. */
+    private LdapException failure;
+    /** Guarded by lock. */
+    private long writtenChanges;
+    /** Guarded by lock. */
+    private long completedChanges;
+    /** Guarded by lock. */
+    private long failedChanges;
+    /** Guarded by lock. */
+    private long retriedChanges;
+    /** Guarded by lock. */
+    private long firstWriteNanos;
+    /** Guarded by lock. */
+    private long lastCompletionNanos;
+
+    /**
+     * Creates a new bulk change record writer whose destination is the provided connection factory.
+     *
+     * @param factory
+     *            The connection factory from which the connections will be obtained, typically a connection pool.
+     *            It will not be closed when this writer is closed.
+     * @param connections
+     *            The number of connections over which update requests will be sent.
+     * @param maxOutstandingRequestsPerConnection
+     *            The maximum number of update requests which may be outstanding on each connection.
+     * @throws IllegalArgumentException
+     *             If {@code connections} or {@code maxOutstandingRequestsPerConnection} was less than {@code 1}.
+     * @throws NullPointerException
+     *             If {@code factory} was {@code null}.
+     */
+    public BulkChangeRecordWriter(final ConnectionFactory factory, final int connections,
+            final int maxOutstandingRequestsPerConnection) {
+        Reject.ifNull(factory);
+        Reject.ifFalse(connections > 0, "connections must be positive");
+        Reject.ifFalse(maxOutstandingRequestsPerConnection > 0, "maxOutstandingRequestsPerConnection must be positive");
+        this.factory = factory;
+        this.maxOutstandingRequestsPerConnection = maxOutstandingRequestsPerConnection;
+        this.lanes = new Lane[connections];
+        for (int i = 0; i < connections; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Sets the listener which will be notified of the change records which could not be written. By default no
+     * listener is set and the first failure is propagated to the caller.
+     *
+     * @param listener
+     *            The listener, or {@code null} if failures should be propagated to the caller.
+     * @return A reference to this bulk change record writer.
+     */
+    public BulkChangeRecordWriter setFailedChangeRecordListener(final FailedChangeRecordListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the number of times that an update request is retried when it fails because a connection was lost or
+     * because the server is busy or unavailable. The default is {@code 3}.
+     * <p>
+     * Note that an update request which is retried after a connection was lost may have been applied already, in
+     * which case the retry fails, for example, because the entry already exists.
+     *
+     * @param maxRetries
+     *            The maximum number of retries per update request.
+     * @return A reference to this bulk change record writer.
+     * @throws IllegalArgumentException
+     *             If {@code maxRetries} was negative.
+     */
+    public BulkChangeRecordWriter setMaxRetries(final int maxRetries) {
+        Reject.ifFalse(maxRetries >= 0, "maxRetries must not be negative");
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Waits for the outstanding update requests to complete and closes the connections used by this bulk change
+     * record writer. Closing a previously closed writer has no effect.
+     *
+     * @throws LdapException
+     *             If a change record could not be written and no {@link FailedChangeRecordListener} is set, or if
+     *             the current thread was interrupted while waiting.
+     */
+    @Override
+    public void close() throws LdapException {
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                for (final Lane lane : lanes) {
+                    if (lane.connection != null) {
+                        closeConnection(lane.connection);
+                        lane.connection = null;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits for all the outstanding update requests to complete.
+     *
+     * @throws LdapException
+     *             If a change record could not be written and no {@link FailedChangeRecordListener} is set, or if
+     *             the current thread was interrupted while waiting.
+     */
+    @Override
+    public void flush() throws LdapException {
+        lock.lock();
+        try {
+            while (outstandingRequests > 0) {
+                changeCompleted.await();
+            }
+            propagateFailure();
+        } catch (final InterruptedException e) {
+            throw interrupted(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of change records which have been written to this writer.
+     *
+     * @return The number of written change records.
+     */
+    public long getWrittenChangeRecords() {
+        lock.lock();
+        try {
+            return writtenChanges;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of change records whose update request has completed, whether successfully or not.
+     *
+     * @return The number of completed change records.
+     */
+    public long getCompletedChangeRecords() {
+        lock.lock();
+        try {
+            return completedChanges;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of change records which could not be written.
+     *
+     * @return The number of failed change records.
+     */
+    public long getFailedChangeRecords() {
+        lock.lock();
+        try {
+            return failedChanges;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times that update requests have been retried.
+     *
+     * @return The number of retries.
+     */
+    public long getRetries() {
+        lock.lock();
+        try {
+            return retriedChanges;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of update requests which have been sent and have not completed yet.
+     *
+     * @return The number of outstanding update requests.
+     */
+    public int getOutstandingRequests() {
+        lock.lock();
+        try {
+            return outstandingRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the average number of change records completed per second, measured from the first write to the last
+     * completion.
+     *
+     * @return The throughput in change records per second, or {@code 0} if no change records have completed yet.
+     */
+    public double getThroughput() {
+        lock.lock();
+        try {
+            final long elapsedNanos = lastCompletionNanos - firstWriteNanos;
+            if (completedChanges == 0 || elapsedNanos <= 0) {
+                return 0;
+            }
+            return completedChanges * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the provided Add request, blocking while the maximum number of update requests are outstanding.
+     *
+     * @param change
+     *            The {@code AddRequest} to be written.
+     * @return A reference to this bulk change record writer.
+     * @throws LdapException
+     *             If a previous change record could not be written and no {@link FailedChangeRecordListener} is set,
+     *             or if the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code change} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeChangeRecord(final AddRequest change) throws LdapException {
+        return write(change);
+    }
+
+    /**
+     * Sends the provided change record, blocking while the maximum number of update requests are outstanding.
+     *
+     * @param change
+     *            The change record to be written.
+     * @return A reference to this bulk change record writer.
+     * @throws LdapException
+     *             If a previous change record could not be written and no {@link FailedChangeRecordListener} is set,
+     *             or if the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code change} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeChangeRecord(final ChangeRecord change) throws LdapException {
+        return write(change);
+    }
+
+    /**
+     * Sends the provided Delete request, blocking while the maximum number of update requests are outstanding.
+     *
+     * @param change
+     *            The {@code DeleteRequest} to be written.
+     * @return A reference to this bulk change record writer.
+     * @throws LdapException
+     *             If a previous change record could not be written and no {@link FailedChangeRecordListener} is set,
+     *             or if the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code change} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeChangeRecord(final DeleteRequest change) throws LdapException {
+        return write(change);
+    }
+
+    /**
+     * Sends the provided ModifyDN request, blocking while the maximum number of update requests are outstanding.
+     *
+     * @param change
+     *            The {@code ModifyDNRequest} to be written.
+     * @return A reference to this bulk change record writer.
+     * @throws LdapException
+     *             If a previous change record could not be written and no {@link FailedChangeRecordListener} is set,
+     *             or if the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code change} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeChangeRecord(final ModifyDNRequest change) throws LdapException {
+        return write(change);
+    }
+
+    /**
+     * Sends the provided Modify request, blocking while the maximum number of update requests are outstanding.
+     *
+     * @param change
+     *            The {@code ModifyRequest} to be written.
+     * @return A reference to this bulk change record writer.
+     * @throws LdapException
+     *             If a previous change record could not be written and no {@link FailedChangeRecordListener} is set,
+     *             or if the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code change} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeChangeRecord(final ModifyRequest change) throws LdapException {
+        return write(change);
+    }
+
+    /**
+     * Bulk change record writers do not support comments, so the provided comment will be ignored.
+     *
+     * @param comment
+     *            The {@code CharSequence} to be written as a comment.
+     * @return A reference to this bulk change record writer.
+     * @throws NullPointerException
+     *             If {@code comment} was {@code null}.
+     */
+    @Override
+    public BulkChangeRecordWriter writeComment(final CharSequence comment) {
+        Reject.ifNull(comment);
+        return this;
+    }
+
+    private BulkChangeRecordWriter write(final ChangeRecord change) throws LdapException {
+        Reject.ifNull(change);
+        final PendingChange pendingChange = new PendingChange(change);
+        lock.lock();
+        try {
+            propagateFailure();
+            if (writtenChanges++ == 0) {
+                firstWriteNanos = System.nanoTime();
+            }
+            Lane lane;
+            while ((lane = getLeastLoadedLane()) == null || pendingChange.dependsOnOutstandingChanges()) {
+                changeCompleted.await();
+            }
+            pendingChange.lane = lane;
+            lane.outstandingRequests++;
+            outstandingRequests++;
+            for (final DN name : pendingChange.names) {
+                increment(outstandingChanges, name);
+            }
+            for (final DN parentName : pendingChange.parentNames) {
+                increment(outstandingChildChanges, parentName);
+            }
+        } catch (final InterruptedException e) {
+            throw interrupted(e);
+        } finally {
+            lock.unlock();
+        }
+        pendingChange.send();
+        return this;
+    }
+
+    private void changeCompleted(final PendingChange pendingChange, final LdapException error) {
+        final FailedChangeRecordListener failureListener = listener;
+        lock.lock();
+        try {
+            pendingChange.lane.outstandingRequests--;
+            outstandingRequests--;
+            for (final DN name : pendingChange.names) {
+                decrement(outstandingChanges, name);
+            }
+            for (final DN parentName : pendingChange.parentNames) {
+                decrement(outstandingChildChanges, parentName);
+            }
+            completedChanges++;
+            lastCompletionNanos = System.nanoTime();
+            if (error != null) {
+                failedChanges++;
+                if (failureListener == null && failure == null) {
+                    failure = error;
+                }
+            }
+            changeCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (error != null && failureListener != null) {
+            failureListener.handleFailedChangeRecord(pendingChange.change, error);
+        }
+    }
+
+    /** Returns the lane with the fewest outstanding requests, or {@code null} if all the lanes are full. */
+    private Lane getLeastLoadedLane() {
+        Lane leastLoadedLane = null;
+        for (final Lane lane : lanes) {
+            if (lane.outstandingRequests < maxOutstandingRequestsPerConnection
+                    && (leastLoadedLane == null || lane.outstandingRequests < leastLoadedLane.outstandingRequests)) {
+                leastLoadedLane = lane;
+            }
+        }
+        return leastLoadedLane;
+    }
+
+    private void propagateFailure() throws LdapException {
+        if (failure != null) {
+            final LdapException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    private static void increment(final Map<DN, Integer> counts, final DN name) {
+        final Integer count = counts.get(name);
+        counts.put(name, count != null ? count + 1 : 1);
+    }
+
+    private static void decrement(final Map<DN, Integer> counts, final DN name) {
+        final Integer count = counts.get(name);
+        if (count == null || count <= 1) {
+            counts.remove(name);
+        } else {
+            counts.put(name, count - 1);
+        }
+    }
+
+    private static void closeConnection(final Promise<Connection, LdapException> connection) {
+        connection.thenOnResult(new ResultHandler<Connection>() {
+            @Override
+            public void handleResult(final Connection value) {
+                value.close();
+            }
+        });
+    }
+
+    private static LdapException interrupted(final InterruptedException e) {
+        return newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED, e);
+    }
+}
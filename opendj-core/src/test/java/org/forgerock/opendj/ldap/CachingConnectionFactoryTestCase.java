@@ -0,0 +1,257 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
+import static org.forgerock.opendj.ldap.spi.LdapPromiseImpl.newLdapPromiseImpl;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.forgerock.util.Options.defaultOptions;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.controls.EntryChangeNotificationResponseControl;
+import org.forgerock.opendj.ldap.controls.PersistentSearchChangeType;
+import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.forgerock.util.Options;
+import org.forgerock.util.time.TimeService;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class CachingConnectionFactoryTestCase extends SdkTestCase {
+    private static final String USER_DN = "uid=test1,ou=People,dc=example,dc=com";
+
+    private MemoryBackend backend;
+    private Connection backendConnection;
+    private TimeService timeService;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        backend = new MemoryBackend(new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: domain",
+                "objectClass: top",
+                "dc: example",
+                "",
+                "dn: ou=People,dc=example,dc=com",
+                "objectClass: organizationalunit",
+                "objectClass: top",
+                "ou: People",
+                "",
+                "dn: " + USER_DN,
+                "objectClass: top",
+                "objectClass: person",
+                "uid: test1",
+                "cn: test user 1",
+                "sn: user 1"));
+        backendConnection = newInternalConnection(backend);
+        timeService = mock(TimeService.class);
+        when(timeService.now()).thenReturn(0L);
+    }
+
+    @Test
+    public void searchResultsShouldBeCachedUntilTheyExpire() throws Exception {
+        final CachingConnectionFactory factory = newCachingFactory(newInternalConnectionFactory(backend),
+                defaultOptions());
+        try (Connection connection = factory.getConnection()) {
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+            modifySurname(backendConnection, "modified");
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+            assertThat(factory.getCachedSearchCount()).isEqualTo(1);
+
+            when(timeService.now()).thenReturn(TimeUnit.SECONDS.toMillis(60));
+            assertThat(readSurname(connection)).isEqualTo("modified");
+        }
+        factory.close();
+    }
+
+    @Test
+    public void updatesShouldInvalidateCachedSearchResults() throws Exception {
+        final CachingConnectionFactory factory = newCachingFactory(newInternalConnectionFactory(backend),
+                defaultOptions());
+        try (Connection connection = factory.getConnection()) {
+            final List<SearchResultEntry> entries = new ArrayList<>();
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+            connection.search(Requests.newSearchRequest("ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL,
+                    "(sn=user 1)"), entries);
+            assertThat(entries).hasSize(1);
+            try {
+                connection.search(Requests.newSearchRequest("dc=other,dc=com", SearchScope.BASE_OBJECT,
+                        "(objectClass=*)"), entries);
+            } catch (final LdapException expected) {
+                // Failed searches are not cached.
+            }
+            assertThat(factory.getCachedSearchCount()).isEqualTo(2);
+
+            modifySurname(connection, "modified");
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+            assertThat(readSurname(connection)).isEqualTo("modified");
+        }
+        factory.close();
+    }
+
+    @Test
+    public void movingAnEntryShouldInvalidateCachedSearchResultsBelowItsNewName() throws Exception {
+        backendConnection.add("dn: ou=Groups,dc=example,dc=com", "objectClass: organizationalunit",
+                "objectClass: top", "ou: Groups");
+        // The memory backend does not support renaming entries: emulate it.
+        final Connection movingConnection = new AbstractConnectionWrapper<Connection>(backendConnection) {
+            @Override
+            public LdapPromise<Result> modifyDNAsync(final ModifyDNRequest request,
+                    final IntermediateResponseHandler intermediateResponseHandler) {
+                try {
+                    final AddRequest addRequest = Requests.newAddRequest(connection.readEntry(request.getName()))
+                            .setName(request.getNewSuperior().child(request.getNewRDN()));
+                    connection.delete(request.getName().toString());
+                    connection.add(addRequest);
+                    return newSuccessfulLdapPromise(newResult(ResultCode.SUCCESS));
+                } catch (final LdapException e) {
+                    return newFailedLdapPromise(e);
+                }
+            }
+        };
+        final ConnectionFactory backendFactory = mock(ConnectionFactory.class);
+        when(backendFactory.getConnectionAsync()).thenReturn(newResultPromise(movingConnection));
+
+        final CachingConnectionFactory factory = newCachingFactory(backendFactory, defaultOptions());
+        try (Connection connection = factory.getConnectionAsync().getOrThrow()) {
+            final SearchRequest groupsSearch = Requests.newSearchRequest("ou=Groups,dc=example,dc=com",
+                    SearchScope.SINGLE_LEVEL, "(objectClass=*)");
+            final List<SearchResultEntry> entries = new ArrayList<>();
+            connection.search(groupsSearch, entries);
+            assertThat(entries).isEmpty();
+            assertThat(factory.getCachedSearchCount()).isEqualTo(1);
+
+            connection.modifyDN(Requests.newModifyDNRequest(USER_DN, "uid=test1")
+                    .setNewSuperior("ou=Groups,dc=example,dc=com"));
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+            connection.search(groupsSearch, entries);
+            assertThat(entries).hasSize(1);
+            assertThat(entries.get(0).getName()).isEqualTo(DN.valueOf("uid=test1,ou=Groups,dc=example,dc=com"));
+        }
+        factory.close();
+    }
+
+    @Test
+    public void searchesWithControlsOrAfterBindShouldNotBeCached() throws Exception {
+        final CachingConnectionFactory factory = newCachingFactory(newInternalConnectionFactory(backend),
+                defaultOptions());
+        try (Connection connection = factory.getConnection()) {
+            connection.searchSingleEntry(Requests.newSearchRequest(USER_DN, SearchScope.BASE_OBJECT, "(objectClass=*)")
+                    .addControl(SubtreeDeleteRequestControl.newControl(false)));
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+
+            try {
+                connection.bind(Requests.newSimpleBindRequest());
+            } catch (final LdapException ignored) {
+                // The bind outcome does not matter.
+            }
+            readSurname(connection);
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+        }
+        factory.close();
+    }
+
+    @Test
+    public void cacheShouldNotExceedItsMaximumSize() throws Exception {
+        final CachingConnectionFactory factory = newCachingFactory(newInternalConnectionFactory(backend),
+                defaultOptions().set(SEARCH_RESULT_CACHE_MAX_SIZE, 1024L));
+        try (Connection connection = factory.getConnection()) {
+            connection.readEntry(USER_DN);
+            connection.readEntry(USER_DN, "sn");
+            connection.readEntry(USER_DN, "cn");
+            connection.readEntry("ou=People,dc=example,dc=com");
+            assertThat(factory.getCachedSearchCount()).isBetween(1, 3);
+        }
+        factory.close();
+    }
+
+    @Test
+    public void changeNotificationsShouldInvalidateCachedSearchResults() throws Exception {
+        final AbstractAsynchronousConnection changeConnection = mock(AbstractAsynchronousConnection.class);
+        final LdapPromiseImpl<Result> persistentSearch = newLdapPromiseImpl();
+        when(changeConnection.searchAsync(any(SearchRequest.class), any(SearchResultHandler.class)))
+                .thenReturn(persistentSearch);
+        final ConnectionFactory backendFactory = mock(ConnectionFactory.class);
+        when(backendFactory.getConnectionAsync()).thenReturn(
+                newResultPromise(newInternalConnection(backend)), newResultPromise((Connection) changeConnection));
+
+        final Options options = defaultOptions()
+                .set(SEARCH_RESULT_CACHE_INVALIDATION_BASE_DNS, singletonList(DN.valueOf("dc=example,dc=com")));
+        final CachingConnectionFactory factory = newCachingFactory(backendFactory, options);
+        try (Connection connection = factory.getConnectionAsync().getOrThrow()) {
+            // The first search subscribes to changes.
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+            final ArgumentCaptor<SearchResultHandler> changeHandler =
+                    ArgumentCaptor.forClass(SearchResultHandler.class);
+            verify(changeConnection).searchAsync(any(SearchRequest.class), changeHandler.capture());
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+            modifySurname(backendConnection, "modified");
+            assertThat(readSurname(connection)).isEqualTo("user 1");
+
+            changeHandler.getValue().handleEntry(newSearchResultEntry(USER_DN).addControl(
+                    EntryChangeNotificationResponseControl.newControl(PersistentSearchChangeType.MODIFY, (DN) null,
+                            -1)));
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+            assertThat(readSurname(connection)).isEqualTo("modified");
+            assertThat(factory.getCachedSearchCount()).isEqualTo(1);
+
+            // Losing the subscription flushes the cache and disables it.
+            persistentSearch.handleException(newLdapException(ResultCode.UNAVAILABLE));
+            verify(changeConnection).close();
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+            readSurname(connection);
+            assertThat(factory.getCachedSearchCount()).isEqualTo(0);
+        }
+        factory.close();
+    }
+
+    private CachingConnectionFactory newCachingFactory(final ConnectionFactory factory, final Options options) {
+        final CachingConnectionFactory cachingFactory = new CachingConnectionFactory(factory, options);
+        cachingFactory.timeService = timeService;
+        return cachingFactory;
+    }
+
+    private static String readSurname(final Connection connection) throws LdapException {
+        return connection.readEntry(USER_DN, "sn").parseAttribute("sn").asString();
+    }
+
+    private static void modifySurname(final Connection connection, final String surname) throws LdapException {
+        connection.modify("dn: " + USER_DN, "changetype: modify", "replace: sn", "sn: " + surname);
+    }
+}
@@ -12,22 +12,35 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.Options;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.Duration;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.Assert;
@@ -37,6 +50,7 @@ import static org.fest.assertions.Assertions.*;
 import static org.forgerock.opendj.ldap.Connections.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
 import static org.forgerock.opendj.ldap.TestCaseUtils.*;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
@@ -536,4 +550,289 @@ public class ConnectionPoolTestCase extends SdkTestCase {
         }
     }
 
+    /**
+     * Verifies that waiting connection requests are served in arrival order.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test
+    public void testWaitingRequestsAreServedInArrivalOrder() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final ConnectionPool pool = newFixedConnectionPool(mockConnectionFactory(connection1), 1);
+
+        final Connection pc1 = pool.getConnection();
+        final Promise<? extends Connection, LdapException> promise1 = pool.getConnectionAsync();
+        final Promise<? extends Connection, LdapException> promise2 = pool.getConnectionAsync();
+        assertThat(promise1.isDone()).isFalse();
+        assertThat(promise2.isDone()).isFalse();
+
+        pc1.close();
+        assertThat(promise1.isDone()).isTrue();
+        assertThat(promise2.isDone()).isFalse();
+
+        promise1.get().close();
+        assertThat(promise2.isDone()).isTrue();
+        promise2.get().close();
+        pool.close();
+    }
+
+    /**
+     * Verifies that a connection request fails once the maximum wait time has
+     * elapsed, and that the timed out request does not consume the next
+     * released connection.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test
+    public void testMaxWaitTime() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final MockScheduler scheduler = new MockScheduler();
+        final ConnectionPool pool = newFixedConnectionPool(mockConnectionFactory(connection1), 1,
+                Options.defaultOptions().set(CONNECTION_POOL_MAX_WAIT_TIME, Duration.duration("1 seconds"))
+                                        .set(CONNECTION_POOL_SCHEDULER, scheduler));
+
+        final Connection pc1 = pool.getConnection();
+        final Promise<? extends Connection, LdapException> promise = pool.getConnectionAsync();
+        assertThat(promise.isDone()).isFalse();
+        assertThat(scheduler.isScheduled()).isTrue();
+
+        scheduler.runFirstTask();
+        try {
+            promise.getOrThrow();
+            Assert.fail("Expected the connection request to time out");
+        } catch (LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.CLIENT_SIDE_TIMEOUT);
+        }
+        final ConnectionPoolStatistics statistics = getConnectionPoolStatistics(pool);
+        assertThat(statistics.getTimedOutRequests()).isEqualTo(1);
+        assertThat(statistics.getWaitingRequests()).isEqualTo(0);
+
+        // The released connection is made idle rather than given to the timed out request.
+        pc1.close();
+        assertThat(statistics.getIdleConnections()).isEqualTo(1);
+        pool.getConnection().close();
+        pool.close();
+    }
+
+    /**
+     * Verifies that a thread is given back the connection it last released
+     * when thread affinity is enabled, even if another connection has been
+     * released more recently by another thread.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test
+    public void testThreadAffinity() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final Connection connection2 = mock(Connection.class);
+        when(connection2.isValid()).thenReturn(true);
+        final BindRequest bind = Requests.newSimpleBindRequest("cn=test", "password".toCharArray());
+        when(connection1.bind(bind)).thenReturn(Responses.newBindResult(ResultCode.SUCCESS));
+
+        final ConnectionPool pool = newFixedConnectionPool(mockConnectionFactory(connection1, connection2), 2,
+                Options.defaultOptions().set(CONNECTION_POOL_THREAD_AFFINITY, true));
+        final Connection pc1 = pool.getConnection();
+        final Connection pc2 = pool.getConnection();
+
+        pc1.close();
+        final Thread otherThread = new Thread() {
+            @Override
+            public void run() {
+                pc2.close();
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+
+        // Without thread affinity the most recently released connection, connection2, would be returned.
+        final Connection pc3 = pool.getConnection();
+        pc3.bind(bind);
+        verify(connection1).bind(bind);
+        verify(connection2, times(0)).bind(bind);
+
+        pc3.close();
+        pool.close();
+        verify(connection1).close();
+        verify(connection2).close();
+    }
+
+    /**
+     * Verifies that concurrent threads acquiring and releasing connections,
+     * while requests time out and idle connections are purged, neither lose
+     * nor share connections when thread affinity is enabled, and that the
+     * threads which used the pool do not keep it reachable once closed.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test(timeOut = 60000)
+    public void testThreadAffinityWithConcurrentThreads() throws Exception {
+        final int nbThreads = 8;
+        final int nbIterations = 500;
+        final int maxPoolSize = nbThreads / 2;
+        final List<Connection> createdConnections = Collections.synchronizedList(new ArrayList<Connection>());
+        // The thread using each underlying connection, maintained by the deletes issued by the threads.
+        final ConcurrentHashMap<Object, Thread> owners = new ConcurrentHashMap<>();
+        final AtomicInteger sharedConnections = new AtomicInteger();
+        final Answer<Result> ownerTracker = new Answer<Result>() {
+            @Override
+            public Result answer(final InvocationOnMock invocation) {
+                if ("cn=acquired".equals(invocation.getArguments()[0])) {
+                    if (owners.putIfAbsent(invocation.getMock(), Thread.currentThread()) != null
+                            || owners.size() > maxPoolSize) {
+                        sharedConnections.incrementAndGet();
+                    }
+                } else {
+                    owners.remove(invocation.getMock());
+                }
+                return Responses.newResult(ResultCode.SUCCESS);
+            }
+        };
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnectionAsync()).thenAnswer(new Answer<Promise<Connection, LdapException>>() {
+            @Override
+            public Promise<Connection, LdapException> answer(final InvocationOnMock invocation) {
+                final Connection connection = mock(Connection.class);
+                when(connection.isValid()).thenReturn(true);
+                when(connection.delete(anyString())).thenAnswer(ownerTracker);
+                createdConnections.add(connection);
+                return newSuccessfulLdapPromise(connection);
+            }
+        });
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        CachedConnectionPool pool = new CachedConnectionPool(factory, 1, maxPoolSize, 5, TimeUnit.MILLISECONDS,
+                scheduler, 1, true, ConnectionPoolEventListener.NO_OP);
+        ConnectionPoolStatistics statistics = getConnectionPoolStatistics(pool);
+
+        // The threads remain alive until the end of the test, along with their thread local values.
+        final ExecutorService threads = Executors.newFixedThreadPool(nbThreads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Integer>> timeouts = new ArrayList<>();
+            for (int i = 0; i < nbThreads; i++) {
+                timeouts.add(threads.submit(newAcquireReleaseTask(pool, nbIterations, start)));
+            }
+            start.countDown();
+            int nbTimeouts = 0;
+            for (final Future<Integer> future : timeouts) {
+                nbTimeouts += future.get();
+            }
+
+            assertThat(sharedConnections.get()).isEqualTo(0);
+            assertThat(statistics.getActiveConnections()).isEqualTo(0);
+            assertThat(statistics.getWaitingRequests()).isEqualTo(0);
+            assertThat(statistics.getTimedOutRequests()).isEqualTo(nbTimeouts);
+            assertThat(statistics.getAcquiredConnections()).isEqualTo(nbThreads * nbIterations - nbTimeouts);
+            assertThat(statistics.getCreatedConnections()).isEqualTo(createdConnections.size());
+            assertThat(pool.currentPoolSize()).isLessThanOrEqualTo(maxPoolSize);
+
+            pool.close();
+            scheduler.shutdownNow();
+            assertThat(statistics.getClosedConnections()).isEqualTo(createdConnections.size());
+            for (final Connection connection : createdConnections) {
+                verify(connection).close();
+            }
+            createdConnections.clear();
+
+            final WeakReference<CachedConnectionPool> poolRef = new WeakReference<>(pool);
+            pool = null;
+            statistics = null;
+            for (int i = 0; i < 100 && poolRef.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertThat(poolRef.get()).isNull();
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /** Returns a task which repeatedly acquires and releases a connection, and returns the number of timeouts. */
+    private static Callable<Integer> newAcquireReleaseTask(final ConnectionPool pool, final int nbIterations,
+            final CountDownLatch start) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                start.await();
+                int nbTimeouts = 0;
+                for (int i = 0; i < nbIterations; i++) {
+                    final Connection connection;
+                    try {
+                        connection = pool.getConnection();
+                    } catch (final LdapException e) {
+                        assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.CLIENT_SIDE_TIMEOUT);
+                        nbTimeouts++;
+                        continue;
+                    }
+                    connection.delete("cn=acquired");
+                    if (i % 50 == 0) {
+                        // Let the idle connections expire.
+                        Thread.sleep(10);
+                    }
+                    connection.delete("cn=released");
+                    connection.close();
+                }
+                return nbTimeouts;
+            }
+        };
+    }
+
+    /**
+     * Verifies that the pool statistics are maintained and that the event
+     * listener is notified.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test
+    public void testStatisticsAndEventListener() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final Connection connection2 = mock(Connection.class);
+        when(connection2.isValid()).thenReturn(true);
+        final ConnectionPoolEventListener listener = mock(ConnectionPoolEventListener.class);
+        final ConnectionPool pool = newCachedConnectionPool(mockConnectionFactory(connection1, connection2), 0, 2,
+                Options.defaultOptions().set(CONNECTION_POOL_EVENT_LISTENER, listener));
+        final ConnectionPoolStatistics statistics = getConnectionPoolStatistics(pool);
+
+        final Connection pc1 = pool.getConnection();
+        final Connection pc2 = pool.getConnection();
+        assertThat(statistics.getActiveConnections()).isEqualTo(2);
+        assertThat(statistics.getIdleConnections()).isEqualTo(0);
+        assertThat(statistics.getCreatedConnections()).isEqualTo(2);
+        assertThat(statistics.getAcquiredConnections()).isEqualTo(2);
+        assertThat(statistics.getWaitedRequests()).isEqualTo(2);
+
+        pc1.close();
+        assertThat(statistics.getActiveConnections()).isEqualTo(1);
+        assertThat(statistics.getIdleConnections()).isEqualTo(1);
+
+        // Reusing an idle connection does not wait.
+        pool.getConnection().close();
+        assertThat(statistics.getAcquiredConnections()).isEqualTo(3);
+        assertThat(statistics.getWaitedRequests()).isEqualTo(2);
+
+        pc2.close();
+        pool.close();
+        assertThat(statistics.getIdleConnections()).isEqualTo(0);
+        assertThat(statistics.getClosedConnections()).isEqualTo(2);
+
+        verify(listener, times(2)).handleConnectionCreated(statistics);
+        verify(listener, times(3)).handleConnectionAcquired(same(statistics), anyLong());
+        verify(listener, times(2)).handleConnectionClosed(statistics);
+        verify(listener, times(0)).handleConnectionRequestTimedOut(any(ConnectionPoolStatistics.class), anyLong());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testStatisticsAreOnlyAvailableForCachedConnectionPools() {
+        getConnectionPoolStatistics(mock(ConnectionPool.class));
+    }
+
 }
@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.controls.AssertionRequestControl;
 import org.forgerock.opendj.ldap.controls.PermissiveModifyRequestControl;
@@ -36,6 +38,7 @@ import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldif.ConnectionEntryReader;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.testng.annotations.DataProvider;
@@ -590,7 +593,146 @@ public class MemoryBackendTestCase extends SdkTestCase {
                 getUser1Entry());
     }
 
+    @Test
+    public void testSearchWithEqualityIndex() throws Exception {
+        final MemoryBackend backend = getBackend().addEqualityIndex("uid").addEqualityIndex("sn");
+        final Connection connection = newInternalConnection(backend);
+        assertThat(searchNames(connection, "(uid=test2)")).containsExactly("uid=test2,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(&(objectClass=person)(sn=USER 3))")).containsExactly(
+                "uid=test3,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(|(uid=test5)(uid=test1)(uid=missing))")).containsExactly(
+                "uid=test1,ou=People,dc=example,dc=com", "uid=test5,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(&(uid=test1)(sn=user 2))")).isEmpty();
+
+        // The index must follow the updates
+        connection.modify("dn: uid=test2,ou=People,dc=example,dc=com", "changetype: modify", "replace: uid",
+                "uid: renamed2");
+        connection.delete("uid=test5,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(uid=test2)")).isEmpty();
+        assertThat(searchNames(connection, "(uid=renamed2)")).containsExactly(
+                "uid=test2,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(uid=test5)")).isEmpty();
+    }
+
+    @Test
+    public void testSearchWithOrderingIndex() throws Exception {
+        final MemoryBackend backend = getBackend().addOrderingIndex("dnQualifier");
+        final Connection connection = newInternalConnection(backend);
+        for (int i = 1; i <= 5; i++) {
+            connection.modify("dn: uid=test" + i + ",ou=People,dc=example,dc=com", "changetype: modify",
+                    "add: dnQualifier", "dnQualifier: q" + i);
+        }
+        assertThat(searchNames(connection, "(dnQualifier>=q4)")).containsExactly(
+                "uid=test4,ou=People,dc=example,dc=com", "uid=test5,ou=People,dc=example,dc=com");
+        assertThat(searchNames(connection, "(&(objectClass=person)(dnQualifier<=Q2))")).containsExactly(
+                "uid=test1,ou=People,dc=example,dc=com", "uid=test2,ou=People,dc=example,dc=com");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddIndexWithoutMatchingRule() throws Exception {
+        getBackend().addOrderingIndex("uid");
+    }
+
+    @DataProvider
+    public Object[][] concurrentUpdatesFilters() {
+        return new Object[][] { { "(objectClass=person)", 5, 4 }, { "(|(sn=user 3)(sn=user 5))", 2, 0 } };
+    }
+
+    @Test(dataProvider = "concurrentUpdatesFilters")
+    public void testSearchDoesNotSeeConcurrentUpdates(final String filter, final int expectedEntries,
+            final int expectedEntriesAfterUpdates) throws Exception {
+        final MemoryBackend backend = getBackend().addEqualityIndex("sn");
+        final Connection writer = newInternalConnection(backend);
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        newInternalConnection(backend).search(
+                Requests.newSearchRequest("ou=People,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, filter),
+                new SearchResultHandler() {
+                    @Override
+                    public boolean handleEntry(final SearchResultEntry entry) {
+                        if (entries.isEmpty()) {
+                            try {
+                                writer.modify("dn: uid=test3,ou=People,dc=example,dc=com", "changetype: modify",
+                                        "replace: sn", "sn: modified");
+                                writer.delete("uid=test5,ou=People,dc=example,dc=com");
+                            } catch (final LdapException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        entries.add(entry);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean handleReference(final SearchResultReference reference) {
+                        return true;
+                    }
+                });
+
+        // The search returns the entries as they were when it started
+        assertThat(entries).hasSize(expectedEntries);
+        for (final SearchResultEntry entry : entries) {
+            if (entry.getName().toString().startsWith("uid=test3")) {
+                assertThat(entry.parseAttribute("sn").asString()).isEqualTo("user 3");
+            }
+        }
+        assertThat(backend.get("uid=test3,ou=People,dc=example,dc=com").parseAttribute("sn").asString())
+                .isEqualTo("modified");
+        assertThat(backend.contains("uid=test5,ou=People,dc=example,dc=com")).isFalse();
+        assertThat(searchNames(writer, filter)).hasSize(expectedEntriesAfterUpdates);
+    }
+
+    @Test(timeOut = 60000)
+    public void testReadsDoNotMissConcurrentlyModifiedEntry() throws Exception {
+        final MemoryBackend backend = getBackend();
+        final String dn = "uid=test3,ou=People,dc=example,dc=com";
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicReference<Throwable> writerError = new AtomicReference<>();
+        final Thread writerThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final Connection writer = newInternalConnection(backend);
+                    for (int i = 0; !stopped.get(); i++) {
+                        writer.modify("dn: " + dn, "changetype: modify", "replace: description",
+                                "description: " + i);
+                    }
+                } catch (final Throwable t) {
+                    writerError.set(t);
+                }
+            }
+        };
+        writerThread.start();
+        try {
+            final Connection reader = newInternalConnection(backend);
+            for (int i = 0; i < 20000 && writerError.get() == null; i++) {
+                assertThat(backend.get(dn)).isNotNull();
+                assertThat(reader.readEntry(dn)).isNotNull();
+                if (i % 100 == 0) {
+                    assertThat(new ArrayList<>(backend.getAll())).hasSize(numberOfEntriesInBackend);
+                }
+            }
+        } finally {
+            stopped.set(true);
+            writerThread.join();
+        }
+        assertThat(writerError.get()).isNull();
+    }
+
+    private List<String> searchNames(final Connection connection, final String filter) throws Exception {
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        connection.search(Requests.newSearchRequest("dc=com", SearchScope.WHOLE_SUBTREE, filter), entries);
+        final List<String> names = new ArrayList<>();
+        for (final SearchResultEntry entry : entries) {
+            names.add(entry.getName().toString());
+        }
+        return names;
+    }
+
     private Connection getConnection() throws IOException {
+        return newInternalConnection(getBackend());
+    }
+
+    private MemoryBackend getBackend() throws IOException {
         // @formatter:off
         String[] ldifEntries = new String[] {
             "dn: dc=com",
@@ -659,8 +801,7 @@ public class MemoryBackendTestCase extends SdkTestCase {
         };
         // @formatter:on
         numberOfEntriesInBackend = getNumberOfEntries(ldifEntries);
-        final MemoryBackend backend = new MemoryBackend(new LDIFEntryReader(ldifEntries));
-        return newInternalConnection(backend);
+        return new MemoryBackend(new LDIFEntryReader(ldifEntries));
     }
 
     private int getNumberOfEntries(String[] ldifEntries) {
@@ -0,0 +1,217 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.forgerock.util.Options.defaultOptions;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.util.Options;
+import org.forgerock.util.time.TimeService;
+import org.mockito.Mock;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class RequestLoadMonitorTestCase extends SdkTestCase {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Mock private ConnectionFactory factory1;
+    @Mock private ConnectionFactory factory2;
+    @Mock private ConnectionFactory factory3;
+    @Mock private AbstractAsynchronousConnection connection;
+    @Mock private TimeService timeService;
+    private LoadBalancer loadBalancer;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        TestCaseUtils.setDefaultLogLevel(Level.SEVERE);
+        initMocks(this);
+        when(timeService.now()).thenReturn(0L);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        if (loadBalancer != null) {
+            loadBalancer.close();
+            loadBalancer = null;
+        }
+    }
+
+    @Test
+    public void requestsShouldBeRoutedToTheFactoryWithFewestActiveRequests() {
+        final RequestLoadMonitor monitor = newMonitor(defaultOptions());
+        monitor.requestStarted(0);
+        monitor.requestStarted(0);
+        monitor.requestStarted(2);
+        for (int i = 0; i < 10; i++) {
+            assertThat(monitor.selectConnectionFactoryIndex(loadBalancer)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void requestsShouldBeRoutedToTheFastestFactory() {
+        final Options options = defaultOptions().set(LOAD_BALANCER_OUTLIER_RESPONSE_TIME_RATIO, 0.0);
+        final RequestLoadMonitor monitor = newMonitor(options);
+        completeRequests(monitor, 0, 10, SLOW);
+        completeRequests(monitor, 1, 10, FAST);
+        // The third factory is assumed to be as fast as the average.
+        for (int i = 0; i < 10; i++) {
+            assertThat(monitor.selectConnectionFactoryIndex(loadBalancer)).isEqualTo(1);
+        }
+        assertThat(monitor.getStatistics().get(0).isEjected()).isFalse();
+        assertThat(monitor.getStatistics().get(1).getAverageResponseTime(TimeUnit.MILLISECONDS)).isEqualTo(1);
+    }
+
+    @Test
+    public void slowFactoriesShouldBeEjectedAndReinstated() {
+        final RequestLoadMonitor monitor = newMonitor(defaultOptions());
+        completeRequests(monitor, 0, 10, FAST);
+        completeRequests(monitor, 1, 10, FAST);
+        completeRequests(monitor, 2, 10, SLOW);
+
+        final LoadBalancerStatistics statistics = monitor.getStatistics().get(2);
+        assertThat(statistics.isEjected()).isTrue();
+        monitor.requestStarted(0);
+        monitor.requestStarted(1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(monitor.selectConnectionFactoryIndex(loadBalancer)).isNotEqualTo(2);
+        }
+
+        when(timeService.now()).thenReturn(TimeUnit.SECONDS.toMillis(30));
+        assertThat(statistics.isEjected()).isFalse();
+        // Reading the statistics does not reinstate the factory, only selecting one does.
+        assertThat(statistics.getAverageResponseTime(TimeUnit.NANOSECONDS)).isEqualTo(SLOW);
+        assertThat(statistics.toString()).contains("ejected=false");
+        assertThat(statistics.getAverageResponseTime(TimeUnit.NANOSECONDS)).isEqualTo(SLOW);
+
+        monitor.selectConnectionFactoryIndex(loadBalancer);
+        assertThat(statistics.getAverageResponseTime(TimeUnit.NANOSECONDS)).isEqualTo(0);
+    }
+
+    @Test
+    public void failingFactoriesShouldBeEjected() {
+        final RequestLoadMonitor monitor = newMonitor(defaultOptions());
+        failRequests(monitor, 0, 4);
+        completeRequests(monitor, 0, 1, FAST);
+        failRequests(monitor, 0, 4);
+        assertThat(monitor.getStatistics().get(0).isEjected()).isFalse();
+
+        failRequests(monitor, 0, 1);
+        assertThat(monitor.getStatistics().get(0).isEjected()).isTrue();
+        assertThat(monitor.getStatistics().get(0).getFailedRequests()).isEqualTo(9);
+        assertThat(monitor.getStatistics().get(0).getCompletedRequests()).isEqualTo(10);
+    }
+
+    @Test
+    public void lastAvailableFactoryShouldNeverBeEjected() {
+        final RequestLoadMonitor monitor = newMonitor(defaultOptions());
+        failRequests(monitor, 0, 5);
+        failRequests(monitor, 1, 5);
+        failRequests(monitor, 2, 5);
+
+        final List<? extends LoadBalancerStatistics> statistics = monitor.getStatistics();
+        assertThat(statistics.get(0).isEjected()).isTrue();
+        assertThat(statistics.get(1).isEjected()).isTrue();
+        assertThat(statistics.get(2).isEjected()).isFalse();
+        for (int i = 0; i < 10; i++) {
+            assertThat(monitor.selectConnectionFactoryIndex(loadBalancer)).isEqualTo(2);
+        }
+
+        // The last factory kept failing, so it is ejected by its next failure once another one is reinstated.
+        failRequests(monitor, 2, 1);
+        assertThat(statistics.get(2).isEjected()).isFalse();
+        when(timeService.now()).thenReturn(TimeUnit.SECONDS.toMillis(30));
+        monitor.selectConnectionFactoryIndex(loadBalancer);
+        failRequests(monitor, 2, 1);
+        assertThat(statistics.get(2).isEjected()).isTrue();
+    }
+
+    @Test
+    public void leastRequestsLoadBalancerShouldMaintainStatistics() throws Exception {
+        when(connection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(newResult(ResultCode.SUCCESS)));
+        for (final ConnectionFactory factory : asList(factory1, factory2, factory3)) {
+            when(factory.getConnectionAsync()).thenReturn(newResultPromise((Connection) connection));
+        }
+
+        final ConnectionFactory leastRequests =
+                newLeastRequestsLoadBalancer(asList(factory1, factory2, factory3), defaultOptions());
+        try (Connection lbConnection = leastRequests.getConnection()) {
+            for (int i = 0; i < 6; i++) {
+                lbConnection.delete("dc=example,dc=com");
+            }
+        }
+
+        final List<LoadBalancerStatistics> statistics = getLoadBalancerStatistics(leastRequests);
+        assertThat(statistics).hasSize(3);
+        long completed = 0;
+        for (final LoadBalancerStatistics server : statistics) {
+            assertThat(server.getActiveRequests()).isEqualTo(0);
+            assertThat(server.getFailedRequests()).isEqualTo(0);
+            completed += server.getCompletedRequests();
+        }
+        assertThat(completed).isEqualTo(6);
+        assertThat(statistics.get(0).getConnectionFactory()).isSameAs(factory1);
+        leastRequests.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void statisticsShouldNotBeAvailableForRoundRobinLoadBalancers() {
+        final ConnectionFactory roundRobin = newRoundRobinLoadBalancer(asList(factory1, factory2), defaultOptions());
+        try {
+            getLoadBalancerStatistics(roundRobin);
+        } finally {
+            roundRobin.close();
+        }
+    }
+
+    private RequestLoadMonitor newMonitor(final Options options) {
+        final RequestLoadMonitor monitor = new RequestLoadMonitor(asList(factory1, factory2, factory3), options);
+        monitor.timeService = timeService;
+        loadBalancer = new RequestLoadBalancer("Test", asList(factory1, factory2, factory3), options, monitor);
+        return monitor;
+    }
+
+    private void completeRequests(final RequestLoadMonitor monitor, final int index, final int count,
+            final long responseTime) {
+        for (int i = 0; i < count; i++) {
+            monitor.requestStarted(index);
+            monitor.requestCompleted(index, responseTime, false);
+        }
+    }
+
+    private void failRequests(final RequestLoadMonitor monitor, final int index, final int count) {
+        for (int i = 0; i < count; i++) {
+            monitor.requestStarted(index);
+            monitor.requestCompleted(index, FAST, true);
+        }
+    }
+}
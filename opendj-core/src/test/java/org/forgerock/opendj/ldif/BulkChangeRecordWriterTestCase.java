@@ -0,0 +1,146 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.forgerock.opendj.ldap.Connections.newInternalConnectionFactory;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.requests.Requests.*;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.*;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * This class tests the BulkChangeRecordWriter functionality.
+ */
+@SuppressWarnings("javadoc")
+public class BulkChangeRecordWriterTestCase extends AbstractLDIFTestCase {
+    private MemoryBackend backend;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        backend = new MemoryBackend(new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: domain",
+                "objectClass: top",
+                "dc: example"));
+    }
+
+    @Test
+    public void testWriteChangeRecordsInHierarchicalOrder() throws Exception {
+        final BulkChangeRecordWriter writer = new BulkChangeRecordWriter(newInternalConnectionFactory(backend), 2, 4);
+        writer.writeChangeRecord(newAddRequest("dn: ou=People,dc=example,dc=com", "objectClass: organizationalUnit",
+                "ou: People"));
+        for (int i = 0; i < 100; i++) {
+            writer.writeChangeRecord(newAddRequest("dn: uid=user." + i + ",ou=People,dc=example,dc=com",
+                    "objectClass: person", "uid: user." + i, "cn: user " + i, "sn: " + i));
+        }
+        writer.flush();
+        for (int i = 0; i < 100; i += 2) {
+            writer.writeChangeRecord(newDeleteRequest("uid=user." + i + ",ou=People,dc=example,dc=com"));
+        }
+        writer.close();
+
+        assertThat(backend.size()).isEqualTo(52);
+        assertThat(writer.getWrittenChangeRecords()).isEqualTo(151);
+        assertThat(writer.getCompletedChangeRecords()).isEqualTo(151);
+        assertThat(writer.getFailedChangeRecords()).isEqualTo(0);
+        assertThat(writer.getOutstandingRequests()).isEqualTo(0);
+    }
+
+    @Test
+    public void testChangesToTheSameEntryAreAppliedInOrder() throws Exception {
+        final BulkChangeRecordWriter writer = new BulkChangeRecordWriter(newInternalConnectionFactory(backend), 4, 16);
+        for (int i = 0; i < 10; i++) {
+            writer.writeChangeRecord(newAddRequest("dn: ou=People,dc=example,dc=com",
+                    "objectClass: organizationalUnit", "ou: People"));
+            writer.writeChangeRecord(newModifyRequest("dn: ou=People,dc=example,dc=com", "changetype: modify",
+                    "replace: description", "description: " + i));
+            if (i < 9) {
+                writer.writeChangeRecord(newDeleteRequest("ou=People,dc=example,dc=com"));
+            }
+        }
+        writer.close();
+        assertThat(backend.get("ou=People,dc=example,dc=com").parseAttribute("description").asString())
+                .isEqualTo("9");
+    }
+
+    @Test
+    public void testFailuresArePropagatedWhenNoListenerIsSet() throws Exception {
+        final BulkChangeRecordWriter writer = new BulkChangeRecordWriter(newInternalConnectionFactory(backend), 1, 1);
+        writer.writeChangeRecord(newDeleteRequest("ou=missing,dc=example,dc=com"));
+        try {
+            writer.flush();
+            fail("Expected an LdapException");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.NO_SUCH_OBJECT);
+        }
+        // The failure is only propagated once.
+        writer.close();
+        assertThat(writer.getFailedChangeRecords()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailuresAreReportedToTheListener() throws Exception {
+        final List<ChangeRecord> failedChanges = Collections.synchronizedList(new ArrayList<ChangeRecord>());
+        final BulkChangeRecordWriter writer = new BulkChangeRecordWriter(newInternalConnectionFactory(backend), 1, 1)
+                .setFailedChangeRecordListener(new BulkChangeRecordWriter.FailedChangeRecordListener() {
+                    @Override
+                    public void handleFailedChangeRecord(final ChangeRecord change, final LdapException error) {
+                        failedChanges.add(change);
+                    }
+                });
+        writer.writeChangeRecord(newDeleteRequest("ou=missing1,dc=example,dc=com"));
+        writer.writeChangeRecord(newDeleteRequest("ou=missing2,dc=example,dc=com"));
+        writer.close();
+        assertThat(failedChanges).hasSize(2);
+    }
+
+    @Test
+    public void testRetryableFailuresAreRetried() throws Exception {
+        final Connection connection = mock(Connection.class);
+        final LdapPromise<Result> busy = newFailedLdapPromise(newLdapException(ResultCode.BUSY));
+        when(connection.applyChangeAsync(any(ChangeRecord.class))).thenReturn(busy, busy,
+                newSuccessfulLdapPromise(newResult(ResultCode.SUCCESS)));
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnectionAsync()).thenReturn(newResultPromise(connection));
+
+        final BulkChangeRecordWriter writer = new BulkChangeRecordWriter(factory, 1, 1).setMaxRetries(2);
+        writer.writeChangeRecord(newDeleteRequest("ou=People,dc=example,dc=com"));
+        writer.close();
+        assertThat(writer.getRetries()).isEqualTo(2);
+        assertThat(writer.getFailedChangeRecords()).isEqualTo(0);
+        verify(connection, times(3)).applyChangeAsync(any(ChangeRecord.class));
+        verify(connection).close();
+    }
+}
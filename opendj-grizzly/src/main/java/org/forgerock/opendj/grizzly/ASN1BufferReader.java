@@ -19,6 +19,7 @@ package org.forgerock.opendj.grizzly;
 import static com.forgerock.opendj.ldap.CoreMessages.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -30,6 +31,7 @@ import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.memory.BuffersBuffer;
+import org.glassfish.grizzly.memory.ByteBufferArray;
 import org.glassfish.grizzly.memory.CompositeBuffer;
 import org.glassfish.grizzly.memory.MemoryManager;
 
@@ -366,11 +368,19 @@ final class ASN1BufferReader extends AbstractASN1Reader {
         }
 
         readLimiter.checkLimit(peekLength);
-        // Copy the value and construct the element to return.
-        // TODO: Is there a more efficient way to do this?
-        for (int i = 0; i < peekLength; i++) {
-            builder.appendByte(buffer.get());
+        // Copy the value in bulk straight from the byte buffers backing the composite buffer.
+        final int position = buffer.position();
+        final ByteBufferArray byteBuffers = buffer.toByteBufferArray(position, position + peekLength);
+        try {
+            final ByteBuffer[] array = byteBuffers.getArray();
+            for (int i = 0; i < byteBuffers.size(); i++) {
+                builder.appendBytes(array[i], array[i].remaining());
+            }
+        } finally {
+            byteBuffers.restore();
+            byteBuffers.recycle();
         }
+        buffer.position(position + peekLength);
 
         logger.trace("READ ASN.1 OCTETSTRING(type=0x%x, length=%d)", peekType, peekLength);
 
@@ -407,7 +417,7 @@ final class ASN1BufferReader extends AbstractASN1Reader {
             // TODO: I18N
             logger.warn(LocalizableMessage.raw("Unable to decode ASN.1 OCTETSTRING bytes as UTF-8 string: %s", e));
 
-            str = new String(stringBuffer, 0, peekLength);
+            str = new String(readBuffer, 0, peekLength);
         }
 
         logger.trace("READ ASN.1 OCTETSTRING(type=0x%x, length=%d, value=%s)", peekType, peekLength, str);
@@ -446,9 +456,7 @@ final class ASN1BufferReader extends AbstractASN1Reader {
         peekLength();
 
         readLimiter.checkLimit(peekLength);
-        for (int i = 0; i < peekLength; i++) {
-            buffer.get();
-        }
+        buffer.position(buffer.position() + peekLength);
         state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
         return this;
     }
@@ -12,18 +12,25 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions copyright 2011-2013 ForgeRock AS.
+ * Portions copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.grizzly;
 
+import static org.testng.Assert.*;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import org.forgerock.opendj.io.ASN1;
 import org.forgerock.opendj.io.ASN1Reader;
 import org.forgerock.opendj.io.ASN1ReaderTestCase;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.glassfish.grizzly.memory.ByteBufferWrapper;
 import org.glassfish.grizzly.memory.MemoryManager;
+import org.testng.annotations.Test;
 
 /**
  * This class provides test cases for ASN1BufferReader.
@@ -37,4 +44,42 @@ public class ASN1BufferReaderTestCase extends ASN1ReaderTestCase {
         reader.appendBytesRead(buffer);
         return reader;
     }
+
+    /**
+     * Tests that values larger than the internal string buffer are read and skipped correctly when they span
+     * several Grizzly buffers.
+     *
+     * @throws Exception
+     *             If an unexpected problem occurs.
+     */
+    @Test
+    public void testReadAndSkipLargeOctetStringsSpanningBuffers() throws Exception {
+        final byte[] value = new byte[3000];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+        final ByteStringBuilder bsb = new ByteStringBuilder();
+        for (int i = 0; i < 2; i++) {
+            bsb.appendByte(ASN1.UNIVERSAL_OCTET_STRING_TYPE);
+            bsb.appendBERLength(value.length);
+            bsb.appendBytes(value);
+        }
+        bsb.appendByte(ASN1.UNIVERSAL_OCTET_STRING_TYPE);
+        bsb.appendBERLength(1);
+        bsb.appendByte('x');
+        final byte[] encoded = bsb.toByteArray();
+
+        final ASN1BufferReader reader = new ASN1BufferReader(0, MemoryManager.DEFAULT_MEMORY_MANAGER);
+        reader.appendBytesRead(new ByteBufferWrapper(ByteBuffer.wrap(Arrays.copyOfRange(encoded, 0, 1500))));
+        reader.appendBytesRead(new ByteBufferWrapper(ByteBuffer.wrap(Arrays.copyOfRange(encoded, 1500, 4000))));
+        reader.appendBytesRead(
+                new ByteBufferWrapper(ByteBuffer.wrap(Arrays.copyOfRange(encoded, 4000, encoded.length))));
+
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        reader.readOctetString(builder);
+        assertEquals(builder.toByteString(), ByteString.wrap(value));
+        reader.skipElement();
+        assertEquals(reader.readOctetStringAsString(), "x");
+        assertFalse(reader.hasNextElement());
+    }
 }
@@ -122,29 +122,35 @@ public final class AuthRate extends ConsoleApplication {
             @Override
             public Promise<?, LdapException> performOperation(final Connection connection,
                     final DataSource[] dataSources, final long currentTimeNs) {
+                // Open loop operations overlap, so each of them needs its own data and requests
+                Object[] operationData = isOpenLoop() ? null : data;
                 if (dataSources != null) {
-                    data = DataSource.generateData(dataSources, data);
-                    if (data.length == dataSources.length) {
-                        final Object[] newData = new Object[data.length + 1];
-                        System.arraycopy(data, 0, newData, 0, data.length);
-                        data = newData;
+                    operationData = DataSource.generateData(dataSources, operationData);
+                    if (operationData.length == dataSources.length) {
+                        final Object[] newData = new Object[operationData.length + 1];
+                        System.arraycopy(operationData, 0, newData, 0, operationData.length);
+                        operationData = newData;
                     }
                 }
 
                 Promise<BindResult, LdapException> returnedPromise;
                 if (filter != null && baseDN != null) {
-                    if (sr == null) {
+                    if (operationData == null) {
+                        operationData = new Object[1];
+                    }
+                    final Object[] searchData = operationData;
+                    if (sr == null || isOpenLoop()) {
                         if (dataSources != null) {
-                            final String newBaseDN = String.format(baseDN, data);
-                            final String newFilter = String.format(filter, data);
+                            final String newBaseDN = String.format(baseDN, searchData);
+                            final String newFilter = String.format(filter, searchData);
                             sr = Requests.newSearchRequest(newBaseDN, scope, newFilter, attributes);
                         } else {
                             sr = Requests.newSearchRequest(baseDN, scope, filter, attributes);
                         }
                         sr.setDereferenceAliasesPolicy(dereferencesAliasesPolicy);
                     } else if (dataSources != null) {
-                        sr.setFilter(String.format(filter, data));
-                        sr.setName(String.format(baseDN, data));
+                        sr.setFilter(String.format(filter, searchData));
+                        sr.setName(String.format(baseDN, searchData));
                     }
 
                     returnedPromise = connection.searchSingleEntryAsync(sr).thenAsync(
@@ -153,17 +159,15 @@ public final class AuthRate extends ConsoleApplication {
                                 public Promise<BindResult, LdapException> apply(SearchResultEntry result)
                                         throws LdapException {
                                     searchWaitRecentTimeNs.inc(System.nanoTime() - currentTimeNs);
-                                    if (data == null) {
-                                        data = new Object[1];
-                                    }
-                                    data[data.length - 1] = result.getName().toString();
+                                    searchData[searchData.length - 1] = result.getName().toString();
 
-                                    return performBind(connection, data);
+                                    return performBind(connection, searchData);
                                 }
                             });
                 } else {
-                    returnedPromise = performBind(connection, data);
+                    returnedPromise = performBind(connection, operationData);
                 }
+                data = operationData;
 
                 incrementIterationCount();
                 return returnedPromise.thenOnResult(new UpdateStatsResultHandler<BindResult>(currentTimeNs))
@@ -190,13 +194,14 @@ public final class AuthRate extends ConsoleApplication {
                 }
 
                 final BindRequest bindRequest = bindRequestTemplate;
+                BindRequest request = isOpenLoop() ? null : br;
                 if (bindRequest instanceof SimpleBindRequest) {
                     final SimpleBindRequest o = (SimpleBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfSimpleBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfSimpleBindRequest(o);
                     }
 
-                    final SimpleBindRequest sbr = (SimpleBindRequest) br;
+                    final SimpleBindRequest sbr = (SimpleBindRequest) request;
                     if (data != null && o.getName() != null) {
                         sbr.setName(String.format(o.getName(), data));
                     }
@@ -207,11 +212,11 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 } else if (bindRequest instanceof DigestMD5SASLBindRequest) {
                     final DigestMD5SASLBindRequest o = (DigestMD5SASLBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfDigestMD5SASLBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfDigestMD5SASLBindRequest(o);
                     }
 
-                    final DigestMD5SASLBindRequest sbr = (DigestMD5SASLBindRequest) br;
+                    final DigestMD5SASLBindRequest sbr = (DigestMD5SASLBindRequest) request;
                     if (data != null) {
                         if (o.getAuthenticationID() != null) {
                             sbr.setAuthenticationID(String.format(o.getAuthenticationID(), data));
@@ -227,11 +232,11 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 } else if (bindRequest instanceof CRAMMD5SASLBindRequest) {
                     final CRAMMD5SASLBindRequest o = (CRAMMD5SASLBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfCRAMMD5SASLBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfCRAMMD5SASLBindRequest(o);
                     }
 
-                    final CRAMMD5SASLBindRequest sbr = (CRAMMD5SASLBindRequest) br;
+                    final CRAMMD5SASLBindRequest sbr = (CRAMMD5SASLBindRequest) request;
                     if (data != null && o.getAuthenticationID() != null) {
                         sbr.setAuthenticationID(String.format(o.getAuthenticationID(), data));
                     }
@@ -242,11 +247,11 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 } else if (bindRequest instanceof GSSAPISASLBindRequest) {
                     final GSSAPISASLBindRequest o = (GSSAPISASLBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfGSSAPISASLBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfGSSAPISASLBindRequest(o);
                     }
 
-                    final GSSAPISASLBindRequest sbr = (GSSAPISASLBindRequest) br;
+                    final GSSAPISASLBindRequest sbr = (GSSAPISASLBindRequest) request;
                     if (data != null) {
                         if (o.getAuthenticationID() != null) {
                             sbr.setAuthenticationID(String.format(o.getAuthenticationID(), data));
@@ -262,21 +267,21 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 } else if (bindRequest instanceof ExternalSASLBindRequest) {
                     final ExternalSASLBindRequest o = (ExternalSASLBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfExternalSASLBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfExternalSASLBindRequest(o);
                     }
 
-                    final ExternalSASLBindRequest sbr = (ExternalSASLBindRequest) br;
+                    final ExternalSASLBindRequest sbr = (ExternalSASLBindRequest) request;
                     if (data != null && o.getAuthorizationID() != null) {
                         sbr.setAuthorizationID(String.format(o.getAuthorizationID(), data));
                     }
                 } else if (bindRequest instanceof PlainSASLBindRequest) {
                     final PlainSASLBindRequest o = (PlainSASLBindRequest) bindRequest;
-                    if (br == null) {
-                        br = Requests.copyOfPlainSASLBindRequest(o);
+                    if (request == null) {
+                        request = Requests.copyOfPlainSASLBindRequest(o);
                     }
 
-                    final PlainSASLBindRequest sbr = (PlainSASLBindRequest) br;
+                    final PlainSASLBindRequest sbr = (PlainSASLBindRequest) request;
                     if (data != null) {
                         if (o.getAuthenticationID() != null) {
                             sbr.setAuthenticationID(String.format(o.getAuthenticationID(), data));
@@ -292,7 +297,10 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 }
 
-                return connection.bindAsync(br);
+                if (!isOpenLoop()) {
+                    br = request;
+                }
+                return connection.bindAsync(request);
             }
         }
 
@@ -36,6 +36,8 @@ import com.forgerock.opendj.cli.ConsoleApplication;
 import com.forgerock.opendj.cli.StringArgument;
 
 import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CliMessages.ERR_ARGPARSER_NO_VALUE_FOR_REQUIRED_ARG;
+import static com.forgerock.opendj.cli.CliMessages.ERR_ARGPARSER_TOO_FEW_TRAILING_ARGUMENTS;
 import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
 import static com.forgerock.opendj.cli.Utils.*;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
@@ -151,7 +153,7 @@ public final class ModRate extends ConsoleApplication {
         // Creates the command-line argument parser for use with this program
         final LocalizableMessage toolDescription = INFO_MODRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
-                new ArgumentParser(ModRate.class.getName(), toolDescription, false, true, 1, 0,
+                new ArgumentParser(ModRate.class.getName(), toolDescription, false, true, 0, 0,
                         "[(attribute:value format string) ...]");
         argParser.setVersionHandler(newSdkVersionHandler());
         argParser.setShortToolDescription(REF_SHORT_DESC_MODRATE.get());
@@ -169,7 +171,9 @@ public final class ModRate extends ConsoleApplication {
             Utils.setDefaultPerfToolProperties();
 
             connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
-            runner = new ModifyPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+            final PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
+            options.setSupportsScenarioFile(true);
+            runner = new ModifyPerformanceRunner(options);
 
             propertiesFileArgument = propertiesFileArgument();
             argParser.addArgument(propertiesFileArgument);
@@ -183,7 +187,6 @@ public final class ModRate extends ConsoleApplication {
                     StringArgument.builder(OPTION_LONG_TARGETDN)
                             .shortIdentifier(OPTION_SHORT_BASEDN)
                             .description(INFO_MODRATE_TOOL_DESCRIPTION_TARGETDN.get())
-                            .required()
                             .valuePlaceholder(INFO_TARGETDN_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
 
@@ -217,11 +220,25 @@ public final class ModRate extends ConsoleApplication {
             connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
             runner.setBindRequest(connectionFactoryProvider.getBindRequest());
             runner.validate();
+            if (!runner.hasScenario()) {
+                // The operation is only defined by the arguments of this tool when there is no scenario file
+                if (!baseDN.isPresent()) {
+                    throw new ArgumentException(
+                            ERR_ARGPARSER_NO_VALUE_FOR_REQUIRED_ARG.get(baseDN.getLongIdentifier()));
+                }
+                if (argParser.getTrailingArguments().isEmpty()) {
+                    throw new ArgumentException(ERR_ARGPARSER_TOO_FEW_TRAILING_ARGUMENTS.get(1));
+                }
+            }
         } catch (final ArgumentException ae) {
             argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         }
 
+        if (runner.hasScenario()) {
+            return runner.run(connectionFactory);
+        }
+
         runner.modStrings =
                 argParser.getTrailingArguments().toArray(
                         new String[argParser.getTrailingArguments().size()]);
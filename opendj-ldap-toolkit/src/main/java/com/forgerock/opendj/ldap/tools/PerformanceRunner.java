@@ -27,6 +27,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.Connection;
@@ -34,9 +37,13 @@ import org.forgerock.opendj.ldap.ConnectionEventListener;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
 
 import com.forgerock.opendj.cli.ArgumentException;
@@ -44,12 +51,49 @@ import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
 import com.forgerock.opendj.cli.ConsoleApplication;
 import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiChoiceArgument;
 import com.forgerock.opendj.cli.StringArgument;
 import com.forgerock.opendj.util.StaticUtils;
 
 /** Benchmark application framework. */
 abstract class PerformanceRunner implements ConnectionEventListener {
     private static final double[] DEFAULT_PERCENTILES = new double[] { 99.9, 99.99, 99.999 };
+    private static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 1000;
+
+    /**
+     * Defines when worker threads send their operations.
+     * <p>
+     * In the closed loop mode, a worker thread waits for the response of an operation before sending the next one,
+     * so a server stall also stalls the load and is hidden from the response time statistics (coordinated omission).
+     * Open loop modes send operations on a schedule which does not depend on the responses, and measure the response
+     * time from the intended send time rather than from the time the request was actually sent.
+     */
+    enum ArrivalMode {
+        /** Operations are sent as soon as the previous one completed. */
+        CLOSED,
+        /** Operations are sent at evenly spaced intervals. */
+        CONSTANT,
+        /** Operations are sent following a Poisson process (exponentially distributed intervals). */
+        POISSON;
+
+        /**
+         * Returns the delay between two consecutive operations for an open loop arrival mode.
+         *
+         * @param meanIntervalNs
+         *            The mean delay between two consecutive operations, in nanoseconds
+         * @return The delay between the previous operation and the next one, in nanoseconds
+         */
+        long nextIntervalNs(final double meanIntervalNs) {
+            switch (this) {
+            case CONSTANT:
+                return (long) meanIntervalNs;
+            case POISSON:
+                return (long) (-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNs);
+            default:
+                throw new IllegalStateException("Arrival mode " + this + " does not have a schedule");
+            }
+        }
+    }
 
     class TimerThread extends Thread {
         private final long timeToWait;
@@ -122,11 +166,20 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             this.connectionFactory = connectionFactory;
         }
 
+        /**
+         * Sends the next operation. In open loop arrival modes, several operations of this worker are in progress
+         * at the same time, so each of them must use its own request and data (see {@link #isOpenLoop()}).
+         */
         public abstract Promise<?, LdapException> performOperation(
                 Connection connection, DataSource[] dataSources, long currentTimeNs);
 
         @Override
         public void run() {
+            if (isOpenLoop()) {
+                runOpenLoop();
+                return;
+            }
+
             Promise<?, LdapException> promise;
             Connection connection;
             final double targetTimeMs = 1000.0 / (targetThroughput / (double) (numThreads * numConnections));
@@ -184,6 +237,69 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             }
         }
 
+        /**
+         * Sends operations following the configured arrival mode without waiting for the previous responses.
+         * <p>
+         * The number of outstanding operations is bounded: once reached, the worker waits for a response before
+         * sending the next operation, but the response time is still measured from the intended send time.
+         */
+        private void runOpenLoop() {
+            final double meanIntervalNs = SECONDS.toNanos(1) * numThreads * numConnections / (double) targetThroughput;
+            final Semaphore outstandingRequests = new Semaphore(maxOutstandingRequests);
+            long intendedStartTimeNs = System.nanoTime();
+
+            while (!stopRequested && !localStopRequested
+                    && (maxIterations <= 0 || count < maxIterations)) {
+                intendedStartTimeNs += arrivalMode.nextIntervalNs(meanIntervalNs);
+                long waitTimeNs;
+                while ((waitTimeNs = intendedStartTimeNs - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitTimeNs);
+                }
+
+                final Connection connection;
+                try {
+                    outstandingRequests.acquire();
+                    connection = getConnectionToUse();
+                } catch (final InterruptedException e) {
+                    // Ignore and check stop requested
+                    continue;
+                } catch (final LdapException e) {
+                    outstandingRequests.release();
+                    handleConnectionError(false, e);
+                    break;
+                }
+
+                final Promise<?, LdapException> promise =
+                        performOperation(connection, dataSources.get(), intendedStartTimeNs);
+                statsThread.incrementOperationCount();
+                promise.thenOnException(new ExceptionHandler<LdapException>() {
+                    @Override
+                    public void handleException(final LdapException e) {
+                        if (!stopRequested && e.getCause() instanceof IOException) {
+                            e.getCause().printStackTrace(app.getErrorStream());
+                            stopTool(true);
+                        }
+                        // Otherwise ignore. Handled by result handler
+                    }
+                }).thenAlways(new Runnable() {
+                    @Override
+                    public void run() {
+                        outstandingRequests.release();
+                        if (WorkerThread.this.connection == null) {
+                            connection.close();
+                        }
+                    }
+                });
+            }
+
+            // Give pending operations a chance to complete before the connections get closed
+            try {
+                outstandingRequests.tryAcquire(maxOutstandingRequests, statsIntervalMs, MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         private Connection getConnectionToUse() throws InterruptedException, LdapException {
             if (this.connection == null) {
                 return connectionFactory.getConnectionAsync().getOrThrow();
@@ -201,6 +317,56 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         }
     }
 
+    /**
+     * Worker thread sending the operations of the scenario file, chosen at random following their ratios. Each
+     * operation uses its own data and request, so this worker supports all the arrival modes.
+     */
+    private final class ScenarioWorkerThread extends WorkerThread {
+        private ScenarioWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            super(connection, connectionFactory);
+        }
+
+        @Override
+        public Promise<?, LdapException> performOperation(final Connection connection,
+                final DataSource[] dataSources, final long currentTimeNs) {
+            final Object[] data = dataSources != null ? DataSource.generateData(dataSources, null) : null;
+            final UpdateStatsResultHandler<Result> handler = new UpdateStatsResultHandler<>(currentTimeNs);
+            incrementIterationCount();
+            switch (scenario.nextOperationType()) {
+            case SEARCH:
+                return connection.searchAsync(scenario.newSearchRequest(data), IGNORE_SEARCH_RESULTS)
+                                 .thenOnResult(handler).thenOnException(handler);
+            case MODIFY:
+                return connection.modifyAsync(scenario.newModifyRequest(data))
+                                 .thenOnResult(handler).thenOnException(handler);
+            default:
+                return connection.bindAsync(scenario.newBindRequest(data))
+                                 .thenOnResult(handler).thenOnException(handler);
+            }
+        }
+    }
+
+    private static final SearchResultHandler IGNORE_SEARCH_RESULTS = new SearchResultHandler() {
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    };
+
+    /**
+     * Returns whether operations are sent without waiting for the responses of the previous ones.
+     *
+     * @return {@code true} if the arrival mode is an open loop mode
+     */
+    final boolean isOpenLoop() {
+        return arrivalMode != ArrivalMode.CLOSED;
+    }
+
     private final ConsoleApplication app;
     private DataSource[] dataSourcePrototypes;
 
@@ -224,6 +390,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private boolean stopRequested;
 
     private int targetThroughput;
+    private ArrivalMode arrivalMode;
+    private int maxOutstandingRequests;
     private int maxIterations;
     /** Warm-up duration time in ms. */
     private long warmUpDurationMs;
@@ -232,15 +400,19 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private boolean noRebind;
     private BindRequest bindRequest;
     private int statsIntervalMs;
+    private Scenario scenario;
     private final IntegerArgument numThreadsArgument;
     private final IntegerArgument maxDurationArgument;
     private final IntegerArgument statsIntervalArgument;
     private final IntegerArgument targetThroughputArgument;
+    private final MultiChoiceArgument<ArrivalMode> arrivalModeArgument;
+    private final IntegerArgument maxOutstandingRequestsArgument;
     private final IntegerArgument numConnectionsArgument;
     private final IntegerArgument percentilesArgument;
     private final BooleanArgument keepConnectionsOpen;
     private final BooleanArgument noRebindArgument;
     private final StringArgument arguments;
+    private final StringArgument scenarioFileArgument;
     protected final IntegerArgument maxIterationsArgument;
     protected final IntegerArgument warmUpArgument;
 
@@ -311,6 +483,24 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                         .defaultValue(0)
                         .valuePlaceholder(LocalizableMessage.raw("{targetThroughput}"))
                         .buildAndAddToParser(argParser);
+        arrivalModeArgument =
+                MultiChoiceArgument.<ArrivalMode>builder("arrivalMode")
+                        .description(LocalizableMessage.raw("How operations are scheduled: 'closed' sends an "
+                                + "operation when the previous one completed, 'constant' and 'poisson' send "
+                                + "operations at the target throughput without waiting for responses and measure "
+                                + "response times from the intended send time"))
+                        .allowedValues(ArrivalMode.values())
+                        .defaultValue(ArrivalMode.CLOSED)
+                        .valuePlaceholder(LocalizableMessage.raw("{closed|constant|poisson}"))
+                        .buildAndAddToParser(argParser);
+        maxOutstandingRequestsArgument =
+                IntegerArgument.builder("maxOutstandingRequests")
+                        .description(LocalizableMessage.raw("Maximum number of outstanding operations "
+                                + "per worker thread in open loop arrival modes"))
+                        .lowerBound(1)
+                        .defaultValue(DEFAULT_MAX_OUTSTANDING_REQUESTS)
+                        .valuePlaceholder(LocalizableMessage.raw("{maxOutstandingRequests}"))
+                        .buildAndAddToParser(argParser);
         percentilesArgument =
                 IntegerArgument.builder("percentile")
                         .shortIdentifier('e')
@@ -351,6 +541,17 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         if (options.supportsGeneratorArgument()) {
             argParser.addArgument(arguments);
         }
+
+        scenarioFileArgument =
+                StringArgument.builder("scenarioFile")
+                        .description(LocalizableMessage.raw("Properties file defining a mix of search, modify "
+                                + "and bind operations, and their ratios, which are sent instead of the "
+                                + "operations defined by the other arguments of this tool"))
+                        .valuePlaceholder(LocalizableMessage.raw("{scenarioFile}"))
+                        .buildArgument();
+        if (options.supportsScenarioFile()) {
+            argParser.addArgument(scenarioFileArgument);
+        }
     }
 
     @Override
@@ -382,9 +583,23 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         maxDurationTimeMs = maxDurationArgument.getIntValue() * 1000L;
         statsIntervalMs = statsIntervalArgument.getIntValue() * 1000;
         targetThroughput = targetThroughputArgument.getIntValue();
+        arrivalMode = arrivalModeArgument.getTypedValue();
+        maxOutstandingRequests = maxOutstandingRequestsArgument.getIntValue();
 
         noRebind = noRebindArgument.isPresent();
 
+        if (arrivalMode != ArrivalMode.CLOSED) {
+            if (targetThroughput <= 0) {
+                throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                    "--" + targetThroughputArgument.getLongIdentifier(),
+                    "--" + arrivalModeArgument.getLongIdentifier(), arrivalModeArgument.getValue()));
+            }
+            if (keepConnectionsOpen.isPresent() && !noRebind) {
+                throw new ArgumentException(ERR_TOOL_ARRIVAL_MODE_WITH_REBIND.get(
+                    arrivalModeArgument.getValue(), "--" + keepConnectionsOpen.getLongIdentifier()));
+            }
+        }
+
         if (!noRebindArgument.isPresent() && this.numThreads > 1) {
             throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
                 "--" + noRebindArgument.getLongIdentifier(), "--" + numThreadsArgument.getLongIdentifier(), "> 1"));
@@ -397,6 +612,25 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         }
 
         dataSourcePrototypes = DataSource.parse(arguments.getValues());
+
+        if (scenarioFileArgument.isPresent()) {
+            scenario = Scenario.read(scenarioFileArgument.getValue());
+            if (scenario.hasBinds() && (keepConnectionsOpen.isPresent() || noRebind)) {
+                throw new ArgumentException(ERR_TOOL_SCENARIO_BIND_WITH_SHARED_CONNECTIONS.get(
+                    scenarioFileArgument.getValue(), "--" + keepConnectionsOpen.getLongIdentifier(),
+                    "--" + noRebindArgument.getLongIdentifier()));
+            }
+            scenario.validate(DataSource.generateData(dataSourcePrototypes, null));
+        }
+    }
+
+    /**
+     * Returns whether the operations are defined by a scenario file rather than by the arguments of the tool.
+     *
+     * @return {@code true} if a scenario file was provided
+     */
+    final boolean hasScenario() {
+        return scenario != null;
     }
 
     final DataSource[] getDataSources() {
@@ -415,7 +649,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
     final int run(final ConnectionFactory connectionFactory) {
         final List<Connection> connections = new ArrayList<>();
-        statsThread = newStatsThread(this, app);
+        // The additional statistics of the tools only apply to their own operations
+        statsThread = hasScenario() ? new StatsThread(this, app) : newStatsThread(this, app);
 
         try {
             validateCanConnectToServer(connectionFactory);
@@ -427,7 +662,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                     connections.add(connection);
                 }
                 for (int j = 0; j < numThreads; j++) {
-                    final Thread thread = newWorkerThread(connection, connectionFactory);
+                    final Thread thread = hasScenario() ? new ScenarioWorkerThread(connection, connectionFactory)
+                                                        : newWorkerThread(connection, connectionFactory);
                     workerThreads.add(thread);
                     thread.start();
                 }
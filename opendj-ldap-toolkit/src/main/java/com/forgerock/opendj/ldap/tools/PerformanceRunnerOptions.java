@@ -29,6 +29,7 @@ class PerformanceRunnerOptions {
     private boolean supportsRebind = true;
     private boolean supportsMultipleThreadsPerConnection = true;
     private boolean supportsGeneratorArgument = true;
+    private boolean supportsScenarioFile;
 
     PerformanceRunnerOptions(ArgumentParser argParser, ConsoleApplication app) {
         this.argParser = argParser;
@@ -59,6 +60,14 @@ class PerformanceRunnerOptions {
         this.supportsGeneratorArgument = supportsGeneratorArgument;
     }
 
+    boolean supportsScenarioFile() {
+        return supportsScenarioFile;
+    }
+
+    void setSupportsScenarioFile(boolean supportsScenarioFile) {
+        this.supportsScenarioFile = supportsScenarioFile;
+    }
+
     ArgumentParser getArgumentParser() {
         return argParser;
     }
@@ -0,0 +1,268 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.SimpleBindRequest;
+
+import com.forgerock.opendj.cli.ArgumentException;
+
+/**
+ * A mix of search, modify and bind operations sent by the rate tools in a single run, read from a scenario file.
+ * <p>
+ * The scenario file is a properties file defining the relative frequency of each operation, and the operations
+ * themselves. For example:
+ *
+ * <pre>
+ * search.ratio=80
+ * search.baseDN=ou=people,dc=example,dc=com
+ * search.scope=sub
+ * search.filter=(uid=user.%d)
+ * search.attributes=cn mail
+ * modify.ratio=15
+ * modify.targetDN=uid=user.%d,ou=people,dc=example,dc=com
+ * modify.modification.1=description:%2$s
+ * bind.ratio=5
+ * bind.dn=uid=user.%d,ou=people,dc=example,dc=com
+ * bind.password=password
+ * </pre>
+ *
+ * Operations whose ratio is not defined are not sent. Like the arguments of the rate tools, the DNs, filters and
+ * values are format strings evaluated with the data generated for each operation.
+ */
+final class Scenario {
+    /** The operations of a scenario. */
+    enum OperationType {
+        /** Searches, defined by the {@code search.*} properties. */
+        SEARCH,
+        /** Modifies replacing attribute values, defined by the {@code modify.*} properties. */
+        MODIFY,
+        /** Simple binds, defined by the {@code bind.*} properties. */
+        BIND;
+
+        private String property(final String name) {
+            return name().toLowerCase(Locale.ENGLISH) + "." + name;
+        }
+    }
+
+    private final String fileName;
+    private final Properties properties;
+    /** The operations having a positive ratio. */
+    private final List<OperationType> operationTypes = new ArrayList<>();
+    /** For each operation, the sum of its ratio and of the ratios of the previous operations. */
+    private final List<Integer> cumulativeRatios = new ArrayList<>();
+    private int totalRatio;
+
+    private String searchBaseDN;
+    private SearchScope searchScope;
+    private String searchFilter;
+    private String[] searchAttributes;
+    private String modifyTargetDN;
+    private final List<String> modifyStrings = new ArrayList<>();
+    private String bindDN;
+    private String bindPassword;
+
+    /**
+     * Reads a scenario file.
+     *
+     * @param fileName
+     *            The path of the scenario file
+     * @return The scenario defined by the file
+     * @throws ArgumentException
+     *             If the file cannot be read or does not define a valid scenario
+     */
+    static Scenario read(final String fileName) throws ArgumentException {
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            throw new ArgumentException(ERR_TOOL_SCENARIO_CANNOT_READ_FILE.get(fileName, e.getMessage()), e);
+        }
+        return new Scenario(fileName, properties);
+    }
+
+    /** Package private for testing. */
+    Scenario(final String fileName, final Properties properties) throws ArgumentException {
+        this.fileName = fileName;
+        this.properties = properties;
+
+        for (final OperationType operationType : OperationType.values()) {
+            final String ratio = properties.getProperty(operationType.property("ratio"));
+            if (ratio != null) {
+                addOperationType(operationType, ratio.trim());
+            }
+        }
+        if (operationTypes.isEmpty()) {
+            throw new ArgumentException(ERR_TOOL_SCENARIO_NO_OPERATION.get(fileName));
+        }
+
+        if (operationTypes.contains(OperationType.SEARCH)) {
+            searchBaseDN = getRequiredProperty(OperationType.SEARCH.property("baseDN"));
+            searchFilter = getRequiredProperty(OperationType.SEARCH.property("filter"));
+            final String scopeProperty = OperationType.SEARCH.property("scope");
+            final String scope = properties.getProperty(scopeProperty, SearchScope.WHOLE_SUBTREE.toString()).trim();
+            searchScope = SearchScope.valueOf(scope);
+            if (searchScope == null) {
+                throw new ArgumentException(ERR_TOOL_SCENARIO_INVALID_PROPERTY.get(scope, scopeProperty, fileName));
+            }
+            final String attributes = properties.getProperty(OperationType.SEARCH.property("attributes"), "").trim();
+            searchAttributes = attributes.isEmpty() ? new String[0] : attributes.split("\\s+");
+        }
+        if (operationTypes.contains(OperationType.MODIFY)) {
+            modifyTargetDN = getRequiredProperty(OperationType.MODIFY.property("targetDN"));
+            for (int i = 1; properties.containsKey(OperationType.MODIFY.property("modification." + i)); i++) {
+                final String modificationProperty = OperationType.MODIFY.property("modification." + i);
+                final String modString = properties.getProperty(modificationProperty);
+                if (modString.indexOf(':') <= 0) {
+                    throw new ArgumentException(
+                            ERR_TOOL_SCENARIO_INVALID_PROPERTY.get(modString, modificationProperty, fileName));
+                }
+                modifyStrings.add(modString);
+            }
+            if (modifyStrings.isEmpty()) {
+                throw new ArgumentException(ERR_TOOL_SCENARIO_MISSING_PROPERTY.get(
+                        fileName, OperationType.MODIFY.property("modification.1")));
+            }
+        }
+        if (operationTypes.contains(OperationType.BIND)) {
+            bindDN = getRequiredProperty(OperationType.BIND.property("dn"));
+            bindPassword = getRequiredProperty(OperationType.BIND.property("password"));
+        }
+    }
+
+    private void addOperationType(final OperationType operationType, final String ratio) throws ArgumentException {
+        final int value;
+        try {
+            value = Integer.parseInt(ratio);
+        } catch (final NumberFormatException e) {
+            throw new ArgumentException(
+                    ERR_TOOL_SCENARIO_INVALID_PROPERTY.get(ratio, operationType.property("ratio"), fileName), e);
+        }
+        if (value < 0) {
+            throw new ArgumentException(
+                    ERR_TOOL_SCENARIO_INVALID_PROPERTY.get(ratio, operationType.property("ratio"), fileName));
+        }
+        if (value > 0) {
+            totalRatio += value;
+            operationTypes.add(operationType);
+            cumulativeRatios.add(totalRatio);
+        }
+    }
+
+    private String getRequiredProperty(final String name) throws ArgumentException {
+        final String value = properties.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new ArgumentException(ERR_TOOL_SCENARIO_MISSING_PROPERTY.get(fileName, name));
+        }
+        return value.trim();
+    }
+
+    /**
+     * Checks that the format strings of the scenario match the provided data.
+     *
+     * @param data
+     *            Data generated by the data sources of the tool
+     * @throws ArgumentException
+     *             If a format string cannot be evaluated with the data
+     */
+    void validate(final Object[] data) throws ArgumentException {
+        try {
+            for (final OperationType operationType : operationTypes) {
+                newRequest(operationType, data);
+            }
+        } catch (final Exception e) {
+            throw new ArgumentException(ERR_TOOL_SCENARIO_INVALID_FORMAT.get(fileName, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns whether the scenario sends bind requests, which change the authorization identity of their connection.
+     *
+     * @return {@code true} if the scenario sends bind requests
+     */
+    boolean hasBinds() {
+        return operationTypes.contains(OperationType.BIND);
+    }
+
+    /**
+     * Randomly chooses the next operation, following the ratios of the scenario.
+     *
+     * @return The type of the next operation
+     */
+    OperationType nextOperationType() {
+        return getOperationType(ThreadLocalRandom.current().nextInt(totalRatio));
+    }
+
+    /** Package private for testing. */
+    OperationType getOperationType(final int ratioIndex) {
+        for (int i = 0; i < operationTypes.size(); i++) {
+            if (ratioIndex < cumulativeRatios.get(i)) {
+                return operationTypes.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Ratio index " + ratioIndex + " is greater than " + totalRatio);
+    }
+
+    private Object newRequest(final OperationType operationType, final Object[] data) {
+        switch (operationType) {
+        case SEARCH:
+            return newSearchRequest(data);
+        case MODIFY:
+            return newModifyRequest(data);
+        default:
+            return newBindRequest(data);
+        }
+    }
+
+    SearchRequest newSearchRequest(final Object[] data) {
+        return Requests.newSearchRequest(format(searchBaseDN, data), searchScope, format(searchFilter, data),
+                searchAttributes);
+    }
+
+    ModifyRequest newModifyRequest(final Object[] data) {
+        final ModifyRequest request = Requests.newModifyRequest(format(modifyTargetDN, data));
+        for (final String modString : modifyStrings) {
+            final String formattedString = format(modString, data);
+            final int colonPos = formattedString.indexOf(':');
+            request.addModification(ModificationType.REPLACE, formattedString.substring(0, colonPos),
+                    formattedString.substring(colonPos + 1));
+        }
+        return request;
+    }
+
+    SimpleBindRequest newBindRequest(final Object[] data) {
+        return Requests.newSimpleBindRequest(format(bindDN, data), bindPassword.toCharArray());
+    }
+
+    private static String format(final String formatString, final Object[] data) {
+        return data != null ? String.format(formatString, data) : formatString;
+    }
+}
@@ -17,6 +17,8 @@
 package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CliMessages.ERR_ARGPARSER_NO_VALUE_FOR_REQUIRED_ARG;
+import static com.forgerock.opendj.cli.CliMessages.ERR_ARGPARSER_TOO_FEW_TRAILING_ARGUMENTS;
 import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
 import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
 import static com.forgerock.opendj.cli.Utils.*;
@@ -114,7 +116,8 @@ public final class SearchRate extends ConsoleApplication {
             @Override
             public Promise<?, LdapException> performOperation(final Connection connection,
                     final DataSource[] dataSources, final long currentTimeNs) {
-                if (sr == null) {
+                // Open loop searches overlap, so each of them needs its own request
+                if (sr == null || isOpenLoop()) {
                     if (dataSources == null) {
                         sr = Requests.newSearchRequest(baseDN, scope, filter, attributes);
                     } else {
@@ -197,7 +200,7 @@ public final class SearchRate extends ConsoleApplication {
         // Create the command-line argument parser for use with this program.
         final LocalizableMessage toolDescription = INFO_SEARCHRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
-                new ArgumentParser(SearchRate.class.getName(), toolDescription, false, true, 1, 0,
+                new ArgumentParser(SearchRate.class.getName(), toolDescription, false, true, 0, 0,
                         "[filter format string] [attributes ...]");
         argParser.setVersionHandler(newSdkVersionHandler());
         argParser.setShortToolDescription(REF_SHORT_DESC_SEARCHRATE.get());
@@ -217,7 +220,9 @@ public final class SearchRate extends ConsoleApplication {
             Utils.setDefaultPerfToolProperties();
 
             connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
-            runner = new SearchPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+            final PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
+            options.setSupportsScenarioFile(true);
+            runner = new SearchPerformanceRunner(options);
 
             propertiesFileArgument = propertiesFileArgument();
             argParser.addArgument(propertiesFileArgument);
@@ -235,7 +240,6 @@ public final class SearchRate extends ConsoleApplication {
                     StringArgument.builder(OPTION_LONG_BASEDN)
                             .shortIdentifier(OPTION_SHORT_BASEDN)
                             .description(INFO_SEARCHRATE_TOOL_DESCRIPTION_BASEDN.get())
-                            .required()
                             .valuePlaceholder(INFO_BASEDN_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
 
@@ -278,11 +282,25 @@ public final class SearchRate extends ConsoleApplication {
             connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
             runner.setBindRequest(connectionFactoryProvider.getBindRequest());
             runner.validate();
+            if (!runner.hasScenario()) {
+                // The operation is only defined by the arguments of this tool when there is no scenario file
+                if (!baseDN.isPresent()) {
+                    throw new ArgumentException(
+                            ERR_ARGPARSER_NO_VALUE_FOR_REQUIRED_ARG.get(baseDN.getLongIdentifier()));
+                }
+                if (argParser.getTrailingArguments().isEmpty()) {
+                    throw new ArgumentException(ERR_ARGPARSER_TOO_FEW_TRAILING_ARGUMENTS.get(1));
+                }
+            }
         } catch (final ArgumentException ae) {
             argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         }
 
+        if (runner.hasScenario()) {
+            return runner.run(connectionFactory);
+        }
+
         final List<String> attributes = new LinkedList<>();
         final ArrayList<String> filterAndAttributeStrings = argParser.getTrailingArguments();
         if (!filterAndAttributeStrings.isEmpty()) {
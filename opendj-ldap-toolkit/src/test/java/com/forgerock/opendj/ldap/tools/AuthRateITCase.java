@@ -17,6 +17,7 @@ package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.CliMessages.*;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_ERROR_PARSING_ARGS;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_TOOL_ARRIVAL_MODE_WITH_REBIND;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_TOOL_WARMING_UP;
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -52,6 +53,29 @@ public class AuthRateITCase extends ToolsITCase {
                      "-g", "rand(0,1000)", "-D", "uid=%d,ou=people,o=test", "-w", "password",
                      "-i", "1", "-c", "1", "-m", "10", "-f", "-S", "-B", "0"),
                 THROUGHPUT_TEXT, "" },
+
+            // Open loop test cases, where several binds and their searches are in progress at the same time
+            {
+                args("-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                     "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                     "-g", "rand(0,1000)", "-D", "uid=%d,ou=people,o=test", "-w", "password",
+                     "-i", "1", "-c", "1", "-m", "100", "-S", "-B", "0",
+                     "--arrivalMode", "poisson", "-M", "1000"),
+                THROUGHPUT_TEXT, "" },
+            {
+                args("-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                     "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                     "-g", "rand(0,1000)", "-b", "ou=people,o=test", "-s", "one",
+                     "-D", "%2$s", "-w", "password",
+                     "-i", "1", "-c", "1", "-m", "100", "-S", "-B", "0",
+                     "--arrivalMode", "constant", "-M", "1000", "(uid=%d)"),
+                THROUGHPUT_TEXT, "" },
+            {
+                args("-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                     "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                     "-g", "rand(0,1000)", "-D", "uid=%d,ou=people,o=test", "-w", "password",
+                     "-i", "1", "-c", "1", "-m", "10", "-f", "--arrivalMode", "constant", "-M", "1000"),
+                "", ERR_TOOL_ARRIVAL_MODE_WITH_REBIND.get("constant", "--keepConnectionsOpen") },
         };
     }
 
@@ -0,0 +1,179 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.fest.assertions.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessageBuilder;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.ldap.tools.PerformanceRunner.ArrivalMode;
+
+@SuppressWarnings("javadoc")
+public class PerformanceRunnerTestCase extends ToolsTestCase {
+    /** Records the operations sent by a worker, and completes the first one after a delay. */
+    private final class RecordingPerformanceRunner extends PerformanceRunner {
+        private final List<Long> intendedStartTimesNs = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<Long> responseTimesNs = Collections.synchronizedList(new ArrayList<Long>());
+        private final long firstResponseDelayMs;
+
+        private RecordingPerformanceRunner(final ArgumentParser argParser, final long firstResponseDelayMs)
+                throws Exception {
+            super(new PerformanceRunnerOptions(argParser, app));
+            this.firstResponseDelayMs = firstResponseDelayMs;
+        }
+
+        @Override
+        WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            return new WorkerThread(connection, connectionFactory) {
+                @Override
+                public Promise<?, LdapException> performOperation(final Connection connection,
+                        final DataSource[] dataSources, final long currentTimeNs) {
+                    final Promise<Result, LdapException> promise;
+                    if (intendedStartTimesNs.isEmpty()) {
+                        promise = delayedResult(firstResponseDelayMs);
+                    } else {
+                        promise = Promises.newResultPromise(Responses.newResult(ResultCode.SUCCESS));
+                    }
+                    intendedStartTimesNs.add(currentTimeNs);
+                    incrementIterationCount();
+                    final UpdateStatsResultHandler<Result> handler = new UpdateStatsResultHandler<>(currentTimeNs);
+                    return promise.thenOnResult(handler).thenOnException(handler);
+                }
+            };
+        }
+
+        @Override
+        StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app) {
+            return new StatsThread(performanceRunner, app) {
+                @Override
+                void addResponseTime(final long responseTimeNs) {
+                    responseTimesNs.add(responseTimeNs);
+                }
+            };
+        }
+    }
+
+    @Mock
+    private ConsoleApplication app;
+    @Mock
+    private ConnectionFactory connectionFactory;
+    @Mock
+    private Connection connection;
+
+    @BeforeMethod
+    public void init() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(connectionFactory.getConnectionAsync())
+                .thenReturn(Promises.<Connection, LdapException> newResultPromise(connection));
+    }
+
+    @Test
+    public void testConstantArrivalMode() {
+        assertThat(ArrivalMode.CONSTANT.nextIntervalNs(1000.0)).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testPoissonArrivalMode() {
+        final int nbIntervals = 100000;
+        long totalNs = 0;
+        for (int i = 0; i < nbIntervals; i++) {
+            final long intervalNs = ArrivalMode.POISSON.nextIntervalNs(1000.0);
+            assertThat(intervalNs).isGreaterThanOrEqualTo(0L);
+            totalNs += intervalNs;
+        }
+        assertThat((double) totalNs / nbIntervals).isGreaterThan(950.0).isLessThan(1050.0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosedArrivalModeHasNoSchedule() {
+        ArrivalMode.CLOSED.nextIntervalNs(1000.0);
+    }
+
+    /**
+     * A slow response delays the next operation, which cannot be sent until it completes, but its response time is
+     * still measured from the time it should have been sent.
+     */
+    @Test(timeOut = 10000)
+    public void testOpenLoopMeasuresResponseTimesFromIntendedStartTime() throws Exception {
+        final RecordingPerformanceRunner runner = newRunner(200, "--arrivalMode", "constant", "-M", "100",
+                "--maxOutstandingRequests", "1", "-m", "5");
+        assertThat(runner.isOpenLoop()).isTrue();
+
+        runner.newWorkerThread(null, connectionFactory).run();
+
+        final List<Long> startTimesNs = runner.intendedStartTimesNs;
+        assertThat(startTimesNs).hasSize(5);
+        for (int i = 1; i < startTimesNs.size(); i++) {
+            assertThat(startTimesNs.get(i) - startTimesNs.get(i - 1)).isEqualTo(MILLISECONDS.toNanos(10));
+        }
+        // The second operation was due 10ms after the first one, but only sent once the first one completed
+        assertThat(runner.responseTimesNs).hasSize(5);
+        assertThat(runner.responseTimesNs.get(1)).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void testClosedLoopIsDefault() throws Exception {
+        assertThat(newRunner(0).isOpenLoop()).isFalse();
+    }
+
+    private RecordingPerformanceRunner newRunner(final long firstResponseDelayMs, final String... args)
+            throws Exception {
+        final ArgumentParser argParser =
+                new ArgumentParser("unused", new LocalizableMessageBuilder().toMessage(), false);
+        final RecordingPerformanceRunner runner = new RecordingPerformanceRunner(argParser, firstResponseDelayMs);
+        argParser.parseArguments(args);
+        runner.validate();
+        runner.statsThread = runner.newStatsThread(runner, app);
+        return runner;
+    }
+
+    private static Promise<Result, LdapException> delayedResult(final long delayMs) {
+        final PromiseImpl<Result, LdapException> promise = PromiseImpl.create();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                promise.handleResult(Responses.newResult(ResultCode.SUCCESS));
+            }
+        }.start();
+        return promise;
+    }
+}
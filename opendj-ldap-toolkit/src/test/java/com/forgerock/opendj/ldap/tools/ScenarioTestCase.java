@@ -0,0 +1,126 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.*;
+
+import java.util.Properties;
+
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.SimpleBindRequest;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.ldap.tools.Scenario.OperationType;
+
+@SuppressWarnings("javadoc")
+public class ScenarioTestCase extends ToolsTestCase {
+    private static final Object[] DATA = { 42, "value" };
+
+    @Test
+    public void testOperationsFollowRatios() throws Exception {
+        final Scenario scenario = newScenario(
+                "search.ratio", "80",
+                "search.baseDN", "ou=people,dc=example,dc=com",
+                "search.filter", "(uid=user.%d)",
+                "modify.ratio", "15",
+                "modify.targetDN", "uid=user.%d,ou=people,dc=example,dc=com",
+                "modify.modification.1", "description:%2$s",
+                "bind.ratio", "5",
+                "bind.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "bind.password", "password");
+
+        assertThat(scenario.getOperationType(0)).isEqualTo(OperationType.SEARCH);
+        assertThat(scenario.getOperationType(79)).isEqualTo(OperationType.SEARCH);
+        assertThat(scenario.getOperationType(80)).isEqualTo(OperationType.MODIFY);
+        assertThat(scenario.getOperationType(94)).isEqualTo(OperationType.MODIFY);
+        assertThat(scenario.getOperationType(95)).isEqualTo(OperationType.BIND);
+        assertThat(scenario.getOperationType(99)).isEqualTo(OperationType.BIND);
+        assertThat(scenario.hasBinds()).isTrue();
+        scenario.validate(DATA);
+    }
+
+    @Test
+    public void testRequestsAreFormattedWithData() throws Exception {
+        final Scenario scenario = newScenario(
+                "search.ratio", "1",
+                "search.baseDN", "ou=people,dc=example,dc=com",
+                "search.scope", "one",
+                "search.filter", "(uid=user.%d)",
+                "search.attributes", "cn mail",
+                "modify.ratio", "1",
+                "modify.targetDN", "uid=user.%d,ou=people,dc=example,dc=com",
+                "modify.modification.1", "description:%2$s",
+                "modify.modification.2", "sn:%d",
+                "bind.ratio", "0");
+        assertThat(scenario.hasBinds()).isFalse();
+
+        final SearchRequest search = scenario.newSearchRequest(DATA);
+        assertThat(search.getName().toString()).isEqualTo("ou=people,dc=example,dc=com");
+        assertThat(search.getScope()).isEqualTo(SearchScope.SINGLE_LEVEL);
+        assertThat(search.getFilter().toString()).isEqualTo("(uid=user.42)");
+        assertThat(search.getAttributes()).containsExactly("cn", "mail");
+
+        final ModifyRequest modify = scenario.newModifyRequest(DATA);
+        assertThat(modify.getName().toString()).isEqualTo("uid=user.42,ou=people,dc=example,dc=com");
+        assertThat(modify.getModifications()).hasSize(2);
+        assertThat(modify.getModifications().get(0).getAttribute().firstValueAsString()).isEqualTo("value");
+        assertThat(modify.getModifications().get(1).getAttribute().firstValueAsString()).isEqualTo("42");
+    }
+
+    @Test
+    public void testBindRequest() throws Exception {
+        final Scenario scenario = newScenario(
+                "bind.ratio", "1",
+                "bind.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "bind.password", "password");
+
+        final SimpleBindRequest bind = scenario.newBindRequest(DATA);
+        assertThat(bind.getName()).isEqualTo("uid=user.42,ou=people,dc=example,dc=com");
+        assertThat(new String(bind.getPassword(), "UTF-8")).isEqualTo("password");
+    }
+
+    @Test(expectedExceptions = ArgumentException.class)
+    public void testNoOperation() throws Exception {
+        newScenario("search.ratio", "0");
+    }
+
+    @Test(expectedExceptions = ArgumentException.class)
+    public void testInvalidRatio() throws Exception {
+        newScenario("bind.ratio", "-1", "bind.dn", "cn=user", "bind.password", "password");
+    }
+
+    @Test(expectedExceptions = ArgumentException.class)
+    public void testMissingProperty() throws Exception {
+        newScenario("search.ratio", "1", "search.baseDN", "dc=example,dc=com");
+    }
+
+    @Test(expectedExceptions = ArgumentException.class)
+    public void testFormatStringsMustMatchData() throws Exception {
+        newScenario("bind.ratio", "1", "bind.dn", "uid=user.%d", "bind.password", "password")
+                .validate(new Object[] { "not a number" });
+    }
+
+    private static Scenario newScenario(final String... keysAndValues) throws ArgumentException {
+        final Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new Scenario("scenario.properties", properties);
+    }
+}
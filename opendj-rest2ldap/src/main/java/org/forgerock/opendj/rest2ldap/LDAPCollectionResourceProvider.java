@@ -567,7 +567,11 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
             private ResourceException pendingResult;
             private int pendingResourceCount;
             private boolean resultSent;
+            /** Set when the resource handler does not want any more resources. */
+            private boolean resourceHandlerDone;
             private int totalResourceCount;
+            /** Referenced entries are read at most once per query. */
+            private final Connection mappingConnection = new ReferenceReadCache(connection);
 
             @Override
             public Promise<QueryResponse, ResourceException> apply(final Filter ldapFilter) {
@@ -609,9 +613,10 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                     @Override
                     public boolean handleEntry(final SearchResultEntry entry) {
                         // Search result entries will be returned before the search result/error so the only reason
-                        // pendingResult will be non-null is if a mapping error has occurred.
+                        // pendingResult will be non-null is if a mapping error has occurred. Stop the search as well
+                        // once the resource handler has stopped accepting resources, there is no point mapping them.
                         synchronized (sequenceLock) {
-                            if (pendingResult != null) {
+                            if (pendingResult != null || resourceHandlerDone) {
                                 return false;
                             }
                             if (totalResourceCount++ < pageResultStartIndex) {
@@ -635,14 +640,14 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                          */
                         final String id = nameStrategy.getResourceId(connection, entry);
                         final String revision = getRevisionFromEntry(entry);
-                        attributeMapper.read(connection, new JsonPointer(), entry)
+                        attributeMapper.read(mappingConnection, new JsonPointer(), entry)
                                        .thenOnResult(new ResultHandler<JsonValue>() {
                                            @Override
                                            public void handleResult(final JsonValue result) {
                                                synchronized (sequenceLock) {
                                                    pendingResourceCount--;
-                                                   if (!resultSent) {
-                                                       resourceHandler.handleResource(
+                                                   if (!resultSent && !resourceHandlerDone) {
+                                                       resourceHandlerDone = !resourceHandler.handleResource(
                                                                Responses.newResourceResponse(id, revision, result));
                                                    }
                                                    completeIfNecessary(promise);
@@ -689,7 +694,9 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                     @Override
                     public void handleException(LdapException exception) {
                         synchronized (sequenceLock) {
-                            completeIfNecessary(asResourceException(exception), promise);
+                            // The search is expected to be interrupted when the resource handler stopped it.
+                            completeIfNecessary(resourceHandlerDone ? SUCCESS : asResourceException(exception),
+                                                promise);
                         }
                     }
                 });
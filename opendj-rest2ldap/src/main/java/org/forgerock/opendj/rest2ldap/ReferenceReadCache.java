@@ -0,0 +1,70 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.rest2ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forgerock.opendj.ldap.AbstractConnectionWrapper;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+
+/**
+ * Shares the single entry reads performed while mapping the entries returned by a query. Entries referenced by many
+ * resources of the same query (e.g. a common manager or groups) are read once, instead of once per referencing
+ * resource: concurrent reads of the same entry share the pending request and later reads get the cached result.
+ * <p>
+ * A cache must only be used for the duration of a single query, so that it never returns stale entries.
+ */
+final class ReferenceReadCache extends AbstractConnectionWrapper<Connection> {
+    /** The maximum number of reads which will be cached, further reads are forwarded as is. */
+    private static final int MAX_CACHED_READS = 4096;
+
+    private final ConcurrentMap<List<Object>, LdapPromise<SearchResultEntry>> cachedReads = new ConcurrentHashMap<>();
+
+    ReferenceReadCache(final Connection connection) {
+        super(connection);
+    }
+
+    @Override
+    public LdapPromise<SearchResultEntry> searchSingleEntryAsync(final SearchRequest request) {
+        if (!request.getScope().equals(SearchScope.BASE_OBJECT) || !request.getControls().isEmpty()) {
+            return connection.searchSingleEntryAsync(request);
+        }
+
+        final List<Object> key = Arrays.<Object> asList(
+                request.getName(), request.getFilter().toString(), new ArrayList<>(request.getAttributes()));
+        final LdapPromise<SearchResultEntry> cachedRead = cachedReads.get(key);
+        if (cachedRead != null) {
+            return cachedRead;
+        }
+
+        final LdapPromise<SearchResultEntry> read = connection.searchSingleEntryAsync(request);
+        if (cachedReads.size() < MAX_CACHED_READS) {
+            final LdapPromise<SearchResultEntry> concurrentRead = cachedReads.putIfAbsent(key, read);
+            if (concurrentRead != null) {
+                return concurrentRead;
+            }
+        }
+        return read;
+    }
+}
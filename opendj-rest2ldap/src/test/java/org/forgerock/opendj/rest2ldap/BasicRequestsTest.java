@@ -35,6 +35,7 @@ import static org.forgerock.opendj.ldap.Connections.newInternalConnectionFactory
 import static org.forgerock.opendj.ldap.Functions.byteStringToInteger;
 import static org.forgerock.opendj.rest2ldap.Rest2LDAP.constant;
 import static org.forgerock.opendj.rest2ldap.Rest2LDAP.object;
+import static org.forgerock.opendj.rest2ldap.Rest2LDAP.reference;
 import static org.forgerock.opendj.rest2ldap.Rest2LDAP.simple;
 import static org.forgerock.opendj.rest2ldap.TestUtils.asResource;
 import static org.forgerock.opendj.rest2ldap.TestUtils.content;
@@ -52,6 +53,7 @@ import org.forgerock.json.resource.Connection;
 import org.forgerock.json.resource.NotFoundException;
 import org.forgerock.json.resource.NotSupportedException;
 import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryResourceHandler;
 import org.forgerock.json.resource.QueryResponse;
 import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.opendj.ldap.ConnectionFactory;
@@ -62,6 +64,7 @@ import org.forgerock.opendj.ldap.MemoryBackend;
 import org.forgerock.opendj.ldap.RequestContext;
 import org.forgerock.opendj.ldap.RequestHandler;
 import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.requests.AddRequest;
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.requests.CompareRequest;
@@ -103,6 +106,52 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
         assertThat(result.getTotalPagedResults()).isEqualTo(-1);
     }
 
+    @Test
+    public void testQueryStopsWhenResourceHandlerIsDone() throws Exception {
+        final Connection connection = newConnection();
+        final List<ResourceResponse> resources = new LinkedList<>();
+        final QueryResponse result = connection.query(newAuthConnectionContext(),
+                newQueryRequest("").setQueryFilter(NO_FILTER), new QueryResourceHandler() {
+                    @Override
+                    public boolean handleResource(final ResourceResponse resource) {
+                        resources.add(resource);
+                        return false;
+                    }
+                });
+        assertThat(resources).hasSize(1);
+        assertThat(result.getPagedResultsCookie()).isNull();
+    }
+
+    @Test
+    public void testQueryReadsSharedReferenceOnce() throws Exception {
+        final List<Request> requests = new ArrayList<>();
+        final Connection connection = newInternalConnection(newCollection(Rest2LDAP.builder()
+                .baseDN("dc=test")
+                .useClientDNNaming("uid")
+                .mapper(object()
+                        .attribute("_id", simple("uid").isSingleValued())
+                        .attribute("seeAlso", reference("seeAlso", "dc=test", "uid", simple("uid").isSingleValued())
+                                                  .isSingleValued()))
+                .build()));
+        final List<ResourceResponse> resources = new LinkedList<>();
+        connection.query(newAuthConnectionContext(requests), newQueryRequest("").setQueryFilter(NO_FILTER), resources);
+
+        assertThat(resources).hasSize(5);
+        for (final ResourceResponse resource : resources) {
+            if (!resource.getId().equals("test1")) {
+                assertThat(resource.getContent().get("seeAlso").get("_id").asString()).isEqualTo("test1");
+            }
+        }
+        int referenceReads = 0;
+        for (final Request request : requests) {
+            if (request instanceof SearchRequest
+                    && ((SearchRequest) request).getScope().equals(SearchScope.BASE_OBJECT)) {
+                referenceReads++;
+            }
+        }
+        assertThat(referenceReads).isEqualTo(1);
+    }
+
     @Test
     public void testQueryNone() throws Exception {
         final Connection connection = newConnection();
@@ -678,6 +727,7 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                         "cn: test user 2",
                         "sn: user 2",
                         "etag: 67890",
+                        "seeAlso: uid=test1,dc=test",
                         "",
                         "dn: uid=test3,dc=test",
                         "objectClass: top",
@@ -687,6 +737,7 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                         "cn: test user 3",
                         "sn: user 3",
                         "etag: 33333",
+                        "seeAlso: uid=test1,dc=test",
                         "",
                         "dn: uid=test4,dc=test",
                         "objectClass: top",
@@ -696,6 +747,7 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                         "cn: test user 4",
                         "sn: user 4",
                         "etag: 44444",
+                        "seeAlso: uid=test1,dc=test",
                         "",
                         "dn: uid=test5,dc=test",
                         "objectClass: top",
@@ -704,7 +756,8 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                         "userpassword: password",
                         "cn: test user 5",
                         "sn: user 5",
-                        "etag: 55555"
+                        "etag: 55555",
+                        "seeAlso: uid=test1,dc=test"
                 ));
         // @formatter:on
 
@@ -45,6 +45,7 @@ import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.PersistentSearch;
 import org.opends.server.core.PersistentSearch.CancellationCallback;
+import org.opends.server.core.PersistentSearchDispatcher;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.monitors.BackendMonitor;
@@ -103,6 +104,9 @@ public abstract class Backend<C extends Configuration>
   /** The set of persistent searches registered with this backend. */
   private final ConcurrentLinkedQueue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
 
+  /** Dispatches the changes made to this backend to the registered persistent searches. */
+  private final PersistentSearchDispatcher persistentSearchDispatcher = new PersistentSearchDispatcher();
+
   /**
    * Configure this backend based on the information in the provided configuration.
    * When the method returns, the backend will have been configured (ready to be opened) but still unable
@@ -812,6 +816,7 @@ public abstract class Backend<C extends Configuration>
   public void registerPersistentSearch(PersistentSearch persistentSearch) throws DirectoryException
   {
     persistentSearches.add(persistentSearch);
+    persistentSearchDispatcher.register(persistentSearch);
 
     persistentSearch.registerCancellationCallback(new CancellationCallback()
     {
@@ -819,6 +824,7 @@ public abstract class Backend<C extends Configuration>
       public void persistentSearchCancelled(PersistentSearch psearch)
       {
         persistentSearches.remove(psearch);
+        persistentSearchDispatcher.deregister(psearch);
       }
     });
   }
@@ -835,6 +841,17 @@ public abstract class Backend<C extends Configuration>
     return persistentSearches;
   }
 
+  /**
+   * Returns the dispatcher notifying the persistent searches registered with
+   * this backend of the changes made to its entries.
+   *
+   * @return the dispatcher of the changes made to this backend
+   */
+  public PersistentSearchDispatcher getPersistentSearchDispatcher()
+  {
+    return persistentSearchDispatcher;
+  }
+
   /**
    * Sets the backend monitor for this backend.
    *
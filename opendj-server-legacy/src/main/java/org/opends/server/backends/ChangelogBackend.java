@@ -109,6 +109,7 @@ import org.opends.server.types.RawAttribute;
 import org.opends.server.types.RestoreConfig;
 import org.opends.server.types.SearchFilter;
 import org.opends.server.types.WritabilityMode;
+import org.opends.server.util.LDIFWriter;
 import org.opends.server.util.StaticUtils;
 
 /**
@@ -555,15 +556,96 @@ public class ChangelogBackend extends Backend<Configuration>
   @Override
   public boolean supports(BackendOperation backendOperation)
   {
-    return false;
+    return BackendOperation.LDIF_EXPORT.equals(backendOperation);
   }
 
+  /**
+   * Exports the net effect of the changes which happened after the cookie
+   * provided by {@link LDIFExportConfig#getChangesFromCookie()} and up to the
+   * cookie provided by {@link LDIFExportConfig#getChangesToCookie()}, if any.
+   * <p>
+   * The changes are coalesced per entry, and written as LDIF change records
+   * followed by a comment containing the cookie to use for the next export.
+   * The net changes of every changed entry are held in memory until they are
+   * written, so the range between both cookies should be kept reasonably small
+   * when many distinct entries are changed.
+   */
   @Override
   public void exportLDIF(final LDIFExportConfig exportConfig)
       throws DirectoryException
   {
-    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
-        ERR_BACKEND_IMPORT_AND_EXPORT_NOT_SUPPORTED.get(getBackendID()));
+    final String fromCookieString = exportConfig.getChangesFromCookie();
+    if (fromCookieString == null)
+    {
+      throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, ERR_CHANGELOG_BACKEND_EXPORT_NO_COOKIE.get());
+    }
+    final Set<DN> excludedBaseDNs = getExcludedBaseDNs();
+    final MultiDomainServerState fromCookie = new MultiDomainServerState(fromCookieString);
+    validateProvidedCookie(fromCookie, excludedBaseDNs);
+    final MultiDomainServerState toCookie = exportConfig.getChangesToCookie() != null
+        ? new MultiDomainServerState(exportConfig.getChangesToCookie())
+        : null;
+    final CSN newestCSNToExport = toCookie != null ? getNewestCSN(toCookie) : null;
+
+    final MultiDomainServerState exportedCookie = new MultiDomainServerState(fromCookie);
+    final ChangelogDelta delta = new ChangelogDelta();
+    final ReplicationDomainDB replicationDomainDB = getChangelogDB().getReplicationDomainDB();
+    final CursorOptions options = new CursorOptions(GREATER_THAN_OR_EQUAL_TO_KEY, AFTER_MATCHING_KEY);
+    try (final MultiDomainDBCursor cursor = replicationDomainDB.getCursorFrom(fromCookie, options, excludedBaseDNs);
+        ECLMultiDomainDBCursor replicaUpdatesCursor = new ECLMultiDomainDBCursor(domainPredicate, cursor);
+        LDIFWriter ldifWriter = new LDIFWriter(exportConfig))
+    {
+      while (!exportConfig.isCancelled() && replicaUpdatesCursor.next())
+      {
+        final UpdateMsg updateMsg = replicaUpdatesCursor.getRecord();
+        final DN domainBaseDN = replicaUpdatesCursor.getData();
+        if (toCookie != null
+            && (newestCSNToExport == null || updateMsg.getCSN().isNewerThan(newestCSNToExport)))
+        {
+          // Changes are read from the oldest to the newest: no later change can be covered by the cookie
+          break;
+        }
+        if (updateMsg instanceof LDAPUpdateMsg
+            && (toCookie == null || toCookie.cover(domainBaseDN, updateMsg.getCSN())))
+        {
+          delta.add((LDAPUpdateMsg) updateMsg);
+          exportedCookie.update(domainBaseDN, updateMsg.getCSN());
+        }
+      }
+
+      if (!exportConfig.isCancelled())
+      {
+        delta.write(ldifWriter);
+        ldifWriter.writeComment(INFO_CHANGELOG_BACKEND_EXPORT_COOKIE.get(exportedCookie), 0);
+      }
+    }
+    catch (DirectoryException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_CHANGELOG_BACKEND_EXPORT.get(fromCookieString, stackTraceToSingleLineString(e)), e);
+    }
+  }
+
+  /** Returns the newest CSN of the provided cookie, or {@code null} if it is empty. */
+  private static CSN getNewestCSN(MultiDomainServerState cookie)
+  {
+    CSN newestCSN = null;
+    for (DN baseDN : cookie)
+    {
+      for (CSN csn : cookie.getServerState(baseDN))
+      {
+        if (newestCSN == null || csn.isNewerThan(newestCSN))
+        {
+          newestCSN = csn;
+        }
+      }
+    }
+    return newestCSN;
   }
 
   @Override
@@ -0,0 +1,384 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.forgerock.opendj.ldap.ModificationType.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.forgerock.opendj.ldap.AVA;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.RDN;
+import org.opends.server.replication.protocol.AddMsg;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.opends.server.replication.protocol.ModifyMsg;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDAPException;
+import org.opends.server.types.Modification;
+import org.opends.server.util.LDIFWriter;
+
+/**
+ * Coalesces the changes read from the changelog into the net effect they had on each entry.
+ * <p>
+ * Changes are grouped by entryUUID, so that:
+ * <ul>
+ * <li>an entry added then deleted is not exported,</li>
+ * <li>an entry added then modified or renamed is exported as a single add of its final contents
+ * under its final DN,</li>
+ * <li>an entry modified then deleted is exported as a delete,</li>
+ * <li>an entry modified and renamed several times is exported as a single modify of all its
+ * modifications, followed by a single rename from its original DN to its final DN, followed by a
+ * modify adding the values of the intermediate RDNs which were not deleted by the later renames.
+ * The values of the original RDN are deleted by the rename only if one of the renames deleted
+ * them.</li>
+ * </ul>
+ * The values of intermediate RDNs are assumed to be absent from the entry before it was renamed.
+ * <p>
+ * The change records of each entry are written in the order of the first change of each entry,
+ * which is the order a client replaying the delta would expect for adds and deletes. As the
+ * renames of an entry are written with its other changes, the DNs of the change records are
+ * rebased through the renames of their superior entries: a DN is written with the original DN of
+ * a renamed superior entry whose change records are written later, and with its final DN once
+ * they have been written.
+ * <p>
+ * The delta holds the net changes of every changed entry in memory until it is written: its size
+ * grows with the number of distinct entries changed, and with the number of modifications of the
+ * entries which were not added by the delta.
+ */
+final class ChangelogDelta
+{
+  /** The net changes of an entry. */
+  private static final class EntryChanges
+  {
+    /** The position of the first change of this entry, where its change records are written. */
+    private final int position;
+    /**
+     * The successive DNs of the entry, including the renames of its superior entries. Each DN is
+     * keyed by the index of the first change made while the entry had this DN.
+     */
+    private final NavigableMap<Integer, DN> dns = new TreeMap<>();
+    private Entry addedEntry;
+    private boolean deleted;
+    /** Whether the entry itself was renamed, rather than only its superior entries. */
+    private boolean renamed;
+    /** The values of the intermediate RDNs which must be added to the entry after it is renamed. */
+    private final Set<AVA> rdnValuesToAdd = new LinkedHashSet<>();
+    /** The values of the original RDN which must be deleted from the entry when it is renamed. */
+    private final Set<AVA> rdnValuesToDelete = new LinkedHashSet<>();
+    private final List<Modification> mods = new ArrayList<>();
+
+    private EntryChanges(int position, int changeIndex, DN dn)
+    {
+      this.position = position;
+      this.dns.put(changeIndex, dn);
+    }
+
+    private DN getOriginalDN()
+    {
+      return dns.firstEntry().getValue();
+    }
+
+    private DN getCurrentDN()
+    {
+      return dns.lastEntry().getValue();
+    }
+
+    /** Returns the DN the entry had when the change at the provided index was made. */
+    private DN getDN(int changeIndex)
+    {
+      final Map.Entry<Integer, DN> entry = dns.floorEntry(changeIndex);
+      return entry != null ? entry.getValue() : getOriginalDN();
+    }
+  }
+
+  /** The entries changes, in the order of the first change of each entry. */
+  private final Map<String, EntryChanges> changesByEntryUUID = new LinkedHashMap<>();
+  /** The entries whose DN changed, which are the only ones through which DNs need to be rebased. */
+  private final List<EntryChanges> movedEntries = new ArrayList<>();
+  private int nbChanges;
+  private int nbEntries;
+
+  /**
+   * Adds the provided change to this delta.
+   *
+   * @param msg
+   *          the change read from the changelog
+   * @throws IOException
+   *           if the modifications of the change could not be decoded
+   * @throws DecodeException
+   *           if the attributes of the change could not be decoded
+   * @throws LDAPException
+   *           if the attributes or modifications of the change could not be decoded
+   * @throws DirectoryException
+   *           if the modifications could not be applied to an entry added by a previous change
+   */
+  void add(LDAPUpdateMsg msg) throws IOException, DecodeException, LDAPException, DirectoryException
+  {
+    final int changeIndex = nbChanges++;
+    final String entryUUID = msg.getEntryUUID();
+    EntryChanges changes = changesByEntryUUID.get(entryUUID);
+    if (changes == null)
+    {
+      changes = new EntryChanges(nbEntries++, changeIndex, msg.getDN());
+      changesByEntryUUID.put(entryUUID, changes);
+    }
+
+    if (msg instanceof AddMsg)
+    {
+      changes.addedEntry = new Entry(msg.getDN(), null, null, null);
+      for (Attribute attr : ((AddMsg) msg).getAttributes())
+      {
+        changes.addedEntry.addAttribute(attr, null);
+      }
+    }
+    else if (msg instanceof DeleteMsg)
+    {
+      if (changes.addedEntry != null)
+      {
+        changesByEntryUUID.remove(entryUUID);
+        movedEntries.remove(changes);
+        return;
+      }
+      changes.deleted = true;
+      changes.mods.clear();
+    }
+    else if (msg instanceof ModifyDNMsg)
+    {
+      rename(changes, (ModifyDNMsg) msg, changeIndex);
+    }
+    else if (msg instanceof ModifyMsg)
+    {
+      final List<Modification> mods = ((ModifyMsg) msg).getMods();
+      if (changes.addedEntry == null)
+      {
+        changes.mods.addAll(mods);
+        return;
+      }
+      for (Modification mod : mods)
+      {
+        changes.addedEntry.applyModification(mod, true);
+      }
+    }
+  }
+
+  private void rename(EntryChanges changes, ModifyDNMsg modDNMsg, int changeIndex) throws DirectoryException
+  {
+    final DN oldDN = modDNMsg.getDN();
+    final DN parentDN = modDNMsg.getNewSuperior() != null ? DN.valueOf(modDNMsg.getNewSuperior()) : oldDN.parent();
+    final DN newDN = parentDN.child(RDN.valueOf(modDNMsg.getNewRDN()));
+    changes.renamed = true;
+
+    final Set<AVA> originalRDN = toSet(changes.getOriginalDN().rdn());
+    final Set<AVA> newRDN = toSet(newDN.rdn());
+    for (AVA ava : newRDN)
+    {
+      if (changes.addedEntry != null)
+      {
+        changes.addedEntry.applyModification(toModification(ADD, ava), true);
+      }
+      else if (originalRDN.contains(ava))
+      {
+        changes.rdnValuesToDelete.remove(ava);
+      }
+      else
+      {
+        changes.rdnValuesToAdd.add(ava);
+      }
+    }
+    if (modDNMsg.deleteOldRdn())
+    {
+      for (AVA ava : oldDN.rdn())
+      {
+        if (newRDN.contains(ava))
+        {
+          continue;
+        }
+        if (changes.addedEntry != null)
+        {
+          changes.addedEntry.applyModification(toModification(DELETE, ava), true);
+        }
+        else if (originalRDN.contains(ava))
+        {
+          changes.rdnValuesToDelete.add(ava);
+        }
+        else
+        {
+          changes.rdnValuesToAdd.remove(ava);
+        }
+      }
+    }
+
+    // The subordinates of the renamed entry are renamed with it, for the changes made after this one
+    final int nextChangeIndex = changeIndex + 1;
+    for (EntryChanges other : changesByEntryUUID.values())
+    {
+      final DN otherDN = other.getCurrentDN();
+      if (other == changes)
+      {
+        addDN(other, nextChangeIndex, newDN);
+      }
+      else if (!other.deleted && otherDN.isSubordinateOrEqualTo(oldDN))
+      {
+        addDN(other, nextChangeIndex, otherDN.rename(oldDN, newDN));
+      }
+    }
+  }
+
+  private void addDN(EntryChanges changes, int changeIndex, DN dn)
+  {
+    changes.dns.put(changeIndex, dn);
+    if (changes.dns.size() == 2)
+    {
+      movedEntries.add(changes);
+    }
+  }
+
+  private static Set<AVA> toSet(RDN rdn)
+  {
+    final Set<AVA> avas = new LinkedHashSet<>();
+    for (AVA ava : rdn)
+    {
+      avas.add(ava);
+    }
+    return avas;
+  }
+
+  private static Modification toModification(ModificationType modType, AVA ava)
+  {
+    return new Modification(modType, Attributes.create(ava.getAttributeType(), ava.getAttributeValue()));
+  }
+
+  /**
+   * Writes the net changes of this delta as LDIF change records.
+   *
+   * @param writer
+   *          the LDIF writer to write the change records with
+   * @throws IOException
+   *           if a problem occurs while writing the change records
+   */
+  void write(LDIFWriter writer) throws IOException
+  {
+    for (EntryChanges changes : changesByEntryUUID.values())
+    {
+      final DN originalDN = rebase(changes.getOriginalDN(), changes.dns.firstKey(), changes.position, 0);
+      if (changes.deleted)
+      {
+        writer.writeDeleteChangeRecord(new Entry(originalDN, null, null, null), false);
+        continue;
+      }
+
+      final DN currentDN = rebase(changes.getCurrentDN(), changes.dns.lastKey(), changes.position, 0);
+      if (changes.addedEntry != null)
+      {
+        changes.addedEntry.setDN(currentDN);
+        writer.writeAddChangeRecord(changes.addedEntry);
+        continue;
+      }
+
+      if (!changes.mods.isEmpty())
+      {
+        writer.writeModifyChangeRecord(originalDN, changes.mods);
+      }
+      if (changes.renamed)
+      {
+        writeRename(writer, changes, originalDN, currentDN);
+      }
+    }
+  }
+
+  private void writeRename(LDIFWriter writer, EntryChanges changes, DN originalDN, DN currentDN) throws IOException
+  {
+    final Set<AVA> rdnValuesToAdd = new LinkedHashSet<>(changes.rdnValuesToAdd);
+    final Set<AVA> rdnValuesToDelete = new LinkedHashSet<>(changes.rdnValuesToDelete);
+    if (!currentDN.equals(originalDN))
+    {
+      // The rename adds the values of the new RDN, and deletes the values of the old RDN if requested
+      final Set<AVA> newRDN = toSet(currentDN.rdn());
+      rdnValuesToAdd.removeAll(newRDN);
+      final Set<AVA> oldRDNValuesToDelete = toSet(originalDN.rdn());
+      oldRDNValuesToDelete.removeAll(newRDN);
+      final boolean deleteOldRDN =
+          !rdnValuesToDelete.isEmpty() && rdnValuesToDelete.containsAll(oldRDNValuesToDelete);
+      if (deleteOldRDN)
+      {
+        rdnValuesToDelete.removeAll(oldRDNValuesToDelete);
+      }
+
+      final DN newParentDN = currentDN.parent();
+      final DN newSuperior = newParentDN.equals(originalDN.parent()) ? null : newParentDN;
+      writer.writeModifyDNChangeRecord(originalDN, currentDN.rdn(), deleteOldRDN, newSuperior);
+    }
+
+    final List<Modification> rdnMods = new ArrayList<>();
+    for (AVA ava : rdnValuesToAdd)
+    {
+      rdnMods.add(toModification(ADD, ava));
+    }
+    for (AVA ava : rdnValuesToDelete)
+    {
+      rdnMods.add(toModification(DELETE, ava));
+    }
+    if (!rdnMods.isEmpty())
+    {
+      writer.writeModifyChangeRecord(currentDN, rdnMods);
+    }
+  }
+
+  /**
+   * Rebases the provided DN, which an entry had when the change at the provided index was made, so
+   * that it is valid at the provided position of the written change records.
+   */
+  private DN rebase(DN dn, int changeIndex, int position, int depth)
+  {
+    EntryChanges superior = null;
+    DN superiorDN = null;
+    for (EntryChanges moved : movedEntries)
+    {
+      final DN movedDN = moved.getDN(changeIndex);
+      if (dn.size() > movedDN.size() && dn.isSubordinateOrEqualTo(movedDN)
+          && (superiorDN == null || movedDN.size() > superiorDN.size()))
+      {
+        superior = moved;
+        superiorDN = movedDN;
+      }
+    }
+    // The depth guards against entries moved in and out of each other subtrees
+    if (superior == null || depth > movedEntries.size())
+    {
+      return dn;
+    }
+
+    final DN rebasedSuperiorDN = superior.position < position && !superior.deleted
+        ? rebase(superior.getCurrentDN(), superior.dns.lastKey(), position, depth + 1)
+        : rebase(superior.getOriginalDN(), superior.dns.firstKey(), position, depth + 1);
+    return dn.rename(superiorDN, rebasedSuperiorDN);
+  }
+}
@@ -0,0 +1,1188 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.forgerock.util.Reject.*;
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.util.ServerConstants.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.Assertion;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.Indexer;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
+import org.forgerock.opendj.server.config.server.IndexedMemoryBackendCfg;
+import org.opends.server.api.Backend;
+import org.opends.server.controls.SubtreeDeleteControl;
+import org.opends.server.core.AddOperation;
+import org.opends.server.core.DeleteOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ModifyDNOperation;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.Control;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.ExistingFileBehavior;
+import org.opends.server.types.IndexType;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.types.LDIFImportResult;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.types.VirtualAttributeRule;
+import org.opends.server.util.LDIFException;
+import org.opends.server.util.LDIFReader;
+import org.opends.server.util.LDIFWriter;
+
+/**
+ * This class defines a backend that stores its information in memory and maintains equality, presence and
+ * substring indexes on it. It is intended for small data sets which must be searched at a very high rate.
+ * <p>
+ * Entries are held in a {@link ConcurrentSkipListMap} sorted by DN, so that the entries of a subtree are
+ * contiguous and parent entries are before their children, which is important for both search result processing
+ * and LDIF exports. The index keys are created by the indexers of the matching rules, like for the pluggable
+ * backends, and map to concurrent sorted sets of entry DNs, so that an index update only costs a logarithmic time
+ * whatever the number of entries having the key.
+ * <p>
+ * Writes are serialized, but reads never block: the stored entries are never modified once added, and a search
+ * only uses the index to find candidate entries which are then always checked against the filter. A search
+ * running concurrently with a write therefore sees the entry either before or after the write.
+ * <p>
+ * The number of children and subordinates of each entry is maintained on writes, so that counting them does not
+ * walk the subtree.
+ * <p>
+ * The backend is volatile: its contents only live in memory. When a snapshot file is configured, they are saved to
+ * it as LDIF when the backend is closed and loaded from it when the backend is opened, but the writes made since the
+ * backend was opened are lost if the server stops without closing it, for example when the process is killed.
+ */
+public class IndexedMemoryBackend extends Backend<IndexedMemoryBackendCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The set of supported controls for this backend. */
+  private static final Set<String> supportedControls = Collections.singleton(OID_SUBTREE_DELETE_CONTROL);
+
+  /** The length of the substring index keys, which is the default for the pluggable backends. */
+  private static final int SUBSTRING_KEY_SIZE = 6;
+
+  private static final SortedSet<DN> NO_DNS = Collections.unmodifiableSortedSet(new TreeSet<DN>());
+
+  private static final IndexingOptions INDEXING_OPTIONS = new IndexingOptions()
+  {
+    @Override
+    public int substringKeySize()
+    {
+      return SUBSTRING_KEY_SIZE;
+    }
+  };
+
+  /** The indexes maintained for an attribute type. */
+  private static final class AttributeIndex implements IndexQueryFactory<SortedSet<DN>>
+  {
+    private final AttributeType attributeType;
+    private final Set<IndexType> indexTypes = new HashSet<>();
+    private final Map<String, Indexer> indexers = new HashMap<>();
+    /** The index keys for each indexer, and the sorted DNs of the entries having them. */
+    private final Map<String, ConcurrentSkipListMap<ByteString, ConcurrentSkipListSet<DN>>> indexIdToKeys =
+        new HashMap<>();
+    /** The sorted DNs of the entries having the attribute, if it has a presence index. */
+    private final ConcurrentSkipListSet<DN> presenceDNs = new ConcurrentSkipListSet<>();
+
+    private AttributeIndex(AttributeType attributeType)
+    {
+      this.attributeType = attributeType;
+    }
+
+    private void addIndexType(IndexType indexType, MatchingRule rule) throws ConfigException
+    {
+      if (indexType != IndexType.PRESENCE)
+      {
+        if (rule == null)
+        {
+          throw new ConfigException(ERR_CONFIG_INDEX_TYPE_NEEDS_MATCHING_RULE.get(attributeType, indexType));
+        }
+        for (Indexer indexer : rule.createIndexers(INDEXING_OPTIONS))
+        {
+          indexers.put(indexer.getIndexID(), indexer);
+          indexIdToKeys.put(indexer.getIndexID(), new ConcurrentSkipListMap<ByteString, ConcurrentSkipListSet<DN>>());
+        }
+      }
+      indexTypes.add(indexType);
+    }
+
+    /** Updates the indexes after an entry has been added, removed or replaced, without blocking readers. */
+    private void update(DN entryDN, Entry oldEntry, Entry newEntry)
+    {
+      for (Map.Entry<String, Indexer> mapEntry : indexers.entrySet())
+      {
+        final Set<ByteString> oldKeys = createKeys(mapEntry.getValue(), oldEntry);
+        final Set<ByteString> newKeys = createKeys(mapEntry.getValue(), newEntry);
+        final ConcurrentSkipListMap<ByteString, ConcurrentSkipListSet<DN>> keys =
+            indexIdToKeys.get(mapEntry.getKey());
+        for (ByteString key : newKeys)
+        {
+          if (!oldKeys.contains(key))
+          {
+            ConcurrentSkipListSet<DN> dns = keys.get(key);
+            if (dns == null)
+            {
+              dns = new ConcurrentSkipListSet<>();
+              keys.put(key, dns);
+            }
+            dns.add(entryDN);
+          }
+        }
+        for (ByteString key : oldKeys)
+        {
+          if (!newKeys.contains(key))
+          {
+            final ConcurrentSkipListSet<DN> dns = keys.get(key);
+            // Writes are serialized, so no entry can be added to the set before it is removed
+            if (dns != null && dns.remove(entryDN) && dns.isEmpty())
+            {
+              keys.remove(key);
+            }
+          }
+        }
+      }
+
+      if (indexTypes.contains(IndexType.PRESENCE))
+      {
+        final boolean wasPresent = hasValues(oldEntry);
+        final boolean isPresent = hasValues(newEntry);
+        if (isPresent && !wasPresent)
+        {
+          presenceDNs.add(entryDN);
+        }
+        else if (wasPresent && !isPresent)
+        {
+          presenceDNs.remove(entryDN);
+        }
+      }
+    }
+
+    private Set<ByteString> createKeys(Indexer indexer, Entry entry)
+    {
+      if (entry == null)
+      {
+        return Collections.emptySet();
+      }
+      final Set<ByteString> keys = new HashSet<>();
+      for (Attribute attribute : entry.getAttribute(attributeType))
+      {
+        if (!attribute.isVirtual())
+        {
+          for (ByteString value : attribute)
+          {
+            try
+            {
+              indexer.createKeys(Schema.getDefaultSchema(), value, keys);
+            }
+            catch (DecodeException e)
+            {
+              logger.traceException(e);
+            }
+          }
+        }
+      }
+      return keys;
+    }
+
+    private boolean hasValues(Entry entry)
+    {
+      if (entry != null)
+      {
+        for (Attribute attribute : entry.getAttribute(attributeType))
+        {
+          if (!attribute.isVirtual() && !attribute.isEmpty())
+          {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public SortedSet<DN> createExactMatchQuery(String indexID, ByteSequence key)
+    {
+      final ConcurrentSkipListMap<ByteString, ConcurrentSkipListSet<DN>> keys = indexIdToKeys.get(indexID);
+      if (keys == null)
+      {
+        return null;
+      }
+      final SortedSet<DN> dns = keys.get(key.toByteString());
+      return dns != null ? dns : NO_DNS;
+    }
+
+    @Override
+    public SortedSet<DN> createMatchAllQuery()
+    {
+      return null;
+    }
+
+    @Override
+    public SortedSet<DN> createRangeMatchQuery(String indexID, ByteSequence lowerBound, ByteSequence upperBound,
+        boolean includeLowerBound, boolean includeUpperBound)
+    {
+      NavigableMap<ByteString, ConcurrentSkipListSet<DN>> keys = indexIdToKeys.get(indexID);
+      if (keys == null)
+      {
+        return null;
+      }
+      // Empty bounds mean unbounded
+      if (lowerBound.length() > 0)
+      {
+        keys = keys.tailMap(lowerBound.toByteString(), includeLowerBound);
+      }
+      if (upperBound.length() > 0)
+      {
+        keys = keys.headMap(upperBound.toByteString(), includeUpperBound);
+      }
+      return createUnionQuery(new ArrayList<SortedSet<DN>>(keys.values()));
+    }
+
+    @Override
+    public SortedSet<DN> createIntersectionQuery(Collection<SortedSet<DN>> subqueries)
+    {
+      SortedSet<DN> result = null;
+      for (SortedSet<DN> dns : subqueries)
+      {
+        if (dns != null)
+        {
+          result = result != null ? intersect(result, dns) : dns;
+          if (result.isEmpty())
+          {
+            break;
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public SortedSet<DN> createUnionQuery(Collection<SortedSet<DN>> subqueries)
+    {
+      SortedSet<DN> result = NO_DNS;
+      for (SortedSet<DN> dns : subqueries)
+      {
+        if (dns == null)
+        {
+          return null;
+        }
+        result = union(result, dns);
+      }
+      return result;
+    }
+
+    @Override
+    public IndexingOptions getIndexingOptions()
+    {
+      return INDEXING_OPTIONS;
+    }
+  }
+
+  /** The number of entries below an entry, which are only modified while holding the write lock. */
+  private static final class SubordinateCounts
+  {
+    private volatile long children;
+    private volatile long subordinates;
+  }
+
+  /** The base DNs for this backend. */
+  private Set<DN> baseDNs;
+  /** The snapshot file, or {@code null} if the backend contents are not persisted. */
+  private String snapshotFile;
+  /** The configured indexes. */
+  private Map<AttributeType, Set<IndexType>> configuredIndexes = Collections.emptyMap();
+
+  /** The mapping between entry DNs and the corresponding entries, sorted by DN. */
+  private final ConcurrentSkipListMap<DN, Entry> entryMap = new ConcurrentSkipListMap<>();
+  /** The number of entries, since the size of the entry map is not computed in constant time. */
+  private final AtomicLong entryCount = new AtomicLong();
+  /** The number of entries below each entry, so that they are counted in constant time. */
+  private final ConcurrentHashMap<DN, SubordinateCounts> subordinateCounts = new ConcurrentHashMap<>();
+  /** The indexes, which are only modified while holding the write lock. */
+  private volatile Map<AttributeType, AttributeIndex> indexes = Collections.emptyMap();
+  /** Serializes the writes, reads do not take it. */
+  private final Object writeLock = new Object();
+
+  /**
+   * Creates a new backend with the provided information.  All backend
+   * implementations must implement a default constructor that use
+   * <CODE>super()</CODE> to invoke this constructor.
+   */
+  public IndexedMemoryBackend()
+  {
+    super();
+
+    // Perform all initialization in initializeBackend.
+  }
+
+  @Override
+  public void configureBackend(IndexedMemoryBackendCfg config, ServerContext serverContext) throws ConfigException
+  {
+    if (config != null)
+    {
+      this.baseDNs = config.getBaseDN();
+      this.snapshotFile = config.getSnapshotFile();
+
+      final Map<AttributeType, Set<IndexType>> newIndexes = new HashMap<>();
+      addConfiguredIndexes(newIndexes, config.getEqualityIndex(), IndexType.EQUALITY);
+      addConfiguredIndexes(newIndexes, config.getPresenceIndex(), IndexType.PRESENCE);
+      addConfiguredIndexes(newIndexes, config.getSubstringIndex(), IndexType.SUBSTRING);
+      this.configuredIndexes = newIndexes;
+    }
+  }
+
+  private static void addConfiguredIndexes(Map<AttributeType, Set<IndexType>> indexes,
+      Set<AttributeType> attributeTypes, IndexType indexType)
+  {
+    for (AttributeType attributeType : attributeTypes)
+    {
+      Set<IndexType> indexTypes = indexes.get(attributeType);
+      if (indexTypes == null)
+      {
+        indexTypes = new HashSet<>();
+        indexes.put(attributeType, indexTypes);
+      }
+      indexTypes.add(indexType);
+    }
+  }
+
+  @Override
+  public void openBackend() throws ConfigException, InitializationException
+  {
+    final Map<AttributeType, AttributeIndex> newIndexes = new HashMap<>();
+    for (Map.Entry<AttributeType, Set<IndexType>> mapEntry : configuredIndexes.entrySet())
+    {
+      final AttributeType attributeType = mapEntry.getKey();
+      final AttributeIndex index = new AttributeIndex(attributeType);
+      for (IndexType indexType : mapEntry.getValue())
+      {
+        index.addIndexType(indexType, getMatchingRule(attributeType, indexType));
+      }
+      newIndexes.put(attributeType, index);
+    }
+
+    synchronized (writeLock)
+    {
+      clearMemoryBackend();
+      indexes = newIndexes;
+    }
+
+    for (DN dn : baseDNs)
+    {
+      try
+      {
+        DirectoryServer.registerBaseDN(dn, this, false);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+
+        LocalizableMessage message = ERR_BACKEND_CANNOT_REGISTER_BASEDN.get(
+            dn, getExceptionMessage(e));
+        throw new InitializationException(message, e);
+      }
+    }
+
+    if (snapshotFile != null && getFileForPath(snapshotFile).exists())
+    {
+      loadSnapshot();
+    }
+  }
+
+  private static MatchingRule getMatchingRule(AttributeType attributeType, IndexType indexType)
+  {
+    switch (indexType)
+    {
+    case EQUALITY:
+      return attributeType.getEqualityMatchingRule();
+    case SUBSTRING:
+      return attributeType.getSubstringMatchingRule();
+    default:
+      return null;
+    }
+  }
+
+  private void loadSnapshot() throws InitializationException
+  {
+    final String path = getFileForPath(snapshotFile).getAbsolutePath();
+    try
+    {
+      final LDIFImportResult result = importLDIF(new LDIFImportConfig(path), null);
+      logger.info(NOTE_INDEXED_MEMORY_BACKEND_SNAPSHOT_LOADED, result.getEntriesRead(), getBackendID(), path);
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      throw new InitializationException(ERR_INDEXED_MEMORY_BACKEND_CANNOT_LOAD_SNAPSHOT.get(
+          getBackendID(), path, e.getMessageObject()), e);
+    }
+  }
+
+  private void saveSnapshot()
+  {
+    final File file = getFileForPath(snapshotFile);
+    final File tmpFile = new File(file.getPath() + ".tmp");
+    try
+    {
+      exportLDIF(new LDIFExportConfig(tmpFile.getAbsolutePath(), ExistingFileBehavior.OVERWRITE));
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_INDEXED_MEMORY_BACKEND_CANNOT_SAVE_SNAPSHOT,
+          getBackendID(), file, stackTraceToSingleLineString(e));
+    }
+  }
+
+  /** Removes any data that may have been stored in this backend. */
+  public void clearMemoryBackend()
+  {
+    synchronized (writeLock)
+    {
+      entryMap.clear();
+      entryCount.set(0);
+      subordinateCounts.clear();
+      final Map<AttributeType, AttributeIndex> clearedIndexes = new HashMap<>();
+      for (Map.Entry<AttributeType, AttributeIndex> mapEntry : indexes.entrySet())
+      {
+        final AttributeIndex index = new AttributeIndex(mapEntry.getKey());
+        for (IndexType indexType : mapEntry.getValue().indexTypes)
+        {
+          try
+          {
+            index.addIndexType(indexType, getMatchingRule(mapEntry.getKey(), indexType));
+          }
+          catch (ConfigException e)
+          {
+            // Cannot happen, the index type was already accepted
+            throw new RuntimeException(e);
+          }
+        }
+        clearedIndexes.put(mapEntry.getKey(), index);
+      }
+      indexes = clearedIndexes;
+    }
+  }
+
+  @Override
+  public void closeBackend()
+  {
+    if (snapshotFile != null)
+    {
+      saveSnapshot();
+    }
+    clearMemoryBackend();
+
+    for (DN dn : baseDNs)
+    {
+      try
+      {
+        DirectoryServer.deregisterBaseDN(dn);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  @Override
+  public Set<DN> getBaseDNs()
+  {
+    return baseDNs;
+  }
+
+  @Override
+  public long getEntryCount()
+  {
+    return entryCount.get();
+  }
+
+  @Override
+  public boolean isIndexed(AttributeType attributeType, IndexType indexType)
+  {
+    final AttributeIndex index = indexes.get(attributeType);
+    return index != null && index.indexTypes.contains(indexType);
+  }
+
+  @Override
+  public ConditionResult hasSubordinates(DN entryDN) throws DirectoryException
+  {
+    if (!entryMap.containsKey(entryDN))
+    {
+      return ConditionResult.UNDEFINED;
+    }
+    // The first entry following this one is one of its children, if it has any
+    final DN nextDN = entryMap.higherKey(entryDN);
+    return ConditionResult.valueOf(nextDN != null && entryDN.isSuperiorOrEqualTo(nextDN));
+  }
+
+  @Override
+  public long getNumberOfEntriesInBaseDN(DN baseDN) throws DirectoryException
+  {
+    checkNotNull(baseDN, "baseDN must not be null");
+    return getNumberOfSubordinates(baseDN, true) + 1;
+  }
+
+  @Override
+  public long getNumberOfChildren(DN parentDN) throws DirectoryException
+  {
+    checkNotNull(parentDN, "parentDN must not be null");
+    return getNumberOfSubordinates(parentDN, false);
+  }
+
+  private long getNumberOfSubordinates(DN entryDN, boolean includeSubtree)
+  {
+    final SubordinateCounts counts = subordinateCounts.get(entryDN);
+    if (counts == null)
+    {
+      return -1;
+    }
+    return includeSubtree ? counts.subordinates : counts.children;
+  }
+
+  /** Returns the DNs of the entries below the provided entry, parents first. */
+  private List<DN> getSubordinates(DN entryDN)
+  {
+    final List<DN> subordinates = new ArrayList<>();
+    for (DN dn : entryMap.tailMap(entryDN, false).keySet())
+    {
+      if (!entryDN.isSuperiorOrEqualTo(dn))
+      {
+        break;
+      }
+      subordinates.add(dn);
+    }
+    return subordinates;
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Entry entry = entryMap.get(entryDN);
+    return entry != null ? entry.duplicate(true) : null;
+  }
+
+  @Override
+  public boolean entryExists(DN entryDN)
+  {
+    return entryMap.containsKey(entryDN);
+  }
+
+  @Override
+  public void addEntry(Entry entry, AddOperation addOperation) throws DirectoryException
+  {
+    Entry e = entry.duplicate(false);
+    DN entryDN = e.getName();
+
+    synchronized (writeLock)
+    {
+      // See if the target entry already exists.  If so, then fail.
+      if (entryMap.containsKey(entryDN))
+      {
+        throw new DirectoryException(ResultCode.ENTRY_ALREADY_EXISTS,
+            ERR_MEMORYBACKEND_ENTRY_ALREADY_EXISTS.get(entryDN));
+      }
+
+      // If the entry is not one of the base DNs, ensure that its parent exists in the backend.
+      if (!baseDNs.contains(entryDN))
+      {
+        DN parentDN = DirectoryServer.getParentDNInSuffix(entryDN);
+        if (parentDN == null)
+        {
+          throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+              ERR_MEMORYBACKEND_ENTRY_DOESNT_BELONG.get(entryDN));
+        }
+        else if (!entryMap.containsKey(parentDN))
+        {
+          throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+              ERR_MEMORYBACKEND_PARENT_DOESNT_EXIST.get(entryDN, parentDN));
+        }
+      }
+
+      // Publish the entry before indexing it, so that readers never find index candidates without entries
+      putNewEntry(entryDN, e);
+      updateIndexes(entryDN, null, e);
+    }
+  }
+
+  private void putNewEntry(DN entryDN, Entry entry)
+  {
+    subordinateCounts.put(entryDN, new SubordinateCounts());
+    entryMap.put(entryDN, entry);
+    entryCount.incrementAndGet();
+    updateSubordinateCounts(entryDN, 1);
+  }
+
+  /** Counts an added or removed entry in the entries above it in this backend. */
+  private void updateSubordinateCounts(DN entryDN, int delta)
+  {
+    boolean isParent = true;
+    for (DN dn = entryDN.parent(); dn != null; dn = dn.parent())
+    {
+      final SubordinateCounts counts = subordinateCounts.get(dn);
+      if (counts == null)
+      {
+        // Above the base DN
+        break;
+      }
+      if (isParent)
+      {
+        counts.children += delta;
+        isParent = false;
+      }
+      counts.subordinates += delta;
+    }
+  }
+
+  private void updateIndexes(DN entryDN, Entry oldEntry, Entry newEntry)
+  {
+    for (AttributeIndex index : indexes.values())
+    {
+      index.update(entryDN, oldEntry, newEntry);
+    }
+  }
+
+  @Override
+  public void deleteEntry(DN entryDN, DeleteOperation deleteOperation) throws DirectoryException
+  {
+    synchronized (writeLock)
+    {
+      // Make sure the entry exists.  If not, then throw an exception.
+      if (!entryMap.containsKey(entryDN))
+      {
+        throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+            ERR_BACKEND_ENTRY_DOESNT_EXIST.get(entryDN, getBackendID()));
+      }
+
+      List<DN> subordinates = getSubordinates(entryDN);
+      if (!subordinates.isEmpty())
+      {
+        // Check to see if the entry contains a subtree delete control.
+        boolean subtreeDelete = deleteOperation != null
+            && deleteOperation.getRequestControl(SubtreeDeleteControl.DECODER) != null;
+        if (!subtreeDelete)
+        {
+          throw new DirectoryException(ResultCode.NOT_ALLOWED_ON_NONLEAF,
+              ERR_MEMORYBACKEND_CANNOT_DELETE_ENTRY_WITH_CHILDREN.get(entryDN));
+        }
+
+        // Remove the children before their parents
+        Collections.reverse(subordinates);
+        for (DN dn : subordinates)
+        {
+          removeEntry(dn);
+        }
+      }
+      removeEntry(entryDN);
+    }
+  }
+
+  private void removeEntry(DN entryDN)
+  {
+    updateIndexes(entryDN, entryMap.get(entryDN), null);
+    entryMap.remove(entryDN);
+    entryCount.decrementAndGet();
+    subordinateCounts.remove(entryDN);
+    updateSubordinateCounts(entryDN, -1);
+  }
+
+  @Override
+  public void replaceEntry(Entry oldEntry, Entry newEntry, ModifyOperation modifyOperation)
+      throws DirectoryException
+  {
+    Entry e = newEntry.duplicate(false);
+    DN entryDN = e.getName();
+
+    synchronized (writeLock)
+    {
+      // Make sure the entry exists.  If not, then throw an exception.
+      Entry currentEntry = entryMap.get(entryDN);
+      if (currentEntry == null)
+      {
+        throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+            ERR_BACKEND_ENTRY_DOESNT_EXIST.get(entryDN, getBackendID()));
+      }
+
+      // Replace the old entry with the new one, then only update the index keys which changed
+      entryMap.put(entryDN, e);
+      updateIndexes(entryDN, currentEntry, e);
+    }
+  }
+
+  @Override
+  public void renameEntry(DN currentDN, Entry entry, ModifyDNOperation modifyDNOperation)
+      throws DirectoryException
+  {
+    Entry e = entry.duplicate(false);
+    DN newDN = e.getName();
+
+    synchronized (writeLock)
+    {
+      // Make sure that the target entry exists.
+      if (!entryMap.containsKey(currentDN))
+      {
+        throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+            ERR_BACKEND_ENTRY_DOESNT_EXIST.get(currentDN, getBackendID()));
+      }
+
+      // Make sure that the target entry doesn't have any children.
+      if (hasSubordinates(currentDN) == ConditionResult.TRUE)
+      {
+        throw new DirectoryException(ResultCode.NOT_ALLOWED_ON_NONLEAF,
+            ERR_MEMORYBACKEND_CANNOT_RENAME_ENRY_WITH_CHILDREN.get(currentDN));
+      }
+
+      // Make sure that no entry exists with the new DN.
+      if (entryMap.containsKey(newDN))
+      {
+        throw new DirectoryException(ResultCode.ENTRY_ALREADY_EXISTS,
+            ERR_MEMORYBACKEND_ENTRY_ALREADY_EXISTS.get(newDN));
+      }
+
+      // Make sure that the new DN is in this backend.
+      if (!handlesEntry(newDN))
+      {
+        throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+            ERR_MEMORYBACKEND_CANNOT_RENAME_TO_ANOTHER_BACKEND.get(currentDN));
+      }
+
+      // Make sure that the parent of the new entry exists.
+      DN parentDN = DirectoryServer.getParentDNInSuffix(newDN);
+      if (parentDN == null || !entryMap.containsKey(parentDN))
+      {
+        throw new DirectoryException(ResultCode.NO_SUCH_OBJECT,
+            ERR_MEMORYBACKEND_RENAME_PARENT_DOESNT_EXIST.get(currentDN, parentDN));
+      }
+
+      // Add the new entry before removing the current one, so that readers always find one of them.
+      putNewEntry(newDN, e);
+      updateIndexes(newDN, null, e);
+      removeEntry(currentDN);
+    }
+  }
+
+  @Override
+  public void search(SearchOperation searchOperation) throws DirectoryException
+  {
+    // Get the base DN, scope, and filter for the search.
+    DN           baseDN = searchOperation.getBaseDN();
+    SearchScope  scope  = searchOperation.getScope();
+    SearchFilter filter = searchOperation.getFilter();
+
+    // Make sure the base entry exists if it's supposed to be in this backend.
+    Entry baseEntry = entryMap.get(baseDN);
+    if (baseEntry == null && handlesEntry(baseDN))
+    {
+      DN matchedDN = DirectoryServer.getParentDNInSuffix(baseDN);
+      while (matchedDN != null)
+      {
+        if (entryMap.containsKey(matchedDN))
+        {
+          break;
+        }
+
+        matchedDN = DirectoryServer.getParentDNInSuffix(matchedDN);
+      }
+
+      LocalizableMessage message =
+          ERR_BACKEND_ENTRY_DOESNT_EXIST.get(baseDN, getBackendID());
+      throw new DirectoryException(
+              ResultCode.NO_SUCH_OBJECT, message, matchedDN, null);
+    }
+
+    // If it's a base-level search, then just get that entry and return it if it
+    // matches the filter.
+    if (scope == SearchScope.BASE_OBJECT)
+    {
+      returnEntryIfMatches(searchOperation, baseEntry, filter);
+      return;
+    }
+
+    final SortedSet<DN> candidates = evaluateFilter(filter);
+    if (candidates != null)
+    {
+      // Candidates are sorted by DN, so parents are returned before their children.
+      for (DN dn : candidates)
+      {
+        if (dn.isInScopeOf(baseDN, scope))
+        {
+          // The entry may have been deleted since the index was read
+          Entry e = entryMap.get(dn);
+          if (e != null && !returnEntryIfMatches(searchOperation, e, filter))
+          {
+            return;
+          }
+        }
+      }
+    }
+    else
+    {
+      // Walk through the entries of the subtree and send the ones that match.
+      for (Map.Entry<DN, Entry> mapEntry : entryMap.tailMap(baseDN, true).entrySet())
+      {
+        DN dn = mapEntry.getKey();
+        if (!baseDN.isSuperiorOrEqualTo(dn))
+        {
+          break;
+        }
+        if (dn.isInScopeOf(baseDN, scope) && !returnEntryIfMatches(searchOperation, mapEntry.getValue(), filter))
+        {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the entry if it matches the filter.
+   *
+   * @return {@code false} if the search must stop, e.g. because the size limit was reached
+   */
+  private boolean returnEntryIfMatches(SearchOperation searchOperation, Entry entry, SearchFilter filter)
+      throws DirectoryException
+  {
+    Entry e = entry.duplicate(true);
+    return !filter.matchesEntry(e) || searchOperation.returnEntry(e, new LinkedList<Control>());
+  }
+
+  /**
+   * Returns the sorted DNs of the entries which may match the provided filter, or {@code null} if the filter
+   * cannot be evaluated with the indexes.
+   */
+  private SortedSet<DN> evaluateFilter(SearchFilter filter)
+  {
+    switch (filter.getFilterType())
+    {
+    case AND:
+      SortedSet<DN> intersection = null;
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        SortedSet<DN> dns = evaluateFilter(component);
+        if (dns != null)
+        {
+          intersection = intersection != null ? intersect(intersection, dns) : dns;
+          if (intersection.isEmpty())
+          {
+            break;
+          }
+        }
+      }
+      return intersection;
+
+    case OR:
+      SortedSet<DN> union = NO_DNS;
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        SortedSet<DN> dns = evaluateFilter(component);
+        if (dns == null)
+        {
+          return null;
+        }
+        union = union(union, dns);
+      }
+      return union;
+
+    case EQUALITY:
+    case SUBSTRING:
+    case PRESENT:
+      final AttributeIndex index = getIndex(filter.getAttributeType());
+      return index != null ? evaluateFilter(index, filter) : null;
+
+    default:
+      return null;
+    }
+  }
+
+  private AttributeIndex getIndex(AttributeType attributeType)
+  {
+    final AttributeIndex index = indexes.get(attributeType);
+    if (index == null)
+    {
+      return null;
+    }
+    // Virtual attribute values are not indexed
+    for (VirtualAttributeRule rule : DirectoryServer.getVirtualAttributes())
+    {
+      if (attributeType.isSuperTypeOf(rule.getAttributeType()))
+      {
+        return null;
+      }
+    }
+    return index;
+  }
+
+  private SortedSet<DN> evaluateFilter(AttributeIndex index, SearchFilter filter)
+  {
+    try
+    {
+      final AttributeType attributeType = filter.getAttributeType();
+      final MatchingRule rule;
+      final Assertion assertion;
+      switch (filter.getFilterType())
+      {
+      case EQUALITY:
+        rule = attributeType.getEqualityMatchingRule();
+        assertion = rule != null ? rule.getAssertion(filter.getAssertionValue()) : null;
+        break;
+      case SUBSTRING:
+        rule = attributeType.getSubstringMatchingRule();
+        assertion = rule != null ? rule.getSubstringAssertion(
+            filter.getSubInitialElement(), filter.getSubAnyElements(), filter.getSubFinalElement()) : null;
+        break;
+      default:
+        return index.indexTypes.contains(IndexType.PRESENCE) ? index.presenceDNs : null;
+      }
+      return assertion != null ? assertion.createIndexQuery(index) : null;
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the DNs contained in both sets. The first set is iterated, so it should be the smallest one: it is the
+   * result of the previous intersections when several sets are intersected.
+   */
+  private static SortedSet<DN> intersect(SortedSet<DN> a, SortedSet<DN> b)
+  {
+    final SortedSet<DN> result = new TreeSet<>();
+    for (DN dn : a)
+    {
+      if (b.contains(dn))
+      {
+        result.add(dn);
+      }
+    }
+    return result;
+  }
+
+  private static SortedSet<DN> union(SortedSet<DN> a, SortedSet<DN> b)
+  {
+    if (a.isEmpty())
+    {
+      return b;
+    }
+    else if (b.isEmpty())
+    {
+      return a;
+    }
+    final SortedSet<DN> result = new TreeSet<>(a);
+    result.addAll(b);
+    return result;
+  }
+
+  @Override
+  public Set<String> getSupportedControls()
+  {
+    return supportedControls;
+  }
+
+  @Override
+  public Set<String> getSupportedFeatures()
+  {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public boolean supports(BackendOperation backendOperation)
+  {
+    switch (backendOperation)
+    {
+    case LDIF_EXPORT:
+    case LDIF_IMPORT:
+      return true;
+
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public void exportLDIF(LDIFExportConfig exportConfig) throws DirectoryException
+  {
+    // Create the LDIF writer.
+    LDIFWriter ldifWriter;
+    try
+    {
+      ldifWriter = new LDIFWriter(exportConfig);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_MEMORYBACKEND_CANNOT_CREATE_LDIF_WRITER.get(e), e);
+    }
+
+    // Walk through all the entries and write them to LDIF, parents first.
+    DN entryDN = null;
+    try
+    {
+      for (Entry entry : entryMap.values())
+      {
+        entryDN = entry.getName();
+        ldifWriter.writeEntry(entry);
+      }
+    }
+    catch (Exception e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_MEMORYBACKEND_CANNOT_WRITE_ENTRY_TO_LDIF.get(entryDN, e), e);
+    }
+    finally
+    {
+      close(ldifWriter);
+    }
+  }
+
+  @Override
+  public LDIFImportResult importLDIF(LDIFImportConfig importConfig, ServerContext serverContext)
+      throws DirectoryException
+  {
+    synchronized (writeLock)
+    {
+      clearMemoryBackend();
+
+      try (LDIFReader reader = newLDIFReader(importConfig))
+      {
+        while (true)
+        {
+          Entry e = null;
+          try
+          {
+            e = reader.readEntry();
+            if (e == null)
+            {
+              break;
+            }
+          }
+          catch (LDIFException le)
+          {
+            if (!le.canContinueReading())
+            {
+              throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+                  ERR_MEMORYBACKEND_ERROR_READING_LDIF.get(e), le);
+            }
+            continue;
+          }
+
+          try
+          {
+            addEntry(e, null);
+          }
+          catch (DirectoryException de)
+          {
+            reader.rejectLastEntry(de.getMessageObject());
+          }
+        }
+
+        return new LDIFImportResult(reader.getEntriesRead(),
+                                    reader.getEntriesRejected(),
+                                    reader.getEntriesIgnored());
+      }
+      catch (DirectoryException de)
+      {
+        throw de;
+      }
+      catch (Exception e)
+      {
+        throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+            ERR_MEMORYBACKEND_ERROR_DURING_IMPORT.get(e), e);
+      }
+    }
+  }
+
+  private LDIFReader newLDIFReader(LDIFImportConfig importConfig) throws DirectoryException
+  {
+    try
+    {
+      return new LDIFReader(importConfig);
+    }
+    catch (Exception e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_MEMORYBACKEND_CANNOT_CREATE_LDIF_READER.get(e), e);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    LocalizableMessage message = ERR_MEMORYBACKEND_BACKUP_RESTORE_NOT_SUPPORTED.get();
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, message);
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    LocalizableMessage message = ERR_MEMORYBACKEND_BACKUP_RESTORE_NOT_SUPPORTED.get();
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, message);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    LocalizableMessage message = ERR_MEMORYBACKEND_BACKUP_RESTORE_NOT_SUPPORTED.get();
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, message);
+  }
+}
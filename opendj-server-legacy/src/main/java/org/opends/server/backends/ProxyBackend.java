@@ -0,0 +1,575 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.*;
+import static org.forgerock.opendj.ldap.requests.Requests.*;
+import static org.forgerock.util.Reject.*;
+import static org.forgerock.util.time.Duration.*;
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.schema.SchemaConstants.NO_ATTRIBUTES;
+import static org.opends.server.util.ServerConstants.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.adapter.server3x.Converters;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.Entries;
+import org.forgerock.opendj.ldap.EntryNotFoundException;
+import org.forgerock.opendj.ldap.Filter;
+import org.forgerock.opendj.ldap.LDAPConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LoadBalancerEventListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.controls.ProxiedAuthV2RequestControl;
+import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.server.config.server.ProxyBackendCfg;
+import org.forgerock.util.Options;
+import org.opends.server.api.Backend;
+import org.opends.server.controls.SubtreeDeleteControl;
+import org.opends.server.core.AddOperation;
+import org.opends.server.core.DeleteOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ModifyDNOperation;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.HostPort;
+import org.opends.server.types.IndexType;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.types.LDIFImportResult;
+import org.opends.server.types.Operation;
+import org.opends.server.types.RawAttribute;
+import org.opends.server.types.RawModification;
+import org.opends.server.types.RestoreConfig;
+
+/**
+ * This class defines a backend which forwards the operations targeting its base DNs to a set of remote LDAP servers.
+ * It does not hold any data itself.
+ * <p>
+ * Each remote server is accessed through a fixed number of shared connections, over which the requests of all the
+ * worker threads are multiplexed, so that the number of concurrent requests is not limited by the number of
+ * connections. The remote servers are combined by a load-balancer which sends each request to the server having the
+ * fewest outstanding requests, temporarily ejecting servers which fail or respond much more slowly than the others.
+ * Idle connections are checked with heartbeats. When read results caching is enabled, searches which do not contain
+ * any request control are served from a cache which is invalidated by the writes forwarded by this backend. As the
+ * operations of non-root users carry the proxied authorization control when proxied authorization is enabled, which
+ * is the default, only the operations of root users and the entries read by the local server are then cached.
+ * <p>
+ * The local server still performs its usual processing before invoking the backend, including access control,
+ * schema checking and password policy processing. Add and modify requests are forwarded as they were received,
+ * rather than as the entries computed locally, so that the remote servers apply their own password storage schemes
+ * and maintain their own operational attributes. When proxied authorization is enabled, the operations requested by
+ * non-root users are performed on the remote servers with the identity of the requester.
+ */
+public class ProxyBackend extends Backend<ProxyBackendCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The set of supported controls for this backend. */
+  private static final Set<String> supportedControls = Collections.singleton(OID_SUBTREE_DELETE_CONTROL);
+
+  /** The attributes which are read when the local server needs a complete entry. */
+  private static final String[] ALL_ATTRIBUTES = { "*", "+" };
+
+  /** The base DNs for this backend. */
+  private Set<DN> baseDNs;
+  /** The current configuration. */
+  private ProxyBackendCfg config;
+  /** The remote servers. */
+  private List<HostPort> remoteServers;
+  /** The load-balanced connection factory, or {@code null} if the backend is not open. */
+  private volatile ConnectionFactory connectionFactory;
+
+  /**
+   * Creates a new backend with the provided information.  All backend
+   * implementations must implement a default constructor that use
+   * <CODE>super()</CODE> to invoke this constructor.
+   */
+  public ProxyBackend()
+  {
+    super();
+
+    // Perform all initialization in initializeBackend.
+  }
+
+  @Override
+  public void configureBackend(ProxyBackendCfg config, ServerContext serverContext) throws ConfigException
+  {
+    if (config != null)
+    {
+      final List<HostPort> servers = new ArrayList<>();
+      for (String hostPort : config.getRemoteLDAPServer())
+      {
+        try
+        {
+          servers.add(HostPort.valueOf(hostPort));
+        }
+        catch (IllegalArgumentException e)
+        {
+          throw new ConfigException(ERR_PROXY_BACKEND_INVALID_REMOTE_SERVER.get(hostPort, config.getBackendId()), e);
+        }
+      }
+
+      this.baseDNs = config.getBaseDN();
+      this.config = config;
+      this.remoteServers = servers;
+    }
+  }
+
+  @Override
+  public void openBackend() throws ConfigException, InitializationException
+  {
+    connectionFactory = newConnectionFactory();
+
+    for (DN dn : baseDNs)
+    {
+      try
+      {
+        DirectoryServer.registerBaseDN(dn, this, false);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+
+        LocalizableMessage message = ERR_BACKEND_CANNOT_REGISTER_BASEDN.get(
+            dn, getExceptionMessage(e));
+        throw new InitializationException(message, e);
+      }
+    }
+  }
+
+  private ConnectionFactory newConnectionFactory()
+  {
+    final Options options = Options.defaultOptions()
+        .set(CONNECT_TIMEOUT, duration(config.getConnectionTimeout(), MILLISECONDS))
+        .set(REQUEST_TIMEOUT, duration(config.getRequestTimeout(), MILLISECONDS))
+        .set(HEARTBEAT_ENABLED, true)
+        .set(HEARTBEAT_INTERVAL, duration(config.getHeartbeatInterval(), MILLISECONDS))
+        .set(LOAD_BALANCER_EVENT_LISTENER, new LoadBalancerEventListener()
+        {
+          @Override
+          public void handleConnectionFactoryOffline(ConnectionFactory factory, LdapException error)
+          {
+            logger.warn(WARN_PROXY_BACKEND_REMOTE_SERVER_OFFLINE, getBackendID(), factory, error.getMessage());
+          }
+
+          @Override
+          public void handleConnectionFactoryOnline(ConnectionFactory factory)
+          {
+            logger.info(NOTE_PROXY_BACKEND_REMOTE_SERVER_ONLINE, getBackendID(), factory);
+          }
+        })
+        .set(SEARCH_RESULT_CACHE_TIME_TO_LIVE, duration(config.getCacheTimeToLive(), MILLISECONDS));
+    if (config.getProxyUserDN() != null)
+    {
+      options.set(AUTHN_BIND_REQUEST, newSimpleBindRequest(config.getProxyUserDN().toString(),
+          config.getProxyUserPassword().toCharArray()));
+    }
+
+    // The connections are never bound again, so they can be shared rather than lent to a single request at a time
+    final List<ConnectionFactory> servers = new ArrayList<>(remoteServers.size());
+    for (HostPort hostPort : remoteServers)
+    {
+      final ConnectionFactory factory = new LDAPConnectionFactory(hostPort.getHost(), hostPort.getPort(), options);
+      servers.add(newNamedConnectionFactory(
+          new SharedConnectionFactory(factory, config.getConnectionPoolSize()), hostPort.toString()));
+    }
+    final ConnectionFactory loadBalancer = newLeastRequestsLoadBalancer(servers, options);
+    return config.isCacheReadResults() ? newCachingConnectionFactory(loadBalancer, options) : loadBalancer;
+  }
+
+  @Override
+  public void closeBackend()
+  {
+    for (DN dn : baseDNs)
+    {
+      try
+      {
+        DirectoryServer.deregisterBaseDN(dn);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+
+    final ConnectionFactory factory = connectionFactory;
+    connectionFactory = null;
+    close(factory);
+  }
+
+  @Override
+  public Set<DN> getBaseDNs()
+  {
+    return baseDNs;
+  }
+
+  @Override
+  public long getEntryCount()
+  {
+    return -1;
+  }
+
+  @Override
+  public boolean isIndexed(AttributeType attributeType, IndexType indexType)
+  {
+    // Searches are processed by the remote servers, which apply their own indexing constraints.
+    return true;
+  }
+
+  @Override
+  public ConditionResult hasSubordinates(DN entryDN) throws DirectoryException
+  {
+    final SearchResultEntry entry = readRemoteEntry(entryDN, "hasSubordinates");
+    final Boolean hasSubordinates = entry != null ? entry.parseAttribute("hasSubordinates").asBoolean() : null;
+    return hasSubordinates != null ? ConditionResult.valueOf(hasSubordinates) : ConditionResult.UNDEFINED;
+  }
+
+  @Override
+  public long getNumberOfEntriesInBaseDN(DN baseDN) throws DirectoryException
+  {
+    checkNotNull(baseDN, "baseDN must not be null");
+    // Counting the entries would require reading the whole subtree from the remote servers.
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, ERR_NUM_SUBORDINATES_NOT_SUPPORTED.get());
+  }
+
+  @Override
+  public long getNumberOfChildren(DN parentDN) throws DirectoryException
+  {
+    checkNotNull(parentDN, "parentDN must not be null");
+    final SearchResultEntry entry = readRemoteEntry(parentDN, "numSubordinates");
+    if (entry == null)
+    {
+      return -1;
+    }
+    final Long numSubordinates = entry.parseAttribute("numSubordinates").asLong();
+    if (numSubordinates == null)
+    {
+      throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, ERR_NUM_SUBORDINATES_NOT_SUPPORTED.get());
+    }
+    return numSubordinates;
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN) throws DirectoryException
+  {
+    final SearchResultEntry entry = readRemoteEntry(entryDN, ALL_ATTRIBUTES);
+    return entry != null ? toEntry(entry) : null;
+  }
+
+  @Override
+  public boolean entryExists(DN entryDN) throws DirectoryException
+  {
+    return readRemoteEntry(entryDN, NO_ATTRIBUTES) != null;
+  }
+
+  /** Reads an entry with the identity of the proxy user, returning {@code null} if it does not exist. */
+  private SearchResultEntry readRemoteEntry(DN entryDN, String... attributes) throws DirectoryException
+  {
+    try (Connection connection = getConnection(entryDN))
+    {
+      return connection.readEntry(entryDN, attributes);
+    }
+    catch (EntryNotFoundException e)
+    {
+      return null;
+    }
+    catch (LdapException e)
+    {
+      throw newDirectoryException(entryDN, e);
+    }
+  }
+
+  @Override
+  public void addEntry(Entry entry, AddOperation addOperation) throws DirectoryException
+  {
+    final AddRequest request;
+    if (addOperation != null)
+    {
+      request = newAddRequest(entry.getName());
+      for (RawAttribute attribute : addOperation.getRawAttributes())
+      {
+        request.addAttribute(attribute.getAttributeType(), attribute.getValues().toArray());
+      }
+    }
+    else
+    {
+      request = newAddRequest(Converters.from(entry));
+    }
+    forward(request, entry.getName(), addOperation);
+  }
+
+  @Override
+  public void deleteEntry(DN entryDN, DeleteOperation deleteOperation) throws DirectoryException
+  {
+    final DeleteRequest request = newDeleteRequest(entryDN);
+    if (deleteOperation != null && deleteOperation.getRequestControl(SubtreeDeleteControl.DECODER) != null)
+    {
+      request.addControl(SubtreeDeleteRequestControl.newControl(true));
+    }
+    forward(request, entryDN, deleteOperation);
+  }
+
+  @Override
+  public void replaceEntry(Entry oldEntry, Entry newEntry, ModifyOperation modifyOperation)
+      throws DirectoryException
+  {
+    final ModifyRequest request;
+    if (modifyOperation != null)
+    {
+      request = newModifyRequest(newEntry.getName());
+      for (RawModification modification : modifyOperation.getRawModifications())
+      {
+        final RawAttribute attribute = modification.getAttribute();
+        request.addModification(modification.getModificationType(), attribute.getAttributeType(),
+            attribute.getValues().toArray());
+      }
+    }
+    else
+    {
+      request = Entries.diffEntries(Converters.from(oldEntry), Converters.from(newEntry));
+    }
+    forward(request, newEntry.getName(), modifyOperation);
+  }
+
+  @Override
+  public void renameEntry(DN currentDN, Entry entry, ModifyDNOperation modifyDNOperation)
+      throws DirectoryException
+  {
+    final DN newDN = entry.getName();
+    final ModifyDNRequest request = newModifyDNRequest(currentDN, newDN.rdn())
+        .setDeleteOldRDN(modifyDNOperation != null && modifyDNOperation.deleteOldRDN());
+    if (!newDN.parent().equals(currentDN.parent()))
+    {
+      request.setNewSuperior(newDN.parent());
+    }
+    forward(request, currentDN, modifyDNOperation);
+  }
+
+  @Override
+  public void search(final SearchOperation searchOperation) throws DirectoryException
+  {
+    final DN baseDN = searchOperation.getBaseDN();
+    final Set<String> attributes = searchOperation.getAttributes();
+    final SearchRequest request = newSearchRequest(baseDN, searchOperation.getScope(),
+        Filter.valueOf(searchOperation.getRawFilter().toString()), attributes.toArray(new String[attributes.size()]))
+        .setDereferenceAliasesPolicy(searchOperation.getDerefPolicy())
+        .setSizeLimit(searchOperation.getSizeLimit())
+        .setTimeLimit(searchOperation.getTimeLimit())
+        .setTypesOnly(searchOperation.getTypesOnly());
+    addProxiedAuthorizationControl(request, searchOperation);
+
+    try (Connection connection = getConnection(baseDN))
+    {
+      connection.search(request, new SearchResultHandler()
+      {
+        @Override
+        public boolean handleEntry(SearchResultEntry entry)
+        {
+          return searchOperation.returnEntry(toEntry(entry), null);
+        }
+
+        @Override
+        public boolean handleReference(SearchResultReference reference)
+        {
+          return searchOperation.returnReference(baseDN, Converters.to(reference));
+        }
+      });
+    }
+    catch (LdapException e)
+    {
+      throw newDirectoryException(baseDN, e);
+    }
+  }
+
+  private static Entry toEntry(org.forgerock.opendj.ldap.Entry entry)
+  {
+    return Converters.to(entry);
+  }
+
+  /** Sends a write request to the remote servers and waits for its result. */
+  private void forward(Request request, DN entryDN, Operation operation) throws DirectoryException
+  {
+    addProxiedAuthorizationControl(request, operation);
+    try (Connection connection = getConnection(entryDN))
+    {
+      if (request instanceof AddRequest)
+      {
+        connection.add((AddRequest) request);
+      }
+      else if (request instanceof DeleteRequest)
+      {
+        connection.delete((DeleteRequest) request);
+      }
+      else if (request instanceof ModifyRequest)
+      {
+        connection.modify((ModifyRequest) request);
+      }
+      else
+      {
+        connection.modifyDN((ModifyDNRequest) request);
+      }
+    }
+    catch (LdapException e)
+    {
+      throw newDirectoryException(entryDN, e);
+    }
+  }
+
+  /**
+   * Performs the request with the identity of the requester, unless the operation was requested by a root user, in
+   * which case it is performed with the identity of the proxy user.
+   */
+  private void addProxiedAuthorizationControl(Request request, Operation operation)
+  {
+    if (config.isUseProxiedAuthorization()
+        && operation != null
+        && !operation.getClientConnection().getAuthenticationInfo().isRoot())
+    {
+      // The root DN is the anonymous authorization identity
+      request.addControl(ProxiedAuthV2RequestControl.newControl("dn:" + operation.getAuthorizationDN()));
+    }
+  }
+
+  private Connection getConnection(DN entryDN) throws DirectoryException, LdapException
+  {
+    final ConnectionFactory factory = connectionFactory;
+    if (factory == null)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE,
+          ERR_PROXY_BACKEND_REMOTE_SERVERS_UNAVAILABLE.get(getBackendID(), entryDN,
+          NOTE_BACKEND_OFFLINE.get(getBackendID())));
+    }
+    return factory.getConnection();
+  }
+
+  /**
+   * Converts an error returned by the remote servers. Errors detected locally, like connection failures and
+   * timeouts, have client side result codes which cannot be returned to clients.
+   */
+  private DirectoryException newDirectoryException(DN entryDN, LdapException e)
+  {
+    final Result result = e.getResult();
+    final ResultCode resultCode = result.getResultCode();
+    if (resultCode.intValue() >= ResultCode.CLIENT_SIDE_SERVER_DOWN.intValue()
+        && resultCode.intValue() <= ResultCode.CLIENT_SIDE_REFERRAL_LIMIT_EXCEEDED.intValue())
+    {
+      return new DirectoryException(ResultCode.UNAVAILABLE,
+          ERR_PROXY_BACKEND_REMOTE_SERVERS_UNAVAILABLE.get(getBackendID(), entryDN, e.getMessage()), e);
+    }
+
+    DN matchedDN = null;
+    try
+    {
+      if (!result.getMatchedDN().isEmpty())
+      {
+        matchedDN = DN.valueOf(result.getMatchedDN());
+      }
+    }
+    catch (LocalizedIllegalArgumentException ignored)
+    {
+      logger.traceException(ignored);
+    }
+    return new DirectoryException(resultCode, LocalizableMessage.raw(result.getDiagnosticMessage()), matchedDN,
+        result.getReferralURIs(), e);
+  }
+
+  @Override
+  public Set<String> getSupportedControls()
+  {
+    return supportedControls;
+  }
+
+  @Override
+  public Set<String> getSupportedFeatures()
+  {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public boolean supports(BackendOperation backendOperation)
+  {
+    return false;
+  }
+
+  @Override
+  public void exportLDIF(LDIFExportConfig exportConfig) throws DirectoryException
+  {
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+        ERR_BACKEND_IMPORT_AND_EXPORT_NOT_SUPPORTED.get(getBackendID()));
+  }
+
+  @Override
+  public LDIFImportResult importLDIF(LDIFImportConfig importConfig, ServerContext serverContext)
+      throws DirectoryException
+  {
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+        ERR_BACKEND_IMPORT_AND_EXPORT_NOT_SUPPORTED.get(getBackendID()));
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+        ERR_BACKEND_BACKUP_AND_RESTORE_NOT_SUPPORTED.get(getBackendID()));
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+        ERR_BACKEND_BACKUP_AND_RESTORE_NOT_SUPPORTED.get(getBackendID()));
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+        ERR_BACKEND_BACKUP_AND_RESTORE_NOT_SUPPORTED.get(getBackendID()));
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.LdapException.*;
+import static org.forgerock.util.Utils.*;
+import static org.forgerock.util.promise.Promises.*;
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A connection factory which multiplexes the requests over a fixed number of connections, rather than lending each
+ * connection to a single user at a time like a connection pool.
+ * <p>
+ * The connections are handed out in turn, and closing them has no effect: they are shared by all the users, each of
+ * which may have outstanding requests on them at the same time. A connection which is closed or which could not be
+ * opened is replaced when it is next handed out. The connections must therefore never change state, for example by
+ * being used for bind or StartTLS requests.
+ */
+final class SharedConnectionFactory implements ConnectionFactory
+{
+  private final ConnectionFactory factory;
+  /** The promises of the shared connections, created on demand. Guarded by itself. */
+  private final Promise<Connection, LdapException>[] connections;
+  private final AtomicInteger nextIndex = new AtomicInteger();
+  /** Guarded by {@link #connections}. */
+  private boolean isClosed;
+
+  /**
+   * Creates a new connection factory sharing the provided number of connections.
+   *
+   * @param factory
+   *          The factory used to open the shared connections.
+   * @param nbConnections
+   *          The number of shared connections.
+   */
+  @SuppressWarnings("unchecked")
+  SharedConnectionFactory(ConnectionFactory factory, int nbConnections)
+  {
+    this.factory = factory;
+    this.connections = new Promise[nbConnections];
+  }
+
+  @Override
+  public Promise<Connection, LdapException> getConnectionAsync()
+  {
+    final int index = (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+    final Promise<Connection, LdapException> promise;
+    synchronized (connections)
+    {
+      if (isClosed)
+      {
+        return newExceptionPromise(newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED,
+            ERR_PROXY_BACKEND_SHARED_CONNECTIONS_CLOSED.get(factory).toString()));
+      }
+      if (connections[index] == null || isBroken(connections[index]))
+      {
+        connections[index] = factory.getConnectionAsync();
+      }
+      promise = connections[index];
+    }
+    return promise.then(new Function<Connection, Connection, LdapException>()
+    {
+      @Override
+      public Connection apply(Connection connection)
+      {
+        return uncloseable(connection);
+      }
+    });
+  }
+
+  private static boolean isBroken(Promise<Connection, LdapException> promise)
+  {
+    if (!promise.isDone())
+    {
+      return false;
+    }
+    try
+    {
+      return !promise.getOrThrowUninterruptibly().isValid();
+    }
+    catch (LdapException e)
+    {
+      return true;
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws LdapException
+  {
+    return getConnectionAsync().getOrThrowUninterruptibly();
+  }
+
+  @Override
+  public void close()
+  {
+    final Promise<Connection, LdapException>[] closedConnections;
+    synchronized (connections)
+    {
+      if (isClosed)
+      {
+        return;
+      }
+      isClosed = true;
+      closedConnections = connections.clone();
+    }
+    for (Promise<Connection, LdapException> promise : closedConnections)
+    {
+      if (promise != null)
+      {
+        // Connections which are still being opened are closed once they are
+        promise.thenOnResult(new ResultHandler<Connection>()
+        {
+          @Override
+          public void handleResult(Connection connection)
+          {
+            closeSilently(connection);
+          }
+        });
+      }
+    }
+    factory.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SharedConnectionFactory(" + factory + ", " + connections.length + ")";
+  }
+}
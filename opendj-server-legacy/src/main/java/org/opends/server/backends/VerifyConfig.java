@@ -33,6 +33,8 @@ public class VerifyConfig
   private ArrayList<String> completeList = new ArrayList<>();
   /** The names of indexes to be verified for cleanliness. */
   private ArrayList<String> cleanList = new ArrayList<>();
+  /** The number of threads used to verify the indexes, or 0 to use one per available processor. */
+  private int threadCount;
 
   /**
    * Get the base DN to be verified.
@@ -89,4 +91,22 @@ public class VerifyConfig
     Reject.ifNull(index);
     cleanList.add(index);
   }
+
+  /**
+   * Get the number of threads used to verify the indexes.
+   * @return The number of threads used to verify the indexes, or 0 to use one per available processor.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Set the number of threads used to verify the indexes.
+   * @param threadCount The number of threads used to verify the indexes, or 0 to use one per available processor.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
 }
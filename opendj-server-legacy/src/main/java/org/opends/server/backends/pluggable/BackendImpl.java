@@ -170,7 +170,7 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
     this.cfg = cfg;
     this.serverContext = serverContext;
     baseDNs = new HashSet<>(cfg.getBaseDN());
-    storage = new TracedStorage(configureStorage(cfg, serverContext), cfg.getBackendId());
+    storage = new InstrumentedStorage(new TracedStorage(configureStorage(cfg, serverContext), cfg.getBackendId()));
   }
 
   @Override
@@ -158,6 +158,8 @@ public class EntryContainer
   private final Map<AttributeType, CryptoSuite> attrCryptoMap = new HashMap<>();
   /** The set of VLV (Virtual List View) indexes. */
   private final Map<String, VLVIndex> vlvIndexMap = new HashMap<>();
+  /** The number of candidates recently returned by the indexes for filter components. */
+  private final FilterCardinalityEstimates filterCardinalityEstimates = new FilterCardinalityEstimates();
 
   /**
    * Prevents name clashes for common indexes (like id2entry) across multiple suffixes.
@@ -544,6 +546,16 @@ public class EntryContainer
     return attrIndexMap.get(attrType);
   }
 
+  /**
+   * Returns the number of candidates recently returned by the indexes for filter components.
+   *
+   * @return The filter cardinality estimates of this entry container.
+   */
+  FilterCardinalityEstimates getFilterCardinalityEstimates()
+  {
+    return filterCardinalityEstimates;
+  }
+
   /**
    * Look for a VLV index for the given index name.
    *
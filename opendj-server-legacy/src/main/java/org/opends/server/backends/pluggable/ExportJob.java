@@ -16,17 +16,30 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.Entry;
@@ -34,6 +47,7 @@ import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 
 /** Export a backend to LDIF. */
@@ -41,6 +55,14 @@ class ExportJob
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  private static final String EXPORT_THREAD_NAME = "Export LDIF %d";
+
+  /**
+   * The number of consecutive entry IDs read, filtered and formatted by each task of a parallel export. Package
+   * private for testing.
+   */
+  static int entryIDRangeSize = 1000;
+
   /** The requested LDIF export configuration. */
   private final LDIFExportConfig exportConfig;
 
@@ -111,31 +133,16 @@ class ExportJob
     // Iterate through the containers.
     try
     {
-      rootContainer.getStorage().read(new ReadOperation<Void>()
+      final int threadCount = exportConfig.getThreadCount();
+      if (threadCount > 1)
       {
-        @Override
-        public Void run(ReadableTransaction txn) throws Exception
-        {
-          for (EntryContainer exportContainer : exportContainers)
-          {
-            if (exportConfig.isCancelled())
-            {
-              break;
-            }
-
-            exportContainer.sharedLock.lock();
-            try
-            {
-              exportContainer(txn, exportContainer);
-            }
-            finally
-            {
-              exportContainer.sharedLock.unlock();
-            }
-          }
-          return null;
-        }
-      });
+        logger.info(NOTE_EXPORT_THREAD_COUNT, threadCount);
+        exportContainers(rootContainer.getStorage(), exportContainers, threadCount);
+      }
+      else
+      {
+        exportContainers(rootContainer.getStorage(), exportContainers);
+      }
     }
     catch (Exception e)
     {
@@ -158,6 +165,36 @@ class ExportJob
     logger.info(NOTE_EXPORT_FINAL_STATUS, exportedCount, skippedCount, totalTime/1000, rate);
   }
 
+  /** Exports the provided containers in the current thread, through a single cursor on each id2entry tree. */
+  private void exportContainers(Storage storage, final List<EntryContainer> exportContainers) throws Exception
+  {
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        for (EntryContainer exportContainer : exportContainers)
+        {
+          if (exportConfig.isCancelled())
+          {
+            break;
+          }
+
+          exportContainer.sharedLock.lock();
+          try
+          {
+            exportContainer(txn, exportContainer);
+          }
+          finally
+          {
+            exportContainer.sharedLock.unlock();
+          }
+        }
+        return null;
+      }
+    });
+  }
+
   /**
    * Export the entries in a single entry entryContainer, in other words from
    * one of the base DNs.
@@ -181,20 +218,9 @@ class ExportJob
           break;
         }
 
-        ByteString key = cursor.getKey();
-        EntryID entryID = null;
-        try
-        {
-          entryID = new EntryID(key);
-        }
-        catch (Exception e)
+        EntryID entryID = decodeEntryID(cursor.getKey());
+        if (entryID == null)
         {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
-          }
           skippedCount++;
           continue;
         }
@@ -205,34 +231,235 @@ class ExportJob
           continue;
         }
 
-        ByteString value = cursor.getValue();
-        Entry entry = null;
+        Entry entry = decodeEntry(entryContainer, entryID, cursor.getValue());
+        if (entry != null && entry.toLDIF(exportConfig))
+        {
+          exportedCount++;
+        }
+        else
+        {
+          skippedCount++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Exports the provided containers using several threads. Each container is split into ranges of entry IDs which
+   * are read, filtered and formatted concurrently, then written in entry ID order, so that the resulting LDIF is the
+   * same as with a single thread.
+   */
+  private void exportContainers(Storage storage, List<EntryContainer> exportContainers, int threadCount)
+      throws Exception
+  {
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(threadCount, newThreadFactory(null, EXPORT_THREAD_NAME, true));
+    try
+    {
+      final OutputStream outputStream = exportConfig.getRawOutputStream();
+      for (EntryContainer exportContainer : exportContainers)
+      {
+        if (exportConfig.isCancelled())
+        {
+          break;
+        }
+
+        exportContainer.sharedLock.lock();
         try
         {
-          entry = id2entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
+          exportContainer(storage, executor, threadCount, exportContainer, outputStream);
         }
-        catch (Exception e)
+        finally
         {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
+          exportContainer.sharedLock.unlock();
+        }
+      }
+      outputStream.flush();
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
 
-            logger.trace("Malformed id2entry record for ID %d:%n%s%n",
-                       entryID, StaticUtils.bytesToHex(value));
-          }
-          skippedCount++;
-          continue;
+  private void exportContainer(Storage storage, ExecutorService executor, int threadCount,
+      final EntryContainer entryContainer, OutputStream outputStream) throws Exception
+  {
+    final long highestID = storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return entryContainer.getHighestEntryID(txn).longValue();
+      }
+    });
+
+    // Only format a few ranges ahead of the one being written, to bound the memory used by the formatted entries.
+    final int maxPendingRanges = 2 * threadCount;
+    final int rangeSize = entryIDRangeSize;
+    final Deque<Future<ExportedRange>> pendingRanges = new ArrayDeque<>(maxPendingRanges);
+    long nextRangeStart = 1;
+    try
+    {
+      while (!exportConfig.isCancelled())
+      {
+        while (nextRangeStart <= highestID && pendingRanges.size() < maxPendingRanges)
+        {
+          pendingRanges.add(executor.submit(
+              new ExportRangeTask(storage, entryContainer, nextRangeStart, nextRangeStart + rangeSize)));
+          nextRangeStart += rangeSize;
+        }
+        if (pendingRanges.isEmpty())
+        {
+          break;
         }
 
-        if (entry.toLDIF(exportConfig))
+        final ExportedRange range = getExportedRange(pendingRanges.removeFirst());
+        if (range.exportedCount > 0)
         {
-          exportedCount++;
+          outputStream.write(range.ldif);
         }
-        else
+        exportedCount += range.exportedCount;
+        skippedCount += range.skippedCount;
+      }
+    }
+    finally
+    {
+      for (Future<ExportedRange> pendingRange : pendingRanges)
+      {
+        pendingRange.cancel(true);
+      }
+    }
+  }
+
+  private ExportedRange getExportedRange(Future<ExportedRange> future) throws Exception
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof Exception)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /** Returns the entry ID of an id2entry key, or {@code null} if the key is malformed. */
+  private EntryID decodeEntryID(ByteString key)
+  {
+    try
+    {
+      return new EntryID(key);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+      }
+      return null;
+    }
+  }
+
+  /** Returns the entry of an id2entry record, or {@code null} if the record is malformed. */
+  private Entry decodeEntry(EntryContainer entryContainer, EntryID entryID, ByteString value)
+  {
+    try
+    {
+      return entryContainer.getID2Entry().entryFromDatabase(
+          value, entryContainer.getRootContainer().getCompressedSchema());
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry record for ID %d:%n%s%n",
+                   entryID, StaticUtils.bytesToHex(value));
+      }
+      return null;
+    }
+  }
+
+  /** The LDIF formatted entries of a range of entry IDs, ready to be written to the output stream. */
+  private static final class ExportedRange
+  {
+    /** The LDIF of the exported entries, compressed as a GZIP member if the export is compressed. */
+    private byte[] ldif;
+    private long exportedCount;
+    private long skippedCount;
+  }
+
+  /** Reads, filters and formats the entries of a range of entry IDs. */
+  private final class ExportRangeTask implements Callable<ExportedRange>
+  {
+    private final Storage storage;
+    private final EntryContainer entryContainer;
+    private final long startID;
+    private final long endID;
+
+    private ExportRangeTask(Storage storage, EntryContainer entryContainer, long startID, long endID)
+    {
+      this.storage = storage;
+      this.entryContainer = entryContainer;
+      this.startID = startID;
+      this.endID = endID;
+    }
+
+    @Override
+    public ExportedRange call() throws Exception
+    {
+      return storage.read(new ReadOperation<ExportedRange>()
+      {
+        @Override
+        public ExportedRange run(ReadableTransaction txn) throws Exception
         {
-          skippedCount++;
+          return exportRange(txn);
+        }
+      });
+    }
+
+    private ExportedRange exportRange(ReadableTransaction txn) throws IOException, LDIFException
+    {
+      final ExportedRange range = new ExportedRange();
+      final ByteString endKey = new EntryID(endID).toByteString();
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      // Concatenated GZIP members form a valid GZIP stream, so each range can be compressed on its own.
+      final OutputStream out = exportConfig.isCompressed() ? new GZIPOutputStream(bytes) : bytes;
+      try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+          Cursor<ByteString, ByteString> cursor = txn.openCursor(entryContainer.getID2Entry().getName()))
+      {
+        boolean found = cursor.positionToKeyOrNext(new EntryID(startID).toByteString());
+        while (found && !exportConfig.isCancelled())
+        {
+          final ByteString key = cursor.getKey();
+          if (key.compareTo(endKey) >= 0)
+          {
+            break;
+          }
+
+          final EntryID entryID = decodeEntryID(key);
+          final Entry entry = entryID != null ? decodeEntry(entryContainer, entryID, cursor.getValue()) : null;
+          if (entry != null && entry.toLDIF(exportConfig, writer))
+          {
+            range.exportedCount++;
+          }
+          else
+          {
+            range.skippedCount++;
+          }
+          found = cursor.next();
         }
       }
+      range.ldif = bytes.toByteArray();
+      return range;
     }
   }
 
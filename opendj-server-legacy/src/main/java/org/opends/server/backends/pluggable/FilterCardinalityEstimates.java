@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.TimeThread;
+
+/**
+ * Keeps the number of candidates returned by the indexes for recently evaluated filter components.
+ * <p>
+ * {@link IndexFilter} uses these estimates to evaluate the most selective components of an AND filter
+ * first, and to skip the expensive components which are known to exceed the index entry limits. Estimates
+ * are refreshed every time a component is evaluated, and they expire so that the indexes are read again
+ * once the data has had time to change.
+ */
+final class FilterCardinalityEstimates
+{
+  /** Estimate returned for filter components which were not evaluated recently. */
+  static final long UNKNOWN = -1;
+  /** Estimate returned for filter components which recently evaluated to an undefined set. */
+  static final long UNDEFINED = Long.MAX_VALUE;
+
+  /** The maximum number of estimates kept, all the estimates are discarded when it is reached. */
+  private static final int MAX_ESTIMATES = 10000;
+  /** The time in milliseconds after which an estimate is no longer used. */
+  private static final long ESTIMATE_TTL_MS = 5 * 60 * 1000;
+
+  /** An estimate, along with the time it was recorded at. */
+  private static final class Estimate
+  {
+    private final long size;
+    private final long timestamp;
+
+    private Estimate(long size, long timestamp)
+    {
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final ConcurrentMap<String, Estimate> estimates = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the number of candidates the indexes recently returned for the provided filter component.
+   *
+   * @param filter
+   *          the filter component
+   * @return the number of candidates, {@link #UNDEFINED} if the indexes returned an undefined set, or
+   *         {@link #UNKNOWN} if the filter component was not evaluated recently
+   */
+  long get(SearchFilter filter)
+  {
+    final Estimate estimate = estimates.get(filter.toString());
+    if (estimate == null || TimeThread.getTime() - estimate.timestamp > ESTIMATE_TTL_MS)
+    {
+      return UNKNOWN;
+    }
+    return estimate.size;
+  }
+
+  /**
+   * Records the candidates the indexes returned for the provided filter component.
+   *
+   * @param filter
+   *          the filter component
+   * @param candidates
+   *          the candidates returned by the indexes
+   */
+  void put(SearchFilter filter, EntryIDSet candidates)
+  {
+    if (estimates.size() >= MAX_ESTIMATES)
+    {
+      estimates.clear();
+    }
+    final long size = candidates.isDefined() ? candidates.size() : UNDEFINED;
+    estimates.put(filter.toString(), new Estimate(size, TimeThread.getTime()));
+  }
+}
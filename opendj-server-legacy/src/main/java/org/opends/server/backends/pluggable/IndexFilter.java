@@ -20,6 +20,8 @@ import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -61,6 +63,8 @@ class IndexFilter
    */
   private final StringBuilder buffer;
   private final BackendMonitor monitor;
+  /** The number of candidates recently returned for filter components, used to order and skip them. */
+  private final FilterCardinalityEstimates estimates;
 
   /**
    * Construct an index filter for a search operation.
@@ -81,6 +85,7 @@ class IndexFilter
     this.searchOp = searchOp;
     this.buffer = debugBuilder;
     this.monitor = monitor;
+    this.estimates = entryContainer.getFilterCardinalityEstimates();
   }
 
   /**
@@ -205,11 +210,16 @@ class IndexFilter
       }
     }
 
+    // Within each group, evaluate the components which recently returned the fewest candidates first,
+    // so that the threshold is reached without reading the large index keys.
+    sortBySelectivity(fastComps);
+    sortBySelectivity(otherComps);
+
     EntryIDSet results = newUndefinedSet();
     // First, process the fast components.
-    results = applyFiltersUntilThreshold(results, fastComps);
+    results = applyFiltersUntilThreshold(results, fastComps, false);
     // Next, process the other (non-range) components.
-    results = applyFiltersUntilThreshold(results, otherComps);
+    results = applyFiltersUntilThreshold(results, otherComps, true);
 
     if ( isBelowFilterThreshold(results) || rangeComps.isEmpty() ) {
       return results;
@@ -224,23 +234,29 @@ class IndexFilter
       {
         SearchFilter filter1 = rangeList.get(0);
         SearchFilter filter2 = rangeList.get(1);
+        SearchFilter rangeFilter = SearchFilter.createANDFilter(rangeList);
 
         AttributeIndex attributeIndex = entryContainer.getAttributeIndex(rangeEntry.getKey());
         if (attributeIndex == null)
         {
           if(monitor.isFilterUseEnabled())
           {
-            monitor.updateStats(SearchFilter.createANDFilter(rangeList),
+            monitor.updateStats(rangeFilter,
                 INFO_INDEX_FILTER_INDEX_TYPE_DISABLED.get("ordering", rangeEntry.getKey().getNameOrOID()));
           }
           continue;
         }
+        if (canSkip(results, rangeFilter))
+        {
+          continue;
+        }
 
         final IndexQueryFactoryImpl indexQueryFactory = new IndexQueryFactoryImpl(txn, attributeIndex);
         EntryIDSet set = attributeIndex.evaluateBoundedRange(indexQueryFactory, filter1, filter2, buffer, monitor);
+        estimates.put(rangeFilter, set);
         if(monitor.isFilterUseEnabled() && set.isDefined())
         {
-          monitor.updateStats(SearchFilter.createANDFilter(rangeList), set.size());
+          monitor.updateStats(rangeFilter, set.size());
         }
         results.retainAll(set);
         if (isBelowFilterThreshold(results))
@@ -256,20 +272,81 @@ class IndexFilter
     }
 
     // Finally, process the remaining slow range components.
-    return applyFiltersUntilThreshold(results, remainComps);
+    sortBySelectivity(remainComps);
+    return applyFiltersUntilThreshold(results, remainComps, true);
   }
 
-  private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters)
+  /**
+   * Intersects the results with the candidates of each filter, until the results are below the
+   * candidate threshold.
+   *
+   * @param results The current candidates, which will be narrowed.
+   * @param filters The filter components to be evaluated.
+   * @param skipUndefined Whether to skip the components which recently evaluated to an undefined
+   *                      set: reading them again is expensive and will not narrow the results.
+   * @return The narrowed candidates.
+   */
+  private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters,
+      boolean skipUndefined)
   {
     for(SearchFilter filter : filters) {
       if (isBelowFilterThreshold(results)) {
         return results;
       }
-      results.retainAll(evaluateFilter(filter));
+      if (skipUndefined && canSkip(results, filter))
+      {
+        continue;
+      }
+      final EntryIDSet candidates = evaluateFilter(filter);
+      estimates.put(filter, candidates);
+      results.retainAll(candidates);
     }
     return results;
   }
 
+  /**
+   * Returns whether evaluating the provided filter component can be skipped because it recently
+   * evaluated to an undefined set, which cannot narrow already defined results.
+   */
+  private boolean canSkip(EntryIDSet results, SearchFilter filter)
+  {
+    if (results.isDefined() && estimates.get(filter) == FilterCardinalityEstimates.UNDEFINED)
+    {
+      if (buffer != null)
+      {
+        filter.toString(buffer);
+        buffer.append("[SKIPPED]");
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sorts the provided filter components by increasing number of recently returned candidates.
+   * Components which were not evaluated recently are assumed to be just above the candidate threshold.
+   */
+  private void sortBySelectivity(ArrayList<SearchFilter> filters)
+  {
+    if (filters.size() > 1)
+    {
+      Collections.sort(filters, new Comparator<SearchFilter>()
+      {
+        @Override
+        public int compare(SearchFilter f1, SearchFilter f2)
+        {
+          return Long.compare(getEstimatedCandidates(f1), getEstimatedCandidates(f2));
+        }
+      });
+    }
+  }
+
+  private long getEstimatedCandidates(SearchFilter filter)
+  {
+    final long estimate = estimates.get(filter);
+    return estimate != FilterCardinalityEstimates.UNKNOWN ? estimate : FILTER_CANDIDATE_THRESHOLD + 1;
+  }
+
   static boolean isBelowFilterThreshold(EntryIDSet set)
   {
     return set.isDefined() && set.size() <= FILTER_CANDIDATE_THRESHOLD;
@@ -0,0 +1,375 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.backends.pluggable.StorageStatistics.Operation.*;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.StorageStatistics.Operation;
+import org.opends.server.backends.pluggable.StorageStatistics.TreeStatistics;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+
+/**
+ * Decorates a {@link Storage} in order to record per tree statistics of the transactions and cursors operations.
+ * Imports are not instrumented.
+ */
+final class InstrumentedStorage implements Storage
+{
+  /** Decorates a {@link Cursor} in order to record statistics of its steps and of the values it reads. */
+  private final class InstrumentedCursor implements Cursor<ByteString, ByteString>
+  {
+    private final Cursor<ByteString, ByteString> cursor;
+    private final TreeStatistics stats;
+
+    private InstrumentedCursor(final Cursor<ByteString, ByteString> cursor, final TreeStatistics stats)
+    {
+      this.cursor = cursor;
+      this.stats = stats;
+    }
+
+    @Override
+    public boolean positionToKey(final ByteSequence key)
+    {
+      final long startNanos = start(stats, CURSOR_STEP);
+      final boolean found = cursor.positionToKey(key);
+      end(stats, CURSOR_STEP, startNanos);
+      return found;
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(final ByteSequence key)
+    {
+      final long startNanos = start(stats, CURSOR_STEP);
+      final boolean found = cursor.positionToKeyOrNext(key);
+      end(stats, CURSOR_STEP, startNanos);
+      return found;
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      final long startNanos = start(stats, CURSOR_STEP);
+      final boolean found = cursor.positionToLastKey();
+      end(stats, CURSOR_STEP, startNanos);
+      return found;
+    }
+
+    @Override
+    public boolean positionToIndex(final int index)
+    {
+      final long startNanos = start(stats, CURSOR_STEP);
+      final boolean found = cursor.positionToIndex(index);
+      end(stats, CURSOR_STEP, startNanos);
+      return found;
+    }
+
+    @Override
+    public boolean next()
+    {
+      final long startNanos = start(stats, CURSOR_STEP);
+      final boolean found = cursor.next();
+      end(stats, CURSOR_STEP, startNanos);
+      return found;
+    }
+
+    @Override
+    public void delete()
+    {
+      final long startNanos = start(stats, DELETE);
+      cursor.delete();
+      end(stats, DELETE, startNanos);
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return cursor.isDefined();
+    }
+
+    @Override
+    public ByteString getKey() throws NoSuchElementException
+    {
+      return cursor.getKey();
+    }
+
+    @Override
+    public ByteString getValue() throws NoSuchElementException
+    {
+      final ByteString value = cursor.getValue();
+      stats.recordBytesRead(value.length());
+      return value;
+    }
+
+    @Override
+    public void close()
+    {
+      cursor.close();
+    }
+  }
+
+  /** Decorates a {@link ReadableTransaction} in order to record statistics of its operations. */
+  private class InstrumentedReadableTransaction implements ReadableTransaction
+  {
+    private final ReadableTransaction txn;
+
+    private InstrumentedReadableTransaction(final ReadableTransaction txn)
+    {
+      this.txn = txn;
+    }
+
+    @Override
+    public long getRecordCount(final TreeName name)
+    {
+      return txn.getRecordCount(name);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName name)
+    {
+      return new InstrumentedCursor(txn.openCursor(name), statistics.getTreeStatistics(name));
+    }
+
+    @Override
+    public ByteString read(final TreeName name, final ByteSequence key)
+    {
+      final TreeStatistics stats = statistics.getTreeStatistics(name);
+      final long startNanos = start(stats, READ);
+      final ByteString value = txn.read(name, key);
+      end(stats, READ, startNanos);
+      if (value != null)
+      {
+        stats.recordBytesRead(value.length());
+      }
+      return value;
+    }
+  }
+
+  /** Decorates a {@link WriteableTransaction} in order to record statistics of its operations. */
+  private final class InstrumentedWriteableTransaction extends InstrumentedReadableTransaction
+      implements WriteableTransaction
+  {
+    private final WriteableTransaction txn;
+
+    private InstrumentedWriteableTransaction(final WriteableTransaction txn)
+    {
+      super(txn);
+      this.txn = txn;
+    }
+
+    @Override
+    public void openTree(final TreeName name, final boolean createOnDemand)
+    {
+      txn.openTree(name, createOnDemand);
+    }
+
+    @Override
+    public void deleteTree(final TreeName name)
+    {
+      txn.deleteTree(name);
+    }
+
+    @Override
+    public void put(final TreeName name, final ByteSequence key, final ByteSequence value)
+    {
+      final TreeStatistics stats = statistics.getTreeStatistics(name);
+      final long startNanos = start(stats, PUT);
+      txn.put(name, key, value);
+      end(stats, PUT, startNanos);
+      stats.recordBytesWritten(key.length() + value.length());
+    }
+
+    @Override
+    public boolean update(final TreeName name, final ByteSequence key, final UpdateFunction f)
+    {
+      final TreeStatistics stats = statistics.getTreeStatistics(name);
+      final long startNanos = start(stats, UPDATE);
+      final boolean isUpdated = txn.update(name, key, new UpdateFunction()
+      {
+        @Override
+        public ByteSequence computeNewValue(final ByteSequence oldValue)
+        {
+          final ByteSequence newValue = f.computeNewValue(oldValue);
+          if (oldValue != null)
+          {
+            stats.recordBytesRead(oldValue.length());
+          }
+          if (newValue != null)
+          {
+            stats.recordBytesWritten(key.length() + newValue.length());
+          }
+          return newValue;
+        }
+      });
+      end(stats, UPDATE, startNanos);
+      return isUpdated;
+    }
+
+    @Override
+    public boolean delete(final TreeName name, final ByteSequence key)
+    {
+      final TreeStatistics stats = statistics.getTreeStatistics(name);
+      final long startNanos = start(stats, DELETE);
+      final boolean isDeleted = txn.delete(name, key);
+      end(stats, DELETE, startNanos);
+      return isDeleted;
+    }
+  }
+
+  private final Storage storage;
+  private final StorageStatistics statistics;
+
+  InstrumentedStorage(final Storage storage)
+  {
+    this(storage, new StorageStatistics());
+  }
+
+  InstrumentedStorage(final Storage storage, final StorageStatistics statistics)
+  {
+    this.storage = storage;
+    this.statistics = statistics;
+  }
+
+  /**
+   * Returns the statistics recorded for the decorated storage.
+   *
+   * @return the statistics recorded for the decorated storage
+   */
+  StorageStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /** Returns the start time of a sampled operation, or 0 if the latency of the operation is not measured. */
+  private long start(final TreeStatistics stats, final Operation operation)
+  {
+    stats.recordOperation(operation);
+    return statistics.sampleLatency() ? System.nanoTime() : 0;
+  }
+
+  private void end(final TreeStatistics stats, final Operation operation, final long startNanos)
+  {
+    if (startNanos != 0)
+    {
+      stats.recordLatency(operation, startNanos);
+    }
+  }
+
+  @Override
+  public void open(final AccessMode accessMode) throws Exception
+  {
+    storage.open(accessMode);
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> readOperation) throws Exception
+  {
+    return storage.read(new ReadOperation<T>()
+    {
+      @Override
+      public T run(final ReadableTransaction txn) throws Exception
+      {
+        return readOperation.run(new InstrumentedReadableTransaction(txn));
+      }
+    });
+  }
+
+  @Override
+  public void write(final WriteOperation writeOperation) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(final WriteableTransaction txn) throws Exception
+      {
+        writeOperation.run(new InstrumentedWriteableTransaction(txn));
+      }
+    });
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    return storage.startImport();
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    storage.removeStorageFiles();
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storage.getStorageStatus();
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return storage.supportsBackupAndRestore();
+  }
+
+  @Override
+  public void createBackup(final BackupConfig backupConfig) throws DirectoryException
+  {
+    storage.createBackup(backupConfig);
+  }
+
+  @Override
+  public void removeBackup(final BackupDirectory backupDirectory, final String backupID) throws DirectoryException
+  {
+    storage.removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(final RestoreConfig restoreConfig) throws DirectoryException
+  {
+    storage.restoreBackup(restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return storage.listTrees();
+  }
+
+  @Override
+  public void close()
+  {
+    storage.close();
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.util.ServerConstants.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * Per tree operation counts, I/O volumes and latency histograms of a storage, as recorded by
+ * {@link InstrumentedStorage}.
+ * <p>
+ * Counts and volumes are exact. Latencies are only measured for one operation out of
+ * {@link #getLatencySampleRate()}, which can be changed with the
+ * {@link org.opends.server.util.ServerConstants#PROPERTY_STORAGE_LATENCY_SAMPLE_RATE} system property
+ * ({@code 0} disables latency measurements).
+ */
+final class StorageStatistics
+{
+  /** The storage operations for which statistics are recorded. */
+  enum Operation
+  {
+    /** Reading a record. */
+    READ("read"),
+    /** Writing a record. */
+    PUT("put"),
+    /** Updating a record through an update function. */
+    UPDATE("update"),
+    /** Deleting a record. */
+    DELETE("delete"),
+    /** Positioning a cursor or moving it to the next record. */
+    CURSOR_STEP("cursor-step");
+
+    private final String name;
+
+    private Operation(String name)
+    {
+      this.name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+      return name;
+    }
+  }
+
+  /**
+   * A lock free latency histogram in microseconds. Buckets are powers of two, each split into four
+   * linear sub-buckets, so recorded values are accurate within 25%.
+   */
+  static final class LatencyHistogram
+  {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+
+    void record(long valueMicros)
+    {
+      buckets.incrementAndGet(bucketIndex(Math.max(valueMicros, 0)));
+    }
+
+    /**
+     * Returns an upper bound of the value below which the provided percentage of the recorded values are.
+     *
+     * @param percentile
+     *          the percentage, between 0 and 100
+     * @return an upper bound of the percentile, or 0 if no value was recorded
+     */
+    long getValueAtPercentile(double percentile)
+    {
+      long total = 0;
+      for (int i = 0; i < buckets.length(); i++)
+      {
+        total += buckets.get(i);
+      }
+      final long target = (long) Math.ceil(total * percentile / 100);
+      long count = 0;
+      int lastNonEmpty = 0;
+      for (int i = 0; i < buckets.length(); i++)
+      {
+        final long bucketCount = buckets.get(i);
+        if (bucketCount > 0)
+        {
+          lastNonEmpty = i;
+          count += bucketCount;
+          if (count >= target)
+          {
+            return bucketUpperBound(i);
+          }
+        }
+      }
+      return bucketUpperBound(lastNonEmpty);
+    }
+
+    static int bucketIndex(long value)
+    {
+      if (value < SUB_BUCKETS)
+      {
+        return (int) value;
+      }
+      final int msb = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return msb * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index)
+    {
+      if (index < SUB_BUCKETS)
+      {
+        return index;
+      }
+      final int msb = index / SUB_BUCKETS;
+      final int subBucket = index % SUB_BUCKETS;
+      return ((long) (SUB_BUCKETS + subBucket + 1) << (msb - SUB_BUCKET_BITS)) - 1;
+    }
+  }
+
+  /** The statistics of a single tree. */
+  static final class TreeStatistics
+  {
+    private final AtomicLongArray counts = new AtomicLongArray(Operation.values().length);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private TreeStatistics()
+    {
+      for (int i = 0; i < latencies.length; i++)
+      {
+        latencies[i] = new LatencyHistogram();
+      }
+    }
+
+    void recordOperation(Operation operation)
+    {
+      counts.incrementAndGet(operation.ordinal());
+    }
+
+    void recordLatency(Operation operation, long startNanos)
+    {
+      latencies[operation.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void recordBytesRead(int bytes)
+    {
+      bytesRead.addAndGet(bytes);
+    }
+
+    void recordBytesWritten(int bytes)
+    {
+      bytesWritten.addAndGet(bytes);
+    }
+
+    long getCount(Operation operation)
+    {
+      return counts.get(operation.ordinal());
+    }
+
+    LatencyHistogram getLatencies(Operation operation)
+    {
+      return latencies[operation.ordinal()];
+    }
+
+    long getBytesRead()
+    {
+      return bytesRead.get();
+    }
+
+    long getBytesWritten()
+    {
+      return bytesWritten.get();
+    }
+
+    private void toString(StringBuilder value)
+    {
+      for (Operation operation : Operation.values())
+      {
+        value.append(" ").append(operation).append(":").append(getCount(operation));
+      }
+      value.append(" bytes-read:").append(getBytesRead());
+      value.append(" bytes-written:").append(getBytesWritten());
+      for (Operation operation : Operation.values())
+      {
+        if (getCount(operation) > 0)
+        {
+          final LatencyHistogram histogram = getLatencies(operation);
+          value.append(" ").append(operation).append("-latency-us:");
+          value.append(histogram.getValueAtPercentile(50)).append("/");
+          value.append(histogram.getValueAtPercentile(99)).append("/");
+          value.append(histogram.getValueAtPercentile(100));
+        }
+      }
+    }
+  }
+
+  private final ConcurrentMap<TreeName, TreeStatistics> treeStatistics = new ConcurrentHashMap<>();
+  private final int latencySampleRate;
+
+  /** Creates new storage statistics, using the latency sample rate configured by system property. */
+  StorageStatistics()
+  {
+    this(Integer.getInteger(PROPERTY_STORAGE_LATENCY_SAMPLE_RATE, 16));
+  }
+
+  /**
+   * Creates new storage statistics.
+   *
+   * @param latencySampleRate
+   *          latencies are measured for one operation out of this number, {@code 0} disables latency measurements
+   */
+  StorageStatistics(int latencySampleRate)
+  {
+    this.latencySampleRate = Math.max(latencySampleRate, 0);
+  }
+
+  /**
+   * Returns the number of operations for one of which latencies are measured.
+   *
+   * @return the latency sample rate, or {@code 0} if latencies are not measured
+   */
+  int getLatencySampleRate()
+  {
+    return latencySampleRate;
+  }
+
+  /**
+   * Returns whether the latency of the operation about to be performed should be measured.
+   *
+   * @return {@code true} if the latency of the operation should be measured
+   */
+  boolean sampleLatency()
+  {
+    return latencySampleRate == 1
+        || (latencySampleRate > 1 && ThreadLocalRandom.current().nextInt(latencySampleRate) == 0);
+  }
+
+  /**
+   * Returns the statistics of the provided tree.
+   *
+   * @param treeName
+   *          the tree name
+   * @return the non null statistics of the tree
+   */
+  TreeStatistics getTreeStatistics(TreeName treeName)
+  {
+    TreeStatistics stats = treeStatistics.get(treeName);
+    if (stats == null)
+    {
+      stats = new TreeStatistics();
+      final TreeStatistics existingStats = treeStatistics.putIfAbsent(treeName, stats);
+      if (existingStats != null)
+      {
+        stats = existingStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Returns one line of statistics per tree, sorted by tree name. Latencies are given as median, 99th percentile
+   * and maximum, in microseconds.
+   *
+   * @return the monitor attribute values
+   */
+  List<String> createMonitorValues()
+  {
+    final Map<String, TreeStatistics> sortedStats = new TreeMap<>();
+    for (Map.Entry<TreeName, TreeStatistics> entry : treeStatistics.entrySet())
+    {
+      sortedStats.put(entry.getKey().toString(), entry.getValue());
+    }
+
+    final List<String> values = new ArrayList<>(sortedStats.size());
+    final StringBuilder value = new StringBuilder();
+    for (Map.Entry<String, TreeStatistics> entry : sortedStats.entrySet())
+    {
+      value.append(entry.getKey());
+      entry.getValue().toString(value);
+      values.add(value.toString());
+      value.setLength(0);
+    }
+    return values;
+  }
+}
@@ -16,6 +16,7 @@
  */
 package org.opends.server.backends.pluggable;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.DnKeyFormat.*;
 import static org.opends.server.backends.pluggable.SuffixContainer.*;
@@ -36,7 +37,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteSequence;
@@ -49,6 +57,7 @@ import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.core.DirectoryServer;
 import org.forgerock.opendj.ldap.DN;
@@ -62,17 +71,27 @@ class VerifyJob
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  private static final String VERIFY_THREAD_NAME = "Verify Index %d";
+
+  /**
+   * The number of consecutive entry IDs checked by a worker thread in a single read transaction.
+   * Package private for testing.
+   */
+  static int entryIDRangeSize = 1000;
+
   /** The verify configuration. */
   private final VerifyConfig verifyConfig;
   /** The root container used for the verify job. */
   private final RootContainer rootContainer;
+  /** The number of worker threads. */
+  private final int threadCount;
 
   /** The number of milliseconds between job progress reports. */
   private final long progressInterval = 10000;
   /** The number of index keys processed. */
-  private long keyCount;
+  private final AtomicLong keyCount = new AtomicLong();
   /** The number of errors found. */
-  private long errorCount;
+  private final AtomicLong errorCount = new AtomicLong();
   /** The number of records that have exceeded the entry limit. */
   private long entryLimitExceededCount;
   /** The number of records that reference more than one entry. */
@@ -101,6 +120,8 @@ class VerifyJob
   private final ArrayList<AttributeIndex> attrIndexList = new ArrayList<>();
   /** A list of the VLV indexes to be verified. */
   private final ArrayList<VLVIndex> vlvIndexList = new ArrayList<>();
+  /** The progress of each index tree being checked for cleanliness, reported along with the global progress. */
+  private final List<IndexProgress> indexProgresses = new CopyOnWriteArrayList<>();
 
   /**
    * Construct a VerifyJob.
@@ -112,6 +133,8 @@ class VerifyJob
   {
     this.rootContainer = rootContainer;
     this.verifyConfig = verifyConfig;
+    this.threadCount = verifyConfig.getThreadCount() == 0 ? Runtime.getRuntime().availableProcessors()
+                                                          : verifyConfig.getThreadCount();
   }
 
   /**
@@ -271,19 +294,19 @@ class VerifyJob
       float rate = 0;
       if (totalTime > 0)
       {
-        rate = 1000f*keyCount / totalTime;
+        rate = 1000f*keyCount.get() / totalTime;
       }
 
       if (cleanMode)
       {
-        logger.info(NOTE_VERIFY_CLEAN_FINAL_STATUS, keyCount, errorCount, totalTime/1000, rate);
+        logger.info(NOTE_VERIFY_CLEAN_FINAL_STATUS, keyCount.get(), errorCount.get(), totalTime/1000, rate);
 
         if (multiReferenceCount > 0)
         {
           float averageEntryReferences = 0;
-          if (keyCount > 0)
+          if (keyCount.get() > 0)
           {
-            averageEntryReferences = entryReferencesCount/keyCount;
+            averageEntryReferences = entryReferencesCount/keyCount.get();
           }
 
           if (logger.isDebugEnabled())
@@ -297,7 +320,7 @@ class VerifyJob
       }
       else
       {
-        logger.info(NOTE_VERIFY_FINAL_STATUS, keyCount, errorCount, totalTime/1000, rate);
+        logger.info(NOTE_VERIFY_FINAL_STATUS, keyCount.get(), errorCount.get(), totalTime/1000, rate);
         if (!entryLimitMap.isEmpty())
         {
           logger.debug(INFO_VERIFY_ENTRY_LIMIT_STATS_HEADER);
@@ -331,24 +354,85 @@ class VerifyJob
     {
       entryContainer.sharedLock.unlock();
     }
-    return errorCount;
+    return errorCount.get();
   }
 
   /**
    * Iterate through the entries in id2entry to perform a check for
    * index completeness. We check that the ID for the entry is indeed
    * present in the indexes for the appropriate values.
+   * <p>
+   * id2entry is split into ranges of entry IDs, which worker threads
+   * check concurrently, each range in its own read transaction.
    *
    * @throws StorageRuntimeException If an error occurs in the storage.
+   * @throws DirectoryException If an error occurs while verifying the entries.
+   */
+  private void iterateID2Entry(ReadableTransaction txn) throws StorageRuntimeException, DirectoryException
+  {
+    final long storedEntryCount = id2entry.getRecordCount(txn);
+    final long highestID =
+        rootContainer.getEntryContainer(verifyConfig.getBaseDN()).getHighestEntryID(txn).longValue();
+    final AtomicLong nextRangeStart = new AtomicLong();
+    final int rangeSize = entryIDRangeSize;
+
+    final List<Callable<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++)
+    {
+      workers.add(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws Exception
+        {
+          long rangeStart;
+          while ((rangeStart = nextRangeStart.getAndAdd(rangeSize)) <= highestID)
+          {
+            // The first and last ranges are unbounded, so that malformed keys are checked too
+            final ByteString startKey = rangeStart != 0 ? new EntryID(rangeStart).toByteString() : null;
+            final long rangeEnd = rangeStart + rangeSize;
+            final ByteString endKey = rangeEnd <= highestID ? new EntryID(rangeEnd).toByteString() : null;
+            rootContainer.getStorage().read(new ReadOperation<Void>()
+            {
+              @Override
+              public Void run(ReadableTransaction txn) throws Exception
+              {
+                iterateID2Entry(txn, startKey, endKey);
+                return null;
+              }
+            });
+          }
+          return null;
+        }
+      });
+    }
+    runInParallel(workers);
+
+    if (keyCount.get() != storedEntryCount)
+    {
+      errorCount.incrementAndGet();
+      logger.error(ERR_VERIFY_WRONG_ENTRY_COUNT, storedEntryCount, keyCount.get());
+    }
+  }
+
+  /**
+   * Checks the entries of id2entry whose key is between the provided keys.
+   *
+   * @param startKey The first key to check, inclusive, or {@code null} to start from the first key.
+   * @param endKey The last key to check, exclusive, or {@code null} to check up to the last key.
    */
-  private void iterateID2Entry(ReadableTransaction txn) throws StorageRuntimeException
+  private void iterateID2Entry(ReadableTransaction txn, ByteString startKey, ByteString endKey)
+      throws StorageRuntimeException
   {
     try(final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
     {
-      long storedEntryCount = id2entry.getRecordCount(txn);
-      while (cursor.next())
+      boolean found = startKey != null ? cursor.positionToKeyOrNext(startKey) : cursor.next();
+      for (; found; found = cursor.next())
       {
         ByteString key = cursor.getKey();
+        if (endKey != null && key.compareTo(endKey) >= 0)
+        {
+          break;
+        }
         ByteString value = cursor.getValue();
 
         EntryID entryID;
@@ -358,7 +442,7 @@ class VerifyJob
         }
         catch (Exception e)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           if (logger.isTraceEnabled())
           {
             logger.traceException(e);
@@ -368,7 +452,7 @@ class VerifyJob
           continue;
         }
 
-        keyCount++;
+        keyCount.incrementAndGet();
 
         Entry entry;
         try
@@ -377,7 +461,7 @@ class VerifyJob
         }
         catch (Exception e)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           if (logger.isTraceEnabled())
           {
             logger.traceException(e);
@@ -389,11 +473,52 @@ class VerifyJob
 
         verifyEntry(txn, entryID, entry);
       }
-      if (keyCount != storedEntryCount)
+    }
+  }
+
+  /**
+   * Runs the provided workers concurrently and waits for all of them to complete.
+   *
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   * @throws DirectoryException If a worker failed with this exception.
+   */
+  private void runInParallel(List<Callable<Void>> workers) throws StorageRuntimeException, DirectoryException
+  {
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(workers.size(), threadCount), newThreadFactory(null, VERIFY_THREAD_NAME, true));
+    try
+    {
+      final List<Future<Void>> futures = new ArrayList<>(workers.size());
+      for (Callable<Void> worker : workers)
+      {
+        futures.add(executor.submit(worker));
+      }
+      for (Future<Void> future : futures)
+      {
+        future.get();
+      }
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof DirectoryException)
+      {
+        throw (DirectoryException) cause;
+      }
+      else if (cause instanceof StorageRuntimeException)
       {
-        errorCount++;
-        logger.error(ERR_VERIFY_WRONG_ENTRY_COUNT, storedEntryCount, keyCount);
+        throw (StorageRuntimeException) cause;
       }
+      throw new StorageRuntimeException(cause);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new StorageRuntimeException(e);
+    }
+    finally
+    {
+      executor.shutdownNow();
     }
   }
 
@@ -417,11 +542,7 @@ class VerifyJob
     }
     else if (!attrIndexList.isEmpty())
     {
-      AttributeIndex attrIndex = attrIndexList.get(0);
-      for (MatchingRuleIndex index : attrIndex.getNameToIndexes().values())
-      {
-        iterateAttrIndex(txn, index);
-      }
+      iterateAttrIndexes(txn, attrIndexList.get(0));
     }
     else if (!vlvIndexList.isEmpty())
     {
@@ -429,6 +550,46 @@ class VerifyJob
     }
   }
 
+  /**
+   * Checks the cleanliness of the index trees of an attribute index, each
+   * index tree being checked by its own worker thread.
+   *
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   * @throws DirectoryException If an error occurs while verifying the indexes.
+   */
+  private void iterateAttrIndexes(ReadableTransaction txn, AttributeIndex attrIndex)
+      throws StorageRuntimeException, DirectoryException
+  {
+    final List<Callable<Void>> workers = new ArrayList<>();
+    for (final MatchingRuleIndex index : attrIndex.getNameToIndexes().values())
+    {
+      final IndexProgress progress = new IndexProgress(index, index.getRecordCount(txn));
+      indexProgresses.add(progress);
+      workers.add(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws Exception
+        {
+          final Storage storage = rootContainer.getStorage();
+          storage.read(new ReadOperation<Void>()
+          {
+            @Override
+            public Void run(ReadableTransaction txn) throws Exception
+            {
+              iterateAttrIndex(txn, index, progress);
+              return null;
+            }
+          });
+          return null;
+        }
+      });
+    }
+    if (!workers.isEmpty())
+    {
+      runInParallel(workers);
+    }
+  }
+
   /**
    * Iterate through the entries in DN2ID to perform a check for
    * index cleanliness.
@@ -444,7 +605,7 @@ class VerifyJob
     {
       while (cursor.next())
       {
-        keyCount++;
+        keyCount.incrementAndGet();
 
         final ByteString key = cursor.getKey();
         final EntryID entryID;
@@ -454,7 +615,7 @@ class VerifyJob
         }
         catch (Exception e)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.trace("File dn2id has malformed ID for DN <%s>", key, e);
           continue;
         }
@@ -468,19 +629,19 @@ class VerifyJob
         }
         catch (Exception e)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.traceException(e);
           continue;
         }
 
         if (entry == null)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.error(ERR_VERIFY_DN2ID_UNKNOWN_ID, key, entryID.longValue());
         }
         else if (!key.equals(dnToDNKey(entry.getName(), verifyConfig.getBaseDN().size())))
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.error(ERR_VERIFY_DN2ID_WRONG_ENTRY, key, entry.getName());
         }
       }
@@ -516,7 +677,7 @@ class VerifyJob
     final long currentValue = id2childrenCount.getCount(txn, parent.entryID);
     if (expected != currentValue)
     {
-      errorCount++;
+      errorCount.incrementAndGet();
       logger.error(ERR_VERIFY_ID2COUNT_WRONG_COUNT, parent.baseDN, currentValue, expected);
     }
   }
@@ -531,7 +692,7 @@ class VerifyJob
         if (!id2entry.containsEntryID(txn, entryID))
         {
           logger.error(ERR_VERIFY_ID2COUNT_WRONG_ID, entryID.longValue());
-          errorCount++;
+          errorCount.incrementAndGet();
         }
       }
     }
@@ -545,7 +706,7 @@ class VerifyJob
    * @param index The index containing the key.
    * @param key A key that has exceeded the entry limit.
    */
-  private void incrEntryLimitStats(Index index, ByteString key)
+  private synchronized void incrEntryLimitStats(Index index, ByteString key)
   {
     HashMap<ByteString,Long> hashMap = entryLimitMap.get(index);
     if (hashMap == null)
@@ -570,7 +731,7 @@ class VerifyJob
    *
    * @param entryIDSet The set of entry IDs for the index record.
    */
-  private void updateIndexStats(EntryIDSet entryIDSet)
+  private synchronized void updateIndexStats(EntryIDSet entryIDSet)
   {
     if (!entryIDSet.isDefined())
     {
@@ -619,13 +780,13 @@ class VerifyJob
         catch (Exception e)
         {
           logger.traceException(e);
-          errorCount++;
+          errorCount.incrementAndGet();
           continue;
         }
 
         if (entry == null)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.error(ERR_VERIFY_UNKNOWN_ID, id, keyDump(vlvIndex, key));
           continue;
         }
@@ -633,7 +794,7 @@ class VerifyJob
         ByteString expectedKey = vlvIndex.toKey(entry, id);
         if (expectedKey.compareTo(key) != 0)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.error(ERR_VERIFY_ENTRY_NON_MATCHING_KEY, id, keyDump(vlvIndex, expectedKey));
         }
       }
@@ -644,20 +805,18 @@ class VerifyJob
    * Iterate through the entries in an attribute index to perform a check for
    * index cleanliness.
    * @param index The index tree to be checked.
+   * @param progress The progress of the check of this index tree.
    * @throws StorageRuntimeException If an error occurs in the storage.
    */
-  private void iterateAttrIndex(ReadableTransaction txn, MatchingRuleIndex index) throws StorageRuntimeException
+  private void iterateAttrIndex(ReadableTransaction txn, MatchingRuleIndex index, IndexProgress progress)
+      throws StorageRuntimeException
   {
-    if (index == null)
-    {
-      return;
-    }
-
     try(final Cursor<ByteString,EntryIDSet> cursor = index.openCursor(txn))
     {
       while (cursor.next())
       {
-        keyCount++;
+        keyCount.incrementAndGet();
+        progress.keyCount.incrementAndGet();
 
         final ByteString key = cursor.getKey();
 
@@ -667,13 +826,13 @@ class VerifyJob
           entryIDSet = cursor.getValue();
           if (entryIDSet.size() == 0)
           {
-            errorCount++;
+            errorCount.incrementAndGet();
             logger.error(ERR_VERIFY_EMPTY_IDSET, keyDump(index, key));
           }
         }
         catch (Exception e)
         {
-          errorCount++;
+          errorCount.incrementAndGet();
           logger.traceException(e);
           logger.trace("Malformed ID list: %n%s", keyDump(index, key));
           continue;
@@ -701,13 +860,13 @@ class VerifyJob
             catch (Exception e)
             {
               logger.traceException(e);
-              errorCount++;
+              errorCount.incrementAndGet();
               continue;
             }
 
             if (entry == null)
             {
-              errorCount++;
+              errorCount.incrementAndGet();
               logger.error(ERR_VERIFY_UNKNOWN_REFERENCE, id.longValue(), keyDump(index, key));
               continue;
             }
@@ -756,7 +915,7 @@ class VerifyJob
 
             if (!foundMatchingKey.get())
             {
-              errorCount++;
+              errorCount.incrementAndGet();
               logger.error(ERR_VERIFY_UNEXPECTED_REFERENCE, entry.getName(), keyDump(index, key));
             }
           }
@@ -797,12 +956,12 @@ class VerifyJob
       if (id == null)
       {
         logger.error(ERR_VERIFY_DN2ID_MISSING_KEY, dn);
-        errorCount++;
+        errorCount.incrementAndGet();
       }
       else if (!id.equals(entryID))
       {
         logger.error(ERR_VERIFY_DN2ID_WRONG_ID, id.longValue(), entryID.longValue(), dn);
-        errorCount++;
+        errorCount.incrementAndGet();
       }
     }
     catch (Exception e)
@@ -812,7 +971,7 @@ class VerifyJob
         logger.traceException(e);
         logger.trace("File dn2id has error reading key %s: %s.%n", dn, e.getMessage());
       }
-      errorCount++;
+      errorCount.incrementAndGet();
     }
 
     // Check the parent DN is in dn2id.
@@ -825,7 +984,7 @@ class VerifyJob
         if (id == null)
         {
           logger.error(ERR_VERIFY_DN2ID_MISSING_KEY, parentDN);
-          errorCount++;
+          errorCount.incrementAndGet();
         }
       }
       catch (Exception e)
@@ -835,7 +994,7 @@ class VerifyJob
           logger.traceException(e);
           logger.trace("File dn2id has error reading key %s: %s.%n", parentDN, e.getMessage());
         }
-        errorCount++;
+        errorCount.incrementAndGet();
       }
     }
   }
@@ -880,7 +1039,7 @@ class VerifyJob
         if (vlvIndex.verifyEntry(txn, entryID, entry))
         {
           logger.error(ERR_VERIFY_MISSING_ENTRY_VLV, entry.getName(), vlvIndex.getName());
-          errorCount++;
+          errorCount.incrementAndGet();
         }
       }
       catch (DirectoryException e)
@@ -891,7 +1050,7 @@ class VerifyJob
           logger.trace("Error checking entry %s against filter or base DN for VLV index %s: %s",
                      entry.getName(), vlvIndex.getName(), e.getMessageObject());
         }
-        errorCount++;
+        errorCount.incrementAndGet();
       }
       catch (StorageRuntimeException e)
       {
@@ -901,7 +1060,7 @@ class VerifyJob
           logger.trace("Error reading VLV index %s for entry %s: %s",
               vlvIndex.getName(), entry.getName(), StaticUtils.getBacktrace(e));
         }
-        errorCount++;
+        errorCount.incrementAndGet();
       }
     }
   }
@@ -927,7 +1086,7 @@ class VerifyJob
       if (cr == ConditionResult.FALSE)
       {
         logger.error(ERR_VERIFY_MISSING_ID, entryID.longValue(), keyDump(index, key));
-        errorCount++;
+        errorCount.incrementAndGet();
       }
       else if (cr == ConditionResult.UNDEFINED)
       {
@@ -942,7 +1101,7 @@ class VerifyJob
 
         logger.trace("Error reading tree: %s%n%s", e.getMessage(), keyDump(index, key));
       }
-      errorCount++;
+      errorCount.incrementAndGet();
     }
   }
 
@@ -983,6 +1142,32 @@ class VerifyJob
     }
   }
 
+  /** The progress of the check of an index tree, when several index trees are checked concurrently. */
+  private static final class IndexProgress
+  {
+    private final Tree index;
+    /** The number of keys in the index tree. */
+    private final long totalCount;
+    /** The number of keys checked. */
+    private final AtomicLong keyCount = new AtomicLong();
+    /** The number of keys that had been checked at the time of the previous progress report. */
+    private long previousCount;
+
+    private IndexProgress(Tree index, long totalCount)
+    {
+      this.index = index;
+      this.totalCount = totalCount;
+    }
+
+    private void report(long deltaTime)
+    {
+      final long latestCount = keyCount.get();
+      final float rate = 1000f * (latestCount - previousCount) / deltaTime;
+      logger.info(NOTE_VERIFY_INDEX_PROGRESS_REPORT, index.getName(), latestCount, totalCount, rate);
+      previousCount = latestCount;
+    }
+  }
+
   /** This class reports progress of the verify job at fixed intervals. */
   private final class ProgressTask extends TimerTask
   {
@@ -1046,7 +1231,7 @@ class VerifyJob
     @Override
     public void run()
     {
-      long latestCount = keyCount;
+      long latestCount = keyCount.get();
       long deltaCount = latestCount - previousCount;
       long latestTime = System.currentTimeMillis();
       long deltaTime = latestTime - previousTime;
@@ -1058,7 +1243,11 @@ class VerifyJob
 
       float rate = 1000f*deltaCount / deltaTime;
 
-      logger.info(NOTE_VERIFY_PROGRESS_REPORT, latestCount, totalCount, errorCount, rate);
+      logger.info(NOTE_VERIFY_PROGRESS_REPORT, latestCount, totalCount, errorCount.get(), rate);
+      for (IndexProgress indexProgress : indexProgresses)
+      {
+        indexProgress.report(deltaTime);
+      }
 
       try
       {
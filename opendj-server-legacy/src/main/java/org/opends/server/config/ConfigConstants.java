@@ -4180,6 +4180,35 @@ public final class ConfigConstants
 
 
 
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the cookie from which changes should be exported, when exporting the
+   * changelog backend.
+   */
+  public static final String ATTR_TASK_EXPORT_CHANGES_FROM_COOKIE =
+       NAME_PREFIX_TASK + "export-changes-from-cookie";
+
+
+
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the cookie up to which changes should be exported, when exporting the
+   * changelog backend.
+   */
+  public static final String ATTR_TASK_EXPORT_CHANGES_TO_COOKIE =
+       NAME_PREFIX_TASK + "export-changes-to-cookie";
+
+
+
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the number of threads used to read and format the exported entries.
+   */
+  public static final String ATTR_TASK_EXPORT_THREAD_COUNT =
+       NAME_PREFIX_TASK + "export-thread-count";
+
+
+
   /**
    * The name of the objectclass that will be used for a Directory Server
    * restore task definition.
@@ -133,6 +133,7 @@ public class CoreConfigManager
     setUseNanoTime(globalConfig.getEtimeResolution() == GlobalCfgDefn.EtimeResolution.NANOSECONDS);
     setMaxAllowedConnections(globalConfig.getMaxAllowedClientConnections());
     setMaxPersistentSearchLimit(globalConfig.getMaxPsearches());
+    PersistentSearchDispatcher.applyConfiguration(globalConfig);
     setMaxInternalBufferSize((int) globalConfig.getMaxInternalBufferSize());
 
     // For tools, common audit may not be available
@@ -23,10 +23,16 @@ import static org.opends.server.protocols.internal.Requests.*;
 import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,9 +69,12 @@ import org.opends.server.protocols.internal.SearchRequest;
 import org.opends.server.protocols.ldap.LDAPControl;
 import org.opends.server.types.Control;
 import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DN.CompactDn;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.InitializationException;
+import org.opends.server.types.MemberList;
+import org.opends.server.types.MembershipException;
 import org.opends.server.types.Modification;
 import org.opends.server.types.SearchFilter;
 import org.opends.server.types.SearchResultEntry;
@@ -108,6 +117,18 @@ public class GroupManager extends InternalDirectoryServerPlugin
   /** A mapping between the DNs of all group entries and the corresponding group instances. */
   private DITCacheMap<Group<?>> groupInstances;
 
+  /**
+   * Reverse membership index, mapping the DNs listed as members of the registered groups whose member list may
+   * be altered to these groups.
+   */
+  private final Map<CompactDn, Set<Group<?>>> groupsByMember = new HashMap<>();
+
+  /** The member DNs indexed for each group of the reverse membership index. */
+  private final Map<Group<?>, Set<CompactDn>> membersByGroup = new IdentityHashMap<>();
+
+  /** The registered groups which are not in the reverse membership index and compute their membership on demand. */
+  private final Set<Group<?>> unindexedGroups = new LinkedHashSet<>();
+
   /** Lock to protect internal data structures. */
   private final ReadWriteLock lock;
 
@@ -269,6 +290,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           Group<?> g = iterator.next();
           if (g.getClass().getName().equals(group.getClass().getName()))
           {
+            deindexMembers(g);
             iterator.remove();
           }
         }
@@ -330,6 +352,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
               Group<?> g = iterator.next();
               if (g.getClass().getName().equals(group.getClass().getName()))
               {
+                deindexMembers(g);
                 iterator.remove();
               }
             }
@@ -510,6 +533,200 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Retrieves the groups in which the provided entry is a member, either
+   * directly or through nested groups.
+   * <BR><BR>
+   * The groups whose member list may be altered are found through a reverse
+   * membership index, so that the cost of this method depends on the number of
+   * groups of the entry rather than on the number of groups defined in the
+   * server. The membership of the other groups is checked on demand.
+   *
+   * @param  entry  The entry for which to retrieve the groups.
+   *
+   * @return  The groups in which the provided entry is a member, which may be
+   *          empty.
+   */
+  public Set<Group<?>> getGroups(Entry entry)
+  {
+    Set<Group<?>> groups = new LinkedHashSet<>();
+    Deque<Group<?>> groupsToExamine = new ArrayDeque<>();
+
+    List<Group<?>> groupsToCheck;
+    lock.readLock().lock();
+    try
+    {
+      addGroupsOfMember(entry.getName(), groups, groupsToExamine);
+      groupsToCheck = new ArrayList<>(unindexedGroups);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+
+    // Check the membership outside of the lock since it may need to access the
+    // group instances or the backends.
+    for (Group<?> group : groupsToCheck)
+    {
+      try
+      {
+        if (group.isMember(entry) && groups.add(group))
+        {
+          groupsToExamine.add(group);
+        }
+      }
+      catch (DirectoryException e)
+      {
+        logger.traceException(e);
+      }
+    }
+
+    // Groups are members of the groups in which they are nested.
+    lock.readLock().lock();
+    try
+    {
+      while (!groupsToExamine.isEmpty())
+      {
+        addGroupsOfMember(groupsToExamine.poll().getGroupDN(), groups, groupsToExamine);
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    return groups;
+  }
+
+  /** Adds the indexed groups listing the provided DN as a member. The caller must hold the lock. */
+  private void addGroupsOfMember(DN memberDN, Set<Group<?>> groups, Deque<Group<?>> groupsToExamine)
+  {
+    Set<Group<?>> memberGroups = groupsByMember.get(memberDN.compact());
+    if (memberGroups != null)
+    {
+      for (Group<?> group : memberGroups)
+      {
+        if (groups.add(group))
+        {
+          groupsToExamine.add(group);
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the reverse membership index after some members have been added
+   * to or removed from a group. Group implementations whose member list may be
+   * altered must call this method every time they add or remove members,
+   * without holding any of their own locks.
+   * <p>
+   * Each provided DN is indexed according to its current membership in the
+   * group, rather than to the change made by the caller. Therefore concurrent
+   * changes to the same member may call this method in any order: the last
+   * call always sees the last membership.
+   *
+   * @param  group             The group whose member list has been altered.
+   * @param  changedMemberDNs  The DNs which have been added to or removed from
+   *                           the member list of the group.
+   */
+  public void updateMemberIndex(Group<?> group, Collection<DN> changedMemberDNs)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Set<CompactDn> memberDNs = membersByGroup.get(group);
+      if (memberDNs == null)
+      {
+        // Not a registered group instance, or its members are checked on demand.
+        return;
+      }
+
+      // Groups which have already been examined are not searched for nested
+      // members, so only the members listed by the group itself are found.
+      Set<DN> examinedGroups = new HashSet<>();
+      examinedGroups.add(group.getGroupDN());
+      for (DN memberDN : changedMemberDNs)
+      {
+        CompactDn compactMemberDN = memberDN.compact();
+        if (group.isMember(memberDN, examinedGroups))
+        {
+          addToIndex(group, memberDNs, compactMemberDN);
+        }
+        else if (memberDNs.remove(compactMemberDN))
+        {
+          removeFromIndex(group, compactMemberDN);
+        }
+      }
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      deindexMembers(group);
+      unindexedGroups.add(group);
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Updates the reverse membership index after the member list of a group has
+   * been replaced, or altered in ways which are not described by the added and
+   * removed members. Group implementations whose member list may be altered
+   * must call this method without holding any of their own locks.
+   * <p>
+   * The indexed members of the group are compared with its current member
+   * list, so this is linear in the size of the group. Therefore concurrent
+   * changes to the same group may call this method in any order: the last call
+   * always sees the last member list.
+   *
+   * @param  group  The group whose member list has been altered.
+   */
+  public void updateMemberIndex(Group<?> group)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Set<CompactDn> memberDNs = membersByGroup.get(group);
+      if (memberDNs == null)
+      {
+        // Not a registered group instance, or its members are checked on demand.
+        return;
+      }
+
+      Set<CompactDn> currentMemberDNs;
+      try
+      {
+        currentMemberDNs = getMemberDNs(group);
+      }
+      catch (DirectoryException | MembershipException e)
+      {
+        logger.traceException(e);
+        deindexMembers(group);
+        unindexedGroups.add(group);
+        return;
+      }
+
+      for (Iterator<CompactDn> it = memberDNs.iterator(); it.hasNext();)
+      {
+        CompactDn memberDN = it.next();
+        if (!currentMemberDNs.contains(memberDN))
+        {
+          it.remove();
+          removeFromIndex(group, memberDN);
+        }
+      }
+      for (CompactDn memberDN : currentMemberDNs)
+      {
+        addToIndex(group, memberDNs, memberDN);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
   /**
    * {@inheritDoc}  In this case, the server will search the backend to find
    * all group instances that it may contain and register them with this group
@@ -579,9 +796,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           {
             try
             {
-              Group<?> groupInstance = groupImplementation.newInstance(null, entry);
-              groupInstances.put(entry.getName(), groupInstance);
-              refreshToken++;
+              registerGroupInstance(entry.getName(), groupImplementation.newInstance(null, entry));
             }
             catch (DirectoryException e)
             {
@@ -615,6 +830,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
         DN groupEntryDN = mapEntry.getKey();
         if (backend.handlesEntry(groupEntryDN))
         {
+          deindexMembers(mapEntry.getValue());
           iterator.remove();
         }
       }
@@ -680,8 +896,13 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (groupInstances.removeSubtree(entry.getName(), null))
+      Set<Group<?>> groupSet = new HashSet<>();
+      if (groupInstances.removeSubtree(entry.getName(), groupSet))
       {
+        for (Group<?> group : groupSet)
+        {
+          deindexMembers(group);
+        }
         refreshToken++;
       }
     }
@@ -751,7 +972,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
             || !group.mayAlterMemberList()
             || updatesObjectClass(modifications))
         {
-          groupInstances.remove(oldEntry.getName());
+          deindexMembers(groupInstances.remove(oldEntry.getName()));
           // This updates the refreshToken
           createAndRegisterGroup(newEntry);
         }
@@ -942,8 +1163,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           lock.writeLock().lock();
           try
           {
-            groupInstances.put(entry.getName(), groupInstance);
-            refreshToken++;
+            registerGroupInstance(entry.getName(), groupInstance);
           }
           finally
           {
@@ -958,6 +1178,113 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Registers the provided group instance, overwriting and deregistering any
+   * existing group instance registered with the same DN. The caller must hold
+   * the write lock.
+   */
+  private void registerGroupInstance(DN groupDN, Group<?> group)
+  {
+    Group<?> previousGroup = groupInstances.put(groupDN, group);
+    if (previousGroup != null)
+    {
+      deindexMembers(previousGroup);
+    }
+    refreshToken++;
+    indexMembers(group);
+  }
+
+  /**
+   * Adds the members of the provided group to the reverse membership index,
+   * unless its member list cannot be altered, or cannot be read, in which case
+   * its membership will be checked on demand. The caller must hold the write
+   * lock.
+   */
+  private void indexMembers(Group<?> group)
+  {
+    if (group.mayAlterMemberList())
+    {
+      try
+      {
+        Set<CompactDn> memberDNs = new HashSet<>();
+        membersByGroup.put(group, memberDNs);
+        for (CompactDn memberDN : getMemberDNs(group))
+        {
+          addToIndex(group, memberDNs, memberDN);
+        }
+        return;
+      }
+      catch (DirectoryException | MembershipException e)
+      {
+        logger.traceException(e);
+        deindexMembers(group);
+      }
+    }
+    unindexedGroups.add(group);
+  }
+
+  /** Returns the DNs of the current members of the provided group. */
+  private Set<CompactDn> getMemberDNs(Group<?> group) throws DirectoryException, MembershipException
+  {
+    Set<CompactDn> memberDNs = new HashSet<>();
+    try (MemberList memberList = group.getMembers())
+    {
+      while (memberList.hasMoreMembers())
+      {
+        DN memberDN = memberList.nextMemberDN();
+        if (memberDN != null)
+        {
+          memberDNs.add(memberDN.compact());
+        }
+      }
+    }
+    return memberDNs;
+  }
+
+  /**
+   * Removes the provided group from the reverse membership index. The caller
+   * must hold the write lock.
+   */
+  private void deindexMembers(Group<?> group)
+  {
+    if (group == null || unindexedGroups.remove(group))
+    {
+      return;
+    }
+
+    Set<CompactDn> memberDNs = membersByGroup.remove(group);
+    if (memberDNs != null)
+    {
+      for (CompactDn memberDN : memberDNs)
+      {
+        removeFromIndex(group, memberDN);
+      }
+    }
+  }
+
+  private void addToIndex(Group<?> group, Set<CompactDn> memberDNs, CompactDn memberDN)
+  {
+    if (memberDNs.add(memberDN))
+    {
+      Set<Group<?>> groups = groupsByMember.get(memberDN);
+      if (groups == null)
+      {
+        groups = new HashSet<>(2);
+        groupsByMember.put(memberDN, groups);
+      }
+      groups.add(group);
+    }
+  }
+
+  private void removeFromIndex(Group<?> group, CompactDn memberDN)
+  {
+    Set<Group<?>> groups = groupsByMember.get(memberDN);
+    if (groups != null && groups.remove(group) && groups.isEmpty())
+    {
+      groupsByMember.remove(memberDN);
+    }
+  }
+
   /**
    * Removes all group instances that might happen to be registered with the
    * group manager.  This method is only intended for testing purposes and
@@ -969,6 +1296,9 @@ public class GroupManager extends InternalDirectoryServerPlugin
     try
     {
       groupInstances.clear();
+      groupsByMember.clear();
+      membersByGroup.clear();
+      unindexedGroups.clear();
     }
     finally
     {
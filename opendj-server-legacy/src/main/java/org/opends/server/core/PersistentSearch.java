@@ -19,18 +19,25 @@ package org.opends.server.core;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.api.ClientConnection;
 import org.opends.server.controls.EntryChangeNotificationControl;
 import org.opends.server.controls.PersistentSearchChangeType;
 import org.opends.server.types.CancelResult;
 import org.opends.server.types.Control;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
 import org.opends.server.types.Entry;
 
+import static org.opends.messages.CoreMessages.*;
 import static org.opends.server.controls.PersistentSearchChangeType.*;
 
 /**
@@ -85,6 +92,22 @@ public final class PersistentSearch
   }
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The maximum number of entries sent by a task before it yields the sender thread to other persistent searches. */
+  private static final int MAX_ENTRIES_PER_BATCH = 256;
+
+  /** An entry waiting to be sent to the client. */
+  private static final class PendingEntry
+  {
+    private final Entry entry;
+    private final List<Control> controls;
+
+    private PendingEntry(Entry entry, List<Control> controls)
+    {
+      this.entry = entry;
+      this.controls = controls;
+    }
+  }
+
   /** Cancel a persistent search. */
   private static synchronized void cancel(PersistentSearch psearch)
   {
@@ -119,7 +142,16 @@ public final class PersistentSearch
   private final Set<PersistentSearchChangeType> changeTypes;
 
   /** Indicates whether this persistent search has already been aborted. */
-  private boolean isCancelled;
+  private volatile boolean isCancelled;
+
+  /**
+   * The entries waiting to be sent to the client, in the order of the changes. Bounded by the maximum number of
+   * pending entries of {@link PersistentSearchDispatcher}, which can be changed at runtime.
+   */
+  private final BlockingQueue<PendingEntry> pendingEntries = new LinkedBlockingQueue<>();
+
+  /** Whether a task is scheduled or running to send the pending entries to the client. */
+  private final AtomicBoolean isSending = new AtomicBoolean();
 
   /** Indicates whether entries returned should include the entry change notification control. */
   private final boolean returnECs;
@@ -233,7 +265,7 @@ public final class PersistentSearch
         && isInScope(entry.getName())
         && matchesFilter(entry))
     {
-      sendEntry(entry, createControls(ADD, null));
+      queueEntry(entry, createControls(ADD, null));
     }
   }
 
@@ -287,7 +319,7 @@ public final class PersistentSearch
         && isInScope(entry.getName())
         && matchesFilter(entry))
     {
-      sendEntry(entry, createControls(DELETE, null));
+      queueEntry(entry, createControls(DELETE, null));
     }
   }
 
@@ -316,7 +348,7 @@ public final class PersistentSearch
         && isInScopeForModify(oldEntry.getName())
         && anyMatchesFilter(entry, oldEntry))
     {
-      sendEntry(entry, createControls(MODIFY, null));
+      queueEntry(entry, createControls(MODIFY, null));
     }
   }
 
@@ -357,7 +389,7 @@ public final class PersistentSearch
         && isAnyInScopeForModify(entry, oldDN)
         && matchesFilter(entry))
     {
-      sendEntry(entry, createControls(MODIFY_DN, oldDN));
+      queueEntry(entry, createControls(MODIFY_DN, oldDN));
     }
   }
 
@@ -383,6 +415,105 @@ public final class PersistentSearch
     return Collections.emptyList();
   }
 
+  /**
+   * Queues the entry to be sent to the client by a sender thread. It never writes to the client, so that a slow
+   * client does not delay the dispatch of the changes to the other persistent searches.
+   */
+  private void queueEntry(Entry entry, List<Control> entryControls)
+  {
+    if (isCancelled)
+    {
+      return;
+    }
+    final int maxPendingEntries = PersistentSearchDispatcher.getMaxPendingEntries();
+    if (pendingEntries.size() >= maxPendingEntries
+        || !pendingEntries.offer(new PendingEntry(entry, entryControls)))
+    {
+      disconnectSlowClient(WARN_PSEARCH_TOO_MANY_PENDING_ENTRIES.get(
+          searchOperation.getClientConnection().getConnectionID(), maxPendingEntries, getMessageID()));
+      return;
+    }
+    scheduleSend();
+  }
+
+  private void scheduleSend()
+  {
+    if (isSending.compareAndSet(false, true)
+        && !PersistentSearchDispatcher.executeSend(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            sendPendingEntries();
+          }
+        }))
+    {
+      isSending.set(false);
+      disconnectOverloadedClient();
+    }
+  }
+
+  private void sendPendingEntries()
+  {
+    try
+    {
+      PendingEntry pendingEntry;
+      for (int i = 0; i < MAX_ENTRIES_PER_BATCH && !isCancelled && (pendingEntry = pendingEntries.poll()) != null;
+          i++)
+      {
+        sendEntry(pendingEntry.entry, pendingEntry.controls);
+      }
+      if (isCancelled)
+      {
+        pendingEntries.clear();
+      }
+    }
+    finally
+    {
+      isSending.set(false);
+    }
+    if (!isCancelled && !pendingEntries.isEmpty())
+    {
+      // Yield the sender thread so that a client receiving many entries does not starve the others
+      scheduleSend();
+    }
+  }
+
+  /**
+   * Cancels this persistent search and disconnects its client because the changes could not be queued for it, so
+   * that the client does not silently miss them.
+   */
+  void disconnectOverloadedClient()
+  {
+    disconnectSlowClient(WARN_PSEARCH_DISPATCHER_OVERLOADED.get(
+        searchOperation.getClientConnection().getConnectionID(), getMessageID()));
+  }
+
+  private void disconnectSlowClient(final LocalizableMessage message)
+  {
+    if (isCancelled)
+    {
+      return;
+    }
+    logger.warn(message);
+    cancel();
+    pendingEntries.clear();
+
+    // Notifying the slow client may block, which must not happen in a dispatch thread
+    final ClientConnection clientConnection = searchOperation.getClientConnection();
+    if (!PersistentSearchDispatcher.executeSend(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        clientConnection.disconnect(DisconnectReason.ADMIN_LIMIT_EXCEEDED, true, message);
+      }
+    }))
+    {
+      clientConnection.disconnect(DisconnectReason.ADMIN_LIMIT_EXCEEDED, false, message);
+    }
+  }
+
   private void sendEntry(Entry entry, List<Control> entryControls)
   {
     try
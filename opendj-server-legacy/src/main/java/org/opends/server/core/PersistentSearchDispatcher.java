@@ -0,0 +1,671 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.forgerock.util.Utils.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.Assertion;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.opendj.server.config.server.GlobalCfg;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * Dispatches the changes made to the entries of a backend to the persistent searches registered with it.
+ * <p>
+ * Changes are queued by the threads which performed the write operations and evaluated in batches by a task
+ * running on a shared thread pool, so that the number of persistent searches does not slow down the write path.
+ * Changes made to a backend are dispatched in the order they were queued.
+ * <p>
+ * The dispatch threads never write to the clients: the entries to return are queued by each persistent search
+ * and sent by a separate pool of sender threads, so that slow clients cannot delay the dispatch of the changes
+ * made to any backend.
+ * <p>
+ * In order to avoid evaluating every persistent search for every change, persistent searches are indexed by
+ * base DN and, when their filter is an equality or presence filter or an AND filter containing one, by the
+ * attribute type and normalized assertion value of this term. Only the persistent searches whose base DN is a
+ * superior of the changed entry and whose indexed term may match the changed entry are then evaluated.
+ * <p>
+ * The queues of changes and of entries, as well as both thread pools, are bounded by the limits of the global
+ * configuration. When a change cannot be queued or dispatched, the persistent searches which may be interested in
+ * it are treated as slow clients: they are cancelled and their clients are disconnected, rather than silently
+ * missing the change.
+ */
+public final class PersistentSearchDispatcher
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of changes evaluated by a dispatch task before it yields to other backends. */
+  private static final int MAX_CHANGES_PER_BATCH = 256;
+
+  /** The default maximum number of changes waiting to be dispatched for a backend. */
+  private static final int DEFAULT_MAX_PENDING_CHANGES = 10000;
+  /** The default maximum number of entries waiting to be sent to the client of a persistent search. */
+  private static final int DEFAULT_MAX_PENDING_ENTRIES = 1000;
+  /** The default maximum number of tasks waiting for a thread in each thread pool. */
+  private static final int DEFAULT_MAX_PENDING_TASKS = 10000;
+
+  /** The maximum number of changes waiting to be dispatched for a backend. */
+  private static volatile int maxPendingChanges = DEFAULT_MAX_PENDING_CHANGES;
+  /**
+   * The maximum number of entries waiting to be sent to the client of a persistent search. The client is
+   * disconnected when it is reached, so that a slow client does not make the server accumulate its entries in memory.
+   */
+  private static volatile int maxPendingEntries = DEFAULT_MAX_PENDING_ENTRIES;
+  /**
+   * The maximum number of tasks waiting for a thread in each thread pool. There is at most one dispatch task per
+   * backend and one send task per persistent search at any time.
+   */
+  private static volatile int maxPendingTasks = DEFAULT_MAX_PENDING_TASKS;
+
+  /**
+   * The threads shared by all the backends to dispatch their changes. Dispatching only evaluates the persistent
+   * searches, so there is no point in having more threads than processors.
+   */
+  private static final TaskPool dispatchers =
+      new TaskPool("Persistent Search Dispatcher %d", Runtime.getRuntime().availableProcessors());
+  /** The threads sending the entries to the clients, which may block on slow clients. */
+  private static final TaskPool senders =
+      new TaskPool("Persistent Search Sender %d", Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+
+  /** A thread pool whose threads are started on demand and whose queue of waiting tasks is bounded. */
+  private static final class TaskPool
+  {
+    private final String threadNameTemplate;
+    private final int defaultThreadCount;
+    /** Guarded by this. */
+    private int threadCount;
+    /** Guarded by this. */
+    private ThreadPoolExecutor executor;
+
+    private TaskPool(String threadNameTemplate, int defaultThreadCount)
+    {
+      this.threadNameTemplate = threadNameTemplate;
+      this.defaultThreadCount = defaultThreadCount;
+      this.threadCount = defaultThreadCount;
+    }
+
+    /** Sets the number of threads, or restores the default one if {@code null}. */
+    private synchronized void setThreadCount(Integer threadCount)
+    {
+      final int newThreadCount = threadCount != null ? threadCount : defaultThreadCount;
+      if (executor != null && newThreadCount != this.threadCount)
+      {
+        // the core pool size must never exceed the maximum pool size
+        if (newThreadCount > this.threadCount)
+        {
+          executor.setMaximumPoolSize(newThreadCount);
+          executor.setCorePoolSize(newThreadCount);
+        }
+        else
+        {
+          executor.setCorePoolSize(newThreadCount);
+          executor.setMaximumPoolSize(newThreadCount);
+        }
+      }
+      this.threadCount = newThreadCount;
+    }
+
+    private boolean execute(Runnable task)
+    {
+      final ThreadPoolExecutor executor = getExecutor();
+      if (executor.getQueue().size() >= maxPendingTasks)
+      {
+        return false;
+      }
+      try
+      {
+        executor.execute(task);
+        return true;
+      }
+      catch (RejectedExecutionException e)
+      {
+        logger.traceException(e);
+        return false;
+      }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor()
+    {
+      if (executor == null)
+      {
+        // The queue is bounded by execute() so that the limit can be changed at runtime
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), newThreadFactory(null, threadNameTemplate, true));
+        executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+    }
+  }
+
+  /** A change made to an entry of the backend. */
+  private static final class Change
+  {
+    private final PersistentSearchChangeType changeType;
+    private final Entry entry;
+    /** The entry before it was changed, for modify and modify DN operations, or {@code null}. */
+    private final Entry oldEntry;
+
+    private Change(PersistentSearchChangeType changeType, Entry entry, Entry oldEntry)
+    {
+      this.changeType = changeType;
+      this.entry = entry;
+      this.oldEntry = oldEntry;
+    }
+  }
+
+  /**
+   * The term under which a persistent search is indexed: an attribute type with either a normalized equality
+   * assertion value or {@code null} for a presence filter.
+   */
+  private static final class Term
+  {
+    private final AttributeType attributeType;
+    private final ByteString normalizedValue;
+
+    private Term(AttributeType attributeType, ByteString normalizedValue)
+    {
+      this.attributeType = attributeType;
+      this.normalizedValue = normalizedValue;
+    }
+  }
+
+  /** The persistent searches sharing the same base DN. */
+  private static final class Bucket
+  {
+    private final Set<PersistentSearch> unindexed = new HashSet<>();
+    private final Map<AttributeType, Set<PersistentSearch>> presence = new HashMap<>();
+    private final Map<AttributeType, Map<ByteString, Set<PersistentSearch>>> equality = new HashMap<>();
+
+    private boolean isEmpty()
+    {
+      return unindexed.isEmpty() && presence.isEmpty() && equality.isEmpty();
+    }
+  }
+
+  /** Guarded by itself, as well as {@link #terms}. */
+  private final Map<DN, Bucket> buckets = new HashMap<>();
+  /** The term under which each registered persistent search is indexed, or {@code null} if it is not indexed. */
+  private final Map<PersistentSearch, Term> terms = new HashMap<>();
+  private volatile boolean hasPersistentSearches;
+
+  /** Bounded by {@link #maxPendingChanges}, which can be changed at runtime. */
+  private final BlockingQueue<Change> pendingChanges = new LinkedBlockingQueue<>();
+  /** Whether a dispatch task is scheduled or running for this backend. */
+  private final AtomicBoolean isDispatching = new AtomicBoolean();
+
+  /**
+   * Applies the persistent search limits of the global configuration.
+   *
+   * @param config
+   *          The global configuration.
+   */
+  static void applyConfiguration(GlobalCfg config)
+  {
+    maxPendingChanges = config.getPsearchMaxPendingChanges();
+    maxPendingEntries = config.getPsearchMaxPendingEntries();
+    maxPendingTasks = config.getPsearchMaxPendingTasks();
+    dispatchers.setThreadCount(config.getPsearchDispatcherThreads());
+    senders.setThreadCount(config.getPsearchSenderThreads());
+  }
+
+  /**
+   * Returns the maximum number of entries waiting to be sent to the client of a persistent search.
+   *
+   * @return The maximum number of entries waiting to be sent to the client of a persistent search
+   */
+  static int getMaxPendingEntries()
+  {
+    return maxPendingEntries;
+  }
+
+  /**
+   * Executes the provided task, which may write to a client, on the thread pool sending the entries to the
+   * clients of the persistent searches. It must never be run by a dispatch thread.
+   *
+   * @param task
+   *          The task to execute.
+   * @return {@code true} if the task will be executed, or {@code false} if too many tasks are already waiting
+   */
+  static boolean executeSend(Runnable task)
+  {
+    return senders.execute(task);
+  }
+
+  /**
+   * Registers the provided persistent search so that it will be notified of the changes made to the backend.
+   *
+   * @param psearch
+   *          The persistent search to register.
+   */
+  public void register(PersistentSearch psearch)
+  {
+    final SearchOperation searchOperation = psearch.getSearchOperation();
+    final Term term = getTerm(searchOperation.getFilter());
+    synchronized (buckets)
+    {
+      Bucket bucket = buckets.get(searchOperation.getBaseDN());
+      if (bucket == null)
+      {
+        bucket = new Bucket();
+        buckets.put(searchOperation.getBaseDN(), bucket);
+      }
+
+      if (term == null)
+      {
+        bucket.unindexed.add(psearch);
+      }
+      else if (term.normalizedValue == null)
+      {
+        getOrCreateSet(bucket.presence, term.attributeType).add(psearch);
+      }
+      else
+      {
+        Map<ByteString, Set<PersistentSearch>> values = bucket.equality.get(term.attributeType);
+        if (values == null)
+        {
+          values = new HashMap<>();
+          bucket.equality.put(term.attributeType, values);
+        }
+        getOrCreateSet(values, term.normalizedValue).add(psearch);
+      }
+      terms.put(psearch, term);
+      hasPersistentSearches = true;
+    }
+  }
+
+  private static <K> Set<PersistentSearch> getOrCreateSet(Map<K, Set<PersistentSearch>> map, K key)
+  {
+    Set<PersistentSearch> psearches = map.get(key);
+    if (psearches == null)
+    {
+      psearches = new HashSet<>();
+      map.put(key, psearches);
+    }
+    return psearches;
+  }
+
+  /**
+   * Deregisters the provided persistent search, which will no longer be notified of the changes made to the
+   * backend.
+   *
+   * @param psearch
+   *          The persistent search to deregister.
+   */
+  public void deregister(PersistentSearch psearch)
+  {
+    synchronized (buckets)
+    {
+      if (!terms.containsKey(psearch))
+      {
+        return;
+      }
+      final Term term = terms.remove(psearch);
+      final DN baseDN = psearch.getSearchOperation().getBaseDN();
+      final Bucket bucket = buckets.get(baseDN);
+      if (term == null)
+      {
+        bucket.unindexed.remove(psearch);
+      }
+      else if (term.normalizedValue == null)
+      {
+        removeFromSet(bucket.presence, term.attributeType, psearch);
+      }
+      else
+      {
+        final Map<ByteString, Set<PersistentSearch>> values = bucket.equality.get(term.attributeType);
+        removeFromSet(values, term.normalizedValue, psearch);
+        if (values.isEmpty())
+        {
+          bucket.equality.remove(term.attributeType);
+        }
+      }
+      if (bucket.isEmpty())
+      {
+        buckets.remove(baseDN);
+      }
+      hasPersistentSearches = !terms.isEmpty();
+    }
+  }
+
+  private static <K> void removeFromSet(Map<K, Set<PersistentSearch>> map, K key, PersistentSearch psearch)
+  {
+    final Set<PersistentSearch> psearches = map.get(key);
+    psearches.remove(psearch);
+    if (psearches.isEmpty())
+    {
+      map.remove(key);
+    }
+  }
+
+  /**
+   * Returns the term under which a persistent search with the provided filter can be indexed, or {@code null} if
+   * it cannot be indexed. Equality terms are preferred over presence terms because they are more selective.
+   */
+  private static Term getTerm(SearchFilter filter)
+  {
+    switch (filter.getFilterType())
+    {
+    case EQUALITY:
+      return getEqualityTerm(filter);
+    case PRESENT:
+      return isIndexable(filter.getAttributeType()) ? new Term(filter.getAttributeType(), null) : null;
+    case AND:
+      Term presenceTerm = null;
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        final Term term = getTerm(component);
+        if (term != null && term.normalizedValue != null)
+        {
+          return term;
+        }
+        else if (presenceTerm == null)
+        {
+          presenceTerm = term;
+        }
+      }
+      return presenceTerm;
+    default:
+      return null;
+    }
+  }
+
+  private static boolean isIndexable(AttributeType attributeType)
+  {
+    // The objectClass attribute is present in every entry and poorly selective
+    return attributeType != null && !attributeType.isObjectClass();
+  }
+
+  private static Term getEqualityTerm(SearchFilter filter)
+  {
+    final AttributeType attributeType = filter.getAttributeType();
+    final MatchingRule rule = isIndexable(attributeType) ? attributeType.getEqualityMatchingRule() : null;
+    if (rule == null || filter.getAssertionValue() == null)
+    {
+      return null;
+    }
+    try
+    {
+      final ByteString normalizedValue = rule.normalizeAttributeValue(filter.getAssertionValue());
+      final Assertion assertion = rule.getAssertion(filter.getAssertionValue());
+      // Only index the filter if matching the assertion is the same as comparing normalized values
+      return assertion.matches(normalizedValue) == ConditionResult.TRUE ? new Term(attributeType, normalizedValue)
+                                                                          : null;
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been added.
+   *
+   * @param entry
+   *          The entry that was added.
+   */
+  public void entryAdded(Entry entry)
+  {
+    enqueue(new Change(PersistentSearchChangeType.ADD, entry, null));
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been deleted.
+   *
+   * @param entry
+   *          The entry that was deleted.
+   */
+  public void entryDeleted(Entry entry)
+  {
+    enqueue(new Change(PersistentSearchChangeType.DELETE, entry, null));
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been modified.
+   *
+   * @param entry
+   *          The entry after it was modified.
+   * @param oldEntry
+   *          The entry before it was modified.
+   */
+  public void entryModified(Entry entry, Entry oldEntry)
+  {
+    enqueue(new Change(PersistentSearchChangeType.MODIFY, entry, oldEntry));
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been renamed.
+   *
+   * @param entry
+   *          The entry after it was renamed.
+   * @param oldEntry
+   *          The entry before it was renamed.
+   */
+  public void entryRenamed(Entry entry, Entry oldEntry)
+  {
+    enqueue(new Change(PersistentSearchChangeType.MODIFY_DN, entry, oldEntry));
+  }
+
+  private void enqueue(Change change)
+  {
+    if (hasPersistentSearches)
+    {
+      if (pendingChanges.size() < maxPendingChanges && pendingChanges.offer(change))
+      {
+        scheduleDispatch();
+      }
+      else
+      {
+        discard(change);
+      }
+    }
+  }
+
+  private void scheduleDispatch()
+  {
+    if (isDispatching.compareAndSet(false, true)
+        && !dispatchers.execute(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            dispatchPendingChanges();
+          }
+        }))
+    {
+      isDispatching.set(false);
+      Change change;
+      while ((change = pendingChanges.poll()) != null)
+      {
+        discard(change);
+      }
+    }
+  }
+
+  /** Disconnects the clients of the persistent searches which will not be notified of the provided change. */
+  private void discard(Change change)
+  {
+    for (PersistentSearch psearch : getCandidates(change.entry, change.oldEntry))
+    {
+      psearch.disconnectOverloadedClient();
+    }
+  }
+
+  private void dispatchPendingChanges()
+  {
+    try
+    {
+      Change change;
+      for (int i = 0; i < MAX_CHANGES_PER_BATCH && (change = pendingChanges.poll()) != null; i++)
+      {
+        dispatch(change);
+      }
+    }
+    finally
+    {
+      isDispatching.set(false);
+    }
+    if (!pendingChanges.isEmpty())
+    {
+      scheduleDispatch();
+    }
+  }
+
+  private void dispatch(Change change)
+  {
+    for (PersistentSearch psearch : getCandidates(change.entry, change.oldEntry))
+    {
+      try
+      {
+        switch (change.changeType)
+        {
+        case ADD:
+          psearch.processAdd(change.entry);
+          break;
+        case DELETE:
+          psearch.processDelete(change.entry);
+          break;
+        case MODIFY:
+          psearch.processModify(change.entry, change.oldEntry);
+          break;
+        case MODIFY_DN:
+          psearch.processModifyDN(change.entry, change.oldEntry.getName());
+          break;
+        }
+      }
+      catch (RuntimeException e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the persistent searches which may be interested in a change, and which are therefore evaluated.
+   *
+   * @param entry
+   *          The changed entry
+   * @param oldEntry
+   *          The entry before it was changed, or {@code null}
+   * @return the persistent searches which may be interested in the change
+   */
+  // Package private for testing.
+  Collection<PersistentSearch> getCandidates(Entry entry, Entry oldEntry)
+  {
+    final Set<PersistentSearch> candidates = new HashSet<>();
+    synchronized (buckets)
+    {
+      for (Bucket bucket : getBuckets(entry, oldEntry))
+      {
+        candidates.addAll(bucket.unindexed);
+        addCandidates(candidates, bucket, entry);
+        if (oldEntry != null)
+        {
+          addCandidates(candidates, bucket, oldEntry);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /** Returns the buckets whose base DN is a superior of, or equal to, the DN of the changed entry. */
+  private List<Bucket> getBuckets(Entry entry, Entry oldEntry)
+  {
+    final List<Bucket> results = new ArrayList<>();
+    addBuckets(results, entry.getName());
+    if (oldEntry != null && !oldEntry.getName().equals(entry.getName()))
+    {
+      addBuckets(results, oldEntry.getName());
+    }
+    return results;
+  }
+
+  private void addBuckets(List<Bucket> results, DN entryDN)
+  {
+    for (DN dn = entryDN; dn != null; dn = dn.parent())
+    {
+      final Bucket bucket = buckets.get(dn);
+      if (bucket != null && !results.contains(bucket))
+      {
+        results.add(bucket);
+      }
+    }
+  }
+
+  private void addCandidates(Set<PersistentSearch> candidates, Bucket bucket, Entry entry)
+  {
+    for (Map.Entry<AttributeType, Set<PersistentSearch>> mapEntry : bucket.presence.entrySet())
+    {
+      if (!entry.getAttribute(mapEntry.getKey()).isEmpty())
+      {
+        candidates.addAll(mapEntry.getValue());
+      }
+    }
+
+    for (Map.Entry<AttributeType, Map<ByteString, Set<PersistentSearch>>> mapEntry : bucket.equality.entrySet())
+    {
+      final AttributeType attributeType = mapEntry.getKey();
+      final Map<ByteString, Set<PersistentSearch>> values = mapEntry.getValue();
+      final MatchingRule rule = attributeType.getEqualityMatchingRule();
+      for (Attribute attribute : entry.getAttribute(attributeType))
+      {
+        for (ByteString value : attribute)
+        {
+          try
+          {
+            final Set<PersistentSearch> psearches = values.get(rule.normalizeAttributeValue(value));
+            if (psearches != null)
+            {
+              candidates.addAll(psearches);
+            }
+          }
+          catch (DecodeException e)
+          {
+            // Let the persistent searches decide
+            logger.traceException(e);
+            for (Set<PersistentSearch> psearches : values.values())
+            {
+              candidates.addAll(psearches);
+            }
+          }
+        }
+      }
+    }
+  }
+}
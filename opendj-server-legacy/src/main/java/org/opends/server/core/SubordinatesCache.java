@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.api.Backend;
+import org.opends.server.types.DirectoryException;
+
+/**
+ * Memoizes the subordinates information of the entries returned by a search, so that the virtual attributes
+ * computed from them (e.g. {@code numSubordinates} and {@code hasSubordinates}) only query the backend once per
+ * entry, even though they are evaluated several times while matching the filter, checking access control and
+ * sending the entry.
+ * <p>
+ * Memoization is scoped to the thread processing the search, between {@link #enable()} and
+ * {@link #restore(SubordinatesCache)}. Outside of this scope, the backend is always queried.
+ */
+public final class SubordinatesCache
+{
+  /** The maximum number of entries memoized, the cache is cleared when it is reached. */
+  private static final int MAX_CACHED_ENTRIES = 1024;
+
+  private static final ThreadLocal<SubordinatesCache> CURRENT = new ThreadLocal<>();
+
+  private final Map<DN, Long> numberOfChildren = new HashMap<>();
+  private final Map<DN, ConditionResult> hasSubordinates = new HashMap<>();
+
+  private SubordinatesCache()
+  {
+    // Only created by enable()
+  }
+
+  /**
+   * Enables the memoization of the subordinates information for the current thread, until
+   * {@link #restore(SubordinatesCache)} is called.
+   *
+   * @return The cache previously used by the current thread, which must be passed to
+   *         {@link #restore(SubordinatesCache)}, or {@code null} if there was none.
+   */
+  public static SubordinatesCache enable()
+  {
+    final SubordinatesCache previousCache = CURRENT.get();
+    CURRENT.set(new SubordinatesCache());
+    return previousCache;
+  }
+
+  /**
+   * Discards the subordinates information memoized for the current thread since the last call to
+   * {@link #enable()}.
+   *
+   * @param previousCache
+   *          The cache returned by the matching call to {@link #enable()}.
+   */
+  public static void restore(SubordinatesCache previousCache)
+  {
+    if (previousCache != null)
+    {
+      CURRENT.set(previousCache);
+    }
+    else
+    {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * Retrieves the number of subordinates immediately below the requested entry, memoizing it if enabled for the
+   * current thread.
+   *
+   * @param backend
+   *          The backend holding the entry.
+   * @param entryDN
+   *          The distinguished name of the entry.
+   * @return The number of subordinate entries for the requested entry.
+   * @throws DirectoryException
+   *           If a problem occurs while trying to retrieve the entry.
+   * @see Backend#getNumberOfChildren(DN)
+   */
+  public static long getNumberOfChildren(Backend<?> backend, DN entryDN) throws DirectoryException
+  {
+    final SubordinatesCache cache = CURRENT.get();
+    if (cache == null)
+    {
+      return backend.getNumberOfChildren(entryDN);
+    }
+
+    Long count = cache.numberOfChildren.get(entryDN);
+    if (count == null)
+    {
+      count = backend.getNumberOfChildren(entryDN);
+      put(cache.numberOfChildren, entryDN, count);
+    }
+    return count;
+  }
+
+  /**
+   * Indicates whether the requested entry has any subordinates, memoizing it if enabled for the current thread.
+   *
+   * @param backend
+   *          The backend holding the entry.
+   * @param entryDN
+   *          The distinguished name of the entry.
+   * @return {@code ConditionResult.TRUE} if the entry has one or more subordinates or
+   *         {@code ConditionResult.FALSE} otherwise or {@code ConditionResult.UNDEFINED} if it can not be
+   *         determined.
+   * @throws DirectoryException
+   *           If a problem occurs while trying to retrieve the entry.
+   * @see Backend#hasSubordinates(DN)
+   */
+  public static ConditionResult hasSubordinates(Backend<?> backend, DN entryDN) throws DirectoryException
+  {
+    final SubordinatesCache cache = CURRENT.get();
+    if (cache == null)
+    {
+      return backend.hasSubordinates(entryDN);
+    }
+
+    ConditionResult result = cache.hasSubordinates.get(entryDN);
+    if (result == null)
+    {
+      result = backend.hasSubordinates(entryDN);
+      if (result != null)
+      {
+        put(cache.hasSubordinates, entryDN, result);
+      }
+    }
+    return result;
+  }
+
+  private static <V> void put(Map<DN, V> map, DN entryDN, V value)
+  {
+    if (map.size() >= MAX_CACHED_ENTRIES)
+    {
+      map.clear();
+    }
+    map.put(entryDN, value);
+  }
+}
@@ -29,6 +29,7 @@ import org.forgerock.opendj.ldap.schema.MatchingRule;
 import org.opends.server.api.VirtualAttributeProvider;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.SearchOperation;
+import org.opends.server.core.SubordinatesCache;
 import org.opends.server.types.*;
 
 import static org.opends.messages.ExtensionMessages.*;
@@ -64,7 +65,7 @@ public class HasSubordinatesVirtualAttributeProvider
 
     try
     {
-      ConditionResult ret = backend.hasSubordinates(entry.getName());
+      ConditionResult ret = SubordinatesCache.hasSubordinates(backend, entry.getName());
       if(ret != null && ret != ConditionResult.UNDEFINED)
       {
         return Attributes.create(rule.getAttributeType(), ret.toString());
@@ -85,7 +86,7 @@ public class HasSubordinatesVirtualAttributeProvider
 
     try
     {
-      ConditionResult ret = backend.hasSubordinates(entry.getName());
+      ConditionResult ret = SubordinatesCache.hasSubordinates(backend, entry.getName());
       return ret != null && ret != ConditionResult.UNDEFINED;
     }
     catch(DirectoryException de)
@@ -106,7 +107,7 @@ public class HasSubordinatesVirtualAttributeProvider
     try
     {
       ByteString normValue = matchingRule.normalizeAttributeValue(value);
-      ConditionResult ret = backend.hasSubordinates(entry.getName());
+      ConditionResult ret = SubordinatesCache.hasSubordinates(backend, entry.getName());
       return ret != null
           && ret != ConditionResult.UNDEFINED
           && ConditionResult.valueOf(normValue.toString()).equals(ret);
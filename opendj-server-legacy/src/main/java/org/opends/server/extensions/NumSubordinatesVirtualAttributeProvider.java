@@ -28,6 +28,7 @@ import org.opends.server.api.Backend;
 import org.opends.server.api.VirtualAttributeProvider;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.SearchOperation;
+import org.opends.server.core.SubordinatesCache;
 import org.opends.server.types.*;
 
 import static org.opends.messages.ExtensionMessages.*;
@@ -64,7 +65,7 @@ public class NumSubordinatesVirtualAttributeProvider
 
     try
     {
-      long count = backend.getNumberOfChildren(entry.getName());
+      long count = SubordinatesCache.getNumberOfChildren(backend, entry.getName());
       if(count >= 0)
       {
         return Attributes.create(rule.getAttributeType(), String.valueOf(count));
@@ -85,7 +86,7 @@ public class NumSubordinatesVirtualAttributeProvider
 
     try
     {
-       return backend.getNumberOfChildren(entry.getName()) >= 0;
+       return SubordinatesCache.getNumberOfChildren(backend, entry.getName()) >= 0;
     }
     catch(DirectoryException de)
     {
@@ -100,7 +101,7 @@ public class NumSubordinatesVirtualAttributeProvider
     Backend<?> backend = DirectoryServer.getBackend(entry.getName());
     try
     {
-      long count = backend.getNumberOfChildren(entry.getName());
+      long count = SubordinatesCache.getNumberOfChildren(backend, entry.getName());
       return count >= 0 && Long.parseLong(value.toString()) == count;
     }
     catch (NumberFormatException | DirectoryException e)
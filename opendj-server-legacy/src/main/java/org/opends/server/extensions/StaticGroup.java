@@ -16,6 +16,7 @@
  */
 package org.opends.server.extensions;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -341,6 +342,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMemberIndex(this, Collections.singleton(nestedGroupDN));
   }
 
   @Override
@@ -379,6 +381,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMemberIndex(this, Collections.singleton(nestedGroupDN));
   }
 
   @Override
@@ -527,6 +530,8 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     Reject.ifNull(nestedGroups);
 
     reloadIfNeeded();
+    List<DN> changedMemberDNs = new ArrayList<>();
+    boolean allMembersChanged = false;
     lock.writeLock().lock();
     try
     {
@@ -542,6 +547,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
               {
                 DN member = DN.valueOf(v);
                 memberDNs.add(toCompactDn(member));
+                changedMemberDNs.add(member);
                 if (DirectoryServer.getGroupManager().getGroupInstance(member) != null)
                 {
                   nestedGroups.add(member);
@@ -553,6 +559,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
               {
                 memberDNs.clear();
                 nestedGroups.clear();
+                allMembersChanged = true;
               }
               else
               {
@@ -560,11 +567,13 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
                 {
                   DN member = DN.valueOf(v);
                   memberDNs.remove(toCompactDn(member));
+                  changedMemberDNs.add(member);
                   nestedGroups.remove(member);
                 }
               }
               break;
             case REPLACE:
+              allMembersChanged = true;
               memberDNs.clear();
               nestedGroups.clear();
               for (ByteString v : attribute)
@@ -583,6 +592,14 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     }
     finally {
       lock.writeLock().unlock();
+      if (allMembersChanged)
+      {
+        getGroupManager().updateMemberIndex(this);
+      }
+      else if (!changedMemberDNs.isEmpty())
+      {
+        getGroupManager().updateMemberIndex(this, changedMemberDNs);
+      }
     }
   }
 
@@ -619,6 +636,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMemberIndex(this, Collections.singleton(userEntry.getName()));
   }
 
   @Override
@@ -659,6 +677,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMemberIndex(this, Collections.singleton(userDN));
   }
 
   private ModifyOperation newModifyOperation(ModificationType modType, DN userDN)
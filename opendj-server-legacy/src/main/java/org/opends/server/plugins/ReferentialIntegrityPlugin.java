@@ -17,6 +17,7 @@
  */
 package org.opends.server.plugins;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.PluginMessages.*;
 import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.opends.server.protocols.internal.Requests.*;
@@ -29,7 +30,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -37,6 +38,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
@@ -93,6 +99,12 @@ import org.opends.server.types.operation.SubordinateModifyDNOperation;
  * The plugin also has an option to process changes in background using
  * a thread that wakes up periodically looking for change records in a log
  * file.
+ * <BR><BR>
+ * The references to the changed entries are looked for with a single search
+ * per base DN, combining the configured attribute types and the changed entry
+ * DNs, and each referencing entry is updated with a single modify operation
+ * for all the changed entries it references. In background mode, the change
+ * records are processed in batches by a pool of worker threads.
  */
 public class ReferentialIntegrityPlugin
         extends DirectoryServerPlugin<ReferentialIntegrityPluginCfg>
@@ -137,6 +149,15 @@ public class ReferentialIntegrityPlugin
   /** The Thread class that the background thread corresponds to. */
   private Thread backGroundThread;
 
+  /** The worker threads used by the background thread to search and update the referencing entries. */
+  private ExecutorService backGroundWorkers;
+
+  /**
+   * The maximum number of changed entry DNs looked for by a single search, in
+   * order to limit the size of the search filters.
+   */
+  private static final int MAX_DNS_PER_SEARCH = 100;
+
   /**
    * Used to save a map in the modifyDN operation attachment map that holds
    * the old entry DNs and the new entry DNs related to a modify DN rename to
@@ -522,10 +543,7 @@ public class ReferentialIntegrityPlugin
       }
       else
       {
-        for(DN baseDN : getBaseDNsToSearch())
-        {
-          doBaseDN(baseDN, modDNMap);
-        }
+        processChanges(modDNMap, null);
       }
     }
   }
@@ -558,31 +576,109 @@ public class ReferentialIntegrityPlugin
     }
     else
     {
-      for(DN baseDN : getBaseDNsToSearch())
+      Map<DN, DN> changedDNs = new LinkedHashMap<>();
+      for (DN deletedEntryDN : deleteDNset)
       {
-        doBaseDN(baseDN, deleteDNset);
+        changedDNs.put(deletedEntryDN, null);
       }
+      processChanges(changedDNs, null);
     }
   }
 
   /**
-   * Used by the background thread to process the specified old entry DN and
-   * new entry DN. Each base DN or public naming context (if the base DN
-   * configuration is empty) is checked to see  if they contain entries with
-   * references to the old entry DN that need to be changed to the new entry DN.
+   * Process the specified changed entry DNs. Each base DN or public naming
+   * context (if the base DN configuration is empty) is searched for entries
+   * with references to the changed entry DNs, by chunks of at most
+   * {@link #MAX_DNS_PER_SEARCH} DNs. If an executor is provided, the chunks
+   * are processed in parallel by the executor, otherwise they are processed
+   * by the current thread.
+   *
+   * @param changedDNs The map of old entry DNs and new entry DNs. The new
+   *                   entry DN is null if the entry was deleted.
    *
-   * @param oldEntryDN  The entry DN before the modify DN operation.
+   * @param executor The executor used to process the chunks in parallel, may
+   *                 be null.
    *
-   * @param newEntryDN The entry DN after the modify DN operation.
+   * @return <code>true</code> if all the changes have been processed, or
+   *         <code>false</code> if the current thread was interrupted.
    */
-  private void processModifyDN(DN oldEntryDN, DN newEntryDN)
+  private boolean processChanges(Map<DN, DN> changedDNs, ExecutorService executor)
   {
-    for(DN baseDN : getBaseDNsToSearch())
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (final DN baseDN : getBaseDNsToSearch())
     {
-      searchBaseDN(baseDN, oldEntryDN, newEntryDN);
+      for (final Map<DN, DN> chunk : splitInChunks(changedDNs))
+      {
+        tasks.add(new Callable<Void>()
+        {
+          @Override
+          public Void call()
+          {
+            searchBaseDN(baseDN, chunk);
+            return null;
+          }
+        });
+      }
+    }
+
+    if (executor == null || tasks.size() == 1)
+    {
+      for (Callable<Void> task : tasks)
+      {
+        try
+        {
+          task.call();
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+        }
+      }
+      return true;
+    }
+
+    try
+    {
+      for (Future<Void> future : executor.invokeAll(tasks))
+      {
+        try
+        {
+          future.get();
+        }
+        catch (ExecutionException e)
+        {
+          logger.traceException(e);
+        }
+      }
+      return true;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
+  private List<Map<DN, DN>> splitInChunks(Map<DN, DN> changedDNs)
+  {
+    List<Map<DN, DN>> chunks = new ArrayList<>();
+    Map<DN, DN> chunk = new LinkedHashMap<>();
+    for (Map.Entry<DN, DN> mapEntry : changedDNs.entrySet())
+    {
+      if (chunk.size() == MAX_DNS_PER_SEARCH)
+      {
+        chunks.add(chunk);
+        chunk = new LinkedHashMap<>();
+      }
+      chunk.put(mapEntry.getKey(), mapEntry.getValue());
+    }
+    if (!chunk.isEmpty())
+    {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
   /**
    * Return a set of DNs that are used to search for references under. If the
    * base DN configuration set is empty, then the public naming contexts
@@ -601,26 +697,29 @@ public class ReferentialIntegrityPlugin
 
   /**
    * Search a base DN using a filter built from the configured attribute
-   * types and the specified old entry DN. For each entry that is found from
-   * the search, delete the old entry DN from the entry. If the new entry
-   * DN is not null, then add it to the entry.
+   * types and the specified old entry DNs. For each entry that is found from
+   * the search, delete the old entry DNs from the entry. If the new entry
+   * DNs are not null, then add them to the entry.
    *
    * @param baseDN  The DN to base the search at.
    *
-   * @param oldEntryDN The old entry DN that needs to be deleted or replaced.
-   *
-   * @param newEntryDN The new entry DN that needs to be added. May be null
-   *                   if the original operation was a delete.
+   * @param changedDNs The map of old entry DNs that need to be deleted or
+   *                   replaced and of new entry DNs that need to be added.
+   *                   The new entry DN is null if the original operation
+   *                   was a delete.
    */
-  private void searchBaseDN(DN baseDN, DN oldEntryDN, DN newEntryDN)
+  private void searchBaseDN(DN baseDN, Map<DN, DN> changedDNs)
   {
     //Build an equality search with all of the configured attribute types
-    //and the old entry DN.
+    //and the old entry DNs.
     HashSet<SearchFilter> componentFilters=new HashSet<>();
     for(AttributeType attributeType : attributeTypes)
     {
-      componentFilters.add(SearchFilter.createEqualityFilter(attributeType,
-          ByteString.valueOfUtf8(oldEntryDN.toString())));
+      for (DN oldEntryDN : changedDNs.keySet())
+      {
+        componentFilters.add(SearchFilter.createEqualityFilter(attributeType,
+            ByteString.valueOfUtf8(oldEntryDN.toString())));
+      }
     }
 
     SearchFilter orFilter = SearchFilter.createORFilter(componentFilters);
@@ -643,60 +742,24 @@ public class ReferentialIntegrityPlugin
 
     for (SearchResultEntry entry : operation.getSearchEntries())
     {
-      deleteAddAttributesEntry(entry, oldEntryDN, newEntryDN);
-    }
-  }
-
-  /**
-   * This method is used in foreground processing of a modify DN operation.
-   * It uses the specified map to perform base DN searching for each map
-   * entry. The key is the old entry DN and the value is the
-   * new entry DN.
-   *
-   * @param baseDN The DN to base the search at.
-   *
-   * @param modifyDNmap The map containing the modify DN old and new entry DNs.
-   */
-  private void doBaseDN(DN baseDN, Map<DN,DN> modifyDNmap)
-  {
-    for(Map.Entry<DN,DN> mapEntry: modifyDNmap.entrySet())
-    {
-      searchBaseDN(baseDN, mapEntry.getKey(), mapEntry.getValue());
-    }
-  }
-
-  /**
-   * This method is used in foreground processing of a delete operation.
-   * It uses the specified set to perform base DN searching for each
-   * element.
-   *
-   * @param baseDN The DN to base the search at.
-   *
-   * @param deleteDNset The set containing the delete DNs.
-   */
-  private void doBaseDN(DN baseDN, Set<DN> deleteDNset)
-  {
-    for(DN deletedEntryDN : deleteDNset)
-    {
-      searchBaseDN(baseDN, deletedEntryDN, null);
+      deleteAddAttributesEntry(entry, changedDNs);
     }
   }
 
   /**
-   * For each attribute type, delete the specified old entry DN and
-   * optionally add the specified new entry DN if the DN is not null.
-   * The specified entry is used to see if it contains each attribute type so
-   * those types that the entry contains can be modified. An internal modify
-   * is performed to change the entry.
+   * For each attribute type and each old entry DN, delete the old entry DN
+   * and optionally add the new entry DN if the DN is not null.
+   * The specified entry is used to see if it contains each attribute type
+   * and old entry DN so those values that the entry contains can be modified.
+   * A single internal modify is performed to change the entry.
    *
    * @param e The entry that contains the old references.
    *
-   * @param oldEntryDN The old entry DN to remove references to.
-   *
-   * @param newEntryDN The new entry DN to add a reference to, if it is not
+   * @param changedDNs The map of old entry DNs to remove references to and
+   *                   of new entry DNs to add a reference to, if they are not
    *                   null.
    */
-  private void deleteAddAttributesEntry(Entry e, DN oldEntryDN, DN newEntryDN)
+  private void deleteAddAttributesEntry(Entry e, Map<DN, DN> changedDNs)
   {
     LinkedList<Modification> mods = new LinkedList<>();
     DN entryDN=e.getName();
@@ -704,21 +767,29 @@ public class ReferentialIntegrityPlugin
     {
       if(e.hasAttribute(type))
       {
-        ByteString value = ByteString.valueOfUtf8(oldEntryDN.toString());
-        if (e.hasValue(type, value))
+        for (Map.Entry<DN, DN> mapEntry : changedDNs.entrySet())
         {
-          mods.add(new Modification(ModificationType.DELETE, Attributes
-              .create(type, value)));
-
-          // If the new entry DN exists, create an ADD modification for it.
-          if(newEntryDN != null)
+          ByteString value = ByteString.valueOfUtf8(mapEntry.getKey().toString());
+          if (e.hasValue(type, value))
           {
-            mods.add(new Modification(ModificationType.ADD, Attributes
-                .create(type, newEntryDN.toString())));
+            mods.add(new Modification(ModificationType.DELETE, Attributes
+                .create(type, value)));
+
+            // If the new entry DN exists, create an ADD modification for it.
+            DN newEntryDN = mapEntry.getValue();
+            if(newEntryDN != null)
+            {
+              mods.add(new Modification(ModificationType.ADD, Attributes
+                  .create(type, newEntryDN.toString())));
+            }
           }
         }
       }
     }
+    if (mods.isEmpty())
+    {
+      return;
+    }
 
     InternalClientConnection conn =
             InternalClientConnection.getRootConnection();
@@ -824,10 +895,15 @@ public class ReferentialIntegrityPlugin
    * Process all of the records in the log file. Each line of the file is read
    * and parsed to determine if it was a delete operation (a single normalized
    * DN) or a modify DN operation (two normalized DNs separated by a tab). The
-   * corresponding operation method is called to perform the referential
-   * integrity processing as though the operation was just processed. After
-   * all of the records in log file have been processed, the log file is
-   * cleared so that new records can be added.
+   * records are gathered in batches which are processed by the worker threads
+   * to perform the referential integrity processing as though the operations
+   * were just processed. A batch ends before a record which depends on a
+   * record of the batch, e.g. the rename of an entry which has just been
+   * renamed, or the rename of an entry to a name which has just been deleted
+   * or renamed, so that the changes are applied in order. After all of the
+   * records in log file have been processed, the log file is cleared so that
+   * new records can be added. If the background thread is interrupted, the
+   * log file is left untouched so that it is processed again.
    */
   private void processLog() {
     synchronized(logFile) {
@@ -837,19 +913,28 @@ public class ReferentialIntegrityPlugin
           return;
         }
 
+        boolean completed = true;
         try (BufferedReader reader = new BufferedReader(new FileReader(logFile)))
         {
+          Map<DN, DN> batch = new LinkedHashMap<>();
+          Set<DN> batchNewDNs = new HashSet<>();
           String line;
-          while((line=reader.readLine()) != null) {
+          while(completed && (line=reader.readLine()) != null) {
             try {
               String[] a=line.split("[\t]");
               DN origDn = DN.valueOf(a[0]);
               //If there is only a single DN string than it must be a delete.
-              if(a.length == 1) {
-                processDelete(Collections.singleton(origDn), false);
-              } else {
-                DN movedDN=DN.valueOf(a[1]);
-                processModifyDN(origDn, movedDN);
+              DN movedDN = a.length == 1 ? null : DN.valueOf(a[1]);
+              if (batch.containsKey(origDn) || batchNewDNs.contains(origDn)
+                  || (movedDN != null
+                      && (batch.containsKey(movedDN) || batchNewDNs.contains(movedDN)))) {
+                completed = processChanges(batch, backGroundWorkers);
+                batch = new LinkedHashMap<>();
+                batchNewDNs.clear();
+              }
+              batch.put(origDn, movedDN);
+              if (movedDN != null) {
+                batchNewDNs.add(movedDN);
               }
             } catch (LocalizedIllegalArgumentException e) {
               //This exception should rarely happen since the plugin wrote the DN
@@ -857,6 +942,12 @@ public class ReferentialIntegrityPlugin
               logger.error(ERR_PLUGIN_REFERENT_CANNOT_DECODE_STRING_AS_DN, e.getMessage());
             }
           }
+          if (completed && !batch.isEmpty()) {
+            completed = processChanges(batch, backGroundWorkers);
+          }
+        }
+        if (!completed) {
+          return;
         }
         logFile.delete();
         logFile.createNewFile();
@@ -909,6 +1000,11 @@ public class ReferentialIntegrityPlugin
     }
     DirectoryServer.deregisterShutdownListener(this);
     backGroundThread=null;
+    if (backGroundWorkers != null)
+    {
+      backGroundWorkers.shutdown();
+      backGroundWorkers = null;
+    }
   }
 
 
@@ -929,6 +1025,8 @@ public class ReferentialIntegrityPlugin
     if(backGroundThread == null) {
       DirectoryServer.registerShutdownListener(this);
       stopRequested = false;
+      backGroundWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          newThreadFactory(null, name + " Worker %d", true));
       backGroundThread = new BackGroundThread();
       backGroundThread.start();
     }
@@ -116,6 +116,9 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
   /** SSL instance name used in context creation. */
   private static final String SSL_CONTEXT_INSTANCE_NAME = "TLS";
 
+  /** Whether the current thread is a worker thread processing an HTTP request which has not issued operations yet. */
+  private static final ThreadLocal<Boolean> PROCESSING_REQUEST_IN_WORKER_THREAD = new ThreadLocal<>();
+
   /** The initialization configuration. */
   private HTTPConnectionHandlerCfg initConfig;
 
@@ -542,6 +545,25 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
     return isConfigurationAcceptable(configuration, unacceptableReasons);
   }
 
+  /**
+   * Returns whether the LDAP operation about to be issued can be processed directly in the current thread rather than
+   * being enqueued in the work queue again. This is only the case for the first operation issued by an HTTP request
+   * from the worker thread processing it, because the request already holds this worker thread. The next operations,
+   * in particular those issued while the first one runs, for example from its search result entry handler, must be
+   * enqueued so that they do not run nested in the first one.
+   *
+   * @return {@code true} if the caller must process its operation in the current thread, {@code false} otherwise
+   */
+  static boolean claimWorkerThreadForOperation()
+  {
+    if (PROCESSING_REQUEST_IN_WORKER_THREAD.get() == null)
+    {
+      return false;
+    }
+    PROCESSING_REQUEST_IN_WORKER_THREAD.remove();
+    return true;
+  }
+
   /**
    * Indicates whether this connection handler should maintain usage statistics.
    *
@@ -936,8 +958,11 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
     }
   }
 
-  /** Moves the processing of the request in this Directory Server's worker thread. */
-  private static final class ExecuteInWorkerThreadFilter implements Filter
+  /**
+   * Moves the processing of the request in this Directory Server's worker thread.
+   * Package private for testing.
+   */
+  static final class ExecuteInWorkerThreadFilter implements Filter
   {
     @Override
     public Promise<Response, NeverThrowsException> filter(final Context context, final Request request,
@@ -953,7 +978,15 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
               @Override
               public void run()
               {
-                next.handle(context, request).thenOnResultOrException(promise, promise);
+                PROCESSING_REQUEST_IN_WORKER_THREAD.set(Boolean.TRUE);
+                try
+                {
+                  next.handle(context, request).thenOnResultOrException(promise, promise);
+                }
+                finally
+                {
+                  PROCESSING_REQUEST_IN_WORKER_THREAD.remove();
+                }
               }
             }));
       }
@@ -19,10 +19,14 @@ import static org.forgerock.opendj.adapter.server3x.Converters.*;
 import static org.forgerock.opendj.ldap.ByteString.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
 import static org.forgerock.opendj.ldap.spi.LdapPromiseImpl.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.messages.ProtocolMessages.*;
+import static org.opends.server.util.StaticUtils.*;
 
 import java.util.LinkedHashSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.AbstractAsynchronousConnection;
 import org.forgerock.opendj.ldap.ByteString;
@@ -58,6 +62,7 @@ import org.opends.server.core.CompareOperation;
 import org.opends.server.core.CompareOperationBasis;
 import org.opends.server.core.DeleteOperation;
 import org.opends.server.core.DeleteOperationBasis;
+import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ExtendedOperation;
 import org.opends.server.core.ExtendedOperationBasis;
 import org.opends.server.core.ModifyDNOperation;
@@ -82,6 +87,7 @@ import org.opends.server.protocols.ldap.ProtocolOp;
 import org.opends.server.protocols.ldap.SearchRequestProtocolOp;
 import org.opends.server.protocols.ldap.UnbindRequestProtocolOp;
 import org.opends.server.types.AuthenticationInfo;
+import org.opends.server.types.DirectoryException;
 import org.opends.server.types.DisconnectReason;
 import org.opends.server.types.Operation;
 
@@ -152,7 +158,14 @@ public class SdkConnectionAdapter extends AbstractAsynchronousConnection
       // need this raw cast here to fool the compiler's generic type safety
       // Problem here is due to the generic type R on enqueueOperation()
       clientConnection.addOperationInProgress(operation, (LdapPromiseImpl) promise, entryHandler);
-      queueingStrategy.enqueueRequest(operation);
+      if (HTTPConnectionHandler.claimWorkerThreadForOperation())
+      {
+        runInCurrentThread(operation);
+      }
+      else
+      {
+        queueingStrategy.enqueueRequest(operation);
+      }
     }
     catch (Exception e)
     {
@@ -165,6 +178,36 @@ public class SdkConnectionAdapter extends AbstractAsynchronousConnection
     return promise;
   }
 
+  /**
+   * Processes the operation in the current worker thread, saving a hand-off through the work queue and the associated
+   * context switches. The HTTP request already holds this worker thread, so this cannot starve the work queue.
+   */
+  private void runInCurrentThread(Operation operation) throws DirectoryException
+  {
+    if (!clientConnection.isConnectionValid())
+    {
+      // Fail the operation, otherwise the HTTP request would wait for its result forever
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_CLIENT_DISCONNECT_IN_PROGRESS.get());
+    }
+    DirectoryServer.checkCanEnqueueRequest(operation, false);
+    try
+    {
+      operation.run();
+      operation.operationCompleted();
+    }
+    catch (Throwable t)
+    {
+      // Like the worker threads, ensure that the client receives some kind of result so that it does not hang.
+      logger.traceException(t);
+      LocalizableMessage message = ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(
+          Thread.currentThread().getName(), operation, stackTraceToSingleLineString(t));
+      logger.error(message);
+      operation.setResultCode(DirectoryServer.getServerErrorResultCode());
+      operation.appendErrorMessage(message);
+      clientConnection.sendResponse(operation);
+    }
+  }
+
   private ProtocolOp toRequestProtocolOp(Operation operation)
   {
     if (operation instanceof AbandonOperation)
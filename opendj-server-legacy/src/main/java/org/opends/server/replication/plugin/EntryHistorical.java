@@ -20,6 +20,7 @@ import static org.forgerock.opendj.ldap.schema.CoreSchema.*;
 import static org.opends.messages.ReplicationMessages.*;
 import static org.opends.server.replication.plugin.HistAttrModificationKey.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -665,6 +666,47 @@ public class EntryHistorical
     return entry.getAttribute(HISTORICAL_ATTRIBUTE_NAME);
   }
 
+  /**
+   * Get the values of the historical attribute of the provided entry which are
+   * older than the provided purge date, as stored in the entry, so that they
+   * can be deleted without replacing the values added concurrently.
+   *
+   * @param entry
+   *          The entry containing the historical information.
+   * @param purgeDate
+   *          The date before which the historical values must be purged.
+   * @return The historical values to purge, one attribute per set of options.
+   *         Empty if there is nothing to purge.
+   */
+  public static List<Attribute> getPurgeableHistoricalValues(Entry entry, long purgeDate)
+  {
+    final List<Attribute> purgeableValues = new ArrayList<>();
+    for (Attribute histAttr : getHistoricalAttr(entry))
+    {
+      final AttributeBuilder builder = new AttributeBuilder(histAttr.getAttributeDescription());
+      for (ByteString value : histAttr)
+      {
+        try
+        {
+          if (new HistoricalAttributeValue(value.toString()).getCSN().getTime() <= purgeDate)
+          {
+            builder.add(value);
+          }
+        }
+        catch (RuntimeException e)
+        {
+          // Badly encoded values are left untouched
+          logger.traceException(e);
+        }
+      }
+      if (!builder.isEmpty())
+      {
+        purgeableValues.add(builder.toAttribute());
+      }
+    }
+    return purgeableValues;
+  }
+
   /**
    * Get the entry unique Id in String form.
    *
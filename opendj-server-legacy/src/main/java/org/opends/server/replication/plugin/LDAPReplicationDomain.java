@@ -348,6 +348,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
   private volatile boolean done = true;
 
   private final ServerStateFlush flushThread;
+  private final HistoricalPurger historicalPurger;
 
   /** The attribute name used to store the generation id in the backend. */
   private static final String REPLICATION_GENERATION_ID = "ds-sync-generation-id";
@@ -420,6 +421,19 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * the server starts.
    */
   private CSN lastCSNPurgedFromHist = new CSN(0,0,0);
+  /** Serializes the purges of the historical information, run by tasks or in the background. */
+  private final Object historicalPurgeLock = new Object();
+
+  /**
+   * The maximum duration of a background purge of the historical information.
+   * The next purge resumes from where the previous one stopped.
+   */
+  private static final long HISTORICAL_PURGE_MAX_DURATION_MS = 10 * 60 * 1000;
+  /**
+   * The pause after each entry updated by a background purge of the
+   * historical information, in order to limit its impact on the server.
+   */
+  private static final long HISTORICAL_PURGE_PAUSE_MS = 10;
 
   /**
    * The thread that periodically saves the ServerState of this
@@ -463,6 +477,64 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     }
   }
 
+  /**
+   * The thread that periodically purges the historical information older than
+   * the purge delay from the entries of this domain, so that it does not grow
+   * until a purge conflicts historical task is run. It is notified when the
+   * configuration changes.
+   */
+  private class HistoricalPurger extends DirectoryThread
+  {
+    protected HistoricalPurger()
+    {
+      super("Replica DS(" + getServerId() + ") historical purger for domain \"" + getBaseDN() + "\"");
+    }
+
+    @Override
+    public void run()
+    {
+      long lastPurgeTime = TimeThread.getTime();
+      while (!isShutdownInitiated())
+      {
+        try
+        {
+          synchronized (this)
+          {
+            final long intervalMs = getHistoricalPurgeInterval();
+            if (intervalMs == 0)
+            {
+              // Disabled: wait for a configuration change
+              wait();
+              continue;
+            }
+            final long waitMs = lastPurgeTime + intervalMs - TimeThread.getTime();
+            if (waitMs > 0)
+            {
+              wait(waitMs);
+              continue;
+            }
+          }
+          lastPurgeTime = TimeThread.getTime();
+          if (!disabled && solveConflictFlag && !isShutdownInitiated())
+          {
+            purgeConflictsHistorical(null, TimeThread.getTime() + HISTORICAL_PURGE_MAX_DURATION_MS,
+                HISTORICAL_PURGE_PAUSE_MS);
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // Thread interrupted: stop purging.
+          return;
+        }
+        catch (DirectoryException e)
+        {
+          // Usually the maximum duration was reached: resume on next run.
+          logger.traceException(e);
+        }
+      }
+    }
+  }
+
   /**
    * The thread that is responsible to update the RS to which this domain is
    * connected in case it is late and there is no RS which is up to date.
@@ -579,6 +651,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
     state = new PersistentServerState(getBaseDN(), getServerId(),
         getServerState());
     flushThread = new ServerStateFlush();
+    historicalPurger = new HistoricalPurger();
 
     /*
      * CSNGenerator is used to create new unique CSNs for each operation done on
@@ -2237,6 +2310,11 @@ public final class LDAPReplicationDomain extends ReplicationDomain
           flushThread.notify();
         }
       }
+      historicalPurger.initiateShutdown();
+      synchronized (historicalPurger)
+      {
+        historicalPurger.notify();
+      }
 
       DirectoryServer.deregisterAlertGenerator(this);
       DirectoryServer.deregisterBackendInitializationListener(this);
@@ -3794,6 +3872,10 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
   {
     this.config = configuration;
     changeConfig(configuration);
+    synchronized (historicalPurger)
+    {
+      historicalPurger.notify();
+    }
 
     // Read assured + fractional configuration and each time reconnect if needed
     readAssuredConfig(configuration, true);
@@ -3865,6 +3947,7 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
   {
     // Create the ServerStateFlush thread
     flushThread.start();
+    historicalPurger.start();
 
     startListenService();
   }
@@ -4898,6 +4981,19 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     return config.getConflictsHistoricalPurgeDelay() * 60 * 1000;
   }
 
+  /**
+   * Return the interval (in ms) between two background purges of the
+   * historical information, which is never longer than the purge delay, or 0
+   * if the background purge is disabled.
+   *
+   * @return the background purge interval.
+   */
+  private long getHistoricalPurgeInterval()
+  {
+    final long intervalMs = config.getConflictsHistoricalPurgeInterval();
+    return intervalMs > 0 ? Math.min(intervalMs, getHistoricalPurgeDelay()) : 0;
+  }
+
   /**
    * Check and purge the historical attribute on all eligible entries under this domain.
    *
@@ -4916,6 +5012,34 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
    */
   public void purgeConflictsHistorical(PurgeConflictsHistoricalTask task,
       long endDate) throws DirectoryException
+  {
+    purgeConflictsHistorical(task, endDate, 0);
+  }
+
+  /**
+   * Check and purge the historical attribute on all eligible entries under this domain, pausing after
+   * each updated entry.
+   *
+   * @param task
+   *          the task raising this purge, or null for a background purge.
+   * @param endDate
+   *          the date to stop this purge whether the job is done or not.
+   * @param pauseMs
+   *          the pause after each updated entry, in milliseconds.
+   * @throws DirectoryException
+   *           when an exception happens.
+   */
+  private void purgeConflictsHistorical(PurgeConflictsHistoricalTask task, long endDate, long pauseMs)
+      throws DirectoryException
+  {
+    synchronized (historicalPurgeLock)
+    {
+      purgeConflictsHistorical0(task, endDate, pauseMs);
+    }
+  }
+
+  private void purgeConflictsHistorical0(PurgeConflictsHistoricalTask task, long endDate, long pauseMs)
+      throws DirectoryException
   {
     logger.trace("[PURGE] purgeConflictsHistorical "
          + "on domain: " + getBaseDN()
@@ -4968,29 +5092,44 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
 
       for (SearchResultEntry entry : searchOp.getSearchEntries())
       {
+        if (shutdown.get())
+        {
+          return;
+        }
         long maxTimeToRun = endDate - TimeThread.getTime();
         if (maxTimeToRun < 0) {
           throw new DirectoryException(ResultCode.ADMIN_LIMIT_EXCEEDED,
               LocalizableMessage.raw(" end date reached"));
         }
 
-        EntryHistorical entryHist = EntryHistorical.newInstanceFromEntry(entry);
-
-        CSN latestOldCSN = entryHist.getOldestCSN();
-        entryHist.setPurgeDelay(getHistoricalPurgeDelay());
-        Attribute attr = entryHist.encodeAndPurge();
+        CSN latestOldCSN = EntryHistorical.newInstanceFromEntry(entry).getOldestCSN();
+        long purgeDelay = getHistoricalPurgeDelay();
+        List<Attribute> purgedValues = purgeDelay > 0
+            ? EntryHistorical.getPurgeableHistoricalValues(entry, TimeThread.getTime() - purgeDelay)
+            : Collections.<Attribute> emptyList();
 
-        if(entryHist.getLastPurgedValuesCount() > 0)
+        if (!purgedValues.isEmpty())
         {
           lastCSNPurgedFromHist = latestOldCSN;
-          List<Modification> mods = newArrayList(new Modification(ModificationType.REPLACE, attr));
-          count += entryHist.getLastPurgedValuesCount();
+          // Only delete the purged values: the entry may have been modified
+          // since it was read, and its new historical values must be kept
+          List<Modification> mods = new ArrayList<>(purgedValues.size());
+          for (Attribute attr : purgedValues)
+          {
+            mods.add(new Modification(ModificationType.DELETE, attr));
+            count += attr.size();
+          }
           ModifyOperation newOp = new ModifyOperationBasis(
               conn, nextOperationID(), nextMessageID(), new ArrayList<Control>(0),
               entry.getName(), mods);
           runAsSynchronizedOperation(newOp);
 
-          if (newOp.getResultCode() != ResultCode.SUCCESS)
+          if (newOp.getResultCode() == ResultCode.NO_SUCH_ATTRIBUTE)
+          {
+            // The values were purged by a concurrent modification of the entry
+            logger.trace("[PURGE] historical values of " + entry.getName() + " already purged");
+          }
+          else if (newOp.getResultCode() != ResultCode.SUCCESS)
           {
             // Log information for the repair tool.
             logger.error(ERR_CANNOT_ADD_CONFLICT_ATTRIBUTE, newOp, newOp.getResultCode());
@@ -4999,6 +5138,19 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
           {
             task.setProgressStats(lastCSNPurgedFromHist, count);
           }
+
+          if (pauseMs > 0)
+          {
+            try
+            {
+              Thread.sleep(pauseMs);
+            }
+            catch (InterruptedException e)
+            {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
         }
       }
     }
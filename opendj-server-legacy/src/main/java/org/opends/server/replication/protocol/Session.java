@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2006-2009 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.opends.server.replication.protocol;
 
@@ -21,17 +21,26 @@ import static org.opends.server.util.StaticUtils.*;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.SSLSocket;
 
 import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.MonitorData;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.util.StaticUtils;
 
@@ -42,6 +51,29 @@ public final class Session extends DirectoryThread implements Closeable
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * The maximum time a message waits for other messages to be sent in the
+   * same frame once compression is started.
+   */
+  private static final long MAX_FRAME_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+  /**
+   * The size of the messages above which a frame is sent without waiting for
+   * more messages.
+   */
+  private static final int MAX_FRAME_SIZE = 64 * 1024;
+  /**
+   * The preset dictionary of the compressed streams, made of strings commonly
+   * found in replication messages. The most frequent strings come last.
+   */
+  private static final byte[] COMPRESSION_DICTIONARY = StaticUtils.getBytes(
+      "telephoneNumber facsimileTelephoneNumber postalAddress street l st "
+      + "postalCode employeeNumber title manager secretary seeAlso member "
+      + "uniqueMember groupOfNames groupOfUniqueNames organizationalUnit ou=Groups "
+      + "ou=People givenName displayName mail uid userPassword {SSHA} "
+      + "description cn sn person organizationalPerson inetOrgPerson top "
+      + "objectClass createTimestamp creatorsName modifyTimestamp modifiersName "
+      + "entryUUID ds-sync-hist :add:repl:del:");
+
   private final Socket plainSocket;
   private final SSLSocket secureSocket;
   private final InputStream plainInput;
@@ -83,6 +115,16 @@ public final class Session extends DirectoryThread implements Closeable
   private short protocolVersion = ProtocolVersion.getCurrentVersion();
   /** Initially encrypted. */
   private boolean isEncrypted = true;
+  /** Initially not compressed. */
+  private boolean isCompressed;
+  /** Guarded by publishLock once compression is started. */
+  private Deflater deflater;
+  /** Guarded by receiveLock once compression is started. */
+  private Inflater inflater;
+  /** Guards the reads, so that the inflater is not released while in use. */
+  private final Object receiveLock = new Object();
+  /** Whether the deflater and inflater have been released by close. */
+  private volatile boolean isCompressionEnded;
 
   /**
    * Use a buffered input stream to avoid too many system calls.
@@ -99,6 +141,25 @@ public final class Session extends DirectoryThread implements Closeable
   private AtomicBoolean isRunning = new AtomicBoolean(false);
   private final CountDownLatch latch = new CountDownLatch(1);
 
+  /** The number of messages sent on this session. */
+  private final AtomicLong sentMessages = new AtomicLong();
+  /**
+   * The number of frames sent on this session, each frame being made of one or
+   * more messages.
+   */
+  private final AtomicLong sentFrames = new AtomicLong();
+  /** The number of messages received on this session. */
+  private final AtomicLong receivedMessages = new AtomicLong();
+  /**
+   * The number of bytes sent and received on this session since compression
+   * started, before compression and after compression. Only updated when the
+   * session is compressed.
+   */
+  private volatile long sentBytes;
+  private volatile long sentCompressedBytes;
+  private volatile long receivedBytes;
+  private volatile long receivedCompressedBytes;
+
   /**
    * Creates a new Session.
    *
@@ -202,6 +263,34 @@ public final class Session extends DirectoryThread implements Closeable
     }
 
     StaticUtils.close(plainSocket, secureSocket);
+    endCompression();
+  }
+
+  /**
+   * Releases the native memory held by the deflater and inflater. Closing the
+   * sockets has unblocked any pending write or read, so the locks guarding
+   * them are quickly acquired.
+   */
+  private void endCompression()
+  {
+    if (!isCompressed)
+    {
+      return;
+    }
+    isCompressionEnded = true;
+    publishLock.lock();
+    try
+    {
+      deflater.end();
+    }
+    finally
+    {
+      publishLock.unlock();
+    }
+    synchronized (receiveLock)
+    {
+      inflater.end();
+    }
   }
 
 
@@ -335,31 +424,43 @@ public final class Session extends DirectoryThread implements Closeable
     }
     else
     {
-      send(buffer);
+      send(Collections.singletonList(buffer));
     }
   }
 
-  /** Sends a replication message already encoded to the socket.
+  /** Sends replication messages already encoded to the socket as a single frame.
    *
-   * @param buffer
-   *          the encoded buffer
-   * @throws IOException if the message could not be sent
+   * @param buffers
+   *          the encoded buffers
+   * @throws IOException if the messages could not be sent
    */
-  private void send(final byte[] buffer) throws IOException
+  private void send(final List<byte[]> buffers) throws IOException
   {
-    final String str = String.format("%08x", buffer.length);
-    final byte[] sendLengthBuf = str.getBytes();
-
     publishLock.lock();
     try
     {
+      if (isCompressionEnded)
+      {
+        throw new IOException("Session closed");
+      }
       /*
-       * The buffered output stream ensures that the message is usually sent as
-       * a single TCP packet.
+       * The buffered output stream ensures that the frame is usually sent as
+       * a single TCP packet, or as a single compressed block.
        */
-      output.write(sendLengthBuf);
-      output.write(buffer);
+      for (final byte[] buffer : buffers)
+      {
+        output.write(String.format("%08x", buffer.length).getBytes());
+        output.write(buffer);
+      }
       output.flush();
+
+      sentMessages.addAndGet(buffers.size());
+      sentFrames.incrementAndGet();
+      if (isCompressed)
+      {
+        sentBytes = deflater.getBytesRead();
+        sentCompressedBytes = deflater.getBytesWritten();
+      }
     } catch (final IOException e) {
       setSessionError(e);
       throw e;
@@ -414,6 +515,7 @@ public final class Session extends DirectoryThread implements Closeable
          * processing a message even a time consuming one.
          */
         lastReceiveTime = 0;
+        receivedMessages.incrementAndGet();
         return ReplicationMsg.generateMsg(buffer, protocolVersion);
       }
       catch (final OutOfMemoryError e)
@@ -431,17 +533,29 @@ public final class Session extends DirectoryThread implements Closeable
 
   private void read(byte[] buffer) throws IOException
   {
-    final int totalLength = buffer.length;
-    int length = 0;
-    while (length < totalLength)
+    synchronized (receiveLock)
     {
-      final int read = input.read(buffer, length, totalLength - length);
-      if (read == -1)
+      if (isCompressionEnded)
       {
-        lastReceiveTime = 0;
-        throw new IOException("no more data");
+        throw new IOException("Session closed");
+      }
+      final int totalLength = buffer.length;
+      int length = 0;
+      while (length < totalLength)
+      {
+        final int read = input.read(buffer, length, totalLength - length);
+        if (read == -1)
+        {
+          lastReceiveTime = 0;
+          throw new IOException("no more data");
+        }
+        length += read;
+      }
+      if (isCompressed)
+      {
+        receivedBytes = inflater.getBytesWritten();
+        receivedCompressedBytes = inflater.getBytesRead();
       }
-      length += read;
     }
   }
 
@@ -509,6 +623,76 @@ public final class Session extends DirectoryThread implements Closeable
 
 
 
+  /**
+   * Compresses the messages sent and received on this session from now on.
+   * <p>
+   * Both ends of the session must start compression at the same point of the
+   * handshake: the DS right after sending a {@link StartSessionMsg} requesting
+   * compression, and the RS right after receiving it. From then on, the
+   * session thread also coalesces the messages queued within a short delay
+   * into a single compressed frame.
+   * <p>
+   * The deflater and inflater are released on close, once the session and
+   * reader threads can no longer use them.
+   */
+  public void startCompression()
+  {
+    deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setDictionary(COMPRESSION_DICTIONARY);
+    inflater = new Inflater(true);
+    inflater.setDictionary(COMPRESSION_DICTIONARY);
+
+    // Wrap the current streams so that no data already buffered is lost
+    output = new BufferedOutputStream(new DeflaterOutputStream(output, deflater, MAX_FRAME_SIZE, true));
+    input = new BufferedInputStream(new InflaterInputStream(input, inflater, MAX_FRAME_SIZE));
+    isCompressed = true;
+  }
+
+
+
+  /**
+   * Determine whether the session is compressed.
+   * @return true if the connection is compressed, false otherwise.
+   */
+  public boolean isCompressed()
+  {
+    return isCompressed;
+  }
+
+
+
+  /**
+   * Adds the transport statistics of this session to the provided monitor
+   * data.
+   *
+   * @param attributes
+   *          the monitor data where to add the statistics
+   */
+  public void addMonitorData(final MonitorData attributes)
+  {
+    attributes.add("session-compression", isCompressed);
+    attributes.add("session-sent-messages", sentMessages.get());
+    attributes.add("session-sent-frames", sentFrames.get());
+    attributes.add("session-received-messages", receivedMessages.get());
+    if (isCompressed)
+    {
+      attributes.add("session-sent-bytes", sentBytes);
+      attributes.add("session-sent-compressed-bytes", sentCompressedBytes);
+      attributes.add("session-sent-compression-ratio", compressionRatio(sentBytes, sentCompressedBytes));
+      attributes.add("session-received-bytes", receivedBytes);
+      attributes.add("session-received-compressed-bytes", receivedCompressedBytes);
+      attributes.add("session-received-compression-ratio",
+          compressionRatio(receivedBytes, receivedCompressedBytes));
+    }
+  }
+
+  private static double compressionRatio(final long bytes, final long compressedBytes)
+  {
+    return compressedBytes != 0 ? Math.round(100.0 * bytes / compressedBytes) / 100.0 : 1.0;
+  }
+
+
+
   private void setSessionError(final Exception e)
   {
     synchronized (stateLock)
@@ -536,10 +720,14 @@ public final class Session extends DirectoryThread implements Closeable
     boolean needClosing = false;
     while (!closeInitiated)
     {
-      byte[] buffer;
+      final List<byte[]> frame = new ArrayList<>();
       try
       {
-        buffer = sendQueue.take();
+        frame.add(sendQueue.take());
+        if (isCompressed)
+        {
+          pollFrame(frame);
+        }
       }
       catch (InterruptedException ie)
       {
@@ -547,7 +735,7 @@ public final class Session extends DirectoryThread implements Closeable
       }
       try
       {
-        send(buffer);
+        send(frame);
       }
       catch (IOException e)
       {
@@ -566,6 +754,26 @@ public final class Session extends DirectoryThread implements Closeable
     }
   }
 
+  /**
+   * Adds to the frame the messages queued within the maximum frame delay,
+   * until the frame reaches the maximum frame size.
+   */
+  private void pollFrame(final List<byte[]> frame) throws InterruptedException
+  {
+    int frameSize = frame.get(0).length;
+    final long deadline = System.nanoTime() + MAX_FRAME_DELAY_NANOS;
+    while (frameSize < MAX_FRAME_SIZE)
+    {
+      final byte[] buffer = sendQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (buffer == null)
+      {
+        return;
+      }
+      frame.add(buffer);
+      frameSize += buffer.length;
+    }
+  }
+
   /**
    * This method can be called to wait until the session thread is
    * properly started.
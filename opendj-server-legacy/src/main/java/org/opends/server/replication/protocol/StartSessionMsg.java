@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2008-2009 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.opends.server.replication.protocol;
 
@@ -42,6 +42,8 @@ import org.forgerock.util.Utils;
  * - status: the status we are entering the topology with
  * - referrals URLs: the referrals URLs we allow peer DSs to use to refer to
  * our domain when needed.
+ * - compression: whether the session is compressed once this message is sent
+ * (since {@link ProtocolVersion#REPLICATION_PROTOCOL_V9}).
  */
 public class StartSessionMsg extends ReplicationMsg
 {
@@ -59,6 +61,9 @@ public class StartSessionMsg extends ReplicationMsg
   private Set<String> eclIncludes = new HashSet<>();
   private Set<String> eclIncludesForDeletes = new HashSet<>();
 
+  /** Whether the DS requests the session to be compressed. */
+  private boolean compressionRequested;
+
   /**
    * Creates a new StartSessionMsg message from its encoded form.
    *
@@ -152,6 +157,11 @@ public class StartSessionMsg extends ReplicationMsg
         writer.writeEndSequence();
       }
 
+      if (version >= ProtocolVersion.REPLICATION_PROTOCOL_V9)
+      {
+        writer.writeBoolean(compressionRequested);
+      }
+
       return byteBuilder.toByteArray();
     }
     catch (Exception e)
@@ -243,6 +253,11 @@ public class StartSessionMsg extends ReplicationMsg
         // Default to using the same set of attributes for deletes.
         this.eclIncludesForDeletes.addAll(eclIncludes);
       }
+
+      if (version >= ProtocolVersion.REPLICATION_PROTOCOL_V9)
+      {
+        compressionRequested = asn1Reader.readBoolean();
+      }
     }
     catch (Exception e)
     {
@@ -307,7 +322,8 @@ public class StartSessionMsg extends ReplicationMsg
       "\nsafeDataLevel: " + safeDataLevel +
       "\nreferralsURLs: " + urls +
       "\nEclIncludes " + eclIncludes +
-      "\nEclIncludeForDeletes: " + eclIncludesForDeletes;
+      "\nEclIncludeForDeletes: " + eclIncludesForDeletes +
+      "\ncompressionRequested: " + compressionRequested;
   }
 
   /**
@@ -337,6 +353,28 @@ public class StartSessionMsg extends ReplicationMsg
     return safeDataLevel;
   }
 
+  /**
+   * Returns true if the DS requests the session to be compressed.
+   * @return true if the DS requests the session to be compressed.
+   */
+  public boolean isCompressionRequested()
+  {
+    return compressionRequested;
+  }
+
+  /**
+   * Sets whether the DS requests the session to be compressed. The request is
+   * only sent to replication servers supporting
+   * {@link ProtocolVersion#REPLICATION_PROTOCOL_V9}.
+   *
+   * @param compressionRequested
+   *          true if the session must be compressed once this message is sent
+   */
+  public void setCompressionRequested(boolean compressionRequested)
+  {
+    this.compressionRequested = compressionRequested;
+  }
+
   /**
    * Set the attributes configured on a server to be included in the ECL.
    *
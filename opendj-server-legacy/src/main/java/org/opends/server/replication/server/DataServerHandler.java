@@ -426,6 +426,10 @@ public class DataServerHandler extends ServerHandler
           abortStart(null);
           return;
         }
+        if (inStartSessionMsg.isCompressionRequested())
+        {
+          session.startCompression();
+        }
 
         // Send our own TopologyMsg to remote DS
         TopologyMsg outTopoMsg = sendTopoToRemoteDS();
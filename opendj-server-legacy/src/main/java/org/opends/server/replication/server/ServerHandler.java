@@ -522,6 +522,7 @@ public abstract class ServerHandler extends MessageHandler
 
     // Encryption
     attributes.add("ssl-encryption", session.isEncrypted());
+    session.addMonitorData(attributes);
 
     // Data generation
     attributes.add("generation-id", generationId);
@@ -36,6 +36,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.util.Utils;
 import org.forgerock.opendj.server.config.server.ReplicationDomainCfg;
+import org.opends.server.api.MonitorData;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.replication.common.*;
 import org.opends.server.replication.plugin.MultimasterReplication;
@@ -1193,7 +1194,13 @@ public class ReplicationBroker
           domain.getEclIncludes(domain.getServerId()),
           domain.getEclIncludesForDeletes(domain.getServerId()));
       final Session session = electedRS.session;
+      startSessionMsg.setCompressionRequested(config.isSessionCompression()
+          && session.getProtocolVersion() >= REPLICATION_PROTOCOL_V9);
       session.publish(startSessionMsg);
+      if (startSessionMsg.isCompressionRequested())
+      {
+        session.startCompression();
+      }
 
       // Read the TopologyMsg that should come back.
       final TopologyMsg topologyMsg = (TopologyMsg) session.receive();
@@ -2782,7 +2789,8 @@ public class ReplicationBroker
         !newConfig.getReplicationServer().equals(config.getReplicationServer())
         || newConfig.getWindowSize() != config.getWindowSize()
         || newConfig.getHeartbeatInterval() != config.getHeartbeatInterval()
-        || newConfig.getGroupId() != config.getGroupId();
+        || newConfig.getGroupId() != config.getGroupId()
+        || newConfig.isSessionCompression() != config.isSessionCompression();
 
     this.config = newConfig;
     this.rcvWindow = newConfig.getWindowSize();
@@ -2826,6 +2834,20 @@ public class ReplicationBroker
     return session != null ? session.isEncrypted() : false;
   }
 
+  /**
+   * Adds the transport statistics of the session with the replication server
+   * to the provided monitor data.
+   * @param attributes the monitor data where to add the statistics
+   */
+  void addSessionMonitorData(MonitorData attributes)
+  {
+    final Session session = connectedRS.get().session;
+    if (session != null)
+    {
+      session.addMonitorData(attributes);
+    }
+  }
+
   /**
    * Signals the RS we just entered a new status.
    * @param newStatus The status the local DS just entered
@@ -230,6 +230,13 @@ public abstract class ReplicationDomain
   private ServerStatus status = ServerStatus.NOT_CONNECTED_STATUS;
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * The size of the LDIF chunks sent in each EntryMsg during a total update.
+   * Large chunks reduce the number of messages and acknowledgements, and
+   * compress better on compressed sessions.
+   */
+  private static final int EXPORT_CHUNK_SIZE = 64 * 1024;
+
   /** The configuration of the replication domain. */
   protected volatile ReplicationDomainCfg config;
   /**
@@ -1332,7 +1339,7 @@ public abstract class ReplicationDomain
      * @param serverId serverId of the acknowledger/receiver/importer server.
      * @param numAck   id of the message received.
      */
-    private void setAckVal(int serverId, int numAck)
+    private synchronized void setAckVal(int serverId, int numAck)
     {
       if (logger.isTraceEnabled())
       {
@@ -1350,6 +1357,22 @@ public abstract class ReplicationDomain
           slowestServerId = sid;
         }
       }
+
+      // Wake up the exporter waiting for the slowest server
+      notifyAll();
+    }
+
+    /**
+     * Waits until an acknowledgement is received from a receiver server, or
+     * until the provided timeout expires.
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    private synchronized void waitForAckVal(long timeoutMs)
+        throws InterruptedException
+    {
+      wait(timeoutMs);
     }
 
     /**
@@ -1532,7 +1555,7 @@ public abstract class ReplicationDomain
               ERR_INIT_NO_SUCCESS_START_FROM_SERVERS.get(getBaseDN(), ieCtx.failureList));
         }
 
-        exportBackend(new BufferedOutputStream(new ReplOutputStream(this)));
+        exportBackend(new BufferedOutputStream(new ReplOutputStream(this), EXPORT_CHUNK_SIZE));
 
         // Notify the peer of the success
         broker.publish(
@@ -2097,9 +2120,17 @@ public abstract class ReplicationDomain
           logger.trace("[IE] Entering exportLDIFEntry waiting");
         }
 
-        // our export is too far beyond the slowest importer - let's wait
-        try { Thread.sleep(100); }
-        catch(Exception e) { /* do nothing */ }
+        // our export is too far beyond the slowest importer - let's wait for
+        // its next acknowledgement, checking the connection at least every
+        // 100ms
+        try
+        {
+          ieCtx.waitForAckVal(100);
+        }
+        catch (InterruptedException e)
+        {
+          // do nothing
+        }
 
         // process any connection error
         if (broker.hasConnectionError()
@@ -2690,6 +2721,19 @@ public abstract class ReplicationDomain
     return broker != null && broker.isSessionEncrypted();
   }
 
+  /**
+   * Adds the transport statistics of the session with the replication server
+   * to the provided monitor data.
+   * @param attributes the monitor data where to add the statistics
+   */
+  void addSessionMonitorData(MonitorData attributes)
+  {
+    if (broker != null)
+    {
+      broker.addSessionMonitorData(attributes);
+    }
+  }
+
   /**
    * Check if the domain is connected to a ReplicationServer.
    *
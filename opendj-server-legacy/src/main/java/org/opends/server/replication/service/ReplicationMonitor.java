@@ -86,6 +86,7 @@ public class ReplicationMonitor extends MonitorProvider<MonitorProviderCfg>
 
     attributes.add("server-state", domain.getServerState().toStringSet());
     attributes.add("ssl-encryption", domain.isSessionEncrypted());
+    domain.addSessionMonitorData(attributes);
     attributes.add("generation-id", domain.getGenerationID());
 
     // Add import/export monitoring attributes
@@ -76,11 +76,15 @@ public class ExportTask extends Task
     argDisplayMap.put(ATTR_TASK_EXPORT_INCLUDE_BRANCH, INFO_EXPORT_ARG_INCL_BRANCH.get());
     argDisplayMap.put(ATTR_TASK_EXPORT_EXCLUDE_BRANCH, INFO_EXPORT_ARG_EXCL_BRANCH.get());
     argDisplayMap.put(ATTR_TASK_EXPORT_WRAP_COLUMN, INFO_EXPORT_ARG_WRAP_COLUMN.get());
+    argDisplayMap.put(ATTR_TASK_EXPORT_CHANGES_FROM_COOKIE, INFO_EXPORT_ARG_CHANGES_FROM_COOKIE.get());
+    argDisplayMap.put(ATTR_TASK_EXPORT_CHANGES_TO_COOKIE, INFO_EXPORT_ARG_CHANGES_TO_COOKIE.get());
+    argDisplayMap.put(ATTR_TASK_EXPORT_THREAD_COUNT, INFO_EXPORT_ARG_THREAD_COUNT.get());
   }
 
   private String  ldifFile;
   private String  backendID;
   private int     wrapColumn;
+  private int     threadCount;
   private boolean appendToLDIF;
   private boolean compressLDIF;
   private boolean encryptLDIF;
@@ -92,6 +96,8 @@ public class ExportTask extends Task
   private ArrayList<String> excludeFilterStrings;
   private ArrayList<String> includeBranchStrings;
   private ArrayList<String> excludeBranchStrings;
+  private String changesFromCookie;
+  private String changesToCookie;
 
   private LDIFExportConfig exportConfig;
 
@@ -151,10 +157,15 @@ public class ExportTask extends Task
     excludeFilterStrings = toListOfString(taskEntry, ATTR_TASK_EXPORT_EXCLUDE_FILTER);
     includeBranchStrings = toListOfString(taskEntry, ATTR_TASK_EXPORT_INCLUDE_BRANCH);
     excludeBranchStrings = toListOfString(taskEntry, ATTR_TASK_EXPORT_EXCLUDE_BRANCH);
+    changesFromCookie = toString(taskEntry, ATTR_TASK_EXPORT_CHANGES_FROM_COOKIE);
+    changesToCookie = toString(taskEntry, ATTR_TASK_EXPORT_CHANGES_TO_COOKIE);
 
     List<Attribute> attrList = taskEntry.getAttribute(typeWrapColumn);
     wrapColumn = TaskUtils.getSingleValueInteger(attrList, 0);
 
+    attrList = taskEntry.getAttribute(getSchema().getAttributeType(ATTR_TASK_EXPORT_THREAD_COUNT));
+    threadCount = TaskUtils.getSingleValueInteger(attrList, 1);
+
     includeOperationalAttributes = toBoolean(taskEntry, true, ATTR_TASK_EXPORT_INCLUDE_OPERATIONAL_ATTRIBUTES);
   }
 
@@ -353,7 +364,10 @@ public class ExportTask extends Task
     exportConfig.setIncludeFilters(includeFilters);
     exportConfig.setSignHash(signHash);
     exportConfig.setWrapColumn(wrapColumn);
+    exportConfig.setThreadCount(threadCount);
     exportConfig.setIncludeOperationalAttributes(includeOperationalAttributes);
+    exportConfig.setChangesFromCookie(changesFromCookie);
+    exportConfig.setChangesToCookie(changesToCookie);
 
     // FIXME -- Should this be conditional?
     exportConfig.setInvokeExportPlugins(true);
@@ -113,7 +113,10 @@ public class ExportLDIF extends TaskTool {
   private BooleanArgument excludeOperationalAttrs;
   private BooleanArgument signHash;
   private IntegerArgument wrapColumn;
+  private IntegerArgument threadCount;
   private StringArgument  backendID;
+  private StringArgument  changesFromCookie;
+  private StringArgument  changesToCookie;
   private StringArgument  configFile;
   private StringArgument  excludeAttributeStrings;
   private StringArgument  excludeBranchStrings;
@@ -221,6 +224,13 @@ public class ExportLDIF extends TaskTool {
                       .defaultValue(0)
                       .valuePlaceholder(INFO_WRAP_COLUMN_PLACEHOLDER.get())
                       .buildAndAddToParser(argParser);
+      threadCount =
+              IntegerArgument.builder("threadCount")
+                      .description(INFO_LDIFEXPORT_DESCRIPTION_THREAD_COUNT.get())
+                      .lowerBound(1)
+                      .defaultValue(1)
+                      .valuePlaceholder(INFO_LDIFIMPORT_THREAD_COUNT_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
       compressLDIF =
               BooleanArgument.builder(OPTION_LONG_COMPRESS)
                       .shortIdentifier(OPTION_SHORT_COMPRESS)
@@ -238,6 +248,16 @@ public class ExportLDIF extends TaskTool {
                       .description(INFO_LDIFEXPORT_DESCRIPTION_SIGN_HASH.get())
                       .hidden() // See issue OPENDJ-448
                       .buildAndAddToParser(argParser);
+      changesFromCookie =
+              StringArgument.builder("changesFromCookie")
+                      .description(INFO_LDIFEXPORT_DESCRIPTION_CHANGES_FROM_COOKIE.get())
+                      .valuePlaceholder(INFO_COOKIE_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      changesToCookie =
+              StringArgument.builder("changesToCookie")
+                      .description(INFO_LDIFEXPORT_DESCRIPTION_CHANGES_TO_COOKIE.get())
+                      .valuePlaceholder(INFO_COOKIE_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
 
       displayUsage = showUsageArgument();
       argParser.addArgument(displayUsage);
@@ -312,6 +332,9 @@ public class ExportLDIF extends TaskTool {
     addAttribute(attributes, ATTR_TASK_EXPORT_INCLUDE_BRANCH, includeBranchStrings.getValues());
     addAttribute(attributes, ATTR_TASK_EXPORT_EXCLUDE_BRANCH, excludeBranchStrings.getValues());
     addAttribute(attributes, ATTR_TASK_EXPORT_WRAP_COLUMN, wrapColumn);
+    addAttribute(attributes, ATTR_TASK_EXPORT_THREAD_COUNT, threadCount);
+    addAttribute(attributes, ATTR_TASK_EXPORT_CHANGES_FROM_COOKIE, changesFromCookie);
+    addAttribute(attributes, ATTR_TASK_EXPORT_CHANGES_TO_COOKIE, changesToCookie);
 
     if (excludeOperationalAttrs.isPresent())
     {
@@ -554,6 +577,8 @@ public class ExportLDIF extends TaskTool {
     exportConfig.setSignHash(signHash.isPresent());
     exportConfig.setIncludeOperationalAttributes(
                       !excludeOperationalAttrs.isPresent());
+    exportConfig.setChangesFromCookie(changesFromCookie.getValue());
+    exportConfig.setChangesToCookie(changesToCookie.getValue());
 
     // FIXME -- Should this be conditional?
     exportConfig.setInvokeExportPlugins(true);
@@ -568,6 +593,16 @@ public class ExportLDIF extends TaskTool {
       return 1;
     }
 
+    try
+    {
+      exportConfig.setThreadCount(threadCount.getIntValue());
+    }
+    catch (ArgumentException ae)
+    {
+      logger.error(ERR_LDIFEXPORT_CANNOT_DECODE_THREAD_COUNT_AS_INTEGER, threadCount.getValue());
+      return 1;
+    }
+
 
     // Get the set of base DNs for the backend as an array.
     DN[] baseDNs = new DN[baseDNList.size()];
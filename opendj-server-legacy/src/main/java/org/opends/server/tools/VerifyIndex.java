@@ -45,6 +45,7 @@ import org.opends.server.util.BuildVersion;
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -92,6 +93,7 @@ public class VerifyIndex
     StringArgument  indexList               = null;
     BooleanArgument cleanMode               = null;
     BooleanArgument countErrors             = null;
+    IntegerArgument threadCount             = null;
     BooleanArgument displayUsage            = null;
 
 
@@ -137,6 +139,13 @@ public class VerifyIndex
               BooleanArgument.builder("countErrors")
                       .description(INFO_VERIFYINDEX_DESCRIPTION_COUNT_ERRORS.get())
                       .buildAndAddToParser(argParser);
+      threadCount =
+              IntegerArgument.builder("threadCount")
+                      .description(INFO_VERIFYINDEX_DESCRIPTION_THREAD_COUNT.get())
+                      .lowerBound(0)
+                      .defaultValue(0)
+                      .valuePlaceholder(INFO_LDIFIMPORT_THREAD_COUNT_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
 
       displayUsage = showUsageArgument();
       argParser.addArgument(displayUsage);
@@ -267,6 +276,15 @@ public class VerifyIndex
         verifyConfig.addCompleteIndex(s);
       }
     }
+    try
+    {
+      verifyConfig.setThreadCount(threadCount.getIntValue());
+    }
+    catch (ArgumentException ae)
+    {
+      printWrappedText(err, ERR_VERIFYINDEX_CANNOT_DECODE_THREAD_COUNT_AS_INTEGER.get(threadCount.getValue()));
+      return 1;
+    }
 
 
     // Acquire a shared lock for the backend.
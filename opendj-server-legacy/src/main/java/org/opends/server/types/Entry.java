@@ -3588,6 +3588,53 @@ public class Entry
    */
   public boolean toLDIF(LDIFExportConfig exportConfig)
          throws IOException, LDIFException
+  {
+    if (!isExported(exportConfig))
+    {
+      return false;
+    }
+    writeLDIF(exportConfig, exportConfig.getWriter());
+    return true;
+  }
+
+
+  /**
+   * Writes this entry in LDIF form to the provided writer rather than
+   * to the writer of the provided configuration. This allows several
+   * entries to be formatted concurrently before being written in order.
+   *
+   * @param  exportConfig  The configuration that specifies how the
+   *                       entry should be written.
+   * @param  writer        The writer to which the entry should be
+   *                       written.
+   *
+   * @return  <CODE>true</CODE> if the entry is actually written, or
+   *          <CODE>false</CODE> if it is not for some reason.
+   *
+   * @throws  IOException  If a problem occurs while writing the
+   *                       information.
+   *
+   * @throws  LDIFException  If a problem occurs while trying to
+   *                         determine whether to write the entry.
+   */
+  public boolean toLDIF(LDIFExportConfig exportConfig, BufferedWriter writer)
+         throws IOException, LDIFException
+  {
+    if (!isExported(exportConfig))
+    {
+      return false;
+    }
+    writeLDIF(exportConfig, writer);
+    return true;
+  }
+
+
+  /**
+   * Indicates whether this entry should be exported according to the
+   * filters of the provided configuration and the LDIF export plugins.
+   */
+  private boolean isExported(LDIFExportConfig exportConfig)
+         throws LDIFException
   {
     // See if this entry should be included in the export at all.
     try
@@ -3621,10 +3668,15 @@ public class Entry
         return false;
       }
     }
+    return true;
+  }
 
 
+  /** Writes this entry in LDIF form to the provided writer. */
+  private void writeLDIF(LDIFExportConfig exportConfig, BufferedWriter writer)
+         throws IOException
+  {
     // Get the information necessary to write the LDIF.
-    BufferedWriter writer     = exportConfig.getWriter();
     int            wrapColumn = exportConfig.getWrapColumn();
     boolean        wrapLines  = wrapColumn > 1;
 
@@ -3704,9 +3756,6 @@ public class Entry
 
     // Make sure there is a blank line after the entry.
     writer.newLine();
-
-
-    return true;
   }
 
 
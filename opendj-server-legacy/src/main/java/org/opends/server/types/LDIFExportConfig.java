@@ -87,6 +87,8 @@ public final class LDIFExportConfig extends OperationConfig
 
   /** The column number at which long lines should be wrapped. */
   private int wrapColumn;
+  /** The number of threads used to read and format the exported entries. */
+  private int threadCount;
 
   /** The set of base DNs to exclude from the export. */
   private List<DN> excludeBranches;
@@ -103,6 +105,11 @@ public final class LDIFExportConfig extends OperationConfig
   /** The set of attribute types that should be included in the export. */
   private Set<AttributeType> includeAttributes;
 
+  /** The cookie from which changes should be exported, for backends exporting changes rather than entries. */
+  private String changesFromCookie;
+  /** The cookie up to which changes should be exported, or {@code null} for all the available changes. */
+  private String changesToCookie;
+
   /**
    * Creates a new LDIF export configuration that will write to the
    * specified LDIF file.
@@ -136,6 +143,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -168,6 +176,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -185,62 +194,7 @@ public final class LDIFExportConfig extends OperationConfig
   {
     if (writer == null)
     {
-      if (ldifOutputStream == null)
-      {
-        File f = new File(ldifFile);
-        boolean mustSetPermissions = false;
-
-        switch (existingFileBehavior)
-        {
-        case APPEND:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, true);
-          break;
-        case OVERWRITE:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, false);
-          break;
-        case FAIL:
-          if (f.exists())
-          {
-            LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
-            throw new IOException(message.toString());
-          }
-          // Create new file ensuring that we can set its permissions.
-          f.createNewFile();
-          mustSetPermissions = true;
-          ldifOutputStream = new FileOutputStream(ldifFile);
-          break;
-        }
-
-        if (mustSetPermissions)
-        {
-          try
-          {
-            // Ignore
-            FilePermission.setSafePermissions(f, 0600);
-          }
-          catch (Exception e)
-          {
-            // The file could not be created with the correct permissions.
-            LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
-                .get(f, stackTraceToSingleLineString(e));
-            throw new IOException(message.toString());
-          }
-        }
-      }
+      openOutputStream();
 
       // See if we should compress the output.
       OutputStream outputStream;
@@ -268,6 +222,84 @@ public final class LDIFExportConfig extends OperationConfig
     return writer;
   }
 
+  /**
+   * Retrieves the output stream to which the LDIF data should be written,
+   * before any compression or encryption is applied. This is meant for
+   * exports which compress the LDIF data themselves, and must not be used
+   * together with {@link #getWriter()}.
+   *
+   * @return  The output stream to which the LDIF data should be written.
+   *
+   * @throws  IOException  If a problem occurs while opening the LDIF file.
+   */
+  public OutputStream getRawOutputStream()
+         throws IOException
+  {
+    openOutputStream();
+    return ldifOutputStream;
+  }
+
+  /** Opens the LDIF file, if an output stream was not provided and the file is not already open. */
+  private void openOutputStream() throws IOException
+  {
+    if (ldifOutputStream == null)
+    {
+      File f = new File(ldifFile);
+      boolean mustSetPermissions = false;
+
+      switch (existingFileBehavior)
+      {
+      case APPEND:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
+        {
+          f.createNewFile();
+          mustSetPermissions = true;
+        }
+        ldifOutputStream = new FileOutputStream(ldifFile, true);
+        break;
+      case OVERWRITE:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
+        {
+          f.createNewFile();
+          mustSetPermissions = true;
+        }
+        ldifOutputStream = new FileOutputStream(ldifFile, false);
+        break;
+      case FAIL:
+        if (f.exists())
+        {
+          LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
+          throw new IOException(message.toString());
+        }
+        // Create new file ensuring that we can set its permissions.
+        f.createNewFile();
+        mustSetPermissions = true;
+        ldifOutputStream = new FileOutputStream(ldifFile);
+        break;
+      }
+
+      if (mustSetPermissions)
+      {
+        try
+        {
+          // Ignore
+          FilePermission.setSafePermissions(f, 0600);
+        }
+        catch (Exception e)
+        {
+          // The file could not be created with the correct permissions.
+          LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
+              .get(f, stackTraceToSingleLineString(e));
+          throw new IOException(message.toString());
+        }
+      }
+    }
+  }
+
   /**
    * Indicates whether the LDIF export plugins should be invoked for
    * entries as they are exported.
@@ -294,6 +326,18 @@ public final class LDIFExportConfig extends OperationConfig
     this.invokeExportPlugins = invokeExportPlugins;
   }
 
+  /**
+   * Indicates whether the LDIF data should be compressed as it is
+   * written.
+   *
+   * @return  <CODE>true</CODE> if the LDIF data should be compressed
+   *          as it is written, or <CODE>false</CODE> if not.
+   */
+  public boolean isCompressed()
+  {
+    return compressData;
+  }
+
   /**
    * Specifies whether the LDIF data should be compressed as it is
    * written.  If compression should be used, then this must be set
@@ -748,6 +792,78 @@ public final class LDIFExportConfig extends OperationConfig
     }
   }
 
+  /**
+   * Retrieves the cookie from which changes should be exported. Backends
+   * recording changes, like the changelog backend, export the net effect of
+   * the changes which happened after this cookie rather than their entries.
+   *
+   * @return  The cookie from which changes should be exported, or
+   *          {@code null} if none was provided.
+   */
+  public String getChangesFromCookie()
+  {
+    return changesFromCookie;
+  }
+
+  /**
+   * Specifies the cookie from which changes should be exported.
+   *
+   * @param  changesFromCookie  The cookie from which changes should be
+   *                            exported.
+   */
+  public void setChangesFromCookie(String changesFromCookie)
+  {
+    this.changesFromCookie = changesFromCookie;
+  }
+
+  /**
+   * Retrieves the cookie up to which changes should be exported.
+   *
+   * @return  The cookie up to which changes should be exported, or
+   *          {@code null} if all the available changes should be exported.
+   */
+  public String getChangesToCookie()
+  {
+    return changesToCookie;
+  }
+
+  /**
+   * Specifies the cookie up to which changes should be exported.
+   *
+   * @param  changesToCookie  The cookie up to which changes should be
+   *                          exported, or {@code null} for all the
+   *                          available changes.
+   */
+  public void setChangesToCookie(String changesToCookie)
+  {
+    this.changesToCookie = changesToCookie;
+  }
+
+  /**
+   * Retrieves the number of threads used to read and format the exported
+   * entries. The entries are written in the same order whatever the number
+   * of threads.
+   *
+   * @return  The number of threads used to read and format the exported
+   *          entries.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Specifies the number of threads used to read and format the exported
+   * entries. Backends which cannot export entries concurrently ignore it.
+   *
+   * @param  threadCount  The number of threads used to read and format the
+   *                      exported entries.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
+
   /**
    * Indicates whether the specified entry should be included in the
    * export based on the configured set of include and exclude
@@ -821,6 +937,13 @@ public final class LDIFExportConfig extends OperationConfig
   public void close()
   {
     // FIXME -- Need to add code to generate a signed hash of the LDIF content.
-    StaticUtils.close(writer);
+    if (writer != null)
+    {
+      StaticUtils.close(writer);
+    }
+    else if (ldifFile != null)
+    {
+      StaticUtils.close(ldifOutputStream);
+    }
   }
 }
@@ -44,6 +44,7 @@ import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.tools.makeldif.MakeLDIFInputStream;
 import org.opends.server.tools.makeldif.TemplateFile;
 import org.opends.server.util.CollectionUtils;
+import org.opends.server.util.MappedFileReader;
 import org.opends.server.util.StaticUtils;
 
 /**
@@ -79,8 +80,8 @@ public final class LDIFImportConfig extends OperationConfig
   /** Indicates whether to perform schema validation on the entries read. */
   private boolean validateSchema = true;
 
-  /** The buffered reader from which the LDIF data should be read. */
-  private BufferedReader reader;
+  /** The reader from which the LDIF data should be read. */
+  private Reader reader;
   /** The buffered writer to which rejected entries should be written. */
   private BufferedWriter rejectWriter;
   /** The buffered writer to which rejected entries should be written. */
@@ -216,41 +217,29 @@ public final class LDIFImportConfig extends OperationConfig
    * Note that if the LDIF file is compressed and/or encrypted, then
    * that must be indicated before this method is called for the first
    * time.
+   * <BR><BR>
+   * LDIF files which are neither compressed nor encrypted are read
+   * through a {@link MappedFileReader}, other LDIF sources through a
+   * {@link BufferedReader}.
    *
    * @return  The reader that should be used to read the LDIF data.
    *
    * @throws  IOException  If a problem occurs while obtaining the
    *                       reader.
    */
-  public BufferedReader getReader()
+  public Reader getReader()
          throws IOException
   {
     if (reader == null)
     {
-      InputStream inputStream;
       if (ldifInputStream != null)
       {
-        inputStream = ldifInputStream;
+        reader = newReader(ldifInputStream);
       }
       else
       {
-        inputStream = ldifInputStream =
-             new FileInputStream(ldifFileIterator.next());
+        reader = newReader(ldifFileIterator.next());
       }
-
-      if (isEncrypted)
-      {
-        // FIXME -- Add support for encryption with a cipher input
-        //          stream.
-      }
-
-      if (isCompressed)
-      {
-        inputStream = new GZIPInputStream(inputStream);
-      }
-
-      reader = new BufferedReader(new InputStreamReader(inputStream),
-                                  bufferSize);
     }
 
     return reader;
@@ -267,7 +256,7 @@ public final class LDIFImportConfig extends OperationConfig
    *
    * @throws  IOException  If a problem occurs while obtaining the reader.
    */
-  public BufferedReader nextReader()
+  public Reader nextReader()
          throws IOException
   {
     if (ldifFileIterator == null || !ldifFileIterator.hasNext())
@@ -276,10 +265,21 @@ public final class LDIFImportConfig extends OperationConfig
     }
 
     reader.close();
+    reader = newReader(ldifFileIterator.next());
+    return reader;
+  }
 
-    InputStream inputStream = ldifInputStream =
-         new FileInputStream(ldifFileIterator.next());
+  private Reader newReader(String ldifFile) throws IOException
+  {
+    if (!isCompressed && !isEncrypted)
+    {
+      return new MappedFileReader(new File(ldifFile));
+    }
+    return newReader(ldifInputStream = new FileInputStream(ldifFile));
+  }
 
+  private BufferedReader newReader(InputStream inputStream) throws IOException
+  {
     if (isEncrypted)
     {
       // FIXME -- Add support for encryption with a cipher input stream.
@@ -290,8 +290,7 @@ public final class LDIFImportConfig extends OperationConfig
       inputStream = new GZIPInputStream(inputStream);
     }
 
-    reader = new BufferedReader(new InputStreamReader(inputStream), bufferSize);
-    return reader;
+    return new BufferedReader(new InputStreamReader(inputStream), bufferSize);
   }
 
 
@@ -26,6 +26,7 @@ import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -75,7 +76,7 @@ public class LDIFReader implements Closeable
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
   /** The reader that will be used to read the data. */
-  private BufferedReader reader;
+  private Reader reader;
   /** The import configuration that specifies what should be imported. */
   protected final LDIFImportConfig importConfig;
 
@@ -436,13 +437,13 @@ public class LDIFReader implements Closeable
 
     // Read the entry lines into a buffer.
     LinkedList<StringBuilder> lines = new LinkedList<>();
-    int lastLine = -1;
+    StringBuilder line = new StringBuilder();
     while (true)
     {
-      String line = reader.readLine();
+      boolean endOfSource = !readLine(line);
       lineNumber++;
 
-      if (line == null)
+      if (endOfSource)
       {
         // This must mean that we have reached the end of the LDIF source.
         // If the set of lines read so far is empty, then move onto the next
@@ -467,6 +468,7 @@ public class LDIFReader implements Closeable
       else if (line.charAt(0) == '#')
       {
         // This is a comment.  Ignore it.
+        line.setLength(0);
         continue;
       }
       else if (line.charAt(0) == ' ' || line.charAt(0) == '\t')
@@ -476,9 +478,10 @@ public class LDIFReader implements Closeable
         // technically only allows a space in this position, both OpenLDAP and
         // the Sun Java System Directory Server allow a tab as well, so we will
         // too for compatibility reasons.  See issue #852 for details.
-        if (lastLine >= 0)
+        if (!lines.isEmpty())
         {
-          lines.get(lastLine).append(line.substring(1));
+          lines.getLast().append(line, 1, line.length());
+          line.setLength(0);
         }
         else
         {
@@ -495,15 +498,16 @@ public class LDIFReader implements Closeable
         {
           lastEntryLineNumber = lineNumber;
         }
-        if(((byte)line.charAt(0) == (byte)0xEF) &&
-          ((byte)line.charAt(1) == (byte)0xBB) &&
-          ((byte)line.charAt(2) == (byte)0xBF))
+        if (line.length() >= 3
+            && ((byte) line.charAt(0) == (byte) 0xEF)
+            && ((byte) line.charAt(1) == (byte) 0xBB)
+            && ((byte) line.charAt(2) == (byte) 0xBF))
         {
           // This is a UTF-8 BOM that Java doesn't skip. We will skip it here.
-          line = line.substring(3, line.length());
+          line.delete(0, 3);
         }
-        lines.add(new StringBuilder(line));
-        lastLine++;
+        lines.add(line);
+        line = new StringBuilder();
       }
     }
 
@@ -511,6 +515,35 @@ public class LDIFReader implements Closeable
     return lines;
   }
 
+  /**
+   * Reads the next line of the current LDIF source and appends it to the
+   * provided buffer.
+   *
+   * @param  line  The buffer to which the line is appended.
+   *
+   * @return  {@code true} if a line was read, or {@code false} if the end of
+   *          the current LDIF source is reached.
+   *
+   * @throws  IOException  If a problem occurs while reading from the LDIF
+   *                       source.
+   */
+  private boolean readLine(StringBuilder line) throws IOException
+  {
+    if (reader instanceof MappedFileReader)
+    {
+      // Fast path, avoids creating a string for each line.
+      return ((MappedFileReader) reader).readLine(line);
+    }
+
+    String s = ((BufferedReader) reader).readLine();
+    if (s == null)
+    {
+      return false;
+    }
+    line.append(s);
+    return true;
+  }
+
 
 
   /**
@@ -0,0 +1,294 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader of UTF-8 encoded files which maps the file in memory region by region, and decodes the bytes
+ * directly from the mapped regions.
+ * <p>
+ * Compared to a {@link java.io.BufferedReader} wrapping an {@link java.io.InputStreamReader}, this avoids
+ * copying the file content from the kernel to an intermediate byte buffer, and the {@link #readLine(StringBuilder)}
+ * method appends the characters directly to the caller's buffer instead of creating a new string for each line.
+ * ASCII characters, which make up most of the LDIF files, are decoded without going through a charset decoder.
+ * <p>
+ * A leading UTF-8 byte order mark is skipped. Malformed byte sequences are replaced with {@code U+FFFD}.
+ * This class is not thread safe.
+ */
+public final class MappedFileReader extends Reader
+{
+  /** The default maximum size of the regions of the file which are mapped in memory at the same time. */
+  private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+  private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final int maxRegionSize;
+  /** The position in the file of the current region. */
+  private long regionStart;
+  private MappedByteBuffer region;
+  /** The low surrogate which did not fit in the buffer provided to the last read, or 0. */
+  private char pendingLowSurrogate;
+
+  /**
+   * Creates a new reader for the provided file.
+   *
+   * @param file
+   *          The file to read.
+   * @throws IOException
+   *           If the file cannot be opened or mapped in memory.
+   */
+  public MappedFileReader(File file) throws IOException
+  {
+    this(file, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * Creates a new reader for the provided file, using the provided maximum region size.
+   *
+   * @param file
+   *          The file to read.
+   * @param maxRegionSize
+   *          The maximum number of bytes mapped in memory at the same time.
+   * @throws IOException
+   *           If the file cannot be opened or mapped in memory.
+   */
+  MappedFileReader(File file, int maxRegionSize) throws IOException
+  {
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.maxRegionSize = maxRegionSize;
+    try
+    {
+      this.fileSize = channel.size();
+      mapRegion(0);
+      skipByteOrderMark();
+    }
+    catch (IOException | RuntimeException e)
+    {
+      StaticUtils.close(channel);
+      throw e;
+    }
+  }
+
+  private void mapRegion(long start) throws IOException
+  {
+    regionStart = start;
+    region = channel.map(MapMode.READ_ONLY, start, Math.min(maxRegionSize, fileSize - start));
+  }
+
+  /** Returns whether more bytes are available, mapping the next region if the current one is exhausted. */
+  private boolean hasRemaining() throws IOException
+  {
+    if (region.hasRemaining())
+    {
+      return true;
+    }
+    final long nextRegionStart = regionStart + region.limit();
+    if (nextRegionStart >= fileSize)
+    {
+      return false;
+    }
+    mapRegion(nextRegionStart);
+    return true;
+  }
+
+  /** Returns the next byte without consuming it, or -1 at the end of the file. */
+  private int peekByte() throws IOException
+  {
+    return hasRemaining() ? region.get(region.position()) & 0xFF : -1;
+  }
+
+  private void skipByteOrderMark() throws IOException
+  {
+    if (fileSize >= 3
+        && region.get(0) == (byte) 0xEF && region.get(1) == (byte) 0xBB && region.get(2) == (byte) 0xBF)
+    {
+      region.position(3);
+    }
+  }
+
+  /**
+   * Decodes the code point starting with the provided byte, which must not be an ASCII byte.
+   * Stops before the first byte which is not a valid continuation byte.
+   */
+  private int decodeCodePoint(int firstByte) throws IOException
+  {
+    final int continuationBytes;
+    int codePoint;
+    if ((firstByte & 0xE0) == 0xC0)
+    {
+      continuationBytes = 1;
+      codePoint = firstByte & 0x1F;
+    }
+    else if ((firstByte & 0xF0) == 0xE0)
+    {
+      continuationBytes = 2;
+      codePoint = firstByte & 0x0F;
+    }
+    else if ((firstByte & 0xF8) == 0xF0)
+    {
+      continuationBytes = 3;
+      codePoint = firstByte & 0x07;
+    }
+    else
+    {
+      return REPLACEMENT_CHAR;
+    }
+
+    for (int i = 0; i < continuationBytes; i++)
+    {
+      final int b = peekByte();
+      if ((b & 0xC0) != 0x80)
+      {
+        return REPLACEMENT_CHAR;
+      }
+      region.get();
+      codePoint = (codePoint << 6) | (b & 0x3F);
+    }
+    return Character.isValidCodePoint(codePoint) ? codePoint : REPLACEMENT_CHAR;
+  }
+
+  /**
+   * Reads a line and appends it to the provided buffer. A line is terminated by a line feed, a carriage return,
+   * or a carriage return followed by a line feed. The line terminator is not appended.
+   *
+   * @param line
+   *          The buffer to which the line is appended.
+   * @return {@code true} if a line was read, even if empty, or {@code false} if the end of the file is reached.
+   * @throws IOException
+   *           If the reader is closed or a problem occurs while mapping the file.
+   */
+  public boolean readLine(StringBuilder line) throws IOException
+  {
+    ensureOpen();
+    if (pendingLowSurrogate != 0)
+    {
+      line.append(pendingLowSurrogate);
+      pendingLowSurrogate = 0;
+    }
+    else if (!hasRemaining())
+    {
+      return false;
+    }
+
+    while (hasRemaining())
+    {
+      final MappedByteBuffer buffer = region;
+      while (buffer.hasRemaining())
+      {
+        final int b = buffer.get() & 0xFF;
+        if (b == '\n')
+        {
+          return true;
+        }
+        else if (b == '\r')
+        {
+          if (peekByte() == '\n')
+          {
+            region.get();
+          }
+          return true;
+        }
+        else if (b < 0x80)
+        {
+          line.append((char) b);
+        }
+        else
+        {
+          line.appendCodePoint(decodeCodePoint(b));
+          if (buffer != region)
+          {
+            // Decoding the code point moved to the next region
+            break;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException
+  {
+    ensureOpen();
+    if (off < 0 || len < 0 || off + len > cbuf.length)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0)
+    {
+      return 0;
+    }
+
+    int count = 0;
+    if (pendingLowSurrogate != 0)
+    {
+      cbuf[off + count++] = pendingLowSurrogate;
+      pendingLowSurrogate = 0;
+    }
+    while (count < len && hasRemaining())
+    {
+      final int b = region.get() & 0xFF;
+      if (b < 0x80)
+      {
+        cbuf[off + count++] = (char) b;
+        continue;
+      }
+
+      final int codePoint = decodeCodePoint(b);
+      if (Character.isBmpCodePoint(codePoint))
+      {
+        cbuf[off + count++] = (char) codePoint;
+      }
+      else
+      {
+        cbuf[off + count++] = Character.highSurrogate(codePoint);
+        if (count < len)
+        {
+          cbuf[off + count++] = Character.lowSurrogate(codePoint);
+        }
+        else
+        {
+          pendingLowSurrogate = Character.lowSurrogate(codePoint);
+        }
+      }
+    }
+    return count > 0 ? count : -1;
+  }
+
+  private void ensureOpen() throws IOException
+  {
+    if (region == null)
+    {
+      throw new IOException("Reader closed");
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    region = null;
+    channel.close();
+  }
+}
@@ -2885,6 +2885,17 @@ public final class ServerConstants
 
 
 
+  /**
+   * The name of the system property that can be used to specify how often the
+   * pluggable backends measure the latency of storage operations. Latencies
+   * are measured for one operation out of the provided number, and are not
+   * measured at all if it is zero.
+   */
+  public static final String PROPERTY_STORAGE_LATENCY_SAMPLE_RATE =
+       "org.opends.server.StorageLatencySampleRate";
+
+
+
   /**
    * The name of the system property that can be used to determine whether the
    * server should maintain an archive of previous configurations.  If this is
@@ -221,7 +221,16 @@ public class LocalBackendSearchOperation
       if (processSearchNow)
       {
         // Process the search in the backend and all its subordinates.
-        backend.search(this);
+        // Subordinates information is memoized while the entries are returned.
+        SubordinatesCache previousCache = SubordinatesCache.enable();
+        try
+        {
+          backend.search(this);
+        }
+        finally
+        {
+          SubordinatesCache.restore(previousCache);
+        }
       }
     }
     catch (DirectoryException de)
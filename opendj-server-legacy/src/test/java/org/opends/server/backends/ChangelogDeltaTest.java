@@ -0,0 +1,287 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.ldap.ModificationType.*;
+import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.util.CollectionUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.common.CSNGenerator;
+import org.opends.server.replication.protocol.AddMsg;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.opends.server.replication.protocol.ModifyMsg;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.types.Modification;
+import org.opends.server.util.LDIFWriter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ChangelogDeltaTest extends DirectoryServerTestCase
+{
+  private CSNGenerator csnGenerator;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp()
+  {
+    csnGenerator = new CSNGenerator(1, 0);
+  }
+
+  @Test
+  public void addedThenDeletedEntryIsNotExported() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(addMsg("uid=user.0,o=test", "uuid0"));
+    delta.add(modifyMsg("uid=user.0,o=test", "uuid0", "description", "modified"));
+    delta.add(deleteMsg("uid=user.0,o=test", "uuid0"));
+
+    assertThat(write(delta)).isEmpty();
+  }
+
+  @Test
+  public void addedThenModifiedEntryIsExportedAsSingleAdd() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(addMsg("uid=user.0,o=test", "uuid0"));
+    delta.add(modifyMsg("uid=user.0,o=test", "uuid0", "description", "first"));
+    delta.add(modifyMsg("uid=user.0,o=test", "uuid0", "description", "second"));
+
+    final String ldif = write(delta);
+    assertThat(ldif).contains("changetype: add").contains("description: second");
+    assertThat(ldif).doesNotContain("changetype: modify").doesNotContain("description: first");
+  }
+
+  @Test
+  public void modifiedThenDeletedEntryIsExportedAsDelete() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modifyMsg("uid=user.0,o=test", "uuid0", "description", "modified"));
+    delta.add(deleteMsg("uid=user.0,o=test", "uuid0"));
+
+    assertThat(write(delta)).isEqualTo(
+        "dn: uid=user.0,o=test\n"
+        + "changetype: delete\n"
+        + "\n");
+  }
+
+  @Test
+  public void modificationsAndRenamesAreCoalesced() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modifyMsg("uid=user.0,o=test", "uuid0", "description", "first"));
+    delta.add(modDNMsg("uid=user.0,o=test", "uuid0", "uid=user.1"));
+    delta.add(modifyMsg("uid=user.1,o=test", "uuid0", "description", "second"));
+    delta.add(modDNMsg("uid=user.1,o=test", "uuid0", "uid=user.2"));
+    delta.add(modifyMsg("uid=user.3,o=test", "uuid3", "description", "other"));
+
+    assertThat(write(delta)).isEqualTo(
+        "dn: uid=user.0,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: first\n"
+        + "-\n"
+        + "replace: description\n"
+        + "description: second\n"
+        + "\n"
+        + "dn: uid=user.0,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: uid=user.2\n"
+        + "deleteoldrdn: 1\n"
+        + "\n"
+        + "dn: uid=user.3,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: other\n"
+        + "\n");
+  }
+
+  @Test
+  public void intermediateRDNValueKeptByLaterRenameIsAdded() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modDNMsg("uid=user.0,o=test", "uuid0", "uid=user.1", true));
+    delta.add(modDNMsg("uid=user.1,o=test", "uuid0", "uid=user.2", false));
+
+    assertThat(write(delta)).isEqualTo(
+        "dn: uid=user.0,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: uid=user.2\n"
+        + "deleteoldrdn: 1\n"
+        + "\n"
+        + "dn: uid=user.2,o=test\n"
+        + "changetype: modify\n"
+        + "add: uid\n"
+        + "uid: user.1\n"
+        + "\n");
+  }
+
+  @Test
+  public void originalRDNValueKeptByFirstRenameIsNotDeleted() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modDNMsg("uid=user.0,o=test", "uuid0", "uid=user.1", false));
+    delta.add(modDNMsg("uid=user.1,o=test", "uuid0", "uid=user.2", true));
+
+    assertThat(write(delta)).isEqualTo(
+        "dn: uid=user.0,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: uid=user.2\n"
+        + "deleteoldrdn: 0\n"
+        + "\n");
+  }
+
+  @Test
+  public void addedThenRenamedEntryIsExportedAsSingleAdd() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(addMsg("uid=user.0,o=test", "uuid0"));
+    delta.add(modDNMsg("uid=user.0,o=test", "uuid0", "uid=user.1", true));
+
+    final String ldif = write(delta);
+    assertThat(ldif).startsWith("dn: uid=user.1,o=test\n").contains("changetype: add").contains("uid: user.1");
+    assertThat(ldif).doesNotContain("changetype: modrdn").doesNotContain("user.0");
+  }
+
+  @Test
+  public void subordinateChangesAreRebasedThroughRenameOfTheirSuperior() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modifyMsg("ou=people,o=test", "uuidP", "description", "first"));
+    delta.add(modifyMsg("uid=user.0,ou=people,o=test", "uuid0", "description", "before"));
+    delta.add(modDNMsg("ou=people,o=test", "uuidP", "ou=users", true));
+    delta.add(modifyMsg("uid=user.0,ou=users,o=test", "uuid0", "description", "after"));
+    delta.add(modifyMsg("uid=user.1,ou=users,o=test", "uuid1", "description", "other"));
+
+    // The changes of user.0 are written after the rename of its superior, like the ones of user.1
+    assertThat(write(delta)).isEqualTo(
+        "dn: ou=people,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: first\n"
+        + "\n"
+        + "dn: ou=people,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: ou=users\n"
+        + "deleteoldrdn: 1\n"
+        + "\n"
+        + "dn: uid=user.0,ou=users,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: before\n"
+        + "-\n"
+        + "replace: description\n"
+        + "description: after\n"
+        + "\n"
+        + "dn: uid=user.1,ou=users,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: other\n"
+        + "\n");
+  }
+
+  @Test
+  public void subordinateChangesWrittenBeforeRenameOfTheirSuperiorAreNotRebased() throws Exception
+  {
+    final ChangelogDelta delta = new ChangelogDelta();
+    delta.add(modifyMsg("uid=user.0,ou=people,o=test", "uuid0", "description", "before"));
+    delta.add(modDNMsg("ou=people,o=test", "uuidP", "ou=users", true));
+    delta.add(modDNMsg("uid=user.0,ou=users,o=test", "uuid0", "uid=user.1", true));
+
+    // user.0 is written first, so both its changes use the DN of its superior before the rename
+    assertThat(write(delta)).isEqualTo(
+        "dn: uid=user.0,ou=people,o=test\n"
+        + "changetype: modify\n"
+        + "replace: description\n"
+        + "description: before\n"
+        + "\n"
+        + "dn: uid=user.0,ou=people,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: uid=user.1\n"
+        + "deleteoldrdn: 1\n"
+        + "\n"
+        + "dn: ou=people,o=test\n"
+        + "changetype: modrdn\n"
+        + "newrdn: ou=users\n"
+        + "deleteoldrdn: 1\n"
+        + "\n");
+  }
+
+  private String write(final ChangelogDelta delta) throws Exception
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LDIFExportConfig exportConfig = new LDIFExportConfig(out);
+        LDIFWriter writer = new LDIFWriter(exportConfig))
+    {
+      delta.write(writer);
+    }
+    return out.toString().replace("\r\n", "\n");
+  }
+
+  private LDAPUpdateMsg addMsg(final String dn, final String entryUUID) throws Exception
+  {
+    final Entry entry = makeEntry(
+        "dn: " + dn,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: inetOrgPerson",
+        "cn: User",
+        "sn: User");
+    return new AddMsg(csnGenerator.newCSN(), entry.getName(), entryUUID, "parentUUID",
+        entry.getObjectClassAttribute(), entry.getAttributes(), Collections.<Attribute> emptyList());
+  }
+
+  private LDAPUpdateMsg modifyMsg(final String dn, final String entryUUID, final String attrName,
+      final String attrValue) throws Exception
+  {
+    final Modification mod = new Modification(REPLACE, Attributes.create(attrName, attrValue));
+    return new ModifyMsg(csnGenerator.newCSN(), DN.valueOf(dn), newArrayList(mod), entryUUID);
+  }
+
+  private LDAPUpdateMsg modDNMsg(final String dn, final String entryUUID, final String newRDN)
+  {
+    return modDNMsg(dn, entryUUID, newRDN, true);
+  }
+
+  private LDAPUpdateMsg modDNMsg(final String dn, final String entryUUID, final String newRDN,
+      final boolean deleteOldRDN)
+  {
+    return new ModifyDNMsg(DN.valueOf(dn), csnGenerator.newCSN(), entryUUID, null, deleteOldRDN, null, newRDN);
+  }
+
+  private LDAPUpdateMsg deleteMsg(final String dn, final String entryUUID)
+  {
+    return new DeleteMsg(DN.valueOf(dn), csnGenerator.newCSN(), entryUUID);
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.Backend;
+import org.opends.server.controls.SubtreeDeleteControl;
+import org.opends.server.core.DeleteOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.Control;
+import org.opends.server.types.Entry;
+import org.opends.server.types.IndexType;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** A set of test cases for the indexed memory backend. */
+@SuppressWarnings("javadoc")
+public class IndexedMemoryBackendTestCase extends BackendTestCase
+{
+  private static final String BACKEND_ID = "indexedMemory";
+  private static final DN BASE_DN = DN.valueOf("o=indexedMemory");
+  private static final int NUM_USERS = 20;
+
+  private File snapshotFile;
+  private Entry backendConfigEntry;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+
+    snapshotFile = File.createTempFile("indexedMemory", ".ldif");
+    snapshotFile.delete();
+    backendConfigEntry = TestCaseUtils.makeEntry(
+        "dn: ds-cfg-backend-id=" + BACKEND_ID + ",cn=Backends,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-backend",
+        "objectClass: ds-cfg-indexed-memory-backend",
+        "ds-cfg-backend-id: " + BACKEND_ID,
+        "ds-cfg-java-class: org.opends.server.backends.IndexedMemoryBackend",
+        "ds-cfg-enabled: true",
+        "ds-cfg-writability-mode: enabled",
+        "ds-cfg-base-dn: " + BASE_DN,
+        "ds-cfg-equality-index: uid",
+        "ds-cfg-equality-index: sn",
+        "ds-cfg-presence-index: mail",
+        "ds-cfg-substring-index: cn",
+        "ds-cfg-snapshot-file: " + snapshotFile.getAbsolutePath());
+    TestCaseUtils.addEntry(backendConfigEntry);
+
+    TestCaseUtils.addEntries(
+        "dn: " + BASE_DN,
+        "objectClass: top",
+        "objectClass: organization",
+        "o: indexedMemory",
+        "",
+        "dn: ou=People," + BASE_DN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: People");
+    for (int i = 0; i < NUM_USERS; i++)
+    {
+      TestCaseUtils.addEntries(
+          "dn: uid=user." + i + ",ou=People," + BASE_DN,
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: inetOrgPerson",
+          "uid: user." + i,
+          "cn: User Number " + i,
+          "sn: " + (i % 2 == 0 ? "Even" : "Odd"),
+          i % 4 == 0 ? "mail: user." + i + "@example.com" : "description: no mail");
+    }
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    getRootConnection().processDelete(backendConfigEntry.getName());
+    snapshotFile.delete();
+  }
+
+  @Test
+  public void testIsIndexed() throws Exception
+  {
+    assertThat(isIndexed("uid", IndexType.EQUALITY)).isTrue();
+    assertThat(isIndexed("uid", IndexType.PRESENCE)).isFalse();
+    assertThat(isIndexed("mail", IndexType.PRESENCE)).isTrue();
+    assertThat(isIndexed("cn", IndexType.SUBSTRING)).isTrue();
+    assertThat(isIndexed("description", IndexType.EQUALITY)).isFalse();
+  }
+
+  private boolean isIndexed(String attributeName, IndexType indexType)
+  {
+    final Backend<?> backend = DirectoryServer.getBackend(BACKEND_ID);
+    return backend.isIndexed(DirectoryServer.getSchema().getAttributeType(attributeName), indexType);
+  }
+
+  @Test
+  public void testCounts() throws Exception
+  {
+    final Backend<?> backend = DirectoryServer.getBackend(BACKEND_ID);
+    assertThat(backend.getNumberOfEntriesInBaseDN(BASE_DN)).isGreaterThanOrEqualTo(NUM_USERS + 2);
+    assertThat(backend.getNumberOfChildren(BASE_DN)).isGreaterThanOrEqualTo(1);
+    assertThat(backend.getNumberOfChildren(DN.valueOf("uid=user.0,ou=People," + BASE_DN))).isEqualTo(0);
+    assertThat(backend.getNumberOfChildren(DN.valueOf("ou=unknown," + BASE_DN))).isEqualTo(-1);
+  }
+
+  @Test
+  public void testSearches() throws Exception
+  {
+    assertThat(search("(uid=user.3)")).containsExactly("uid=user.3,ou=People," + BASE_DN);
+    assertThat(search("(&(sn=even)(uid=user.3))")).isEmpty();
+    assertThat(search("(&(objectClass=person)(sn=Even))")).hasSize(NUM_USERS / 2);
+    assertThat(search("(|(uid=user.1)(uid=user.2))")).hasSize(2);
+    assertThat(search("(mail=*)")).hasSize(NUM_USERS / 4);
+    assertThat(search("(cn=*Number 1*)")).hasSize(11);
+    assertThat(search("(cn=User*19)")).containsExactly("uid=user.19,ou=People," + BASE_DN);
+    // Not indexed, or only partially indexed
+    assertThat(search("(description=no mail)")).hasSize(NUM_USERS - NUM_USERS / 4);
+    assertThat(search("(|(uid=user.1)(description=no mail))")).hasSize(NUM_USERS - NUM_USERS / 4);
+    assertThat(search("(!(sn=Odd))", SearchScope.SINGLE_LEVEL, "ou=People," + BASE_DN)).hasSize(NUM_USERS / 2);
+  }
+
+  @Test
+  public void testSearchAfterModify() throws Exception
+  {
+    final String dn = "uid=user.5,ou=People," + BASE_DN;
+    TestCaseUtils.applyModifications(false,
+        "dn: " + dn,
+        "changetype: modify",
+        "replace: uid",
+        "uid: user.5",
+        "uid: modified.5",
+        "-",
+        "add: mail",
+        "mail: modified.5@example.com");
+    assertThat(search("(uid=modified.5)")).containsExactly(dn);
+    assertThat(search("(&(mail=*)(uid=user.5))")).containsExactly(dn);
+
+    TestCaseUtils.applyModifications(false,
+        "dn: " + dn,
+        "changetype: modify",
+        "delete: uid",
+        "uid: modified.5",
+        "-",
+        "delete: mail");
+    assertThat(search("(uid=modified.5)")).isEmpty();
+    assertThat(search("(&(mail=*)(uid=user.5))")).isEmpty();
+  }
+
+  @Test
+  public void testSubtreeDelete() throws Exception
+  {
+    final Backend<?> backend = DirectoryServer.getBackend(BACKEND_ID);
+    final long nbEntries = backend.getNumberOfEntriesInBaseDN(BASE_DN);
+    final long nbChildren = backend.getNumberOfChildren(BASE_DN);
+    final DN subtreeDN = DN.valueOf("ou=Subtree," + BASE_DN);
+    TestCaseUtils.addEntries(
+        "dn: " + subtreeDN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: Subtree",
+        "",
+        "dn: uid=subtree.1," + subtreeDN,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: inetOrgPerson",
+        "uid: subtree.1",
+        "cn: Subtree User",
+        "sn: Subtree");
+    assertThat(search("(sn=Subtree)")).hasSize(1);
+    assertThat(backend.getNumberOfEntriesInBaseDN(BASE_DN)).isEqualTo(nbEntries + 2);
+    assertThat(backend.getNumberOfChildren(BASE_DN)).isEqualTo(nbChildren + 1);
+    assertThat(backend.getNumberOfChildren(subtreeDN)).isEqualTo(1);
+
+    DeleteOperation deleteOperation = getRootConnection().processDelete(subtreeDN);
+    assertThat(deleteOperation.getResultCode()).isEqualTo(ResultCode.NOT_ALLOWED_ON_NONLEAF);
+
+    List<Control> controls = Collections.<Control> singletonList(new SubtreeDeleteControl(false));
+    deleteOperation = getRootConnection().processDelete(subtreeDN, controls);
+    assertThat(deleteOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(search("(sn=Subtree)")).isEmpty();
+    assertThat(backend.entryExists(subtreeDN)).isFalse();
+    assertThat(backend.getNumberOfEntriesInBaseDN(BASE_DN)).isEqualTo(nbEntries);
+    assertThat(backend.getNumberOfChildren(BASE_DN)).isEqualTo(nbChildren);
+    assertThat(backend.getNumberOfChildren(subtreeDN)).isEqualTo(-1);
+  }
+
+  @Test(dependsOnMethods = { "testSearches", "testSearchAfterModify", "testSubtreeDelete", "testCounts" })
+  public void testSnapshot() throws Exception
+  {
+    final long entryCount = DirectoryServer.getBackend(BACKEND_ID).getEntryCount();
+
+    // Taking the backend offline writes the snapshot, which is loaded again when the backend is added back
+    getRootConnection().processDelete(backendConfigEntry.getName());
+    assertThat(snapshotFile).exists();
+    TestCaseUtils.addEntry(backendConfigEntry);
+
+    assertThat(DirectoryServer.getBackend(BACKEND_ID).getEntryCount()).isEqualTo(entryCount);
+    assertThat(search("(uid=user.3)")).containsExactly("uid=user.3,ou=People," + BASE_DN);
+    assertThat(search("(mail=*)")).hasSize(NUM_USERS / 4);
+  }
+
+  private List<String> search(String filter) throws Exception
+  {
+    return search(filter, SearchScope.WHOLE_SUBTREE, BASE_DN.toString());
+  }
+
+  private List<String> search(String filter, SearchScope scope, String baseDN) throws Exception
+  {
+    final InternalSearchOperation searchOperation =
+        getRootConnection().processSearch(newSearchRequest(DN.valueOf(baseDN), scope, filter));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+
+    final List<String> dns = new ArrayList<>();
+    for (Entry entry : searchOperation.getSearchEntries())
+    {
+      dns.add(entry.getName().toString());
+    }
+    return dns;
+  }
+}
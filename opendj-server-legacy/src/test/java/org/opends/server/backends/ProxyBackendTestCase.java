@@ -0,0 +1,505 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeOptions;
+import org.forgerock.opendj.ldap.LDAPClientContext;
+import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.RequestContext;
+import org.forgerock.opendj.ldap.RequestHandler;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.controls.ProxiedAuthV2RequestControl;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.controls.SubtreeDeleteControl;
+import org.opends.server.core.DeleteOperation;
+import org.opends.server.core.ModifyDNOperation;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.protocols.internal.InternalClientConnection;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Control;
+import org.opends.server.types.Entry;
+import org.opends.server.types.Modification;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** A set of test cases for the proxy backend, using an in-process LDAP listener as the remote server. */
+@SuppressWarnings("javadoc")
+public class ProxyBackendTestCase extends BackendTestCase
+{
+  private static final String BACKEND_ID = "proxy";
+  private static final DN BASE_DN = DN.valueOf("o=proxy");
+  private static final String UNAVAILABLE_BACKEND_ID = "unavailableProxy";
+  private static final DN UNAVAILABLE_BASE_DN = DN.valueOf("o=unavailableProxy");
+  private static final String BALANCED_BACKEND_ID = "balancedProxy";
+  private static final DN BALANCED_BASE_DN = DN.valueOf("o=balancedProxy");
+
+  /**
+   * A remote LDAP server which records the requests it receives, and which can hold the searches below its base DN
+   * instead of responding to them.
+   */
+  private static final class RemoteServer implements InvocationHandler
+  {
+    private final DN baseDN;
+    private final MemoryBackend backend;
+    private final LDAPListener listener;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Callable<Object>> heldSearches = Collections.synchronizedList(new ArrayList<Callable<Object>>());
+    private volatile boolean holdSearches;
+
+    @SuppressWarnings("unchecked")
+    private RemoteServer(DN baseDN) throws Exception
+    {
+      this.baseDN = baseDN;
+      this.backend = new MemoryBackend(new LDIFEntryReader(
+          "dn: " + baseDN,
+          "objectClass: top",
+          "objectClass: organization",
+          "o: " + baseDN.rdn().getFirstAVA().getAttributeValue(),
+          "",
+          "dn: ou=People," + baseDN,
+          "objectClass: top",
+          "objectClass: organizationalUnit",
+          "ou: People"));
+      final RequestHandler<RequestContext> handler = (RequestHandler<RequestContext>) Proxy.newProxyInstance(
+          getClass().getClassLoader(), new Class<?>[] { RequestHandler.class }, this);
+      this.listener = new LDAPListener("127.0.0.1", TestCaseUtils.findFreePort(),
+          Connections.<LDAPClientContext> newServerConnectionFactory(handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable
+    {
+      for (Object arg : args)
+      {
+        if (arg instanceof Request)
+        {
+          requests.add((Request) arg);
+          // Heartbeats target the root DSE, so they are still answered
+          if (holdSearches && arg instanceof SearchRequest
+              && ((SearchRequest) arg).getName().isSubordinateOrEqualTo(baseDN))
+          {
+            heldSearches.add(new Callable<Object>()
+            {
+              @Override
+              public Object call() throws Exception
+              {
+                return method.invoke(backend, args);
+              }
+            });
+            return null;
+          }
+        }
+      }
+      try
+      {
+        return method.invoke(backend, args);
+      }
+      catch (InvocationTargetException e)
+      {
+        throw e.getCause();
+      }
+    }
+
+    private int getPort()
+    {
+      return listener.getPort();
+    }
+
+    private List<Request> getRequests()
+    {
+      synchronized (requests)
+      {
+        return new ArrayList<>(requests);
+      }
+    }
+
+    private int getHeldSearchCount()
+    {
+      return heldSearches.size();
+    }
+
+    /** Responds to the held searches, and to all the subsequent ones. */
+    private void releaseSearches() throws Exception
+    {
+      holdSearches = false;
+      synchronized (heldSearches)
+      {
+        for (Callable<Object> search : heldSearches)
+        {
+          search.call();
+        }
+        heldSearches.clear();
+      }
+    }
+
+    private void close()
+    {
+      listener.close();
+    }
+  }
+
+  private RemoteServer remoteServer;
+  private MemoryBackend remoteBackend;
+  private Entry backendConfigEntry;
+  private Entry unavailableBackendConfigEntry;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+
+    remoteServer = new RemoteServer(BASE_DN);
+    remoteBackend = remoteServer.backend;
+
+    backendConfigEntry = newBackendConfigEntry(BACKEND_ID, BASE_DN, "true", remoteServer.getPort());
+    TestCaseUtils.addEntry(backendConfigEntry);
+    // Nothing listens on this port
+    unavailableBackendConfigEntry =
+        newBackendConfigEntry(UNAVAILABLE_BACKEND_ID, UNAVAILABLE_BASE_DN, "false", TestCaseUtils.findFreePort());
+    TestCaseUtils.addEntry(unavailableBackendConfigEntry);
+  }
+
+  private static Entry newBackendConfigEntry(String backendID, DN baseDN, String cacheReadResults, int... ports)
+      throws Exception
+  {
+    final Entry entry = TestCaseUtils.makeEntry(
+        "dn: ds-cfg-backend-id=" + backendID + ",cn=Backends,cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-backend",
+        "objectClass: ds-cfg-proxy-backend",
+        "ds-cfg-backend-id: " + backendID,
+        "ds-cfg-java-class: org.opends.server.backends.ProxyBackend",
+        "ds-cfg-enabled: true",
+        "ds-cfg-writability-mode: enabled",
+        "ds-cfg-base-dn: " + baseDN,
+        "ds-cfg-connection-pool-size: 2",
+        "ds-cfg-cache-read-results: " + cacheReadResults);
+    for (int port : ports)
+    {
+      entry.addAttribute(Attributes.create("ds-cfg-remote-ldap-server", "127.0.0.1:" + port), null);
+    }
+    return entry;
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    getRootConnection().processDelete(backendConfigEntry.getName());
+    getRootConnection().processDelete(unavailableBackendConfigEntry.getName());
+    remoteServer.close();
+  }
+
+  @Test
+  public void testAddAndSearch() throws Exception
+  {
+    addUser("user.1", "ou=People," + BASE_DN);
+    addUser("user.2", "ou=People," + BASE_DN);
+
+    assertThat(remoteBackend.contains("uid=user.1,ou=People," + BASE_DN)).isTrue();
+    assertThat(search("(uid=user.1)", SearchScope.WHOLE_SUBTREE)).containsExactly("uid=user.1,ou=People," + BASE_DN);
+    assertThat(search("(|(uid=user.1)(uid=user.2))", SearchScope.WHOLE_SUBTREE)).hasSize(2);
+    assertThat(search("(objectClass=*)", SearchScope.BASE_OBJECT)).containsExactly(BASE_DN.toString());
+  }
+
+  @Test
+  public void testModifyAndRename() throws Exception
+  {
+    final DN dn = DN.valueOf("uid=user.3,ou=People," + BASE_DN);
+    addUser("user.3", "ou=People," + BASE_DN);
+    // Read the entry once, so that the result is cached
+    assertThat(search("(description=modified)", SearchScope.WHOLE_SUBTREE)).isEmpty();
+
+    final List<Modification> mods = Collections.singletonList(
+        new Modification(ModificationType.REPLACE, Attributes.create("description", "modified")));
+    final ModifyOperation modifyOperation = getRootConnection().processModify(dn, mods);
+    assertThat(modifyOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(remoteBackend.get(dn).parseAttribute("description").asString()).isEqualTo("modified");
+    assertThat(search("(description=modified)", SearchScope.WHOLE_SUBTREE)).containsExactly(dn.toString());
+
+    final ModifyDNOperation modifyDNOperation =
+        getRootConnection().processModifyDN(dn, DN.valueOf("uid=renamed.3").rdn(), true);
+    assertThat(modifyDNOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(remoteBackend.contains(dn)).isFalse();
+    assertThat(remoteBackend.contains("uid=renamed.3,ou=People," + BASE_DN)).isTrue();
+  }
+
+  @Test
+  public void testRemoteErrorsAreReturned() throws Exception
+  {
+    final DN subtreeDN = DN.valueOf("ou=Subtree," + BASE_DN);
+    TestCaseUtils.addEntries(
+        "dn: " + subtreeDN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: Subtree");
+    addUser("subtree.1", subtreeDN.toString());
+
+    DeleteOperation deleteOperation = getRootConnection().processDelete(subtreeDN);
+    assertThat(deleteOperation.getResultCode()).isEqualTo(ResultCode.NOT_ALLOWED_ON_NONLEAF);
+
+    List<Control> controls = Collections.<Control> singletonList(new SubtreeDeleteControl(false));
+    deleteOperation = getRootConnection().processDelete(subtreeDN, controls);
+    assertThat(deleteOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(remoteBackend.contains(subtreeDN)).isFalse();
+
+    final InternalSearchOperation searchOperation = getRootConnection().processSearch(
+        newSearchRequest(DN.valueOf("ou=unknown," + BASE_DN), SearchScope.BASE_OBJECT, "(objectClass=*)"));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.NO_SUCH_OBJECT);
+  }
+
+  @Test
+  public void testProxiedAuthorizationOfNonRootUsers() throws Exception
+  {
+    final DN userDN = DN.valueOf("uid=proxied.1,ou=People," + BASE_DN);
+    addUser("proxied.1", "ou=People," + BASE_DN);
+    final InternalClientConnection userConnection = new InternalClientConnection(userDN);
+
+    // Operations requested by root users are performed with the identity of the proxy user
+    assertThat(search("(cn=User proxied.1)", SearchScope.WHOLE_SUBTREE)).containsExactly(userDN.toString());
+    assertThat(getProxiedAuthorizationIDs(SearchRequest.class)).containsOnly((String) null);
+
+    final InternalSearchOperation searchOperation = userConnection.processSearch(
+        newSearchRequest(BASE_DN, SearchScope.WHOLE_SUBTREE, "(uid=proxied.1)"));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(searchOperation.getSearchEntries()).hasSize(1);
+    final ModifyOperation modifyOperation = userConnection.processModify(userDN, Collections.singletonList(
+        new Modification(ModificationType.REPLACE, Attributes.create("description", "proxied"))));
+    assertThat(modifyOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+
+    // The entries read by the local server for access control are still read with the identity of the proxy user
+    assertThat(getProxiedAuthorizationIDs(SearchRequest.class)).contains("dn:" + userDN);
+    assertThat(getProxiedAuthorizationIDs(ModifyRequest.class)).containsExactly("dn:" + userDN);
+  }
+
+  /** Returns the proxied authorization identities of the requests received for the test user. */
+  private List<String> getProxiedAuthorizationIDs(Class<? extends Request> requestType) throws Exception
+  {
+    final List<String> authorizationIDs = new ArrayList<>();
+    for (Request request : remoteServer.getRequests())
+    {
+      if (requestType.isInstance(request) && request.toString().contains("proxied.1"))
+      {
+        final ProxiedAuthV2RequestControl control =
+            request.getControl(ProxiedAuthV2RequestControl.DECODER, new DecodeOptions());
+        authorizationIDs.add(control != null ? control.getAuthorizationID() : null);
+      }
+    }
+    return authorizationIDs;
+  }
+
+  @Test(timeOut = 60000)
+  public void testRequestsAreLoadBalanced() throws Exception
+  {
+    final RemoteServer server1 = new RemoteServer(BALANCED_BASE_DN);
+    final RemoteServer server2 = new RemoteServer(BALANCED_BASE_DN);
+    final Entry configEntry =
+        newBackendConfigEntry(BALANCED_BACKEND_ID, BALANCED_BASE_DN, "false", server1.getPort(), server2.getPort());
+    TestCaseUtils.addEntry(configEntry);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try
+    {
+      // Each new search goes to the server having the fewest outstanding searches
+      server1.holdSearches = true;
+      server2.holdSearches = true;
+      final List<Future<InternalSearchOperation>> searches = new ArrayList<>();
+      while (searches.size() < 10 && (server1.getHeldSearchCount() == 0 || server2.getHeldSearchCount() == 0))
+      {
+        searches.add(executor.submit(new Callable<InternalSearchOperation>()
+        {
+          @Override
+          public InternalSearchOperation call() throws Exception
+          {
+            return getRootConnection().processSearch(
+                newSearchRequest(BALANCED_BASE_DN, SearchScope.WHOLE_SUBTREE, "(uid=*)"));
+          }
+        }));
+        while (server1.getHeldSearchCount() + server2.getHeldSearchCount() < searches.size())
+        {
+          Thread.sleep(10);
+        }
+      }
+      assertThat(server1.getHeldSearchCount()).isGreaterThan(0);
+      assertThat(server2.getHeldSearchCount()).isGreaterThan(0);
+
+      server1.releaseSearches();
+      server2.releaseSearches();
+      for (Future<InternalSearchOperation> search : searches)
+      {
+        assertThat(search.get().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+      getRootConnection().processDelete(configEntry.getName());
+      server1.close();
+      server2.close();
+    }
+  }
+
+  /** Requests are multiplexed over the shared connections, rather than waiting for a connection to be released. */
+  @Test(timeOut = 60000)
+  public void testMoreConcurrentRequestsThanConnections() throws Exception
+  {
+    final RemoteServer server = new RemoteServer(BALANCED_BASE_DN);
+    final Entry configEntry = newBackendConfigEntry(BALANCED_BACKEND_ID, BALANCED_BASE_DN, "false", server.getPort());
+    TestCaseUtils.addEntry(configEntry);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try
+    {
+      // The backend has two connections to the server
+      server.holdSearches = true;
+      final List<Future<InternalSearchOperation>> searches = new ArrayList<>();
+      for (int i = 0; i < 5; i++)
+      {
+        searches.add(executor.submit(new Callable<InternalSearchOperation>()
+        {
+          @Override
+          public InternalSearchOperation call() throws Exception
+          {
+            return getRootConnection().processSearch(
+                newSearchRequest(BALANCED_BASE_DN, SearchScope.WHOLE_SUBTREE, "(uid=*)"));
+          }
+        }));
+      }
+      while (server.getHeldSearchCount() < searches.size())
+      {
+        Thread.sleep(10);
+      }
+
+      server.releaseSearches();
+      for (Future<InternalSearchOperation> search : searches)
+      {
+        assertThat(search.get().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+      getRootConnection().processDelete(configEntry.getName());
+      server.close();
+    }
+  }
+
+  @Test(timeOut = 60000)
+  public void testServerWhichStopsRespondingIsEjected() throws Exception
+  {
+    final RemoteServer server1 = new RemoteServer(BALANCED_BASE_DN);
+    final RemoteServer server2 = new RemoteServer(BALANCED_BASE_DN);
+    final Entry configEntry =
+        newBackendConfigEntry(BALANCED_BACKEND_ID, BALANCED_BASE_DN, "false", server1.getPort(), server2.getPort());
+    configEntry.addAttribute(Attributes.create("ds-cfg-request-timeout", "500 ms"), null);
+    TestCaseUtils.addEntry(configEntry);
+    try
+    {
+      // The searches sent to the first server time out, while its connections remain alive
+      server1.holdSearches = true;
+      int failures = 0;
+      for (int i = 0; i < 100 && failures < 5; i++)
+      {
+        final ResultCode resultCode = getRootConnection().processSearch(
+            newSearchRequest(BALANCED_BASE_DN, SearchScope.BASE_OBJECT, "(objectClass=*)")).getResultCode();
+        if (resultCode == ResultCode.UNAVAILABLE)
+        {
+          failures++;
+        }
+        else
+        {
+          assertThat(resultCode).isEqualTo(ResultCode.SUCCESS);
+        }
+      }
+      assertThat(failures).isEqualTo(5);
+      assertThat(server1.getHeldSearchCount()).isEqualTo(5);
+
+      // After five consecutive failures, the first server no longer receives requests
+      for (int i = 0; i < 20; i++)
+      {
+        final InternalSearchOperation searchOperation = getRootConnection().processSearch(
+            newSearchRequest(BALANCED_BASE_DN, SearchScope.BASE_OBJECT, "(objectClass=*)"));
+        assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+      }
+      assertThat(server1.getHeldSearchCount()).isEqualTo(5);
+    }
+    finally
+    {
+      getRootConnection().processDelete(configEntry.getName());
+      server1.close();
+      server2.close();
+    }
+  }
+
+  @Test
+  public void testUnavailableRemoteServer() throws Exception
+  {
+    final InternalSearchOperation searchOperation = getRootConnection().processSearch(
+        newSearchRequest(UNAVAILABLE_BASE_DN, SearchScope.BASE_OBJECT, "(objectClass=*)"));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.UNAVAILABLE);
+  }
+
+  private void addUser(String uid, String parentDN) throws Exception
+  {
+    TestCaseUtils.addEntries(
+        "dn: uid=" + uid + "," + parentDN,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: " + uid,
+        "cn: User " + uid,
+        "sn: " + uid);
+  }
+
+  private List<String> search(String filter, SearchScope scope) throws Exception
+  {
+    final InternalSearchOperation searchOperation =
+        getRootConnection().processSearch(newSearchRequest(BASE_DN, scope, filter));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+
+    final List<String> dns = new ArrayList<>();
+    for (Entry entry : searchOperation.getSearchEntries())
+    {
+      dns.add(entry.getName().toString());
+    }
+    return dns;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.util.CollectionUtils.*;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.BackendIndexCfgDefn.IndexType;
+import org.forgerock.opendj.server.config.server.BackendIndexCfg;
+import org.forgerock.opendj.server.config.server.PDBBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pdb.PDBBackend;
+import org.opends.server.core.AddOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.SearchFilter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class FilterCardinalityEstimatesTest extends DirectoryServerTestCase
+{
+  private static final String BACKEND_BASE_DN = "dc=pluggable-estimates,dc=com";
+  private static final String BACKEND_NAME = "pluggable-estimates";
+  /** More than the candidate threshold of the index filter. */
+  private static final int NB_USERS = 20;
+
+  private PDBBackend backend;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+
+    final DN baseDN = DN.valueOf(BACKEND_BASE_DN);
+    final PDBBackendCfg backendCfg = mockCfg(PDBBackendCfg.class);
+    when(backendCfg.dn()).thenReturn(baseDN);
+    when(backendCfg.getBackendId()).thenReturn(BACKEND_NAME);
+    when(backendCfg.getBaseDN()).thenReturn(newTreeSet(baseDN));
+    when(backendCfg.listBackendIndexes()).thenReturn(new String[] { "objectClass", "uid" });
+    when(backendCfg.listBackendVLVIndexes()).thenReturn(new String[0]);
+    when(backendCfg.getDBDirectory()).thenReturn(BACKEND_NAME);
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    for (String attributeName : backendCfg.listBackendIndexes())
+    {
+      final BackendIndexCfg indexCfg = mockCfg(BackendIndexCfg.class);
+      when(indexCfg.getIndexType()).thenReturn(newTreeSet(IndexType.EQUALITY));
+      when(indexCfg.getAttribute()).thenReturn(DirectoryServer.getSchema().getAttributeType(attributeName));
+      when(backendCfg.getBackendIndex(attributeName)).thenReturn(indexCfg);
+    }
+
+    backend = new PDBBackend();
+    backend.setBackendID(backendCfg.getBackendId());
+    backend.configureBackend(backendCfg, DirectoryServer.getInstance().getServerContext());
+    backend.openBackend();
+
+    final AddOperation op = mock(AddOperation.class);
+    backend.addEntry(makeEntry("dn: " + BACKEND_BASE_DN, "objectclass: top", "objectclass: domain"), op);
+    for (int i = 0; i < NB_USERS; i++)
+    {
+      backend.addEntry(makeEntry(
+          "dn: uid=user." + i + "," + BACKEND_BASE_DN,
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: user." + i,
+          "cn: User " + i,
+          "sn: " + i), op);
+    }
+  }
+
+  @AfterClass
+  public void stopBackend() throws Exception
+  {
+    backend.finalizeBackend();
+    backend = null;
+  }
+
+  @Test
+  public void testUnknownFilter() throws Exception
+  {
+    final FilterCardinalityEstimates estimates = new FilterCardinalityEstimates();
+
+    assertThat(estimates.get(SearchFilter.createFilterFromString("(uid=jdoe)")))
+        .isEqualTo(FilterCardinalityEstimates.UNKNOWN);
+  }
+
+  @Test
+  public void testDefinedCandidates() throws Exception
+  {
+    final FilterCardinalityEstimates estimates = new FilterCardinalityEstimates();
+    final SearchFilter filter = SearchFilter.createFilterFromString("(uid=jdoe)");
+
+    estimates.put(filter, newDefinedSet(1, 2, 3));
+    assertThat(estimates.get(filter)).isEqualTo(3);
+
+    estimates.put(filter, newDefinedSet(1));
+    assertThat(estimates.get(filter)).isEqualTo(1);
+  }
+
+  @Test
+  public void testUndefinedCandidates() throws Exception
+  {
+    final FilterCardinalityEstimates estimates = new FilterCardinalityEstimates();
+    final SearchFilter filter = SearchFilter.createFilterFromString("(objectClass=person)");
+
+    estimates.put(filter, newUndefinedSet());
+    assertThat(estimates.get(filter)).isEqualTo(FilterCardinalityEstimates.UNDEFINED);
+    assertThat(estimates.get(SearchFilter.createFilterFromString("(uid=jdoe)")))
+        .isEqualTo(FilterCardinalityEstimates.UNKNOWN);
+  }
+
+  @Test
+  public void testAndComponentsAreReorderedByEstimate() throws Exception
+  {
+    // Nothing is known yet, so the components are evaluated in the order of the filter
+    final String filter = "(&(objectClass=inetOrgPerson)(uid=user.1))";
+    String debug = debugSearchIndex(filter);
+    assertThat(debug).contains("(objectClass=inetOrgPerson)", "(uid=user.1)");
+    assertThat(debug.indexOf("(objectClass=inetOrgPerson)")).isLessThan(debug.indexOf("(uid=user.1)"));
+
+    // The most selective component is now evaluated first, and it is enough to reach the candidate threshold
+    debug = debugSearchIndex(filter);
+    assertThat(debug).startsWith("filter=(&(uid=user.1)");
+    assertThat(debug).doesNotContain("objectClass");
+
+    // Components which were not evaluated recently are assumed to be just above the candidate threshold
+    debug = debugSearchIndex("(&(objectClass=inetOrgPerson)(uid=user.2))");
+    assertThat(debug).startsWith("filter=(&(uid=user.2)");
+  }
+
+  @Test
+  public void testUndefinedComponentsAreSkipped() throws Exception
+  {
+    // The substring component is not indexed, so it evaluates to an undefined set
+    final String filter = "(&(objectClass=person)(cn=*ser*))";
+    String debug = debugSearchIndex(filter);
+    assertThat(debug).contains("(cn=*ser*)").doesNotContain("[SKIPPED]");
+
+    // The results of the equality component are defined, and cannot be narrowed by the substring component
+    debug = debugSearchIndex(filter);
+    assertThat(debug).contains("(cn=*ser*)[SKIPPED]");
+    assertThat(search(filter)).isEqualTo(NB_USERS);
+
+    // Components are never skipped when they are the only source of candidates
+    debug = debugSearchIndex("(&(cn=*ser*)(!(uid=user.1)))");
+    assertThat(debug).doesNotContain("[SKIPPED]");
+  }
+
+  private static String debugSearchIndex(String filter) throws Exception
+  {
+    final InternalSearchOperation searchOperation = getRootConnection().processSearch(
+        newSearchRequest(BACKEND_BASE_DN, SearchScope.WHOLE_SUBTREE, filter).addAttribute("debugsearchindex"));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    assertThat(searchOperation.getSearchEntries()).hasSize(1);
+    return searchOperation.getSearchEntries().get(0).parseAttribute("debugsearchindex").asString();
+  }
+
+  private static int search(String filter) throws Exception
+  {
+    final InternalSearchOperation searchOperation =
+        getRootConnection().processSearch(newSearchRequest(BACKEND_BASE_DN, SearchScope.WHOLE_SUBTREE, filter));
+    assertThat(searchOperation.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    return searchOperation.getSearchEntries().size();
+  }
+}
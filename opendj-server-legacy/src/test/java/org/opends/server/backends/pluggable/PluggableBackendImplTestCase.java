@@ -27,6 +27,7 @@ import static org.testng.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,6 +36,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ConditionResult;
@@ -925,6 +927,56 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testParallelExportLDIF() throws Exception
+  {
+    final String ldif = exportLDIF(1, false);
+    assertThat(ldif).contains(searchDN.toString());
+    assertEquals(exportLDIF(4, false), ldif, "Parallel export should write the entries in the same order");
+    assertEquals(exportLDIF(4, true), ldif, "Parallel export should write the entries in the same order");
+
+    // Split the entries over many ranges, more than the threads can format ahead of the range being written
+    final int rangeSize = ExportJob.entryIDRangeSize;
+    ExportJob.entryIDRangeSize = 2;
+    try
+    {
+      assertEquals(exportLDIF(2, false), ldif, "Parallel export should write the entries of all the ranges in order");
+      // Each range is a separate GZIP member
+      assertEquals(exportLDIF(2, true), ldif, "Parallel export should write the entries of all the ranges in order");
+    }
+    finally
+    {
+      ExportJob.entryIDRangeSize = rangeSize;
+    }
+  }
+
+  private String exportLDIF(int threadCount, boolean compress) throws Exception
+  {
+    ByteArrayOutputStream ldifOutputContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(ldifOutputContent))
+    {
+      exportConfig.setIncludeOperationalAttributes(true);
+      exportConfig.setCompressData(compress);
+      exportConfig.setThreadCount(threadCount);
+      backend.exportLDIF(exportConfig);
+    }
+    if (!compress)
+    {
+      return ldifOutputContent.toString();
+    }
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(ldifOutputContent.toByteArray())))
+    {
+      ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = in.read(buffer)) != -1)
+      {
+        uncompressed.write(buffer, 0, count);
+      }
+      return uncompressed.toString();
+    }
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -1140,6 +1192,71 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     assertThat(backend.verifyBackend(config)).isEqualTo(1);
   }
 
+  @Test
+  public void testParallelVerify() throws Exception
+  {
+    final Storage storage = backend.getRootContainer().getStorage();
+    final DN2ID dn2ID = backend.getRootContainer().getEntryContainer(testBaseDN).getDN2ID();
+    final DN[] leafDNs = {
+      DN.valueOf("uid=user.0,ou=People," + testBaseDN),
+      DN.valueOf("uid=user.9,ou=People," + testBaseDN),
+    };
+
+    final VerifyConfig config = new VerifyConfig();
+    config.setBaseDN(testBaseDN);
+    config.setThreadCount(4);
+    config.addCompleteIndex("dn2id");
+    for (String indexName : backendIndexes.keySet())
+    {
+      config.addCompleteIndex(indexName);
+    }
+
+    // Split the entries over many ranges, so that the threads check several ranges each
+    final int rangeSize = VerifyJob.entryIDRangeSize;
+    VerifyJob.entryIDRangeSize = 2;
+    final EntryID[] leafIDs = new EntryID[leafDNs.length];
+    try
+    {
+      assertThat(backend.verifyBackend(config)).isEqualTo(0);
+
+      // Insert an error in two different ranges
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (int i = 0; i < leafDNs.length; i++)
+          {
+            leafIDs[i] = dn2ID.get(txn, leafDNs[i]);
+            dn2ID.remove(txn, leafDNs[i]);
+          }
+        }
+      });
+      assertThat(leafIDs[1].longValue() - leafIDs[0].longValue()).isGreaterThanOrEqualTo(2);
+
+      assertThat(backend.verifyBackend(config)).isEqualTo(leafDNs.length);
+    }
+    finally
+    {
+      VerifyJob.entryIDRangeSize = rangeSize;
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (int i = 0; i < leafDNs.length; i++)
+          {
+            if (leafIDs[i] != null)
+            {
+              dn2ID.put(txn, leafDNs[i], leafIDs[i]);
+            }
+          }
+        }
+      });
+    }
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+  }
+
   @Test
   public void testBackupAndRestore() throws Exception
   {
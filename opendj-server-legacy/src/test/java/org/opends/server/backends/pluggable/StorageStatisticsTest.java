@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.StorageStatistics.Operation.*;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.backends.pluggable.StorageStatistics.LatencyHistogram;
+import org.opends.server.backends.pluggable.StorageStatistics.TreeStatistics;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend" }, sequential = true)
+public class StorageStatisticsTest extends DirectoryServerTestCase
+{
+  @DataProvider
+  public Object[][] values()
+  {
+    return new Object[][] {
+      { 0L }, { 1L }, { 3L }, { 4L }, { 5L }, { 7L }, { 8L }, { 100L }, { 1000L }, { 123456789L }, { Long.MAX_VALUE },
+    };
+  }
+
+  @Test(dataProvider = "values")
+  public void testBucketBoundsContainValue(long value)
+  {
+    final int index = LatencyHistogram.bucketIndex(value);
+    assertThat(LatencyHistogram.bucketUpperBound(index)).isGreaterThanOrEqualTo(value);
+    if (value > 0 && LatencyHistogram.bucketIndex(value - 1) != index)
+    {
+      assertThat(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value - 1))).isEqualTo(value - 1);
+    }
+  }
+
+  @Test
+  public void testPercentiles()
+  {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(0);
+
+    for (int i = 0; i < 99; i++)
+    {
+      histogram.record(10);
+    }
+    histogram.record(1000);
+
+    assertThat(histogram.getValueAtPercentile(50)).isBetween(10L, 11L);
+    assertThat(histogram.getValueAtPercentile(99)).isBetween(10L, 11L);
+    assertThat(histogram.getValueAtPercentile(100)).isBetween(1000L, 1023L);
+  }
+
+  @Test
+  public void testTreeStatistics()
+  {
+    final StorageStatistics statistics = new StorageStatistics(0);
+    final TreeName id2entry = new TreeName("dc=example,dc=com", "id2entry");
+    final TreeName dn2id = new TreeName("dc=example,dc=com", "dn2id");
+
+    final TreeStatistics stats = statistics.getTreeStatistics(id2entry);
+    assertThat(statistics.getTreeStatistics(id2entry)).isSameAs(stats);
+    stats.recordOperation(READ);
+    stats.recordOperation(READ);
+    stats.recordOperation(PUT);
+    stats.recordBytesRead(10);
+    stats.recordBytesWritten(20);
+    statistics.getTreeStatistics(dn2id).recordOperation(CURSOR_STEP);
+
+    assertThat(stats.getCount(READ)).isEqualTo(2);
+    assertThat(stats.getCount(PUT)).isEqualTo(1);
+    assertThat(stats.getCount(DELETE)).isEqualTo(0);
+    assertThat(statistics.sampleLatency()).isFalse();
+    assertThat(statistics.createMonitorValues()).containsExactly(
+        "/dc=example,dc=com/dn2id read:0 put:0 update:0 delete:0 cursor-step:1 bytes-read:0 bytes-written:0"
+            + " cursor-step-latency-us:0/0/0",
+        "/dc=example,dc=com/id2entry read:2 put:1 update:0 delete:0 cursor-step:0 bytes-read:10 bytes-written:20"
+            + " read-latency-us:0/0/0 put-latency-us:0/0/0");
+  }
+}
@@ -28,8 +28,10 @@ import static org.testng.Assert.*;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.io.ASN1;
@@ -44,6 +46,7 @@ import org.forgerock.opendj.ldap.requests.ModifyRequest;
 import org.forgerock.util.Utils;
 import org.opends.server.TestCaseUtils;
 import org.opends.server.core.ModifyOperation;
+import org.opends.server.protocols.internal.InternalSearchListener;
 import org.opends.server.protocols.internal.InternalSearchOperation;
 import org.opends.server.protocols.internal.SearchRequest;
 import org.opends.server.protocols.ldap.LDAPControl;
@@ -52,6 +55,8 @@ import org.opends.server.tools.LDAPSearch;
 import org.opends.server.types.CancelRequest;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.LDAPException;
+import org.opends.server.types.SearchResultEntry;
+import org.opends.server.types.SearchResultReference;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -555,4 +560,80 @@ public class PersistentSearchControlTest extends ControlsTestCase
     //cancel the persisting persistent search.
     search.cancel(new CancelRequest(true,LocalizableMessage.EMPTY));
   }
+
+  /**
+   * Tests that a persistent search indexed by an equality term of its filter
+   * is only notified of the changes made to the entries matching its filter.
+   */
+  @Test
+  public void testPersistentSearchWithIndexedFilter() throws Exception
+  {
+    TestCaseUtils.initializeTestBackend(true);
+
+    final List<SearchResultEntry> entries = new CopyOnWriteArrayList<>();
+    final InternalSearchListener listener = new InternalSearchListener()
+    {
+      @Override
+      public void handleInternalSearchEntry(InternalSearchOperation searchOperation, SearchResultEntry searchEntry)
+      {
+        entries.add(searchEntry);
+      }
+
+      @Override
+      public void handleInternalSearchReference(InternalSearchOperation searchOperation,
+          SearchResultReference searchReference)
+      {
+        // No references expected
+      }
+    };
+    Set<PersistentSearchChangeType> changeTypes = EnumSet.of(ADD, DELETE, MODIFY, MODIFY_DN);
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), SearchScope.WHOLE_SUBTREE,
+        "(&(objectClass=person)(uid=USER.1))")
+        .addControl(new PersistentSearchControl(changeTypes, true, true));
+    final InternalSearchOperation search =
+        new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request, listener);
+
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        search.run();
+      }
+    },"Persistent Search Test");
+    t.start();
+    t.join(2000);
+
+    try
+    {
+      TestCaseUtils.addEntries(
+          "dn: uid=user.0,o=test",
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: user.0",
+          "cn: User 0",
+          "sn: 0",
+          "",
+          "dn: uid=user.1,o=test",
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: user.1",
+          "cn: User 1",
+          "sn: 1");
+
+      // Changes are sent asynchronously, and in order
+      for (int i = 0; i < 100 && entries.isEmpty(); i++)
+      {
+        Thread.sleep(50);
+      }
+      assertThat(entries).hasSize(1);
+      assertEquals(entries.get(0).getName(), DN.valueOf("uid=user.1,o=test"));
+    }
+    finally
+    {
+      search.cancel(new CancelRequest(true, LocalizableMessage.EMPTY));
+    }
+  }
 }
@@ -16,9 +16,11 @@
  */
 package org.opends.server.core;
 
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
@@ -199,6 +201,143 @@ public class GroupManagerTestCase
     assertTrue(group1Instance.isMember(user5DN));
   }
 
+  /**
+   * Tests that {@code GroupManager.getGroups} finds the direct and nested
+   * groups of a user, including dynamic groups, and that it follows the
+   * changes made to the member lists.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testGetGroupsNested() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    DN group2DN = DN.valueOf("cn=group 2,ou=Groups,o=test");
+    DN group3DN = DN.valueOf("cn=group 3,ou=Groups,o=test");
+    DN group4DN = DN.valueOf("cn=group 4,ou=Groups,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+    Entry user2Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.2,ou=People,o=test"));
+    Entry user5Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.5,ou=People,o=test"));
+    Group<?> group1Instance = groupManager.getGroupInstance(group1DN);
+    Group<?> group2Instance = groupManager.getGroupInstance(group2DN);
+    Group<?> group3Instance = groupManager.getGroupInstance(group3DN);
+    Group<?> group4Instance = groupManager.getGroupInstance(group4DN);
+    assertTrue(groupManager.getGroups(user1Entry).isEmpty());
+
+    group1Instance.addNestedGroup(group2DN);
+    group2Instance.addNestedGroup(group3DN);
+    //Dynamic group 4 is added to nested list of group 3.
+    group3Instance.addNestedGroup(group4DN);
+    group1Instance.addMember(user1Entry);
+    group2Instance.addMember(user2Entry);
+    assertEquals(groupManager.getGroups(user1Entry), newSet(group1Instance));
+    assertEquals(groupManager.getGroups(user2Entry), newSet(group2Instance, group1Instance));
+    //User 5 is only a member of the dynamic group "group 4".
+    assertEquals(groupManager.getGroups(user5Entry),
+        newSet(group4Instance, group3Instance, group2Instance, group1Instance));
+
+    //Remove user 1 and group 2 from group 1, via the API and via ldap modify.
+    group1Instance.removeMember(user1Entry.getName());
+    final ModifyRequest modifyRequest = newModifyRequest(group1DN);
+    modifyRequest.addModification(DELETE, "member", "cn=group 2,ou=Groups,o=test");
+    ModifyOperation modifyOperation = getRootConnection().processModify(modifyRequest);
+    assertEquals(modifyOperation.getResultCode(), ResultCode.SUCCESS);
+    assertTrue(groupManager.getGroups(user1Entry).isEmpty());
+    assertEquals(groupManager.getGroups(user2Entry), newSet(group2Instance));
+
+    //Deleting group 3 removes it from the groups of user 5.
+    TestCaseUtils.deleteEntry(group3DN);
+    assertEquals(groupManager.getGroups(user5Entry), newSet(group4Instance));
+  }
+
+  /**
+   * Tests that the groups returned by {@code GroupManager.getGroups} match the
+   * member list of a static group after concurrent additions and removals of
+   * the same member, whatever the order in which the index is updated.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test(timeOut = 60000)
+  public void testGetGroupsAfterConcurrentMemberUpdates() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    final GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    final Group<?> group1Instance = groupManager.getGroupInstance(DN.valueOf("cn=group 1,ou=Groups,o=test"));
+    final Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+
+    final Thread[] threads = new Thread[4];
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            for (int j = 0; j < 200; j++)
+            {
+              toggleMember(group1Instance, user1Entry);
+            }
+          }
+          catch (Throwable t)
+          {
+            error.set(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    assertNull(error.get());
+
+    if (group1Instance.isMember(user1Entry))
+    {
+      assertEquals(groupManager.getGroups(user1Entry), newSet(group1Instance));
+      group1Instance.removeMember(user1Entry.getName());
+    }
+    assertTrue(groupManager.getGroups(user1Entry).isEmpty());
+    group1Instance.addMember(user1Entry);
+    assertEquals(groupManager.getGroups(user1Entry), newSet(group1Instance));
+  }
+
+  /** Adds or removes the user, ignoring the failures caused by the other threads doing the same. */
+  private void toggleMember(Group<?> group, Entry userEntry) throws Exception
+  {
+    try
+    {
+      if (group.isMember(userEntry))
+      {
+        group.removeMember(userEntry.getName());
+      }
+      else
+      {
+        group.addMember(userEntry);
+      }
+    }
+    catch (DirectoryException e)
+    {
+      ResultCode resultCode = e.getResultCode();
+      if (resultCode != ResultCode.NO_SUCH_ATTRIBUTE && resultCode != ResultCode.ATTRIBUTE_OR_VALUE_EXISTS)
+      {
+        throw e;
+      }
+    }
+  }
+
+  private Set<Group<?>> newSet(Group<?>... groups)
+  {
+    return new LinkedHashSet<Group<?>>(Arrays.asList(groups));
+  }
+
   /**
    * Invokes membership and nested group APIs using a group instance that has
    * been changed by the group manager via ldap modify.
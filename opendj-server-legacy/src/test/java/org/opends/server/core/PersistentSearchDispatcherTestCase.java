@@ -0,0 +1,97 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+
+import java.util.EnumSet;
+
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.Entry;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** Tests the selection of the persistent searches which are evaluated for each change. */
+@SuppressWarnings("javadoc")
+public class PersistentSearchDispatcherTestCase extends CoreTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testPersistentSearchesWhichCannotMatchAreNotEvaluated() throws Exception
+  {
+    final PersistentSearchDispatcher dispatcher = new PersistentSearchDispatcher();
+    final PersistentSearch user1 = register(dispatcher, "o=test", "(uid=user.1)");
+    final PersistentSearch user2 = register(dispatcher, "o=test", "(uid=user.2)");
+    final PersistentSearch personUser1 = register(dispatcher, "o=test", "(&(objectClass=person)(uid=USER.1))");
+    final PersistentSearch withDescription = register(dispatcher, "o=test", "(description=*)");
+    final PersistentSearch withMail = register(dispatcher, "o=test", "(mail=*)");
+    final PersistentSearch persons = register(dispatcher, "o=test", "(objectClass=person)");
+    final PersistentSearch otherBase = register(dispatcher, "ou=other,o=test", "(objectClass=*)");
+
+    // Neither the psearch on mail nor the one below ou=other may match
+    final Entry entry = newUser("user.1", "description: first");
+    assertThat(dispatcher.getCandidates(entry, null)).containsOnly(user1, personUser1, withDescription, persons);
+
+    // Both the old and the new entries are considered
+    final Entry oldEntry = newUser("user.2");
+    assertThat(dispatcher.getCandidates(entry, oldEntry))
+        .containsOnly(user1, user2, personUser1, withDescription, persons);
+
+    dispatcher.deregister(user1);
+    dispatcher.deregister(personUser1);
+    assertThat(dispatcher.getCandidates(entry, null)).containsOnly(withDescription, persons);
+  }
+
+  private static PersistentSearch register(PersistentSearchDispatcher dispatcher, String baseDN, String filter)
+      throws Exception
+  {
+    final InternalSearchOperation searchOperation = new InternalSearchOperation(getRootConnection(),
+        nextOperationID(), nextMessageID(), newSearchRequest(baseDN, SearchScope.WHOLE_SUBTREE, filter));
+    final PersistentSearch psearch =
+        new PersistentSearch(searchOperation, EnumSet.allOf(PersistentSearchChangeType.class), true, true);
+    dispatcher.register(psearch);
+    return psearch;
+  }
+
+  private static Entry newUser(String uid, String... attributes) throws Exception
+  {
+    final String[] ldif = {
+      "dn: uid=" + uid + ",o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: " + uid,
+      "cn: User " + uid,
+      "sn: " + uid,
+    };
+    final String[] lines = new String[ldif.length + attributes.length];
+    System.arraycopy(ldif, 0, lines, 0, ldif.length);
+    System.arraycopy(attributes, 0, lines, ldif.length, attributes.length);
+    return makeEntry(lines);
+  }
+}
@@ -276,6 +276,50 @@ public class ReferentialIntegrityPluginTestCase extends PluginTestCase  {
     isMember(tgroup, false, tuser1, tuser2, tuser3);
    }
 
+  /**
+   * Test that background processing applies chained renames in order, and
+   * removes the references to several deleted entries from the same group.
+   *
+   * @throws Exception If an unexpected result happens.
+   */
+  @Test
+  public void testReferentialModDNAndDeleteBackGround() throws Exception {
+    replaceAttrEntry(configDN, dsConfigAttrType,"member");
+    replaceAttrEntry(configDN, dsConfigUpdateInterval,"1 seconds");
+    addAttrEntry(DN.valueOf(tgroup), "member", tuser1, tuser2, tuser3);
+    //Rename an entry twice before the background thread wakes up.
+    doModDN(tuser1, tuser1_rdn, null);
+    doModDN(tuser1_rename, "uid=user.1", null);
+    deleteEntries(tuser2, tuser3);
+    //Wait two seconds and then check the group.
+    Thread.sleep(2000);
+    isAttributeValueEntry(tgroup, true, "member", tuser1);
+    isAttributeValueEntry(tgroup, false, "member", tuser1_rename, tuser2, tuser3);
+    replaceAttrEntry(configDN, dsConfigUpdateInterval,"0 seconds");
+  }
+
+  /**
+   * Test that background processing does not apply the rename of an entry to
+   * the name of an entry renamed just before in parallel with that rename.
+   *
+   * @throws Exception If an unexpected result happens.
+   */
+  @Test
+  public void testReferentialModDNToPreviousNameBackGround() throws Exception {
+    replaceAttrEntry(configDN, dsConfigAttrType,"member");
+    replaceAttrEntry(configDN, dsConfigUpdateInterval,"1 seconds");
+    addAttrEntry(DN.valueOf(tgroup), "member", tuser1, tuser2);
+    //Rename user.2 to the previous name of user.1 before the background
+    //thread wakes up.
+    doModDN(tuser1, tuser1_rdn, null);
+    doModDN(tuser2, "uid=user.1", null);
+    //Wait two seconds and then check the group.
+    Thread.sleep(2000);
+    isAttributeValueEntry(tgroup, true, "member", tuser1_rename, tuser1);
+    isAttributeValueEntry(tgroup, false, "member", tuser2);
+    replaceAttrEntry(configDN, dsConfigUpdateInterval,"0 seconds");
+  }
+
   /**
    * Test delete using multiple attribute types and public naming contexts.
    *
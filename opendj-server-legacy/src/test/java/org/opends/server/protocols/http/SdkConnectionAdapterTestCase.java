@@ -0,0 +1,298 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.http;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.ldap.requests.Requests.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.server.config.server.HTTPConnectionHandlerCfg;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.ClientContext;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.DisconnectReason;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** Tests the processing of the LDAP operations issued by HTTP requests. */
+@SuppressWarnings("javadoc")
+public class SdkConnectionAdapterTestCase extends DirectoryServerTestCase
+{
+  private static final String PEOPLE_DN = "ou=People,o=test";
+
+  /** The LDAP operations issued by an HTTP request while it is processed in a worker thread. */
+  private interface RequestProcessor
+  {
+    void process(HTTPClientConnection clientConnection, SdkConnectionAdapter connection) throws Exception;
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+    TestCaseUtils.addEntries(
+        "dn: " + PEOPLE_DN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: People",
+        "",
+        "dn: uid=user.0," + PEOPLE_DN,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user.0",
+        "cn: User 0",
+        "sn: 0",
+        "",
+        "dn: uid=user.1," + PEOPLE_DN,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user.1",
+        "cn: User 1",
+        "sn: 1",
+        "manager: uid=user.0," + PEOPLE_DN,
+        "",
+        "dn: uid=user.2," + PEOPLE_DN,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: user.2",
+        "cn: User 2",
+        "sn: 2",
+        "manager: uid=user.0," + PEOPLE_DN);
+  }
+
+  /** Records the threads which processed a search, since they return the entries. */
+  private static final class RecordingHandler implements SearchResultHandler
+  {
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final List<SearchResultEntry> entries = new CopyOnWriteArrayList<>();
+
+    @Override
+    public boolean handleEntry(SearchResultEntry entry)
+    {
+      threads.add(Thread.currentThread());
+      entries.add(entry);
+      return true;
+    }
+
+    @Override
+    public boolean handleReference(SearchResultReference reference)
+    {
+      return true;
+    }
+  }
+
+  /**
+   * Reading the references of the entries returned by a search, like rest2ldap does, must not run a search nested in
+   * the search which is returning the entries.
+   */
+  @Test(timeOut = 60000)
+  public void testReferencesReadFromSearchResultHandlerAreNotNested() throws Exception
+  {
+    final RecordingHandler searchHandler = new RecordingHandler();
+    final RecordingHandler referenceHandler = new RecordingHandler();
+    final List<LdapPromise<Result>> references = new CopyOnWriteArrayList<>();
+
+    final Thread requestThread = processRequest(new RequestProcessor()
+    {
+      @Override
+      public void process(HTTPClientConnection clientConnection, final SdkConnectionAdapter connection)
+          throws Exception
+      {
+        final LdapPromise<Result> search = connection.searchAsync(
+            newSearchRequest(PEOPLE_DN, SearchScope.SINGLE_LEVEL, "(manager=*)"), null, new SearchResultHandler()
+            {
+              @Override
+              public boolean handleEntry(SearchResultEntry entry)
+              {
+                searchHandler.handleEntry(entry);
+                final String managerDN = entry.parseAttribute("manager").asString();
+                references.add(connection.searchAsync(
+                    newSearchRequest(managerDN, SearchScope.BASE_OBJECT, "(objectClass=*)"), null, referenceHandler));
+                return true;
+              }
+
+              @Override
+              public boolean handleReference(SearchResultReference reference)
+              {
+                return true;
+              }
+            });
+        // The first operation of the request is processed in the worker thread processing the request
+        assertThat(search.isDone()).isTrue();
+        assertThat(search.getOrThrow().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+      }
+    });
+
+    assertThat(searchHandler.threads).hasSize(2).containsOnly(requestThread);
+    assertThat(references).hasSize(2);
+    for (LdapPromise<Result> reference : references)
+    {
+      assertThat(reference.getOrThrow().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+    }
+    // The references were read by other worker threads once enqueued, not nested in the search
+    assertThat(referenceHandler.entries).hasSize(2);
+    assertThat(referenceHandler.threads).doesNotContain(requestThread);
+  }
+
+  @Test(timeOut = 60000)
+  public void testOnlyFirstOperationOfRequestIsProcessedInWorkerThread() throws Exception
+  {
+    final List<RecordingHandler> handlers = new ArrayList<>();
+    final Thread requestThread = processRequest(new RequestProcessor()
+    {
+      @Override
+      public void process(HTTPClientConnection clientConnection, SdkConnectionAdapter connection) throws Exception
+      {
+        for (int i = 0; i < 3; i++)
+        {
+          final RecordingHandler handler = new RecordingHandler();
+          handlers.add(handler);
+          final LdapPromise<Result> promise = connection.searchAsync(
+              newSearchRequest("uid=user." + i + "," + PEOPLE_DN, SearchScope.BASE_OBJECT, "(uid=*)"), null, handler);
+          assertThat(promise.getOrThrow().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        }
+      }
+    });
+
+    assertThat(handlers.get(0).threads).containsExactly(requestThread);
+    for (RecordingHandler handler : handlers.subList(1, handlers.size()))
+    {
+      assertThat(handler.threads).hasSize(1).doesNotContain(requestThread);
+    }
+  }
+
+  /** The operations of a request whose connection is closed must fail rather than leave the request hanging. */
+  @Test(timeOut = 60000)
+  public void testOperationsFailWhenConnectionIsClosed() throws Exception
+  {
+    final List<LdapPromise<Result>> promises = new ArrayList<>();
+    processRequest(new RequestProcessor()
+    {
+      @Override
+      public void process(HTTPClientConnection clientConnection, SdkConnectionAdapter connection) throws Exception
+      {
+        clientConnection.disconnect(DisconnectReason.CLIENT_DISCONNECT, false, null);
+        assertThat(connection.isValid()).isFalse();
+        for (int i = 0; i < 2; i++)
+        {
+          promises.add(connection.searchAsync(
+              newSearchRequest(PEOPLE_DN, SearchScope.BASE_OBJECT, "(objectClass=*)"), null, new RecordingHandler()));
+        }
+      }
+    });
+
+    assertThat(promises).hasSize(2);
+    for (LdapPromise<Result> promise : promises)
+    {
+      assertFailed(promise);
+    }
+  }
+
+  private static void assertFailed(LdapPromise<?> promise) throws Exception
+  {
+    try
+    {
+      promise.getOrThrow();
+      fail("Expected an LdapException");
+    }
+    catch (LdapException expected)
+    {
+      // Expected
+    }
+  }
+
+  /**
+   * Processes an HTTP request in a worker thread, like {@link HTTPConnectionHandler} does.
+   *
+   * @return The worker thread which processed the request
+   */
+  private Thread processRequest(final RequestProcessor processor) throws Exception
+  {
+    final Request request = new Request();
+    request.setMethod("GET");
+    request.setUri("http://localhost:8080/api/users/");
+    final Context context = new HttpLogContext(
+        ClientContext.buildExternalClientContext(new AttributesContext(new RootContext()))
+            .remoteAddress("127.0.0.1")
+            .remotePort(12345)
+            .secure(false)
+            .build(),
+        DirectoryServer.getInstance().getServerContext(), request);
+
+    final HTTPConnectionHandler connectionHandler = mock(HTTPConnectionHandler.class);
+    when(connectionHandler.getCurrentConfig()).thenReturn(mock(HTTPConnectionHandlerCfg.class));
+    final HTTPClientConnection clientConnection = new HTTPClientConnection(
+        DirectoryServer.getInstance().getServerContext(), connectionHandler, context, request);
+    final SdkConnectionAdapter connection = new SdkConnectionAdapter(clientConnection);
+
+    final List<Thread> requestThread = new CopyOnWriteArrayList<>();
+    final List<Exception> errors = new CopyOnWriteArrayList<>();
+    final Response response = new HTTPConnectionHandler.ExecuteInWorkerThreadFilter().filter(context, request,
+        new Handler()
+        {
+          @Override
+          public Promise<Response, NeverThrowsException> handle(Context context, Request request)
+          {
+            requestThread.add(Thread.currentThread());
+            try
+            {
+              processor.process(clientConnection, connection);
+            }
+            catch (Exception | AssertionError e)
+            {
+              errors.add(e instanceof Exception ? (Exception) e : new Exception(e));
+            }
+            return Promises.newResultPromise(new Response(Status.OK));
+          }
+        }).get();
+    if (!errors.isEmpty())
+    {
+      throw errors.get(0);
+    }
+    assertThat(response.getStatus()).isEqualTo(Status.OK);
+    return requestThread.get(0);
+  }
+}
@@ -306,6 +306,12 @@ public class DomainFakeCfg implements ReplicationDomainCfg
     return true;
   }
 
+  @Override
+  public boolean isSessionCompression()
+  {
+    return false;
+  }
+
   /**
    * Gets the "conflicts-historical-purge-delay" property.
    * <p>
@@ -320,6 +326,12 @@ public class DomainFakeCfg implements ReplicationDomainCfg
     return 1440;
   }
 
+  @Override
+  public long getConflictsHistoricalPurgeInterval()
+  {
+    return 0;
+  }
+
   @Override
   public String toString()
   {
@@ -16,18 +16,21 @@
  */
 package org.opends.server.replication.plugin;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 
 import org.assertj.core.api.Assertions;
 import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ModificationType;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.TestCaseUtils;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.protocols.internal.InternalClientConnection;
+import org.opends.server.protocols.internal.InternalSearchOperation;
 import org.opends.server.replication.ReplicationTestCase;
 import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.protocol.AddMsg;
@@ -41,6 +44,7 @@ import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Modification;
 import org.opends.server.types.Operation;
+import org.opends.server.util.TimeThread;
 import org.opends.server.util.TestTimer;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -51,6 +55,7 @@ import static org.forgerock.opendj.ldap.ResultCode.*;
 import static org.forgerock.opendj.ldap.SearchScope.*;
 import static org.forgerock.opendj.ldap.schema.CoreSchema.*;
 import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.protocols.internal.Requests.*;
 import static org.opends.server.util.CollectionUtils.*;
 import static org.testng.Assert.*;
 
@@ -526,6 +531,131 @@ public class HistoricalTest extends ReplicationTestCase
     waitForSearchResult(TEST_ROOT_DN_STRING, WHOLE_SUBTREE, "(ds-sync-hist=*)", SUCCESS, expectedNumberOfEntries);
   }
 
+  /**
+   * Tests that only the historical values older than the purge delay are
+   * selected for deletion, as stored in the entry.
+   */
+  @Test
+  public void testGetPurgeableHistoricalValues() throws Exception
+  {
+    final long now = TimeThread.getTime();
+    final String oldValue = "description:" + new CSN(now - 2000, 1, 1) + ":repl:old description";
+    final String newValue = "description:" + new CSN(now, 2, 1) + ":repl:new description";
+    final Entry entry = TestCaseUtils.makeEntry(
+        "dn: uid=user.1," + TEST_ROOT_DN_STRING,
+        "objectClass: top",
+        "objectClass: person",
+        "uid: user.1",
+        "cn: User 1",
+        "sn: 1",
+        "ds-sync-hist: " + oldValue,
+        "ds-sync-hist: " + newValue);
+
+    List<Attribute> purgeable = EntryHistorical.getPurgeableHistoricalValues(entry, now - 1000);
+    assertEquals(purgeable.size(), 1);
+    Assertions.assertThat(purgeable.get(0)).containsOnly(ByteString.valueOfUtf8(oldValue));
+
+    assertTrue(EntryHistorical.getPurgeableHistoricalValues(entry, now - 5000).isEmpty());
+  }
+
+  /**
+   * Tests that the historical information is purged in the background once
+   * the background purge is enabled, and only from the entries which were not
+   * modified within the purge delay.
+   */
+  @Test
+  public void testBackgroundPurge() throws Exception
+  {
+    setPurgeConfig("conflicts-historical-purge-delay:1m", "conflicts-historical-purge-interval:0s");
+    final String parentDN = "ou=purge," + TEST_ROOT_DN_STRING;
+    final int entryCount = 10;
+    try
+    {
+      // Replay adds made before the purge delay rather than waiting for it to elapse.
+      // Their server id is higher than the local one, so they are not skipped by the
+      // purge resuming from the last purged CSN.
+      final long oldTime = TimeThread.getTime() - 2 * 60 * 1000;
+      final String parentUUID = replayAdd(new CSN(oldTime, 0, 10),
+          LDAPReplicationDomain.findEntryUUID(DN.valueOf(TEST_ROOT_DN_STRING)),
+          "dn: " + parentDN,
+          "objectClass: top",
+          "objectClass: organizationalUnit",
+          "ou: purge");
+      for (int i = 0; i < entryCount; i++)
+      {
+        replayAdd(new CSN(oldTime, i + 1, 10), parentUUID,
+            "dn: uid=user" + i + "," + parentDN,
+            "objectClass: top",
+            "objectClass: person",
+            "uid: user" + i,
+            "cn: User " + i,
+            "sn: " + i);
+      }
+
+      // Nothing is purged while disabled
+      InternalSearchOperation searchOp = connection.processSearch(
+          newSearchRequest(parentDN, WHOLE_SUBTREE, "(ds-sync-hist=*)"));
+      assertEquals(searchOp.getSearchEntries().size(), entryCount + 1);
+
+      // This modification is more recent than the purge delay, its historical must be kept
+      DN dn = DN.valueOf("uid=user0," + parentDN);
+      List<Modification> mods = newArrayList(
+          new Modification(ModificationType.REPLACE, Attributes.create("description", "recent description")));
+      assertEquals(connection.processModify(dn, mods).getResultCode(), SUCCESS);
+
+      setPurgeConfig("conflicts-historical-purge-interval:1s");
+      searchOp = waitForSearchResult(parentDN, WHOLE_SUBTREE, "(ds-sync-hist=*)", SUCCESS, 1);
+      assertEquals(searchOp.getSearchEntries().get(0).getName(), dn);
+    }
+    finally
+    {
+      TestCaseUtils.dsconfig(
+          "set-replication-domain-prop",
+          "--provider-name", "Multimaster Synchronization",
+          "--domain-name", testName,
+          "--reset", "conflicts-historical-purge-interval");
+      for (int i = 0; i < entryCount; i++)
+      {
+        deleteEntry(DN.valueOf("uid=user" + i + "," + parentDN));
+      }
+      deleteEntry(DN.valueOf(parentDN));
+    }
+  }
+
+  /**
+   * Replays the add of an entry received from another replica, so that its
+   * historical information is stored with the provided CSN.
+   *
+   * @return the entryUUID of the added entry
+   */
+  private String replayAdd(CSN csn, String parentUUID, String... ldifLines) throws Exception
+  {
+    Entry entry = TestCaseUtils.makeEntry(ldifLines);
+    String entryUUID = UUID.randomUUID().toString();
+    AddMsg msg = new AddMsg(csn, entry.getName(), entryUUID, parentUUID,
+        entry.getObjectClassAttribute(), entry.getAttributes(), new ArrayList<Attribute>());
+    Operation op = msg.createOperation(connection);
+    op.setInternalOperation(true);
+    op.setSynchronizationOperation(true);
+    op.run();
+    assertEquals(op.getResultCode(), SUCCESS);
+    return entryUUID;
+  }
+
+  private void setPurgeConfig(String... properties) throws Exception
+  {
+    List<String> args = newArrayList(
+        "set-replication-domain-prop",
+        "--provider-name", "Multimaster Synchronization",
+        "--domain-name", testName);
+    for (String property : properties)
+    {
+      args.add("--set");
+      args.add(property);
+    }
+    TestCaseUtils.dsconfig(args.toArray(new String[args.size()]));
+  }
+
   /**
    * Add a provided number of generated entries containing historical.
    * @param dnSuffix A suffix to be added to the dn
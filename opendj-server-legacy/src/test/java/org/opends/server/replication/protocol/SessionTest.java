@@ -0,0 +1,161 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.protocol;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.util.StaticUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests the transport of replication messages by {@link Session}. */
+@SuppressWarnings("javadoc")
+public class SessionTest extends DirectoryServerTestCase
+{
+  private ServerSocket serverSocket;
+  private final List<Session> sessions = new ArrayList<>();
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    // Close the peers first, which unblocks the senders of the stalled sessions
+    for (int i = sessions.size() - 1; i >= 0; i--)
+    {
+      sessions.get(i).close();
+    }
+    sessions.clear();
+    StaticUtils.close(serverSocket);
+  }
+
+  /** Returns the two ends of a new unencrypted session. */
+  private Session[] newSessionPair() throws Exception
+  {
+    final Socket clientSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    final Socket acceptedSocket = serverSocket.accept();
+    return new Session[] { newSession(clientSocket), newSession(acceptedSocket) };
+  }
+
+  private Session newSession(Socket socket) throws Exception
+  {
+    // The handshake only happens on the first read or write, and never does once encryption is stopped
+    final SSLSocket secureSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(
+        socket, socket.getInetAddress().getHostName(), socket.getPort(), false);
+    final Session session = new Session(socket, secureSocket);
+    session.stopEncryption();
+    sessions.add(session);
+    return session;
+  }
+
+  private static EntryMsg newEntryMsg(int msgId, int size)
+  {
+    final byte[] entryBytes = new byte[size];
+    entryBytes[size - 1] = (byte) msgId;
+    return new EntryMsg(1, 2, entryBytes, msgId);
+  }
+
+  /** A peer which stops reading must not prevent the other sessions from sending their messages. */
+  @Test(timeOut = 60000)
+  public void testStalledPeerDoesNotBlockOtherSessions() throws Exception
+  {
+    final int nbStalledSessions = 2 * Runtime.getRuntime().availableProcessors() + 8;
+    for (int i = 0; i < nbStalledSessions; i++)
+    {
+      final Session stalledSession = newSessionPair()[0];
+      stalledSession.start();
+      // Fill the socket buffers: the peer never reads, so the sender ends up blocked on write
+      for (int j = 0; j < 100; j++)
+      {
+        stalledSession.publish(newEntryMsg(j, 64 * 1024));
+      }
+    }
+
+    final Session[] healthySessions = newSessionPair();
+    healthySessions[0].start();
+    for (int i = 0; i < 10; i++)
+    {
+      healthySessions[0].publish(newEntryMsg(i, 1024));
+    }
+    for (int i = 0; i < 10; i++)
+    {
+      final ReplicationMsg msg = healthySessions[1].receive();
+      assertThat(msg).isInstanceOf(EntryMsg.class);
+      assertThat(((EntryMsg) msg).getMsgId()).isEqualTo(i);
+    }
+  }
+
+  @Test(timeOut = 60000)
+  public void testCompressedSession() throws Exception
+  {
+    final Session[] sessions = newSessionPair();
+    for (Session session : sessions)
+    {
+      session.startCompression();
+      session.start();
+      assertThat(session.isCompressed()).isTrue();
+    }
+
+    // Both directions, with messages large enough to span several compressed blocks
+    for (int i = 0; i < 20; i++)
+    {
+      sessions[0].publish(newEntryMsg(i, 100 * 1024));
+      sessions[1].publish(newEntryMsg(i, 10));
+    }
+    for (int i = 0; i < 20; i++)
+    {
+      assertEntryMsg(sessions[1].receive(), i, 100 * 1024);
+      assertEntryMsg(sessions[0].receive(), i, 10);
+    }
+
+    // The released inflater and deflater must not be used once closed
+    sessions[1].close();
+    try
+    {
+      sessions[1].receive();
+      fail("Expected an IOException");
+    }
+    catch (IOException expected)
+    {
+      // Expected
+    }
+  }
+
+  private static void assertEntryMsg(ReplicationMsg msg, int msgId, int size)
+  {
+    assertThat(msg).isInstanceOf(EntryMsg.class);
+    final EntryMsg entryMsg = (EntryMsg) msg;
+    assertThat(entryMsg.getMsgId()).isEqualTo(msgId);
+    assertThat(entryMsg.getEntryBytes()).hasSize(size);
+    assertThat(entryMsg.getEntryBytes()[size - 1]).isEqualTo((byte) msgId);
+  }
+}
@@ -922,6 +922,27 @@ public class SynchronizationMsgTest extends ReplicationTestCase
     Assertions.assertThat(attrs).isEqualTo(newMsg.getEclIncludesForDeletes());
   }
 
+  /**
+   * Test the compression request of StartSessionMsg is only sent from V9.
+   */
+  @Test
+  public void startSessionMsgCompressionTest() throws Exception
+  {
+    StartSessionMsg msg = new StartSessionMsg(ServerStatus.NORMAL_STATUS,
+        new ArrayList<String>(), false, SAFE_DATA_MODE, (byte) 1);
+    assertFalse(msg.isCompressionRequested());
+    msg.setCompressionRequested(true);
+
+    StartSessionMsg v9Msg = new StartSessionMsg(
+        msg.getBytes(REPLICATION_PROTOCOL_V9), REPLICATION_PROTOCOL_V9);
+    assertTrue(v9Msg.isCompressionRequested());
+    assertEquals(v9Msg.getStatus(), ServerStatus.NORMAL_STATUS);
+
+    StartSessionMsg v8Msg = new StartSessionMsg(
+        msg.getBytes(REPLICATION_PROTOCOL_V8), REPLICATION_PROTOCOL_V8);
+    assertFalse(v8Msg.isCompressionRequested());
+  }
+
   /**
    * Provider for the ChangeStatusMsg test.
    */
@@ -0,0 +1,178 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MappedFileReaderTestCase extends UtilTestCase
+{
+  @DataProvider
+  public Object[][] contents()
+  {
+    final String[] contents = {
+      "",
+      "a",
+      "a\n",
+      "\n\n",
+      "dn: cn=test\nobjectClass: top\n\ndn: cn=test2\n",
+      "line1\r\nline2\rline3\r\n\r\nline5\r",
+      "caf\u00E9 \u20AC \u65E5\u672C\u8A9E\n\uD834\uDD1E clef\n",
+    };
+    final int[] regionSizes = { 1, 2, 3, 7, 1024 };
+
+    final List<Object[]> data = new ArrayList<>();
+    for (String content : contents)
+    {
+      for (int regionSize : regionSizes)
+      {
+        data.add(new Object[] { content, regionSize });
+      }
+    }
+    return data.toArray(new Object[data.size()][]);
+  }
+
+  @Test(dataProvider = "contents")
+  public void testReadLine(String content, int regionSize) throws Exception
+  {
+    final File file = createFile(content);
+    try (MappedFileReader reader = new MappedFileReader(file, regionSize))
+    {
+      final List<String> lines = new ArrayList<>();
+      final StringBuilder line = new StringBuilder();
+      while (reader.readLine(line))
+      {
+        lines.add(line.toString());
+        line.setLength(0);
+      }
+      assertThat(lines).isEqualTo(readLines(content));
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test(dataProvider = "contents")
+  public void testRead(String content, int regionSize) throws Exception
+  {
+    final File file = createFile(content);
+    try (MappedFileReader reader = new MappedFileReader(file, regionSize))
+    {
+      final StringBuilder read = new StringBuilder();
+      final char[] buffer = new char[1];
+      int count;
+      while ((count = reader.read(buffer, 0, buffer.length)) != -1)
+      {
+        read.append(buffer, 0, count);
+      }
+      assertThat(read.toString()).isEqualTo(content);
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testSkipByteOrderMark() throws Exception
+  {
+    final File file = createFile("\uFEFFdn: cn=test\n");
+    try (MappedFileReader reader = new MappedFileReader(file))
+    {
+      final StringBuilder line = new StringBuilder();
+      assertThat(reader.readLine(line)).isTrue();
+      assertThat(line.toString()).isEqualTo("dn: cn=test");
+      assertThat(reader.readLine(line)).isFalse();
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testMalformedSequence() throws Exception
+  {
+    final File file = File.createTempFile("mapped", ".txt");
+    try (OutputStream out = new FileOutputStream(file))
+    {
+      out.write(new byte[] { 'a', (byte) 0xC3, 'b', (byte) 0xFF, '\n' });
+    }
+    try (MappedFileReader reader = new MappedFileReader(file))
+    {
+      final StringBuilder line = new StringBuilder();
+      assertThat(reader.readLine(line)).isTrue();
+      assertThat(line.toString()).isEqualTo("a\uFFFDb\uFFFD");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testReadAfterClose() throws Exception
+  {
+    final File file = createFile("a\n");
+    try
+    {
+      final MappedFileReader reader = new MappedFileReader(file);
+      reader.close();
+      reader.readLine(new StringBuilder());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  private File createFile(String content) throws IOException
+  {
+    final File file = File.createTempFile("mapped", ".txt");
+    try (OutputStream out = new FileOutputStream(file))
+    {
+      out.write(content.getBytes("UTF-8"));
+    }
+    return file;
+  }
+
+  private List<String> readLines(String content) throws IOException
+  {
+    final List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(content)))
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+}
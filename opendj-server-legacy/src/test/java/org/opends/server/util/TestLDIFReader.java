@@ -325,6 +325,50 @@ public final class TestLDIFReader extends UtilTestCase {
     }
   }
 
+  /**
+   * Attempt to read entries from a file, which is memory mapped, using
+   * different line terminators, folded lines and non ASCII values.
+   *
+   * @throws Exception
+   *           If the test failed unexpectedly.
+   */
+  @Test(dependsOnMethods = { "testReadEntrySingle" })
+  public void testReadEntryFromFile() throws Exception {
+    final String ldifString = "\uFEFFdn: cn=john, dc=foo, dc=com\r\n"
+        + "objectClass: top\r\n" + "objectClass: person\r\n" + "cn: john\r\n"
+        + "sn: sm\u00EFth\r\n" + "description: once upon a time\r\n"
+        + "  in the west\r\n"
+        + "\r\n"
+        + "# comment\n"
+        + "dn: cn=jane, dc=foo, dc=com\n"
+        + "objectClass: top\n" + "objectClass: person\n" + "cn: jane\n"
+        + "sn:: c23Dr3Ro\n";
+
+    File ldifFile = File.createTempFile("mapped", ".ldif");
+    try (OutputStream out = new FileOutputStream(ldifFile)) {
+      out.write(ldifString.getBytes("UTF-8"));
+    }
+    try (LDIFReader reader = new LDIFReader(new LDIFImportConfig(ldifFile.getPath()))) {
+      Entry entry = reader.readEntry();
+      Assert.assertNotNull(entry);
+      Assert.assertEquals(entry.getName(), DN.valueOf("cn=john, dc=foo, dc=com"));
+      Assert.assertTrue(entry.hasValue(getSNAttributeType(), ByteString.valueOfUtf8("sm\u00EFth")));
+      Assert.assertTrue(entry.hasValue(getDescriptionAttributeType(),
+                                       ByteString.valueOfUtf8("once upon a time in the west")));
+
+      entry = reader.readEntry();
+      Assert.assertNotNull(entry);
+      Assert.assertEquals(entry.getName(), DN.valueOf("cn=jane, dc=foo, dc=com"));
+      Assert.assertTrue(entry.hasValue(getSNAttributeType(), ByteString.valueOfUtf8("sm\u00EFth")));
+
+      Assert.assertNull(reader.readEntry());
+      Assert.assertEquals(reader.getEntriesRead(), 2);
+      Assert.assertEquals(reader.getLastEntryLineNumber(), 10);
+    } finally {
+      ldifFile.delete();
+    }
+  }
+
   /**
    * Attempt to read multiple entries.
    *